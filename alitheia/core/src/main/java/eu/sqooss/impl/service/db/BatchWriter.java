@@ -0,0 +1,426 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.EntityMode;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.id.IdentityGenerator;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+
+import eu.sqooss.service.db.DAObject;
+import eu.sqooss.service.logging.Logger;
+
+/**
+ * Writes a list of new DAOs of a single class with batched JDBC 
+ * statements, bypassing the session. Column mappings come from the 
+ * Hibernate persister of the class, so only plain properties and 
+ * many-to-one associations are written; collections are ignored.
+ * 
+ * In upsert mode the associations form the key: rows whose key already
+ * exists have their other columns updated, the rest are inserted. The
+ * table should have a unique index on the key, see createUniqueKey(). 
+ * MySQL and Postgres use it through their upsert statements; on other
+ * databases, or without the index, the rows are updated first and the 
+ * rest inserted.
+ */
+class BatchWriter implements Work {
+
+    /** Binds the columns of a record to a statement, from index 1 */
+    interface Binder {
+        void bind(PreparedStatement ps, DAObject r) throws SQLException;
+    }
+
+    private final SessionImplementor session;
+    private final AbstractEntityPersister persister;
+    private final List<? extends DAObject> records;
+    private final boolean upsert;
+    /* Whether the table has the unique index on the key */
+    private final boolean keyed;
+    private final int batchSize;
+
+    /* Insertable single-row properties, split into association (key)
+     * and plain (value) properties */
+    private final List<Integer> keys = new ArrayList<Integer>();
+    private final List<Integer> values = new ArrayList<Integer>();
+    private final Type[] types;
+    /* Whether ids are assigned by the database on insert */
+    private final boolean identity;
+
+    private final Binder insertBinder = new Binder() {
+        public void bind(PreparedStatement ps, DAObject r) throws SQLException {
+            int idx = 1;
+            if (!identity) {
+                Serializable id = 
+                    persister.getIdentifierGenerator().generate(session, r);
+                // Upserted records may end up updating another row
+                if (!upsert)
+                    persister.setIdentifier(r, id, EntityMode.POJO);
+                persister.getIdentifierType().nullSafeSet(ps, id, idx, session);
+                idx += persister.getIdentifierColumnNames().length;
+            }
+            Object[] state = persister.getPropertyValues(r, EntityMode.POJO);
+            bindProperties(ps, state, values, 
+                    bindProperties(ps, state, keys, idx));
+        }
+    };
+
+    private final Binder updateBinder = new Binder() {
+        public void bind(PreparedStatement ps, DAObject r) throws SQLException {
+            Object[] state = persister.getPropertyValues(r, EntityMode.POJO);
+            bindProperties(ps, state, keys, 
+                    bindProperties(ps, state, values, 1));
+        }
+    };
+
+    BatchWriter(SessionImplementor session, AbstractEntityPersister persister,
+            List<? extends DAObject> records, boolean upsert, boolean keyed,
+            int batchSize) {
+        this.session = session;
+        this.persister = persister;
+        this.records = records;
+        this.upsert = upsert;
+        this.keyed = keyed;
+        this.batchSize = batchSize;
+        this.types = persister.getPropertyTypes();
+        this.identity = 
+            persister.getIdentifierGenerator() instanceof IdentityGenerator;
+        splitProperties(persister, session.getFactory(), keys, values);
+    }
+
+    /** Whether the class has both key and value columns to upsert on */
+    boolean canUpsert() {
+        return !keys.isEmpty() && !values.isEmpty();
+    }
+
+    public void execute(Connection c) throws SQLException {
+        Dialect dialect = session.getFactory().getDialect();
+        if (!upsert)
+            insert(c, insertSQL(""), insertBinder, records, batchSize);
+        else if (keyed && (dialect instanceof MySQLDialect 
+                || dialect instanceof PostgreSQLDialect))
+            insert(c, insertSQL(onConflict(dialect)), insertBinder, 
+                    records, batchSize);
+        else
+            upsert(c, updateSQL(), updateBinder, insertSQL(""), insertBinder,
+                    records, batchSize);
+    }
+
+    /**
+     * Update the rows matching the records' keys, then insert the records
+     * that had no matching row. If another writer inserts one of the keys
+     * in between, the unique key fails the insert; the records of the
+     * failed batch are then stored one by one.
+     */
+    static void upsert(Connection c, String updateSQL, Binder update, 
+            String insertSQL, Binder insert, List<? extends DAObject> records,
+            int batchSize) throws SQLException {
+        List<DAObject> missing = new ArrayList<DAObject>();
+        for (int i = 0; i < records.size(); i += batchSize)
+            missing.addAll(update(c, updateSQL, update, 
+                    records.subList(i, Math.min(i + batchSize, records.size()))));
+        try {
+            insert(c, insertSQL, insert, missing, batchSize);
+        } catch (SQLException e) {
+            if (!isDuplicateKey(e))
+                throw e;
+            for (DAObject r : missing) {
+                List<DAObject> one = Collections.singletonList(r);
+                if (!update(c, updateSQL, update, one).isEmpty())
+                    insert(c, insertSQL, insert, one, 1);
+            }
+        }
+    }
+
+    /**
+     * Run the update for each record, return the records that matched 
+     * no row.
+     */
+    static List<DAObject> update(Connection c, String sql, Binder b,
+            List<? extends DAObject> chunk) throws SQLException {
+        List<DAObject> missing = new ArrayList<DAObject>();
+        PreparedStatement ps = c.prepareStatement(sql);
+        try {
+            for (DAObject r : chunk) {
+                b.bind(ps, r);
+                ps.addBatch();
+            }
+            int[] counts = ps.executeBatch();
+            for (int i = 0; i < chunk.size(); i++) {
+                int count = counts[i];
+                if (count == Statement.SUCCESS_NO_INFO) {
+                    // The driver won't tell, redo this one on its own
+                    b.bind(ps, chunk.get(i));
+                    count = ps.executeUpdate();
+                }
+                if (count == 0)
+                    missing.add(chunk.get(i));
+            }
+        } finally {
+            ps.close();
+        }
+        return missing;
+    }
+
+    static void insert(Connection c, String sql, Binder b,
+            List<? extends DAObject> rows, int batchSize) throws SQLException {
+        if (rows.isEmpty())
+            return;
+        PreparedStatement ps = c.prepareStatement(sql);
+        try {
+            int n = 0;
+            for (DAObject r : rows) {
+                b.bind(ps, r);
+                ps.addBatch();
+                if (++n % batchSize == 0)
+                    ps.executeBatch();
+            }
+            if (n % batchSize != 0)
+                ps.executeBatch();
+        } finally {
+            ps.close();
+        }
+    }
+
+    /** Integrity constraint violation, SQL state class 23 */
+    static boolean isDuplicateKey(SQLException e) {
+        for (; e != null; e = e.getNextException()) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create the unique index on the upsert key of a class's table, named
+     * UK_&lt;table&gt;, if it does not exist yet. If the table has rows 
+     * with duplicate keys, the index is not created unless dedup is set;
+     * the duplicates are then deleted, keeping the most recent row.
+     * 
+     * @return true if the index exists
+     */
+    static boolean createUniqueKey(Connection c, SessionFactoryImplementor sf,
+            AbstractEntityPersister persister, boolean dedup, Logger logger) 
+        throws SQLException {
+        List<Integer> keys = new ArrayList<Integer>();
+        List<Integer> values = new ArrayList<Integer>();
+        splitProperties(persister, sf, keys, values);
+        if (keys.isEmpty() || values.isEmpty())
+            return false;
+
+        String table = persister.getTableName();
+        String name = "UK_" + table;
+        if (hasIndex(c, sf.getDialect(), table, name))
+            return true;
+
+        StringBuilder cols = new StringBuilder();
+        for (String col : columns(persister, keys))
+            cols.append(cols.length() > 0 ? ", " : "").append(col);
+        String id = persister.getIdentifierColumnNames()[0];
+        Statement st = c.createStatement();
+        try {
+            if (!dedup) {
+                ResultSet rs = st.executeQuery("select count(*) from ("
+                        + "select " + cols + " from " + table + " group by " 
+                        + cols + " having count(*) > 1) dups");
+                long dups = rs.next() ? rs.getLong(1) : 0;
+                rs.close();
+                if (dups > 0) {
+                    logger.warn(table + " has " + dups 
+                            + " keys with duplicate rows, not creating " + name);
+                    return false;
+                }
+            } else {
+                // The derived table keeps MySQL from refusing the subquery
+                int removed = st.executeUpdate("delete from " + table 
+                        + " where " + id + " not in (select " + id + " from ("
+                        + "select max(" + id + ") as " + id + " from " + table 
+                        + " group by " + cols + ") latest)");
+                if (removed > 0)
+                    logger.warn("Removed " + removed 
+                            + " rows with duplicate keys from " + table);
+            }
+            st.executeUpdate("create unique index " + name + " on " + table 
+                    + " (" + cols + ")");
+            logger.info("Created unique key " + name + " (" + cols + ")");
+        } finally {
+            st.close();
+        }
+        return true;
+    }
+
+    private static boolean hasIndex(Connection c, Dialect dialect, 
+            String table, String name) throws SQLException {
+        if (dialect instanceof PostgreSQLDialect) {
+            // The JDBC metadata does not cover indexes of partitioned tables
+            PreparedStatement ps = c.prepareStatement("select count(*) " +
+                    "from pg_class where relname = ? and pg_table_is_visible(oid)");
+            try {
+                ps.setString(1, name.toLowerCase());
+                ResultSet rs = ps.executeQuery();
+                return rs.next() && rs.getInt(1) > 0;
+            } finally {
+                ps.close();
+            }
+        }
+
+        DatabaseMetaData meta = c.getMetaData();
+        if (meta.storesLowerCaseIdentifiers())
+            table = table.toLowerCase();
+        else if (meta.storesUpperCaseIdentifiers())
+            table = table.toUpperCase();
+        ResultSet rs = meta.getIndexInfo(c.getCatalog(), null, table, true, true);
+        try {
+            while (rs.next()) {
+                if (name.equalsIgnoreCase(rs.getString("INDEX_NAME")))
+                    return true;
+            }
+        } finally {
+            rs.close();
+        }
+        return false;
+    }
+
+    private static void splitProperties(AbstractEntityPersister persister,
+            SessionFactoryImplementor sf, List<Integer> keys, 
+            List<Integer> values) {
+        Type[] types = persister.getPropertyTypes();
+        boolean[] insertable = persister.getPropertyInsertability();
+        for (int i = 0; i < types.length; i++) {
+            if (!insertable[i] || types[i].isCollectionType() 
+                    || types[i].getColumnSpan(sf) == 0)
+                continue;
+            if (types[i].isEntityType())
+                keys.add(i);
+            else
+                values.add(i);
+        }
+    }
+
+    private int bindProperties(PreparedStatement ps, Object[] state, 
+            List<Integer> props, int idx) throws SQLException {
+        for (int i : props) {
+            types[i].nullSafeSet(ps, state[i], idx, session);
+            idx += types[i].getColumnSpan(session.getFactory());
+        }
+        return idx;
+    }
+
+    private String insertSQL(String suffix) {
+        List<String> cols = new ArrayList<String>();
+        if (!identity) {
+            for (String col : persister.getIdentifierColumnNames())
+                cols.add(col);
+        }
+        cols.addAll(columns(persister, keys));
+        cols.addAll(columns(persister, values));
+
+        StringBuilder sql = new StringBuilder("insert into ");
+        sql.append(persister.getTableName()).append(" (");
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < cols.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+                params.append(", ");
+            }
+            sql.append(cols.get(i));
+            params.append("?");
+        }
+        return sql.append(") values (").append(params).append(")")
+            .append(suffix).toString();
+    }
+
+    /* Turns an insert into an upsert on the unique key */
+    private String onConflict(Dialect dialect) {
+        StringBuilder sql = new StringBuilder();
+        List<String> cols = columns(persister, values);
+        if (dialect instanceof MySQLDialect) {
+            sql.append(" on duplicate key update ");
+            for (int i = 0; i < cols.size(); i++)
+                sql.append(i > 0 ? ", " : "").append(cols.get(i))
+                    .append(" = values(").append(cols.get(i)).append(")");
+        } else {
+            sql.append(" on conflict (");
+            List<String> keyCols = columns(persister, keys);
+            for (int i = 0; i < keyCols.size(); i++)
+                sql.append(i > 0 ? ", " : "").append(keyCols.get(i));
+            sql.append(") do update set ");
+            for (int i = 0; i < cols.size(); i++)
+                sql.append(i > 0 ? ", " : "").append(cols.get(i))
+                    .append(" = excluded.").append(cols.get(i));
+        }
+        return sql.toString();
+    }
+
+    private String updateSQL() {
+        StringBuilder sql = new StringBuilder("update ");
+        sql.append(persister.getTableName()).append(" set ");
+        List<String> cols = columns(persister, values);
+        for (int i = 0; i < cols.size(); i++)
+            sql.append(i > 0 ? ", " : "").append(cols.get(i)).append(" = ?");
+        sql.append(" where ");
+        cols = columns(persister, keys);
+        for (int i = 0; i < cols.size(); i++)
+            sql.append(i > 0 ? " and " : "").append(cols.get(i)).append(" = ?");
+        return sql.toString();
+    }
+
+    private static List<String> columns(AbstractEntityPersister persister,
+            List<Integer> props) {
+        List<String> cols = new ArrayList<String>();
+        for (int i : props) {
+            for (String col : persister.getPropertyColumnNames(i))
+                cols.add(col);
+        }
+        return cols;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
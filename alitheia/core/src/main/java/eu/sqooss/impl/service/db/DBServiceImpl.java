@@ -46,13 +46,20 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.LockMode;
+import org.hibernate.MappingException;
 import org.hibernate.QueryException;
 import org.hibernate.JDBCException;
 import org.hibernate.Query;
@@ -60,11 +67,23 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.AnnotationConfiguration;
 import org.hibernate.cfg.Configuration;	
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.mapping.Table;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
 import org.osgi.framework.BundleContext;
 
 import eu.sqooss.core.AlitheiaCoreService;
+import eu.sqooss.service.db.ConnectionPoolStats;
 import eu.sqooss.service.db.DAObject;
 import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.MetricMeasurement;
+import eu.sqooss.service.db.ProjectFileMeasurement;
+import eu.sqooss.service.db.ProjectVersionMeasurement;
+import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.logging.Logger;
 import eu.sqooss.service.util.URIUtills;
 
@@ -110,7 +129,17 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     
     static {
         conPools.put("default", "org.hibernate.connection.DriverManagerConnectionProvider");
-        conPools.put("c3p0", "org.hibernate.connection.C3P0ConnectionProvider");
+        conPools.put("c3p0", MonitoredConnectionProvider.class.getName());
+    }
+
+    /** Cheap queries used by the pool to validate connections on checkout */
+    public static Map<String, String> testQueries = new HashMap<String, String>();
+    
+    static {
+        testQueries.put("mysql", "SELECT 1");
+        testQueries.put("hsqldb", "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        testQueries.put("postgres", "SELECT 1");
+        testQueries.put("h2", "SELECT 1");
     }
     
     private static final String DB = "eu.sqooss.db";
@@ -119,12 +148,36 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     private static final String DB_USERNAME = "eu.sqooss.db.user";
     private static final String DB_PASSWORD = "eu.sqooss.db.passwd";
     private static final String DB_CONPOOL = "eu.sqooss.db.conpool";
+    private static final String DB_REPLICA_HOST = "eu.sqooss.db.replica.host";
+    private static final String DB_REPLICA_SCHEMA = "eu.sqooss.db.replica.schema";
+    private static final String DB_PARTITION = "eu.sqooss.db.partition";
+    private static final String DB_DEDUP = "eu.sqooss.db.dedup";
+    /** Read by Hibernate's EhCacheProvider; a resource name or a URL */
+    private static final String CACHE_CONFIG = "net.sf.ehcache.configurationResourceName";
     
     private Logger logger = null;
     private SessionFactory sessionFactory = null;
+    /** Serves read-only sessions if a read replica is configured */
+    private SessionFactory replicaFactory = null;
+    /** Set while the thread's current session lives on the replica */
+    private ThreadLocal<Boolean> onReplica = new ThreadLocal<Boolean>();
+    /** Whether the pool resets the read-only flag of returned connections */
+    private boolean jdbcReadOnly = false;
+    /** Measurements stored through upsertMeasurements */
+    private static final Class<?>[] UPSERTED = 
+        {ProjectFileMeasurement.class, ProjectVersionMeasurement.class};
+    /** Classes whose table has the unique key upserts match rows on */
+    private Set<Class<?>> uniqueKeys = 
+        Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+    /** Per-project measurement partitions, null if not enabled */
+    private MeasurementPartitions partitions = null;
     private BundleContext bc = null;
     private AtomicBoolean isInitialised = new AtomicBoolean(false);
     private Properties conProp = new Properties();
+
+    /** DAO classes with a second-level cache region, see isCached() */
+    private Map<Class<?>, Boolean> cachedClasses = 
+        new ConcurrentHashMap<Class<?>, Boolean>();
     
     private void logSQLException(SQLException e) {
 
@@ -146,7 +199,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         e.printStackTrace();
         Session s = null;
         try {
-            s = sessionFactory.getCurrentSession();
+            s = factory().getCurrentSession();
             s.getTransaction().rollback();
         } catch (HibernateException e1) {
             logger.error("Error while rolling back failed transaction :" + e1.getMessage());
@@ -155,6 +208,8 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
                     s.close();
                 } catch ( HibernateException e2) {}
             }
+        } finally {
+            onReplica.remove();
         }
         
     }
@@ -210,19 +265,23 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         }
     }
 
-    private boolean initHibernate(URL configFileURL) {
+    private SessionFactory initHibernate(URL configFileURL, Properties props) {
+        return buildSessionFactory(configureHibernate(configFileURL, props));
+    }
+
+    private Configuration configureHibernate(URL configFileURL, Properties props) {
         
         logger.info("Initializing Hibernate with URL <" + configFileURL + ">");
         if (configFileURL == null) {
             logger.warn("Ignoring null URL.");
-            return false;
+            return null;
         }
         try {
             Configuration c = new AnnotationConfiguration().configure(configFileURL); 
             // c now holds the configuration from hibernate.cfg.xml, need
             // to override some of those properties.            
-            for(Object s : conProp.keySet()) {
-                c.setProperty(s.toString(), conProp.getProperty(s.toString()));
+            for(Object s : props.keySet()) {
+                c.setProperty(s.toString(), props.getProperty(s.toString()));
             }
             
 			// Get the list of eu.sqo-oss.metrics.* jars and add them to the
@@ -271,15 +330,39 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
                     }
                 } 
             }
-            sessionFactory = c.buildSessionFactory();
-            
-            if (sessionFactory == null)
-                return false;
+            return c;
         } catch (Throwable e) {
             logger.error("Failed to initialize Hibernate: " + e.getMessage());
             e.printStackTrace();
-            return false;
+            return null;
+        }
+    }
+
+    private SessionFactory buildSessionFactory(Configuration c) {
+        if (c == null)
+            return null;
+        try {
+            return c.buildSessionFactory();
+        } catch (Throwable e) {
+            logger.error("Failed to initialize Hibernate: " + e.getMessage());
+            e.printStackTrace();
+            return null;
         }
+    }
+
+    /*
+     * The factory serving the current thread's session.
+     */
+    private SessionFactory factory() {
+        if (replicaFactory != null && onReplica.get() != null)
+            return replicaFactory;
+        return sessionFactory;
+    }
+
+    private boolean isReadOnlySession(String method) {
+        if (!factory().getCurrentSession().isDefaultReadOnly())
+            return false;
+        logger.warn(method + "() called in a read-only session");
         return true;
     }
     
@@ -288,7 +371,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     public DBServiceImpl(Properties p, URL configFileURL, Logger l) { 
         this.conProp = p;
         this.logger = l;
-        initHibernate(configFileURL);
+        sessionFactory = initHibernate(configFileURL, conProp);
         isInitialised.compareAndSet(false, true);
         instance = this;
     }
@@ -313,7 +396,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
             return null;
         
         try {
-            Session s = sessionFactory.getCurrentSession();
+            Session s = factory().getCurrentSession();
             return (T) (useLock ? s.get(daoClass, id, LockMode.UPGRADE) : s.get(daoClass, id));
         } catch (HibernateException e) {
             logExceptionAndTerminateSession(e);
@@ -346,7 +429,8 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         }
         try {
             // We use "foo" as the name of the object
-            return (List<T>) doHQL( "from " + daoClass.getName() + " as foo " + whereClause, parameterMap, useLock );
+            return (List<T>) doHQL( "from " + daoClass.getName() + " as foo " + whereClause, parameterMap, 
+                    null, useLock, -1, -1, !useLock && isCached(daoClass));
         } catch (QueryException e) {
             logger.warn("findObjectsByProperties(): invalid properties map. Restarting session...");
             // Automatically restart a session
@@ -371,7 +455,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         throws SQLException, QueryException {
         boolean autoSession = !isDBSessionActive();
         try {
-            Session s = sessionFactory.getCurrentSession();
+            Session s = factory().getCurrentSession();
             if (autoSession) {
                 s.beginTransaction();
             }
@@ -409,7 +493,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
 		sql.deleteCharAt(sql.lastIndexOf(",")).append(")");
 		
 		try {
-			Session s = sessionFactory.getCurrentSession();
+			Session s = factory().getCurrentSession();
 			if (autoSession) {
 				s.beginTransaction();
 			}
@@ -482,11 +566,18 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     public List<?> doHQL(String hql, Map<String, Object> params,
             Map<String, Collection> collectionParams, boolean lockForUpdate, int start, int limit) 
         throws QueryException {
+        return doHQL(hql, params, collectionParams, lockForUpdate, start, limit, false);
+    }
+
+    private List<?> doHQL(String hql, Map<String, Object> params,
+            Map<String, Collection> collectionParams, boolean lockForUpdate, 
+            int start, int limit, boolean cacheable) 
+        throws QueryException {
         if ( !checkSession() ) {
             return Collections.emptyList();
         }
         try {
-            Session s = sessionFactory.getCurrentSession();
+            Session s = factory().getCurrentSession();
             Query query = s.createQuery(hql);
             if (params != null) {
                 for ( String param : params.keySet() ) {
@@ -505,6 +596,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
                 query.setFirstResult(start);
                 query.setMaxResults(limit);
             }
+            query.setCacheable(cacheable);
             return query.list();
         } catch ( QueryException e ) {
             logExceptionAndTerminateSession(e);
@@ -545,12 +637,12 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
      * @see eu.sqooss.service.db.DBService#addRecords(java.util.List)
      */
     public <T extends DAObject> boolean addRecords(List<T> records) {
-        if( !checkSession() )
+        if( !checkSession() || isReadOnlySession("addRecords") )
             return false;
 
         DAObject lastRecord = null;
         try {
-            Session s = sessionFactory.getCurrentSession();
+            Session s = factory().getCurrentSession();
             for (DAObject record : records) {
                 lastRecord = record;
                 s.save(record);				
@@ -569,16 +661,75 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         }
     }
 
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#addRecordsBatch(java.util.List)
+     */
+    public <T extends DAObject> boolean addRecordsBatch(List<T> records) {
+        if( !checkSession() || isReadOnlySession("addRecordsBatch") )
+            return false;
+        return writeBatch(records, false);
+    }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#upsertMeasurements(java.util.List)
+     */
+    public <T extends MetricMeasurement> boolean upsertMeasurements(List<T> records) {
+        if( !checkSession() || isReadOnlySession("upsertMeasurements") )
+            return false;
+        return writeBatch(records, true);
+    }
+
+    private boolean writeBatch(List<? extends DAObject> records, boolean upsert) {
+        if (records.isEmpty())
+            return true;
+
+        Map<Class<?>, List<DAObject>> byClass = 
+            new LinkedHashMap<Class<?>, List<DAObject>>();
+        for (DAObject r : records) {
+            List<DAObject> l = byClass.get(r.getClass());
+            if (l == null) {
+                l = new ArrayList<DAObject>();
+                byClass.put(r.getClass(), l);
+            }
+            l.add(r);
+        }
+
+        SessionFactoryImplementor sf = (SessionFactoryImplementor) factory();
+        int batchSize = Math.max(1, sf.getSettings().getJdbcBatchSize());
+        try {
+            Session s = factory().getCurrentSession();
+            s.flush();
+            for (Map.Entry<Class<?>, List<DAObject>> e : byClass.entrySet()) {
+                BatchWriter w = new BatchWriter((SessionImplementor) s,
+                        (AbstractEntityPersister) sf.getEntityPersister(e.getKey().getName()),
+                        e.getValue(), upsert, uniqueKeys.contains(e.getKey()), 
+                        batchSize);
+                if (upsert && !w.canUpsert()) {
+                    logger.error("Cannot upsert " + e.getKey().getName() 
+                            + ": no key or value columns");
+                    return false;
+                }
+                s.doWork(w);
+            }
+            return true;
+        } catch (HibernateException e) {
+            logger.error("Failed to write a batch of " + records.size() 
+                    + " records: " + e.getMessage());
+            logExceptionAndTerminateSession(e);
+            return false;
+        }
+    }
+
     /* (non-Javadoc)
      * @see eu.sqooss.service.db.DBService#deleteRecords(java.util.List)
      */
     public <T extends DAObject> boolean deleteRecords(List<T> records) {
-        if( !checkSession() )
+        if( !checkSession() || isReadOnlySession("deleteRecords") )
             return false;
 
         DAObject lastRecord = null;
         try {
-            Session s = sessionFactory.getCurrentSession();
+            Session s = factory().getCurrentSession();
             for (DAObject record : records) {
                 lastRecord = record;
                 s.delete(record);
@@ -600,6 +751,233 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     public Logger logger() {
         return this.logger;
     }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#getConnectionPoolStats()
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        if (sessionFactory == null)
+            return null;
+        // The primary's pool; the replica's, if any, is not included
+        ConnectionProvider cp = ((SessionFactoryImplementor) sessionFactory)
+            .getConnectionProvider();
+        if (!(cp instanceof MonitoredConnectionProvider))
+            return null;
+        return ((MonitoredConnectionProvider) cp).getStats();
+    }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#addProjectPartitions(eu.sqooss.service.db.StoredProject)
+     */
+    public boolean addProjectPartitions(final StoredProject project) {
+        if (partitions == null)
+            return true;
+        if (!checkSession() || isReadOnlySession("addProjectPartitions"))
+            return false;
+        try {
+            factory().getCurrentSession().doWork(new Work() {
+                public void execute(Connection c) throws SQLException {
+                    partitions.add(c, project.getId());
+                }
+            });
+            return true;
+        } catch (HibernateException e) {
+            logger.error("Failed to create measurement partitions for project "
+                    + project + ": " + e.getMessage());
+            logExceptionAndTerminateSession(e);
+            return false;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#clearProjectPartitions(eu.sqooss.service.db.StoredProject)
+     */
+    public boolean clearProjectPartitions(final StoredProject project) {
+        if (partitions == null)
+            return true;
+        if (!checkSession() || isReadOnlySession("clearProjectPartitions"))
+            return false;
+        try {
+            factory().getCurrentSession().doWork(new Work() {
+                public void execute(Connection c) throws SQLException {
+                    partitions.clear(c, project.getId());
+                }
+            });
+            return true;
+        } catch (HibernateException e) {
+            logger.error("Failed to delete the measurements of project "
+                    + project + ": " + e.getMessage());
+            logExceptionAndTerminateSession(e);
+            return false;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#dropProjectPartitions(eu.sqooss.service.db.StoredProject)
+     */
+    public boolean dropProjectPartitions(final StoredProject project) {
+        if (partitions == null)
+            return true;
+        if (!checkSession() || isReadOnlySession("dropProjectPartitions"))
+            return false;
+        try {
+            factory().getCurrentSession().doWork(new Work() {
+                public void execute(Connection c) throws SQLException {
+                    partitions.drop(c, project.getId());
+                }
+            });
+            return true;
+        } catch (HibernateException e) {
+            logger.error("Failed to drop measurement partitions for project "
+                    + project + ": " + e.getMessage());
+            logExceptionAndTerminateSession(e);
+            return false;
+        }
+    }
+
+    /*
+     * Fill in the owning project of older measurements, add the unique
+     * keys upserts rely on and, if enabled, partition the measurement 
+     * tables by project.
+     */
+    private boolean initPartitions(String db, boolean partition, 
+            Configuration cfg) {
+        final MeasurementPartitions mp = new MeasurementPartitions(db, logger);
+        if (partition && !updateSchema(cfg, mp))
+            return false;
+
+        boolean ok = runInSession(new Work() {
+            public void execute(Connection c) throws SQLException {
+                mp.assignProjects(c);
+            }
+        }, "assign measurements to their project");
+        // The unique keys include PROJECT_ID, fill it in first
+        ok = ok && createMeasurementKeys();
+        if (!ok || !partition)
+            return ok;
+
+        ok = runInSession(new Work() {
+            public void execute(Connection c) throws SQLException {
+                mp.setUp(c);
+            }
+        }, "set up measurement partitions");
+        if (ok) {
+            partitions = mp;
+            logger.info("Measurements are partitioned by project");
+        }
+        return ok;
+    }
+
+    /*
+     * Create the unique index upsertMeasurements matches rows on, for the
+     * measurement tables it is used on. Existing duplicate measurements 
+     * are only removed if explicitly enabled; without the index, upserts
+     * fall back to updating and then inserting rows.
+     */
+    private boolean createMeasurementKeys() {
+        final SessionFactoryImplementor sf = 
+            (SessionFactoryImplementor) sessionFactory;
+        final boolean dedup = Boolean.valueOf(bc.getProperty(DB_DEDUP));
+        for (Class<?> clazz : UPSERTED) {
+            final AbstractEntityPersister persister = 
+                (AbstractEntityPersister) sf.getEntityPersister(clazz.getName());
+            final boolean[] keyed = new boolean[1];
+            if (!runInSession(new Work() {
+                    public void execute(Connection c) throws SQLException {
+                        keyed[0] = BatchWriter.createUniqueKey(c, sf, 
+                                persister, dedup, logger);
+                    }
+                }, "create the unique key of " + persister.getTableName()))
+                return false;
+            if (keyed[0])
+                uniqueKeys.add(clazz);
+            else
+                logger.warn("No unique key on " + persister.getTableName() 
+                        + ", set " + DB_DEDUP + " to remove its duplicate "
+                        + "measurements and create it");
+        }
+        return true;
+    }
+
+    /*
+     * hbm2ddl is off when measurements are partitioned, as it would try 
+     * to add back the foreign keys MySQL does not allow on partitioned 
+     * tables and, with JDBC drivers that do not list partitioned tables 
+     * as tables, to create them anew. Update the schema here instead, 
+     * leaving out the tables that are partitioned already.
+     */
+    private boolean updateSchema(Configuration cfg, 
+            final MeasurementPartitions mp) {
+        final Set<String> skip = new HashSet<String>();
+        if (!runInSession(new Work() {
+                public void execute(Connection c) throws SQLException {
+                    skip.addAll(mp.partitionedTables(c));
+                }
+            }, "look up partitioned tables"))
+            return false;
+
+        for (Iterator<?> i = cfg.getTableMappings(); i.hasNext(); ) {
+            if (skip.contains(((Table) i.next()).getName()))
+                i.remove();
+        }
+        SchemaUpdate su = new SchemaUpdate(cfg, 
+                ((SessionFactoryImplementor) sessionFactory).getSettings());
+        su.execute(false, true);
+        for (Object e : su.getExceptions())
+            logger.warn("Schema update failed: " + ((Throwable) e).getMessage());
+        return true;
+    }
+
+    private boolean runInSession(Work w, String what) {
+        if (!startDBSession())
+            return false;
+        try {
+            factory().getCurrentSession().doWork(w);
+        } catch (HibernateException e) {
+            logger.error("Failed to " + what + ": " + e.getMessage());
+            logExceptionAndTerminateSession(e);
+            return false;
+        }
+        return commitDBSession();
+    }
+
+    /*
+     * Whether the class has a second-level cache region configured in
+     * hibernate.cfg.xml; property lookups on such classes go through the
+     * query cache.
+     */
+    private boolean isCached(Class<?> daoClass) {
+        Boolean cached = cachedClasses.get(daoClass);
+        if (cached == null) {
+            try {
+                cached = ((SessionFactoryImplementor) sessionFactory)
+                    .getEntityPersister(daoClass.getName()).hasCache();
+            } catch (MappingException e) {
+                cached = Boolean.FALSE;
+            }
+            cachedClasses.put(daoClass, cached);
+        }
+        return cached;
+    }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#evictCache(java.lang.Class)
+     */
+    public <T extends DAObject> void evictCache(Class<T> daoClass) {
+        if (sessionFactory == null || !isCached(daoClass))
+            return;
+        try {
+            sessionFactory.getCache().evictEntityRegion(daoClass);
+            sessionFactory.getCache().evictQueryRegions();
+            if (replicaFactory != null) {
+                replicaFactory.getCache().evictEntityRegion(daoClass);
+                replicaFactory.getCache().evictQueryRegions();
+            }
+        } catch (HibernateException e) {
+            logger.warn("Failed to evict cache for " + daoClass.getName() 
+                    + ": " + e.getMessage());
+        }
+    }
     
     public boolean startDBSession() {
         //Boot time check
@@ -612,9 +990,10 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
             return true;
         }
         
+        onReplica.remove();
         Session s = null;
         try {
-            s = sessionFactory.getCurrentSession();
+            s = factory().getCurrentSession();
             //logger.debug("startDBSession: " + s + "[hashcode=" + s.hashCode() + ",open=" + s.isOpen() + "]");
             s.beginTransaction();
         } catch (HibernateException e) {
@@ -630,13 +1009,58 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         return true;
     }
 
+    public boolean startReadOnlyDBSession() {
+        //Boot time check
+        if(isInitialised.get() == false) {
+            return false;
+        }
+        
+        if( isDBSessionActive() ) {
+            logger.debug("startReadOnlyDBSession() - a session was already started for that thread");
+            return true;
+        }
+        
+        if (replicaFactory != null)
+            onReplica.set(Boolean.TRUE);
+        else
+            onReplica.remove();
+
+        Session s = null;
+        try {
+            s = factory().getCurrentSession();
+            s.beginTransaction();
+            s.setFlushMode(FlushMode.MANUAL);
+            s.setDefaultReadOnly(true);
+            // c3p0 restores the flag when the connection is returned, 
+            // Hibernate's built-in pool would hand it to writers as is
+            if (jdbcReadOnly) {
+                s.doWork(new Work() {
+                    public void execute(Connection c) throws SQLException {
+                        c.setReadOnly(true);
+                    }
+                });
+            }
+        } catch (HibernateException e) {
+            logger.error("startReadOnlyDBSession() - error while initializing session: " + e.getMessage());
+            if ( s != null ) {
+                try {
+                    s.close();
+                } catch (HibernateException e1) {
+                }
+            }
+            onReplica.remove();
+            return false;
+        }
+        return true;
+    }
+
     public boolean commitDBSession() {
         if ( !checkSession() )
             return false;
         
         Session s = null;
         try {
-            s = sessionFactory.getCurrentSession();
+            s = factory().getCurrentSession();
             //logger.debug("commitDBSession: " + s + "[hashcode=" + s.hashCode() + ",open=" + s.isOpen() + "]");
             s.getTransaction().commit();
         } catch (HibernateException e) {
@@ -653,6 +1077,9 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
                 }
             }
             return false;
+        } finally {
+            // The thread's next session starts on the primary
+            onReplica.remove();
         }
         return true;
     }
@@ -663,7 +1090,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         
         Session s = null;
         try {
-            s = sessionFactory.getCurrentSession();
+            s = factory().getCurrentSession();
             s.getTransaction().rollback();
         } catch (HibernateException e) {
             logger.error("commitDBSession() - error while rolling back transaction: " + e.getMessage());
@@ -674,6 +1101,8 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
                 }
             }
             return false;
+        } finally {
+            onReplica.remove();
         }
         return true;
     }
@@ -684,7 +1113,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         
         Session s = null;
         try {
-            s = sessionFactory.getCurrentSession();
+            s = factory().getCurrentSession();
             s.flush();
             s.clear();
         } catch (HibernateException e) {
@@ -708,7 +1137,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         
         Session s = null;
         try {
-            s = sessionFactory.getCurrentSession();
+            s = factory().getCurrentSession();
             return s.getTransaction() != null && s.getTransaction().isActive();
         } catch (HibernateException e) {
             logger.error("isDBSessionActive() - error while checking session status: " + e.getMessage());
@@ -728,7 +1157,7 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
             return null;
 
         try {
-            Session s = sessionFactory.getCurrentSession();
+            Session s = factory().getCurrentSession();
             if ( s.contains(obj)) {
                 return obj;
             } else {
@@ -742,12 +1171,12 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     
     public int executeUpdate(String hql, Map<String, Object> params) 
     throws QueryException {
-        if (!checkSession()) {
+        if (!checkSession() || isReadOnlySession("executeUpdate")) {
             return -1;
         }
         
         try {
-            Session s = sessionFactory.getCurrentSession();
+            Session s = factory().getCurrentSession();
             Query query = s.createQuery(hql);
             if (params != null) {
                 for (String param : params.keySet()) {
@@ -785,17 +1214,66 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         conProp.setProperty("hibernate.connection.username", bc.getProperty(DB_USERNAME));
         conProp.setProperty("hibernate.connection.password", bc.getProperty(DB_PASSWORD));
         conProp.setProperty("hibernate.connection.dialect",  hbmDialects.get(db));
-        conProp.setProperty("hibernate.connection.provider_class", conPools.get(bc.getProperty(DB_CONPOOL)));
+        String pool = bc.getProperty(DB_CONPOOL);
+        if (pool == null || !conPools.containsKey(pool.toLowerCase())) {
+            logger.warn("Unknown connection pool <" + pool + ">, using c3p0");
+            pool = "c3p0";
+        }
+        conProp.setProperty("hibernate.connection.provider_class", conPools.get(pool.toLowerCase()));
+        conProp.setProperty("hibernate.c3p0.preferredTestQuery", testQueries.get(db));
         
         if (!getJDBCConnection()) {
             logger.error("DB service got no JDBC connectors.");
             return false;
         }
         
-        if(!initHibernate(bc.getBundle().getResource("hibernate.cfg.xml")))
+        boolean partition = Boolean.valueOf(bc.getProperty(DB_PARTITION));
+        if (partition && !MeasurementPartitions.isSupported(db)) {
+            logger.warn("Measurement partitioning is not supported on " + db);
+            partition = false;
+        }
+        // See updateSchema()
+        if (partition)
+            conProp.setProperty("hibernate.hbm2ddl.auto", "none");
+
+        // Cache region sizes, the provider cannot see into this bundle
+        URL cacheConfig = bc.getBundle().getResource("ehcache.xml");
+        if (cacheConfig != null)
+            conProp.setProperty(CACHE_CONFIG, cacheConfig.toString());
+
+        URL config = bc.getBundle().getResource("hibernate.cfg.xml");
+        Configuration cfg = configureHibernate(config, conProp);
+        sessionFactory = buildSessionFactory(cfg);
+        if (sessionFactory == null)
             return false;
+
+        jdbcReadOnly = MonitoredConnectionProvider.class.getName().equals(
+                conProp.getProperty("hibernate.connection.provider_class"));
+
+        String replica = bc.getProperty(DB_REPLICA_HOST);
+        if (replica != null && replica.length() > 0) {
+            String schema = bc.getProperty(DB_REPLICA_SCHEMA);
+            if (schema == null || schema.length() == 0)
+                schema = bc.getProperty(DB_SCHEMA);
+            Properties replicaProp = new Properties();
+            replicaProp.putAll(conProp);
+            replicaProp.setProperty("hibernate.connection.url", connString.get(db)
+                    .replaceAll("<HOST>", replica).replaceAll("<SCHEMA>", schema));
+            // The schema is managed through the primary
+            replicaProp.setProperty("hibernate.hbm2ddl.auto", "none");
+            replicaFactory = initHibernate(config, replicaProp);
+            if (replicaFactory == null)
+                logger.warn("Could not connect to read replica " + replica 
+                        + ", read-only sessions will use the primary DB");
+            else
+                logger.info("Read-only sessions will use replica " + replica);
+        }
         
         isInitialised.compareAndSet(false, true);
+
+        if (!initPartitions(db, partition, cfg))
+            logger.warn("Could not prepare the measurement tables, " +
+                    "measurements are not partitioned by project");
         return true; 
     }
 
@@ -803,6 +1281,8 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     public void shutDown() {
     	logger.info("Shutting down database service");
     	sessionFactory.close();
+    	if (replicaFactory != null)
+    	    replicaFactory.close();
     }
 
 	@Override
@@ -0,0 +1,378 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.sqooss.service.logging.Logger;
+
+/**
+ * Manages the per-project partitions of the measurement tables on MySQL
+ * and Postgres. Each project gets its own partition of every table, so
+ * that per-project queries only scan that project's rows and deleting a
+ * project's measurements does not go through the rows one by one.
+ * 
+ * The tables are converted once, at the first start of the DB service
+ * with partitioning enabled. A table is only converted if all of its 
+ * rows belong to a project. In both databases the primary key becomes
+ * (id, PROJECT_ID), as every unique key of a partitioned table must 
+ * include the partitioning column.
+ * <ul>
+ * <li>On MySQL the tables are LIST partitioned on PROJECT_ID in place. 
+ * MySQL does not allow foreign keys on partitioned tables, so these are 
+ * dropped. Partition p0 is a placeholder, as a table needs at least one
+ * partition.</li>
+ * <li>On Postgres (11 and later) each table is copied into a partitioned
+ * table of the same layout, which then takes its name. Its indexes and
+ * foreign keys are recreated under their old names.</li>
+ * </ul>
+ * Once partitioned, the tables are left out of hbm2ddl schema updates,
+ * so later changes to their mappings have to be applied by hand.
+ * 
+ * All statements run on the connection of the current DB session. DDL
+ * is transactional on Postgres, while on MySQL it commits any pending 
+ * work in the session.
+ */
+class MeasurementPartitions {
+
+    /** Partitioned tables and their id columns */
+    private static final String[][] TABLES = {
+        {"PROJECT_FILE_MEASUREMENT", "PROJECT_FILE_MEASUREMENT_ID"},
+        {"PROJECT_VERSION_MEASUREMENT", "PROJECT_VERSION_MEASUREMENT_ID"},
+        {"EXECUTION_UNIT_MEASUREMENT", "EXECUTION_UNIT_MEASUREMENT_ID"},
+        {"ENCAPSULATION_UNIT_MEASUREMENT", "ENCAPSULATION_UNIT_MEASUREMENT_ID"}
+    };
+
+    /** Project lookups for rows stored before PROJECT_ID existed, in 
+     * the order of TABLES */
+    private static final String[] PROJECT_OF = {
+        "select v.STORED_PROJECT_ID from PROJECT_FILE f, PROJECT_VERSION v " +
+        "where f.PROJECT_FILE_ID = PROJECT_FILE_MEASUREMENT.PROJECT_FILE_ID " +
+        "and v.PROJECT_VERSION_ID = f.PROJECT_VERSION_ID",
+
+        "select v.STORED_PROJECT_ID from PROJECT_VERSION v " +
+        "where v.PROJECT_VERSION_ID = PROJECT_VERSION_MEASUREMENT.PROJECT_VERSION_ID",
+
+        "select v.STORED_PROJECT_ID from EXECUTION_UNIT u, PROJECT_FILE f, PROJECT_VERSION v " +
+        "where u.EXECUTION_UNIT_ID = EXECUTION_UNIT_MEASUREMENT.EXECUTION_UNIT_ID " +
+        "and f.PROJECT_FILE_ID = u.PROJECT_FILE_ID " +
+        "and v.PROJECT_VERSION_ID = f.PROJECT_VERSION_ID",
+
+        "select v.STORED_PROJECT_ID from ENCAPSULATION_UNIT u, PROJECT_FILE f, PROJECT_VERSION v " +
+        "where u.ENCAPSULATION_UNIT_ID = ENCAPSULATION_UNIT_MEASUREMENT.ENCAPSULATION_UNIT_ID " +
+        "and f.PROJECT_FILE_ID = u.PROJECT_FILE_ID " +
+        "and v.PROJECT_VERSION_ID = f.PROJECT_VERSION_ID"
+    };
+
+    private final boolean mysql;
+    private final Logger logger;
+    /** The tables partitioned by setUp() */
+    private final Set<String> partitioned = new HashSet<String>();
+
+    MeasurementPartitions(String db, Logger logger) {
+        this.mysql = "mysql".equals(db);
+        this.logger = logger;
+    }
+
+    /** Whether measurement partitioning is available on the given DB */
+    static boolean isSupported(String db) {
+        return "mysql".equals(db) || "postgres".equals(db);
+    }
+
+    /**
+     * Assign the measurements stored before PROJECT_ID existed to their
+     * project. This does not depend on partitioning, per-project queries
+     * rely on the column being filled in.
+     */
+    void assignProjects(Connection c) throws SQLException {
+        for (int i = 0; i < TABLES.length; i++) {
+            int rows = execute(c, "update " + TABLES[i][0] 
+                    + " set PROJECT_ID = (" + PROJECT_OF[i] 
+                    + ") where PROJECT_ID is null");
+            if (rows > 0)
+                logger.info("Assigned " + rows + " rows of " + TABLES[i][0] 
+                        + " to their project");
+        }
+    }
+
+    /** The measurement tables that are partitioned in the database */
+    Set<String> partitionedTables(Connection c) throws SQLException {
+        Set<String> result = new HashSet<String>();
+        for (String[] table : TABLES)
+            if (isPartitioned(c, table[0]))
+                result.add(table[0]);
+        return result;
+    }
+
+    /**
+     * Partition the measurement tables that are not partitioned yet and
+     * make sure that every stored project has its partitions.
+     */
+    void setUp(Connection c) throws SQLException {
+        List<Long> projects = new ArrayList<Long>();
+        Statement st = c.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(
+                    "select PROJECT_ID from STORED_PROJECT");
+            while (rs.next())
+                projects.add(rs.getLong(1));
+        } finally {
+            st.close();
+        }
+
+        for (int i = 0; i < TABLES.length; i++) {
+            String table = TABLES[i][0];
+            if (isPartitioned(c, table)) {
+                for (Long project : projects)
+                    add(c, table, project);
+                partitioned.add(table);
+                continue;
+            }
+            int orphans = count(c, "select count(*) from " + table 
+                    + " where PROJECT_ID is null");
+            if (orphans > 0) {
+                logger.error("Not partitioning " + table + ": " + orphans 
+                        + " rows do not belong to any project");
+                continue;
+            }
+            logger.info("Partitioning " + table + " by project");
+            if (mysql)
+                partitionMySQL(c, table, TABLES[i][1], projects);
+            else
+                partitionPostgres(c, table, TABLES[i][1], projects);
+            partitioned.add(table);
+        }
+    }
+
+    /** Create the partitions for a new project */
+    void add(Connection c, long project) throws SQLException {
+        for (String table : partitioned)
+            add(c, table, project);
+    }
+
+    /**
+     * Delete the measurements of a project in bulk, as part of the current
+     * transaction. The partitions are left in place, so that the project 
+     * can still be deleted or the transaction rolled back.
+     */
+    void clear(Connection c, long project) throws SQLException {
+        for (String table : partitioned) {
+            if (mysql) {
+                // Pruned to the project's partition
+                execute(c, "delete from " + table 
+                        + " where PROJECT_ID = " + project);
+            } else if (partitions(c, table).contains(name(table, project))) {
+                // Only locks the project's partition
+                execute(c, "truncate table " + name(table, project));
+            }
+        }
+    }
+
+    /** Drop the partitions of a deleted project */
+    void drop(Connection c, long project) throws SQLException {
+        for (String table : partitioned) {
+            if (mysql) {
+                if (partitions(c, table).contains(name(table, project)))
+                    execute(c, "alter table " + table 
+                            + " drop partition " + name(table, project));
+            } else {
+                execute(c, "drop table if exists " + name(table, project));
+            }
+        }
+    }
+
+    private void add(Connection c, String table, long project) 
+        throws SQLException {
+        if (partitions(c, table).contains(name(table, project)))
+            return;
+        if (mysql)
+            execute(c, "alter table " + table + " add partition (partition " 
+                    + name(table, project) + " values in (" + project + "))");
+        else
+            execute(c, "create table " + name(table, project) 
+                    + " partition of " + table 
+                    + " for values in (" + project + ")");
+    }
+
+    private void partitionMySQL(Connection c, String table, String id,
+            List<Long> projects) throws SQLException {
+        List<String> fks = strings(c, "select CONSTRAINT_NAME " +
+                "from information_schema.TABLE_CONSTRAINTS " +
+                "where CONSTRAINT_SCHEMA = database() and TABLE_NAME = ? " +
+                "and CONSTRAINT_TYPE = 'FOREIGN KEY'", table);
+        for (String fk : fks)
+            execute(c, "alter table " + table + " drop foreign key " + fk);
+
+        execute(c, "alter table " + table 
+                + " modify PROJECT_ID bigint not null,"
+                + " drop primary key, add primary key (" + id + ", PROJECT_ID)");
+
+        StringBuilder sql = new StringBuilder("alter table ").append(table)
+            .append(" partition by list (PROJECT_ID) (partition p0 values in (0)");
+        for (Long project : projects)
+            sql.append(", partition ").append(name(table, project))
+                .append(" values in (").append(project).append(")");
+        execute(c, sql.append(")").toString());
+    }
+
+    private void partitionPostgres(Connection c, String table, String id,
+            List<Long> projects) throws SQLException {
+        // Index definitions refer to the table by name, so they apply 
+        // as they are once the partitioned table has been renamed
+        List<String> indexes = strings(c, "select pg_get_indexdef(i.indexrelid) " +
+                "from pg_index i join pg_class t on t.oid = i.indrelid " +
+                "where t.relname = ? and pg_table_is_visible(t.oid) " +
+                "and not i.indisprimary", table.toLowerCase());
+        List<String> fks = strings(c, "select 'constraint ' || o.conname || ' ' " +
+                "|| pg_get_constraintdef(o.oid) " +
+                "from pg_constraint o join pg_class t on t.oid = o.conrelid " +
+                "where t.relname = ? and pg_table_is_visible(t.oid) " +
+                "and o.contype = 'f'", table.toLowerCase());
+
+        String tmp = table + "_PARTITIONED";
+        execute(c, "create table " + tmp + " (like " + table 
+                + " including all excluding indexes)"
+                + " partition by list (PROJECT_ID)");
+        for (Long project : projects)
+            execute(c, "create table " + name(table, project) 
+                    + " partition of " + tmp 
+                    + " for values in (" + project + ")");
+        int rows = execute(c, "insert into " + tmp + " select * from " + table);
+        logger.info("Copied " + rows + " rows to the partitions of " + table);
+        execute(c, "drop table " + table);
+        execute(c, "alter table " + tmp + " rename to " + table);
+
+        execute(c, "alter table " + table 
+                + " add primary key (" + id + ", PROJECT_ID)");
+        for (String index : indexes)
+            execute(c, index);
+        for (String fk : fks)
+            execute(c, "alter table " + table + " add " + fk);
+    }
+
+    private boolean isPartitioned(Connection c, String table) 
+        throws SQLException {
+        String sql = mysql ? 
+            "select count(*) from information_schema.PARTITIONS " +
+            "where TABLE_SCHEMA = database() and TABLE_NAME = ? " +
+            "and PARTITION_NAME is not null" :
+            "select count(*) from pg_class c " +
+            "where c.relname = ? and c.relkind = 'p' " +
+            "and pg_table_is_visible(c.oid)";
+        PreparedStatement ps = c.prepareStatement(sql);
+        try {
+            ps.setString(1, mysql ? table : table.toLowerCase());
+            ResultSet rs = ps.executeQuery();
+            return rs.next() && rs.getInt(1) > 0;
+        } finally {
+            ps.close();
+        }
+    }
+
+    /** Names of the existing partitions of a table, as returned by name() */
+    private Set<String> partitions(Connection c, String table) 
+        throws SQLException {
+        String sql = mysql ? 
+            "select PARTITION_NAME from information_schema.PARTITIONS " +
+            "where TABLE_SCHEMA = database() and TABLE_NAME = ? " +
+            "and PARTITION_NAME is not null" :
+            "select c.relname from pg_inherits i " +
+            "join pg_class c on c.oid = i.inhrelid " +
+            "join pg_class p on p.oid = i.inhparent " +
+            "where p.relname = ? and pg_table_is_visible(p.oid)";
+        Set<String> result = new HashSet<String>();
+        PreparedStatement ps = c.prepareStatement(sql);
+        try {
+            ps.setString(1, mysql ? table : table.toLowerCase());
+            ResultSet rs = ps.executeQuery();
+            while (rs.next())
+                result.add(mysql ? rs.getString(1) : rs.getString(1).toUpperCase());
+        } finally {
+            ps.close();
+        }
+        return result;
+    }
+
+    private int count(Connection c, String sql) throws SQLException {
+        Statement st = c.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(sql);
+            return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            st.close();
+        }
+    }
+
+    /** Run a query on a table name and return its first column */
+    private List<String> strings(Connection c, String sql, String table) 
+        throws SQLException {
+        List<String> result = new ArrayList<String>();
+        PreparedStatement ps = c.prepareStatement(sql);
+        try {
+            ps.setString(1, table);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next())
+                result.add(rs.getString(1));
+        } finally {
+            ps.close();
+        }
+        return result;
+    }
+
+    /* MySQL partition names are local to the table, on Postgres the
+     * partitions are tables themselves */
+    private String name(String table, long project) {
+        return mysql ? "p" + project : table + "_P" + project;
+    }
+
+    private int execute(Connection c, String sql) throws SQLException {
+        logger.debug(sql);
+        Statement st = c.createStatement();
+        try {
+            return st.executeUpdate(sql);
+        } finally {
+            st.close();
+        }
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,165 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.HibernateException;
+import org.hibernate.connection.C3P0ConnectionProvider;
+
+import com.mchange.v2.c3p0.C3P0Registry;
+import com.mchange.v2.c3p0.PooledDataSource;
+
+import eu.sqooss.service.db.ConnectionPoolStats;
+
+/**
+ * c3p0 connection provider that keeps checkout statistics for the 
+ * admin interface. Pool sizes come from c3p0 itself; wait times and
+ * connections held for suspiciously long (possible leaks, e.g. sessions
+ * never committed) are tracked here, because c3p0 can only report the
+ * latter by forcibly closing the connection. Statistics are kept per
+ * provider, i.e. per session factory, so a read replica's pool is 
+ * counted apart from the primary one.
+ */
+public class MonitoredConnectionProvider extends C3P0ConnectionProvider {
+
+    /** Connections held for longer than this (seconds) are reported */
+    private static final long LEAK_TIME = 
+        Long.getLong("eu.sqooss.db.conpool.leaktime", 1800) * 1000;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+    private int maxSize;
+    /** The c3p0 pool behind this provider */
+    private PooledDataSource pool;
+
+    /** Checked out connection -> checkout time and thread */
+    private final Map<Connection, Checkout> checkedOut =
+        new ConcurrentHashMap<Connection, Checkout>();
+
+    private static class Checkout {
+        final long time = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void configure(Properties props) throws HibernateException {
+        // The superclass keeps its pool private, find it in the registry
+        Set<PooledDataSource> before = new HashSet<PooledDataSource>(
+                C3P0Registry.getPooledDataSources());
+        super.configure(props);
+        for (PooledDataSource ds : 
+                (Set<PooledDataSource>) C3P0Registry.getPooledDataSources()) {
+            if (!before.contains(ds))
+                pool = ds;
+        }
+        String max = props.getProperty("hibernate.c3p0.max_size");
+        maxSize = (max == null) ? 0 : Integer.parseInt(max.trim());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.currentTimeMillis();
+        Connection c;
+        waiting.incrementAndGet();
+        try {
+            c = super.getConnection();
+        } catch (SQLException e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        long wait = System.currentTimeMillis() - start;
+        checkouts.incrementAndGet();
+        totalWait.addAndGet(wait);
+        long max;
+        while (wait > (max = maxWait.get()) && !maxWait.compareAndSet(max, wait));
+
+        checkedOut.put(c, new Checkout());
+        return c;
+    }
+
+    @Override
+    public void closeConnection(Connection conn) throws SQLException {
+        checkedOut.remove(conn);
+        super.closeConnection(conn);
+    }
+
+    /**
+     * Get the current statistics of the pool, or null if no pool has
+     * been started by this provider.
+     */
+    public ConnectionPoolStats getStats() {
+        if (pool == null)
+            return null;
+        int connections, busy, idle;
+        try {
+            connections = pool.getNumConnectionsDefaultUser();
+            busy = pool.getNumBusyConnectionsDefaultUser();
+            idle = pool.getNumIdleConnectionsDefaultUser();
+        } catch (SQLException e) {
+            // Pool closed while we were looking at it
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        List<String> leaks = new ArrayList<String>();
+        for (Checkout co : checkedOut.values()) {
+            if (now - co.time > LEAK_TIME)
+                leaks.add(co.thread + " (" + (now - co.time) / 1000 + "s)");
+        }
+
+        return new ConnectionPoolStats(maxSize, connections, busy, idle,
+                waiting.get(), checkouts.get(), failed.get(), totalWait.get(),
+                maxWait.get(), leaks);
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
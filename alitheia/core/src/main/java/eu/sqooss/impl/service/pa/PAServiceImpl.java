@@ -38,7 +38,6 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.BundleContext;
@@ -53,9 +52,11 @@ import eu.sqooss.service.abstractmetric.AlitheiaPlugin;
 import eu.sqooss.service.db.DAObject;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.Metric;
+import eu.sqooss.service.db.MetricType;
 import eu.sqooss.service.db.Plugin;
 import eu.sqooss.service.db.PluginConfiguration;
 import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.pa.MetricRegistry;
 import eu.sqooss.service.pa.PluginAdmin;
 import eu.sqooss.service.pa.PluginInfo;
 import eu.sqooss.service.scheduler.Job;
@@ -99,6 +100,12 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
     private ConcurrentHashMap<String, PluginInfo> registeredPlugins =
         new ConcurrentHashMap<String, PluginInfo>();
 
+    /**
+     * Mnemonic to metric lookup table for installed plug-ins. Replaced as
+     * a whole by {@link #refreshMetricRegistry()}, never modified.
+     */
+    private volatile MetricRegistry metricRegistry = MetricRegistry.EMPTY;
+
     public PAServiceImpl () { }
 
     /**
@@ -292,6 +299,20 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
         return null;
     }
 
+    /**
+     * Rebuilds the metric registry from the database. Called after every
+     * change to the set of installed plug-ins; uses the caller's DB
+     * session if there is one.
+     */
+    private synchronized void refreshMetricRegistry() {
+        boolean ownSession = !sobjDB.isDBSessionActive();
+        if (ownSession)
+            sobjDB.startDBSession();
+        metricRegistry = MetricRegistry.load(sobjDB);
+        if (ownSession)
+            sobjDB.commitDBSession();
+    }
+
     /**
      * Gets the <code>PluginInfo</code> object assigned to the given metric
      * plug-in's service.
@@ -345,6 +366,8 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
         else {
             // Store the info object into the info object's list
             registeredPlugins.put(pluginInfo.getHashcode(), pluginInfo);
+            if (pluginInfo.installed)
+                refreshMetricRegistry();
             logger.info(
                     "Plug-in service (" + pluginInfo.getPluginName() + ")"
                     + " was registered.");
@@ -474,6 +497,7 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
                             // Store the info object
                             registeredPlugins.put(
                                     pluginInfo.getHashcode(), pluginInfo);
+                            refreshMetricRegistry();
                             return true;
                         }
                     }
@@ -582,6 +606,7 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
             pi = createInstalledPI(srefPlugin, pDao);
             if (pi != null) {
                 registeredPlugins.put(pi.getHashcode(), pi);
+                refreshMetricRegistry();
                 logger.info("Plug-in (" + pi.getPluginName()
                         + ") successfuly updated");
                 // TODO: Not sure, if this is the correct plug-in method
@@ -598,24 +623,20 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
     }
 
     public AlitheiaPlugin getImplementingPlugin(String mnemonic) {
-        Iterator<String> i = registeredPlugins.keySet().iterator();
+        MetricRegistry.Entry e = metricRegistry.get(mnemonic);
+        if (e == null)
+            return null;
 
-        while (i.hasNext()) {
-            PluginInfo pi = registeredPlugins.get(i.next());
-            // Skip metric plug-ins that are registered but not installed
-            if (pi.installed) {
-                ServiceReference sr = pi.getServiceRef();
-                Plugin p = pluginRefToPluginDAO(sr);
-                Set<Metric> lm = p.getSupportedMetrics();
-                for (Metric m : lm){
-                    if (m.getMnemonic().equals(mnemonic)) {
-                        return getPlugin(pi);
-                    }
-                }
-            }
-        }
-        // No plug-ins found
-        return null;
+        PluginInfo pi = registeredPlugins.get(e.getPluginHash());
+        // Skip metric plug-ins that are registered but not installed
+        if (pi == null || !pi.installed)
+            return null;
+
+        return getPlugin(pi);
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
     }
     
     private class PluginUninstallJob extends Job {
@@ -673,8 +694,13 @@ public class PAServiceImpl implements PluginAdmin, ServiceListener {
                         registeredPlugins.put(
                                 pluginInfo.getHashcode(), pluginInfo);
                     }
+                    refreshMetricRegistry();
                 }
                 dbs.commitDBSession();
+                // Removing the plug-in cascades to its metrics and their types
+                dbs.evictCache(Plugin.class);
+                dbs.evictCache(Metric.class);
+                dbs.evictCache(MetricType.class);
             } catch (Exception e) {
                 logger.warn(UNINSTALL_FAILED, e);
             }
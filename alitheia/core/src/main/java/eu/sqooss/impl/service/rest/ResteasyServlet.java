@@ -51,8 +51,13 @@ public class ResteasyServlet extends HttpServletDispatcher {
 	    
 	    DBService db = AlitheiaCore.getInstance().getDBService();
 	    
-	    if (!db.isDBSessionActive())
-	        db.startDBSession();
+	    // GET requests only read, keep them off the write path
+	    if (!db.isDBSessionActive()) {
+	        if ("GET".equals(httpServletRequest.getMethod()))
+	            db.startReadOnlyDBSession();
+	        else
+	            db.startDBSession();
+	    }
 	    
 	    super.service(httpServletRequest, httpServletResponse);
 	    
@@ -33,9 +33,12 @@
 
 package eu.sqooss.impl.service.tds;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
 
 import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.tds.DataAccessor;
 import eu.sqooss.service.tds.InvalidAccessorException;
 import eu.sqooss.service.tds.ProjectAccessor;
 import eu.sqooss.service.tds.BTSAccessor;
@@ -141,6 +144,34 @@ public class ProjectDataAccessorImpl implements ProjectAccessor {
         return scmAccessor;
     }
 
+    /**
+     * Close and forget the accessors that are instances of the given 
+     * class, or all of them if it is null. They are created anew on 
+     * the next request.
+     */
+    synchronized void closeAccessors(Class<? extends DataAccessor> clazz) {
+        if (close(btsAccessor, clazz))
+            btsAccessor = null;
+        if (close(scmAccessor, clazz))
+            scmAccessor = null;
+        if (close(mailAccessor, clazz))
+            mailAccessor = null;
+    }
+    
+    private boolean close(DataAccessor a, Class<? extends DataAccessor> clazz) {
+        if (a == null || (clazz != null && !clazz.isInstance(a)))
+            return false;
+        if (a instanceof Closeable) {
+            try {
+                ((Closeable) a).close();
+            } catch (IOException e) {
+                logger.warn("Error closing accessor " + a.getName() 
+                        + " for project <" + name + ">: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
     /**
      * Get the project's system id
      */
@@ -160,7 +160,11 @@ public class TDSServiceImpl implements TDSService, AlitheiaCoreService {
 
 	@Override
 	public void shutDown() {
-		
+        if (accessorPool == null)
+            return;
+        for (ProjectDataAccessorImpl a : accessorPool.values()) {
+            a.closeAccessors(null);
+        }
 	}
 
 	@Override
@@ -195,6 +199,9 @@ public class TDSServiceImpl implements TDSService, AlitheiaCoreService {
     @Override
     public void unregisterPlugin(Class<? extends DataAccessor> clazz) {
         DataAccessorFactory.removeImplementation(clazz);
+        for (ProjectDataAccessorImpl a : accessorPool.values()) {
+            a.closeAccessors(clazz);
+        }
     }
 }
 
@@ -36,15 +36,19 @@ package eu.sqooss.impl.service.tds.diff;
 import eu.sqooss.service.tds.DiffChunk;
 
 /**
- * A simple DTO holding information about a diff chunk 
- *
+ * A simple DTO holding information about a diff chunk. The chunk text
+ * can either be set directly or as a region of the full diff text, in
+ * which case it is only extracted on first request.
  */
 public class DiffChunkImpl implements DiffChunk {
 
 	private String chunk;
+	private String diffText;
+	private int textStart, textEnd;
 	private DiffOp diffOp;
 	private String path;
 	private int sourceLenght, sourceStartLine, targetLength, targetStartLine;
+	private int addedLines, removedLines;
 
 	public void setDiffOp(DiffOp getDiffOp) {
 		this.diffOp = getDiffOp;
@@ -52,6 +56,26 @@ public class DiffChunkImpl implements DiffChunk {
 
 	public void setChunk(String chunk) {
 		this.chunk = chunk;
+		this.diffText = null;
+	}
+
+	/**
+	 * Set the chunk text to the region <code>[start, end)</code> of the
+	 * provided diff text, without copying it.
+	 */
+	public void setChunk(String diffText, int start, int end) {
+		this.chunk = null;
+		this.diffText = diffText;
+		this.textStart = start;
+		this.textEnd = end;
+	}
+
+	public void setAddedLines(int addedLines) {
+		this.addedLines = addedLines;
+	}
+
+	public void setRemovedLines(int removedLines) {
+		this.removedLines = removedLines;
 	}
 
 	public void setPath(String path) {
@@ -75,9 +99,21 @@ public class DiffChunkImpl implements DiffChunk {
 	}
 
 	public String getChunk() {
+		if (chunk == null && diffText != null) {
+			chunk = diffText.substring(textStart, textEnd);
+			diffText = null;
+		}
 		return chunk;
 	}
 
+	public int getAddedLines() {
+		return addedLines;
+	}
+
+	public int getRemovedLines() {
+		return removedLines;
+	}
+
 	public String getPath() {
 		return path;
 	}
@@ -104,6 +140,6 @@ public class DiffChunkImpl implements DiffChunk {
 	
 	@Override
 	public String toString() {
-		return chunk;
+		return getChunk();
 	}
 }
@@ -0,0 +1,316 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.tds.diff;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import eu.sqooss.service.tds.DiffVisitor;
+import eu.sqooss.service.util.FileUtils;
+
+/**
+ * A streaming parser for unified diffs. The diff is read line by line from
+ * a {@link Reader} and reported to a {@link DiffVisitor}; no diff text is
+ * retained. Hunk bodies are delimited by the line counts in the hunk header,
+ * so the header patterns are only tried on lines outside hunks.
+ * <p>
+ * Instances are cheap but not thread safe; use one per diff.
+ *
+ * @see {@link http://en.wikipedia.org/wiki/Diff#Unified_format}
+ */
+public class UnifiedDiffReader {
+	/* 
+	 * Most patterns copied verbatim from Perl unified diff parser implementation:
+	 * http://search.cpan.org/~nikc/SVN-Web-0.53/lib/SVN/Web/Diff.pm
+	 */
+	private static final Pattern chunkStart = 
+		Pattern.compile("^\\@\\@ -(\\d+)(,\\d+)?\\s*[+](\\d+)(,\\d+)? \\@\\@.*$");
+	private static final Pattern propChunk = 
+		Pattern.compile("^Property.*:\\s*(.*)$");
+	private static final Pattern fileSource = 
+		Pattern.compile("^\\-\\-\\- ([^\\s]+)(\\s+(.+))?$");
+	private static final Pattern fileTarget = 
+		Pattern.compile("^\\+\\+\\+ ([^\\s]+)(\\s+(.+))?$");
+	private static final Pattern idx = Pattern.compile("^Index:\\s?(.*)$");
+	private static final Pattern equals = Pattern.compile("^=*");
+
+	private final String basePath;
+	private String error = "";
+
+	/* Line reader state */
+	private Reader in;
+	private final char[] buf = new char[8192];
+	private int bufPos, bufLen;
+	private final StringBuilder line = new StringBuilder(256);
+	private int offset;
+
+	/* Character offsets of the text of the last reported chunk */
+	private int textStart, textEnd;
+
+	/**
+	 * @param basePath Path prepended to the file names found in the diff
+	 */
+	public UnifiedDiffReader(String basePath) {
+		this.basePath = basePath;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Offset, in characters from the start of the diff, of the first 
+	 * character of the text of the hunk or property change that was last
+	 * reported to the visitor.
+	 */
+	int getTextStart() {
+		return textStart;
+	}
+
+	/**
+	 * Offset, in characters from the start of the diff, just past the text
+	 * of the hunk or property change that was last reported to the visitor.
+	 */
+	int getTextEnd() {
+		return textEnd;
+	}
+
+	/**
+	 * Parse a unified diff, reporting its contents to the provided visitor.
+	 * 
+	 * @return true on success, false on a parse error, in which case
+	 * {@link #getError()} returns the reason
+	 */
+	public boolean parse(Reader reader, DiffVisitor v) throws IOException {
+		in = reader;
+		bufPos = bufLen = offset = 0;
+
+		Matcher mChunk = chunkStart.matcher("");
+		Matcher mProp = propChunk.matcher("");
+		Matcher mSource = fileSource.matcher("");
+		Matcher mTarget = fileTarget.matcher("");
+		Matcher mIdx = idx.matcher("");
+		Matcher mEquals = equals.matcher("");
+
+		String curPath = null;
+		boolean inProp = false;
+		int fileAdded = 0, fileRemoved = 0;
+		int lineStart = offset;
+
+		while (readLine()) {
+			/* Match chunk start lines like
+			 * @@ -111,10 +111,10 @@ or
+			 * @@ -1 +1 @@
+			 * and consume the chunk body
+			 */
+			if (curPath != null && line.length() > 2 && line.charAt(0) == '@'
+					&& mChunk.reset(line).matches()) {
+				if (inProp) {
+					endProp(v, curPath, lineStart);
+					inProp = false;
+				}
+				
+				int srcStart = Integer.parseInt(mChunk.group(1));
+				int srcLen = (mChunk.group(2) == null) ? 1 : 
+					Integer.parseInt(mChunk.group(2).substring(1));
+				int tgtStart = Integer.parseInt(mChunk.group(3));
+				int tgtLen = (mChunk.group(4) == null) ? 1 : 
+					Integer.parseInt(mChunk.group(4).substring(1));
+				
+				textStart = offset;
+				int src = srcLen, tgt = tgtLen, added = 0, removed = 0;
+				while ((src > 0 || tgt > 0) && readLine()) {
+					char c = (line.length() == 0) ? ' ' : line.charAt(0);
+					switch (c) {
+					case '+':
+						added++; tgt--;
+						break;
+					case '-':
+						removed++; src--;
+						break;
+					case '\\':
+						/* \ No newline at end of file */
+						break;
+					default:
+						src--; tgt--;
+					}
+				}
+				/* A trailing "no newline" marker belongs to the chunk */
+				if (peek() == '\\')
+					readLine();
+				textEnd = offset;
+				
+				fileAdded += added;
+				fileRemoved += removed;
+				v.hunk(curPath, srcStart, srcLen, tgtStart, tgtLen, added, removed);
+				lineStart = offset;
+				continue;
+			}
+			
+			/*
+			 * Skip SVN introduced lines like
+			 * Index: specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
+			 * ===========================================================
+			 */
+			if (mIdx.reset(line).matches() || mEquals.reset(line).matches()) {
+				lineStart = offset;
+				continue;
+			}
+			
+			/* Match lines like
+			 * --- specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
+			 * and record file name. 
+			 */
+			if (mSource.reset(line).matches()) {
+				if (inProp) {
+					endProp(v, curPath, lineStart);
+					inProp = false;
+				}
+				if (curPath != null)
+					v.endFile(curPath, fileAdded, fileRemoved);
+				
+				curPath = FileUtils.appendPath(basePath, mSource.group(1));
+				fileAdded = fileRemoved = 0;
+				v.startFile(curPath);
+				lineStart = offset;
+				continue;
+			}
+			
+			/* those lines are not really interesting
+			 * +++ specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
+			 */
+			if (mTarget.reset(line).matches()) {
+				lineStart = offset;
+				continue;
+			}
+			
+			/*
+			 * Match a chunk describing a property change 
+			 * (this is SVN specific code)
+			 *  Property changes on: ProjectFile.java
+			 */
+			if (mProp.reset(line).matches()) {
+				if (inProp)
+					endProp(v, curPath, lineStart);
+				
+				/* If the property change is the only thing
+				 * appearing in the diff, start a file first. 
+				 */
+				if (curPath == null) {
+					curPath = FileUtils.appendPath(basePath, mProp.group(1));
+					fileAdded = fileRemoved = 0;
+					v.startFile(curPath);
+				}
+				inProp = true;
+				textStart = lineStart;
+				lineStart = offset;
+				continue;
+			}
+			
+			if (curPath == null) {
+				error = "Not a chunk header: " + line;
+				return false;
+			}
+			
+			/* Property change contents or garbage between chunks */
+			lineStart = offset;
+		}
+		
+		if (inProp)
+			endProp(v, curPath, offset);
+		if (curPath != null)
+			v.endFile(curPath, fileAdded, fileRemoved);
+		
+		in = null;
+		return true;
+	}
+
+	private void endProp(DiffVisitor v, String path, int end) {
+		textEnd = end;
+		v.propertyChange(path);
+	}
+
+	/**
+	 * Read the next line, without its terminator, into the line buffer and
+	 * advance the offset past the terminator.
+	 * 
+	 * @return false at the end of input
+	 */
+	private boolean readLine() throws IOException {
+		line.setLength(0);
+		boolean read = false;
+		while (true) {
+			if (bufPos == bufLen && !fill())
+				return read;
+			read = true;
+			char c = buf[bufPos++];
+			offset++;
+			if (c == '\n')
+				return true;
+			if (c == '\r') {
+				if ((bufPos < bufLen || fill()) && buf[bufPos] == '\n') {
+					bufPos++;
+					offset++;
+				}
+				return true;
+			}
+			line.append(c);
+		}
+	}
+
+	/**
+	 * Returns the first character of the next line without consuming it,
+	 * or -1 at the end of input. 
+	 */
+	private int peek() throws IOException {
+		if (bufPos == bufLen && !fill())
+			return -1;
+		return buf[bufPos];
+	}
+
+	private boolean fill() throws IOException {
+		int r = in.read(buf, 0, buf.length);
+		if (r <= 0) {
+			bufPos = bufLen = 0;
+			return false;
+		}
+		bufPos = 0;
+		bufLen = r;
+		return true;
+	}
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
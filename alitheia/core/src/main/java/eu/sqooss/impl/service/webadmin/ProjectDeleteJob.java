@@ -70,6 +70,11 @@ public class ProjectDeleteJob extends Job {
         }
 
         sp = dbs.attachObjectToDBSession(sp);
+        // Delete the project's measurements in bulk, the cascading deletes
+        // below then find little left to do
+        if (!dbs.clearProjectPartitions(sp))
+            throw new Exception("Cannot delete the measurements of " + sp);
+
         // Delete any associated invocation rules first
         HashMap<String, Object> properties = new HashMap<String, Object>();
         properties.put("project", sp);
@@ -112,10 +117,20 @@ public class ProjectDeleteJob extends Job {
 
         if (success) {
             dbs.commitDBSession();
+            // Cached lookups by project name must not find it anymore
+            dbs.evictCache(StoredProject.class);
         } else {
             dbs.rollbackDBSession();
+            return;
         }
 
+        // The partitions are empty now; dropping them locks the whole
+        // measurement tables, so do it in a short transaction of its own
+        dbs.startDBSession();
+        if (!dbs.dropProjectPartitions(sp))
+            throw new Exception("Cannot drop the measurement partitions of " + sp);
+        dbs.commitDBSession();
+
     }
     
     @Override
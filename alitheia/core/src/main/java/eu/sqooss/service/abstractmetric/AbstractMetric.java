@@ -50,6 +50,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -125,11 +126,26 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 
     private Map<Metric, List<Class<? extends DAObject>>> metricActType =
     	new HashMap<Metric, List<Class<? extends DAObject>>>();
+
+    /** 
+     * Dispatch tables for run() and getResult(), by the class of the 
+     * measured DAO. Entries for the declared activators are resolved when
+     * the plug-in is constructed; other classes (e.g. Hibernate proxies) 
+     * on first use.
+     */
+    private Map<Class<?>, Method> runMethods = 
+        new ConcurrentHashMap<Class<?>, Method>();
+    private Map<Class<?>, Method> getResultMethods = 
+        new ConcurrentHashMap<Class<?>, Method>();
+
+    /** Cached result of getUniqueKey(), depends only on the class name */
+    private volatile String uniqueKey;
     
     protected static final String QRY_SYNC_PV = "select pv.id from ProjectVersion pv " +
     		"where pv.project = :project and not exists(" +
     		"	select pvm.projectVersion from ProjectVersionMeasurement pvm " +
-    		"	where pvm.projectVersion.id = pv.id and pvm.metric.id = :metric) " +
+    		"	where pvm.projectVersion.id = pv.id and pvm.metric.id = :metric " +
+    		"	and pvm.project = :project) " +
     		"order by pv.sequence asc";
     
     protected static final String QRY_SYNC_PF = "select pf.id " +
@@ -139,7 +155,8 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
     		"	select pfm.projectFile " +
     		"	from ProjectFileMeasurement pfm " +
     		"	where pfm.projectFile.id = pf.id " +
-    		"	and pfm.metric.id = :metric) " +
+    		"	and pfm.metric.id = :metric " +
+    		"	and pfm.project = :project) " +
     		"	and pf.isDirectory = false)  " +
     		"order by pv.sequence asc";
     
@@ -150,7 +167,8 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 		"	select pfm.projectFile " +
 		"	from ProjectFileMeasurement pfm " +
 		"	where pfm.projectFile.id = pf.id " +
-		"	and pfm.metric.id = :metric) " +
+		"	and pfm.metric.id = :metric " +
+		"	and pfm.project = :project) " +
 		"	and pf.isDirectory = true)  " +
 		"order by pv.sequence asc";
     
@@ -272,6 +290,21 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 		} else {
 			log.warn("Plug-in " + getName() + " declares no metrics");
 		}
+
+		for (Class<? extends DAObject> activator : activators) {
+		    try {
+		        runMethod(activator);
+		    } catch (NoSuchMethodException e) {
+		        log.warn("Plug-in " + getName() + " has no run method for "
+		                + "activator " + activator.getName());
+		    }
+		    try {
+		        getResultMethod(activator);
+		    } catch (NoSuchMethodException e) {
+		        log.warn("Plug-in " + getName() + " has no getResult method "
+		                + "for activator " + activator.getName());
+		    }
+		}
      }
 
     /**
@@ -347,7 +380,7 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
             }
             List<Result> re = null;
             try {
-                Method method = findGetResultMethod(o.getClass());
+                Method method = getResultMethod(o.getClass());
                 re = (List<Result>) method.invoke(this, o, m);
             } catch (SecurityException e) {
                 logErr("getResult", o, e);
@@ -369,6 +402,16 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
         return result;
     }
 
+     private Method getResultMethod(Class<?> clazz) 
+     throws NoSuchMethodException {
+         Method m = getResultMethods.get(clazz);
+         if (m == null) {
+             m = accessible(findGetResultMethod(clazz));
+             getResultMethods.put(clazz, m);
+         }
+         return m;
+     }
+
      private Method findGetResultMethod(Class<?> clazz) 
      throws NoSuchMethodException {
      Method m = null;
@@ -437,48 +480,39 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
         return r;
     }
 
-    private Map<Long,Pair<Object,Integer>> locks = new HashMap<Long,Pair<Object,Integer>>();
+    /**
+     * DAOs currently being measured by this plug-in, by id. Each entry is
+     * owned by the thread that inserted it, so locking distinct DAOs
+     * never contends on a shared monitor. 
+     */
+    private ConcurrentMap<Long, Object> locks = 
+        new ConcurrentHashMap<Long, Object>();
     
     private Object lockObject(DAObject o) throws AlreadyProcessingException {
-    	synchronized (locks) {
-            if (!locks.containsKey(o.getId())) {
-                locks.put(o.getId(), 
-                        new Pair<Object, Integer>(new Object(),0));
-            }
-            Pair<Object, Integer> p = locks.get(o.getId());
-            if (p.second + 1 > 1) {
-                /*
-                 * Break and reschedule the calculation of each call to the
-                 * getResult method if it originates from another thread than
-                 * the thread that has currently locked the DAO object. 
-                 * This is required for the DB transaction in the stopped
-                 * job to see the results of the calculation of the original
-                 * job.
-                 */ 
-                log.debug("DAO Id:" + o.getId() + 
-                        " Already locked - failing job");
-                try {
-                    throw new AlreadyProcessingException();
-                } finally {
-                    MetricActivator ma = AlitheiaCore.getInstance().getMetricActivator();
-                    ma.runMetric(o, this);
-                }
+        Object lock = new Object();
+        if (locks.putIfAbsent(o.getId(), lock) != null) {
+            /*
+             * Break and reschedule the calculation of each call to the
+             * getResult method if it originates from another thread than
+             * the thread that has currently locked the DAO object. 
+             * This is required for the DB transaction in the stopped
+             * job to see the results of the calculation of the original
+             * job.
+             */ 
+            log.debug("DAO Id:" + o.getId() + 
+                    " Already locked - failing job");
+            try {
+                throw new AlreadyProcessingException();
+            } finally {
+                MetricActivator ma = AlitheiaCore.getInstance().getMetricActivator();
+                ma.runMetric(o, this);
             }
-            p.second = p.second + 1;
-            return p.first;
         }
+        return lock;
     }
     
     private void unlockObject(DAObject o) {
-    	synchronized(locks) {
-    		Pair<Object,Integer> p = locks.get(o.getId());
-    		p.second = p.second - 1;
-    		if (p.second == 0) {
-    			locks.remove(o.getId());
-    		} else {
-    		log.debug("Unlocking DAO Id:" + o.getId());
-    		}
-    	}
+        locks.remove(o.getId());
     }
     
     /**
@@ -501,7 +535,7 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
         }
 
         try {
-            Method m = findRunMethod("run", o.getClass());
+            Method m = runMethod(o.getClass());
             m.invoke(this, o);
         } catch (SecurityException e) {
             logErr("run", o, e);
@@ -527,6 +561,23 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
         }
     }
     
+    private Method runMethod(Class<?> clazz) throws NoSuchMethodException {
+        Method m = runMethods.get(clazz);
+        if (m == null) {
+            m = accessible(findRunMethod("run", clazz));
+            runMethods.put(clazz, m);
+        }
+        return m;
+    }
+
+    /* Skip the access checks on every invocation, where allowed */
+    private static Method accessible(Method m) {
+        try {
+            m.setAccessible(true);
+        } catch (SecurityException ignored) {}
+        return m;
+    }
+
     private Method findRunMethod(String name, Class<?> clazz) 
         throws NoSuchMethodException {
         Method m = null;
@@ -557,6 +608,18 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 
     /** {@inheritDoc} */
     public List<Metric> getAllSupportedMetrics() {
+        List<Long> ids = pa.getMetricRegistry().getMetricIds(getUniqueKey());
+        if (ids != null) {
+            List<Metric> result = new ArrayList<Metric>(ids.size());
+            for (Long id : ids) {
+                Metric m = db.findObjectById(Metric.class, id);
+                if (m != null)
+                    result.add(m);
+            }
+            return result;
+        }
+
+        //Not installed yet or registry not refreshed, ask the database
         String qry = "from Metric m where m.plugin=:plugin";
         Map<String,Object> params = new HashMap<String,Object>();
         params.put("plugin", Plugin.getPluginByHashcode(getUniqueKey()));
@@ -682,6 +745,8 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
      * Return an MD5 hex key uniquely identifying the plug-in
      */
     public final String getUniqueKey() {
+        if (uniqueKey != null)
+            return uniqueKey;
     	MessageDigest m = null;
 		try {
 			m = MessageDigest.getInstance("MD5");
@@ -693,7 +758,8 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 		byte[] data = name.getBytes(); 
 		m.update(data,0,data.length);
 		BigInteger i = new BigInteger(1,m.digest());
-		return String.format("%1$032X", i);
+		uniqueKey = String.format("%1$032X", i);
+		return uniqueKey;
     }
 
     /** {@inheritDoc} */
@@ -180,6 +180,10 @@ public class AddProject extends AdminActionBase {
         StoredProject sp = new StoredProject(name);
         //The project is now ready to be added 
         db.addRecord(sp);
+        if (!db.addProjectPartitions(sp)) {
+            removeProject(db, sp);
+            error("db.partition", "Cannot create measurement partitions for project: " + name);
+        }
         
         //Store all known properties to the database
         for (ConfigOption co : ConfigOption.values()) {
@@ -217,6 +221,31 @@ public class AddProject extends AdminActionBase {
         finished("Project addded succesfully");
     }
     
+    /*
+     * Undo adding a project whose measurement partitions could not be 
+     * created. On MySQL, creating them has committed the project already,
+     * and its measurements could not be stored without partitions.
+     */
+    private void removeProject(DBService db, StoredProject sp) {
+        if (db.isDBSessionActive())
+            db.rollbackDBSession();
+        db.startDBSession();
+        StoredProject stored = db.findObjectById(StoredProject.class, sp.getId());
+        if (stored != null && (!db.deleteRecord(stored) || !db.commitDBSession()))
+            warn("db.partition", "Cannot remove project " + sp.getName() 
+                    + " after failing to create its partitions");
+        
+        // Drop the partitions created before the failure
+        if (!db.isDBSessionActive())
+            db.startDBSession();
+        if (db.dropProjectPartitions(sp))
+            db.commitDBSession();
+        
+        // The caller ends the session of the failed action
+        if (!db.isDBSessionActive())
+            db.startDBSession();
+    }
+    
     private void addProjectDir(String info) throws Exception {
         
         if (info == null || info.length() == 0) {
@@ -32,6 +32,7 @@ package eu.sqooss.service.admin.actions;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.admin.AdminActionBase;
+import eu.sqooss.service.db.ConnectionPoolStats;
 import eu.sqooss.service.scheduler.SchedulerStats;
 
 public class RunTimeInfo extends AdminActionBase {
@@ -64,6 +65,22 @@ public class RunTimeInfo extends AdminActionBase {
             result.put("sched.jobs.finished", s.getFinishedJobs());
             result.put("sched.threads.idle", s.getIdleWorkerThreads());
             result.put("sched.threads.total", s.getWorkerThreads());
+
+            ConnectionPoolStats p = AlitheiaCore.getInstance().getDBService()
+                    .getConnectionPoolStats();
+            if (p != null) {
+                result.put("db.pool.size.max", p.getMaxSize());
+                result.put("db.pool.size", p.getConnections());
+                result.put("db.pool.busy", p.getBusyConnections());
+                result.put("db.pool.idle", p.getIdleConnections());
+                result.put("db.pool.saturation", p.getSaturation());
+                result.put("db.pool.waiting", p.getWaitingThreads());
+                result.put("db.pool.checkouts", p.getCheckouts());
+                result.put("db.pool.checkouts.failed", p.getFailedCheckouts());
+                result.put("db.pool.wait.avg", p.getAvgWaitMillis());
+                result.put("db.pool.wait.max", p.getMaxWaitMillis());
+                result.put("db.pool.leaks", p.getLeakSuspects());
+            }
         } catch (Exception e) {
             error(e);
         }
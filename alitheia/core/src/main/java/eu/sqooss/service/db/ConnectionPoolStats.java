@@ -0,0 +1,139 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.db;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A point in time view of the JDBC connection pool used by the 
+ * {@link DBService}. Counters are cumulative since the pool was started.
+ */
+public class ConnectionPoolStats {
+    // the configured maximum number of connections
+    private final int maxSize;
+    // connections currently open, checked out or idle
+    private final int connections;
+    // connections currently checked out
+    private final int busy;
+    // connections currently idle in the pool
+    private final int idle;
+    // threads currently blocked waiting for a connection
+    private final int waitingThreads;
+    // the number of successful checkouts
+    private final long checkouts;
+    // the number of checkouts that failed
+    private final long failedCheckouts;
+    // total and longest time spent waiting for a connection
+    private final long totalWaitMillis;
+    private final long maxWaitMillis;
+    // connections held longer than the leak threshold
+    private final List<String> leakSuspects;
+
+    public ConnectionPoolStats(int maxSize, int connections, int busy,
+            int idle, int waitingThreads, long checkouts, long failedCheckouts,
+            long totalWaitMillis, long maxWaitMillis, List<String> leakSuspects) {
+        this.maxSize = maxSize;
+        this.connections = connections;
+        this.busy = busy;
+        this.idle = idle;
+        this.waitingThreads = waitingThreads;
+        this.checkouts = checkouts;
+        this.failedCheckouts = failedCheckouts;
+        this.totalWaitMillis = totalWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.leakSuspects = Collections.unmodifiableList(leakSuspects);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getBusyConnections() {
+        return busy;
+    }
+
+    public int getIdleConnections() {
+        return idle;
+    }
+
+    public int getWaitingThreads() {
+        return waitingThreads;
+    }
+
+    public long getCheckouts() {
+        return checkouts;
+    }
+
+    public long getFailedCheckouts() {
+        return failedCheckouts;
+    }
+
+    public long getTotalWaitMillis() {
+        return totalWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Average time a checkout had to wait for a connection, in ms.
+     */
+    public double getAvgWaitMillis() {
+        return checkouts == 0 ? 0 : (double) totalWaitMillis / checkouts;
+    }
+
+    /**
+     * Fraction of the maximum pool size currently checked out; at 1.0
+     * new requests have to wait for a connection to be returned.
+     */
+    public double getSaturation() {
+        return maxSize <= 0 ? 0 : (double) busy / maxSize;
+    }
+
+    /**
+     * Descriptions (thread name and hold time) of connections that have
+     * been checked out for longer than the configured leak threshold.
+     */
+    public List<String> getLeakSuspects() {
+        return leakSuspects;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -100,6 +100,23 @@ public interface DBService extends AlitheiaCoreService {
      *          or if the session couldn't be started
      */
     public boolean startDBSession();
+
+    /**
+     * Starts a new read-only work session for the current thread. Changes
+     * to loaded DAOs are not tracked or flushed, the JDBC connection is
+     * marked read-only and, if a read replica is configured 
+     * (eu.sqooss.db.replica.host), the session is served by the replica.
+     * Methods that write (addRecord(s), deleteRecord(s), executeUpdate)
+     * fail in such a session. The session ends with commitDBSession or 
+     * rollbackDBSession as usual.
+     * 
+     * As with startDBSession, an already active session of either kind
+     * is reused.
+     * 
+     * @return true if the session was correctly started or one was already
+     *         active, false if the session couldn't be started
+     */
+    public boolean startReadOnlyDBSession();
     
     /**
      * Commits the changes made in the current work session into the database and closes the session,
@@ -239,6 +256,38 @@ public interface DBService extends AlitheiaCoreService {
      */
     public <T extends DAObject> boolean addRecords(List<T> records);
 
+    /**
+     * Add a large number of new records with batched JDBC inserts. Unlike
+     * addRecords, the records are not attached to the session, so they 
+     * cost no session memory and are not flushed again; they should not 
+     * be modified afterwards. Their ids are set only if the id generator
+     * is not database assigned (identity columns).
+     * 
+     * Only plain properties and many-to-one associations are written.
+     * The current session is flushed first, so the records can refer to 
+     * objects created earlier in it.
+     * 
+     * @param records The new records, may be of different classes
+     * @return true if all records were inserted
+     */
+    public <T extends DAObject> boolean addRecordsBatch(List<T> records);
+
+    /**
+     * Store measurements with batched JDBC statements, replacing the
+     * result of existing measurements for the same metric and measured
+     * object instead of adding duplicates. Like addRecordsBatch, the 
+     * measurements are not attached to the session; unlike it, their
+     * ids are not set. Existing measurements are matched on the measured
+     * object columns, through a unique key on them for file and version
+     * measurements. The key is created when the service starts, unless
+     * the table has duplicate measurements and eu.sqooss.db.dedup is not
+     * set to remove them.
+     * 
+     * @param records The measurements to store
+     * @return true if all measurements were stored
+     */
+    public <T extends MetricMeasurement> boolean upsertMeasurements(List<T> records);
+
     /**
      * Delete an existing record from the database.
      *
@@ -480,6 +529,63 @@ public interface DBService extends AlitheiaCoreService {
      * @return The number of rows updated or deleted or -1 in case of error
      */
     public int executeUpdate(String hql, Map<String, Object> params);
+
+    /**
+     * Drop all second-level cache entries for a DAO class, along with all
+     * cached query results. Hibernate keeps the cache consistent with the
+     * changes made through it; this is for changes it does not see, 
+     * such as large cascades or updates from other cluster nodes.
+     * 
+     * @param daoClass The DAO class to evict, a no-op if it is not cached
+     */
+    public <T extends DAObject> void evictCache(Class<T> daoClass);
+
+    /**
+     * Create the partitions that hold the measurements of a new project.
+     * Must be called in an active DB session, once the project has an id.
+     * On MySQL this commits the work done so far in the session, so on 
+     * error the project has to be deleted in a new session.
+     * 
+     * @param project The new project
+     * @return true if the partitions exist or measurement partitioning
+     * is not enabled, false on error; the session is terminated in that 
+     * case
+     */
+    public boolean addProjectPartitions(StoredProject project);
+
+    /**
+     * Delete all measurements of a project from its partitions, as part of
+     * the current transaction, so that deleting the project does not have
+     * to cascade to them row by row. Must be called in an active DB 
+     * session, before the project's measurements are accessed in it.
+     * 
+     * @param project The project being deleted
+     * @return true if the measurements were deleted or measurement 
+     * partitioning is not enabled, false on error; the session is 
+     * terminated in that case
+     */
+    public boolean clearProjectPartitions(StoredProject project);
+
+    /**
+     * Drop the partitions of a deleted project. Must be called in an 
+     * active DB session, after the deletion of the project has been
+     * committed. On MySQL this commits the work done so far in the 
+     * session. 
+     * 
+     * @param project The deleted project
+     * @return true if the partitions were dropped or measurement 
+     * partitioning is not enabled, false on error
+     */
+    public boolean dropProjectPartitions(StoredProject project);
+
+    /**
+     * Get the current state of the JDBC connection pool of the primary
+     * database. The pool of a read replica, if any, is not included.
+     * 
+     * @return The pool statistics or null if the DB service is not 
+     * configured to use a monitored connection pool
+     */
+    public ConnectionPoolStats getConnectionPoolStats();
     
     /**
      * Get the logger used by the DB service, to log something DB specific. 
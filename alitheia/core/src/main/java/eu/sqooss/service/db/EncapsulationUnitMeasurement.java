@@ -13,6 +13,8 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Instances of this class represent a measurement made against a
  * encapsulation unit version, as stored in the database
@@ -50,10 +52,19 @@ public class EncapsulationUnitMeasurement extends MetricMeasurement {
     @Column(name="RESULT")
     private String result;
 
+    /**
+     * The project the measured resource belongs to; kept here so that
+     * measurements can be partitioned and pruned per project
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "PROJECT_ID")
+    @Index(name = "IDX_ENCUM_PROJECT")
+    private StoredProject project;
+
     public EncapsulationUnitMeasurement(){}
     
     public EncapsulationUnitMeasurement(EncapsulationUnit eu, Metric m, String result) {
-        this.encapsulationUnit = eu;
+        setEncapsulationUnit(eu);
         this.metric = m;
         this.result = result;
     }
@@ -72,6 +83,17 @@ public class EncapsulationUnitMeasurement extends MetricMeasurement {
 
     public void setEncapsulationUnit(EncapsulationUnit encapsulationUnit) {
         this.encapsulationUnit = encapsulationUnit;
+        if (encapsulationUnit != null && encapsulationUnit.getFile() != null 
+                && encapsulationUnit.getFile().getProjectVersion() != null)
+            this.project = encapsulationUnit.getFile().getProjectVersion().getProject();
+    }
+
+    public StoredProject getProject() {
+        return project;
+    }
+
+    public void setProject(StoredProject project) {
+        this.project = project;
     }
 
     public Metric getMetric() {
@@ -13,6 +13,8 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Index;
+
 
 /**
  * Instances of this class represent a measurement made against a
@@ -51,10 +53,19 @@ public class ExecutionUnitMeasurement extends MetricMeasurement {
     @Column(name="RESULT")
     private String result;
 
+    /**
+     * The project the measured resource belongs to; kept here so that
+     * measurements can be partitioned and pruned per project
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "PROJECT_ID")
+    @Index(name = "IDX_EXECUM_PROJECT")
+    private StoredProject project;
+
     public ExecutionUnitMeasurement() {}
     
     public ExecutionUnitMeasurement(ExecutionUnit eu, Metric m, String result) {
-        this.executionUnit = eu;
+        setExecutionUnit(eu);
         this.metric = m;
         this.result = result;
     }
@@ -73,6 +84,17 @@ public class ExecutionUnitMeasurement extends MetricMeasurement {
 
     public void setExecutionUnit(ExecutionUnit executionUnit) {
         this.executionUnit = executionUnit;
+        if (executionUnit != null && executionUnit.getFile() != null 
+                && executionUnit.getFile().getProjectVersion() != null)
+            this.project = executionUnit.getFile().getProjectVersion().getProject();
+    }
+
+    public StoredProject getProject() {
+        return project;
+    }
+
+    public void setProject(StoredProject project) {
+        this.project = project;
     }
 
     public Metric getMetric() {
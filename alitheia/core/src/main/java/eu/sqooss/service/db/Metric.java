@@ -53,6 +53,8 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.pa.MetricRegistry;
+import eu.sqooss.service.pa.PluginAdmin;
 
 /**
  * Instances of this object type represent the basic information on Metrics
@@ -259,13 +261,13 @@ public class Metric extends DAObject {
 		switch (metricType.getEnumType()) {
 		case PROJECT_VERSION:
 			query.append("select pvm from ProjectVersionMeasurement pvm ")
-				 .append("where pvm.metric=:metric and pvm.projectVersion.project=:project");
+				 .append("where pvm.metric=:metric and pvm.project=:project");
 			break;
 		case SOURCE_FILE:
 		case SOURCE_DIRECTORY:
 			query.append("select pfm from ProjectFileMeasurement pfm ")
 				 .append("where pfm.metric=:metric ")
-				 .append("and pfm.projectFile.projectVersion.project=:project");
+				 .append("and pfm.project=:project");
 			break;
 		case MAILTHREAD:
 			query.append("select mltm from MailingListThreadMeasurement mltm ")
@@ -343,7 +345,20 @@ public class Metric extends DAObject {
 	 *         provided mnemonic
 	 */
 	public static Metric getMetricByMnemonic(String mnem) {
-		DBService dbs = AlitheiaCore.getInstance().getDBService();
+		AlitheiaCore core = AlitheiaCore.getInstance();
+		DBService dbs = core.getDBService();
+
+		// Installed metrics are resolved through the plug-in admin's
+		// registry, which turns this into a session (cache) lookup
+		PluginAdmin pa = core.getPluginAdmin();
+		if (pa != null) {
+			MetricRegistry.Entry e = pa.getMetricRegistry().get(mnem);
+			if (e != null) {
+				Metric m = dbs.findObjectById(Metric.class, e.getMetricId());
+				if (m != null)
+					return m;
+			}
+		}
 
 		Map<String, Object> properties = new HashMap<String, Object>();
 		properties.put("mnemonic", mnem);
@@ -46,6 +46,8 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Instances of this class represent a measurement made against a
  * specific file, as stored in the database
@@ -81,6 +83,15 @@ public class ProjectFileMeasurement extends MetricMeasurement {
     @JoinColumn(name = "PROJECT_FILE_ID", referencedColumnName = "PROJECT_FILE_ID")
     private ProjectFile projectFile;
 
+    /**
+     * The project the measured resource belongs to; kept here so that
+     * measurements can be partitioned and pruned per project
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "PROJECT_ID")
+    @Index(name = "IDX_PFM_PROJECT")
+    private StoredProject project;
+
     public ProjectFileMeasurement() {
         // Nothing to do here
         super();
@@ -116,6 +127,16 @@ public class ProjectFileMeasurement extends MetricMeasurement {
 
     public void setProjectFile(ProjectFile pf) {
         this.projectFile = pf;
+        if (pf != null && pf.getProjectVersion() != null)
+            this.project = pf.getProjectVersion().getProject();
+    }
+
+    public StoredProject getProject() {
+        return project;
+    }
+
+    public void setProject(StoredProject project) {
+        this.project = project;
     }
     
     public Metric getMetric() {
@@ -616,6 +616,7 @@ public class ProjectVersion extends DAObject {
         String query = "select pv from ProjectVersionMeasurement pvm, ProjectVersion pv" +
            " where pvm.projectVersion = pv" +
            " and pvm.metric = :metric and pv.project = :project" +
+           " and pvm.project = :project" +
            " order by pv.sequence desc";
 
         HashMap<String, Object> params = new HashMap<String, Object>(4);
@@ -46,6 +46,8 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Instances of this class represent the result of measurements made
  * against ProjectVersions as stored in the database
@@ -81,6 +83,15 @@ public class ProjectVersionMeasurement extends MetricMeasurement {
     @JoinColumn(name = "PROJECT_VERSION_ID")
     private ProjectVersion projectVersion;
 
+    /**
+     * The project the measured resource belongs to; kept here so that
+     * measurements can be partitioned and pruned per project
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "PROJECT_ID")
+    @Index(name = "IDX_PVM_PROJECT")
+    private StoredProject project;
+
     public ProjectVersionMeasurement() {
         super();
     }
@@ -113,6 +124,16 @@ public class ProjectVersionMeasurement extends MetricMeasurement {
 
     public void setProjectVersion(ProjectVersion projectVersion) {
         this.projectVersion = projectVersion;
+        if (projectVersion != null)
+            this.project = projectVersion.getProject();
+    }
+
+    public StoredProject getProject() {
+        return project;
+    }
+
+    public void setProject(StoredProject project) {
+        this.project = project;
     }
     
     /**
@@ -0,0 +1,120 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.fds;
+
+/**
+ * Describes how comments and string literals are delimited in a family of
+ * source languages. A grammar is a set of byte level delimiters along with a
+ * 256 entry classification table that lets {@link SourceScanner} decide with
+ * a single array lookup whether a byte can start anything interesting.
+ * <p>
+ * Grammars are immutable and shared; use the predefined instances or
+ * {@link FileTypeMatcher#getCommentGrammar(String)} to obtain one.
+ */
+public final class CommentGrammar {
+
+    /** Byte class: nothing special */
+    static final byte OTHER = 0;
+    /** Byte class: whitespace, as understood by java.util.StringTokenizer */
+    static final byte SPACE = 1;
+    /** Byte class: line feed */
+    static final byte LF = 2;
+    /** Byte class: carriage return */
+    static final byte CR = 3;
+    /** Byte class: may be the first byte of a comment delimiter */
+    static final byte COMMENT = 4;
+    /** Byte class: string or character literal delimiter */
+    static final byte QUOTE = 5;
+
+    /** C++, Java, C# and friends: //, /* and * / */
+    public static final CommentGrammar C_FAMILY =
+        new CommentGrammar("C_FAMILY", "//", "/*", "*/", "\"'", true);
+
+    /** ANSI C: block comments only */
+    public static final CommentGrammar C =
+        new CommentGrammar("C", null, "/*", "*/", "\"'", true);
+
+    /** Shell, Perl, Python, Ruby: # line comments */
+    public static final CommentGrammar HASH =
+        new CommentGrammar("HASH", "#", null, null, "\"'", true);
+
+    /** SGML derived markup languages: &lt;!-- and --&gt; */
+    public static final CommentGrammar MARKUP =
+        new CommentGrammar("MARKUP", null, "<!--", "-->", null, false);
+
+    /** Plain text; no comments, no strings */
+    public static final CommentGrammar NONE =
+        new CommentGrammar("NONE", null, null, null, null, false);
+
+    private final String name;
+    final byte[] line;
+    final byte[] blockStart;
+    final byte[] blockEnd;
+    final boolean escapes;
+    final byte[] classes = new byte[256];
+
+    private CommentGrammar(String name, String line, String blockStart,
+            String blockEnd, String quotes, boolean escapes) {
+        this.name = name;
+        this.line = (line == null) ? null : line.getBytes();
+        this.blockStart = (blockStart == null) ? null : blockStart.getBytes();
+        this.blockEnd = (blockEnd == null) ? null : blockEnd.getBytes();
+        this.escapes = escapes;
+
+        classes[' '] = SPACE;
+        classes['\t'] = SPACE;
+        classes['\f'] = SPACE;
+        classes['\n'] = LF;
+        classes['\r'] = CR;
+        if (this.line != null)
+            classes[this.line[0] & 0xff] = COMMENT;
+        if (this.blockStart != null)
+            classes[this.blockStart[0] & 0xff] = COMMENT;
+        if (quotes != null) {
+            for (byte q : quotes.getBytes())
+                classes[q & 0xff] = QUOTE;
+        }
+    }
+
+    /** Returns true if this grammar recognises any kind of comment. */
+    public boolean hasComments() {
+        return line != null || blockStart != null;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -45,6 +45,7 @@ public final class FileTypeMatcher {
 
 	private static FileTypeMatcher instance;
 	private static HashMap<String, FileType> lookupTable = new HashMap<String, FileType>();
+	private static HashMap<String, CommentGrammar> grammars = new HashMap<String, CommentGrammar>();
 
 	private static Pattern doc;
 	private static Pattern locale;
@@ -141,6 +142,18 @@ public final class FileTypeMatcher {
 
 	private static String[] transMimes = { ".po" };
 
+	private static String[] cFamilyComments = { ".C", ".cc", ".cpp", ".cxx",
+			".c++", ".h", ".hh", ".hpp", ".hxx", ".java", ".cs", ".js",
+			".scala", ".d", ".idl", ".php" };
+
+	private static String[] cComments = { ".c", ".css", ".y", ".l" };
+
+	private static String[] hashComments = { ".py", ".sh", ".csh", ".pl",
+			".pm", ".perl", ".rb", ".tcl", ".awk", ".sed", ".am" };
+
+	private static String[] markupComments = { ".html", ".htm", ".xhtml",
+			".xml", ".xsl", ".dtd", ".sgml", ".pom" };
+
 	private static final String locales = "ar_SA|zh_CN|zh_TW|nl_NL|en_AU|en_CA|"
 			+ "en_GB|en_US|fr_CA|fr_FR|de_DE|iw_IL|hi_IN|it_IT|ja_JP|ko_KR|"
 			+ "pt_BR|es_ES|sv_SE|th_TH|th_TH_TH|sq_AL|ar_DZ|ar_BH|ar_EG|"
@@ -169,6 +182,18 @@ public final class FileTypeMatcher {
 
 		for (String s : transMimes)
 			lookupTable.put(s, FileType.TRANS);	
+
+		for (String s : cFamilyComments)
+			grammars.put(s, CommentGrammar.C_FAMILY);
+
+		for (String s : cComments)
+			grammars.put(s, CommentGrammar.C);
+
+		for (String s : hashComments)
+			grammars.put(s, CommentGrammar.HASH);
+
+		for (String s : markupComments)
+			grammars.put(s, CommentGrammar.MARKUP);
 	}
 
 	/**
@@ -288,6 +313,23 @@ public final class FileTypeMatcher {
 	    return false;
 	}
 
+	/**
+	 * Get the comment syntax of the language the file at path is written in,
+	 * based on its file extension. Files of unknown type are assumed to use
+	 * C style block comments.
+	 * 
+	 * @param path
+	 *            The path to check
+	 * @return The comment grammar for the file; never null
+	 */
+	public CommentGrammar getCommentGrammar(String path) {
+		CommentGrammar g = grammars.get(getFileExtension(path));
+		if (g == null) {
+			return CommentGrammar.C;
+		}
+		return g;
+	}
+
 	/**
 	 * Given a filename extension ext, check the known lists of file extensions
 	 * for an exact match.
@@ -0,0 +1,303 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.fds;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single pass, allocation free scanner for source files. The scanner
+ * walks a byte array once and computes line, comment line, non-blank line
+ * and word counts, optionally writing out the file contents with comments
+ * removed and string literals emptied, which is what the structural
+ * metrics need to work on.
+ * <p>
+ * Comment and string syntax is described by a {@link CommentGrammar}; the
+ * scanner consults the grammar's byte classification table for each byte
+ * and only looks further ahead when a byte may start a delimiter. The
+ * semantics of the counts are those of the old line based implementation:
+ * <ul>
+ * <li>lines are terminated by LF, CR or CR+LF; a trailing line without a
+ * terminator is counted</li>
+ * <li>a line is a comment line if a comment starts, continues or ends on
+ * it</li>
+ * <li>a line is blank if it only contains space, tab or form feed
+ * characters</li>
+ * <li>words are maximal runs of bytes other than space, tab, form feed,
+ * CR and LF, as java.util.StringTokenizer would count them</li>
+ * </ul>
+ * Comment delimiters appearing within string literals are ignored. String
+ * literals do not span lines.
+ */
+public final class SourceScanner {
+
+    private static final int CODE = 0;
+    private static final int LINE_COMMENT = 1;
+    private static final int BLOCK_COMMENT = 2;
+    private static final int STRING = 3;
+
+    private SourceScanner() {}
+
+    /**
+     * Scan the contents of a file held in a byte buffer. Heap buffers are
+     * scanned in place; direct buffers are copied first. The buffer's
+     * position is not modified.
+     *
+     * @see #scan(byte[], int, int, CommentGrammar, byte[])
+     */
+    public static ScanResult scan(ByteBuffer buf, CommentGrammar g,
+            byte[] code) {
+        if (buf.hasArray()) {
+            return scan(buf.array(), buf.arrayOffset() + buf.position(),
+                    buf.remaining(), g, code);
+        }
+        byte[] b = new byte[buf.remaining()];
+        buf.duplicate().get(b);
+        return scan(b, 0, b.length, g, code);
+    }
+
+    /**
+     * Scan a whole byte array.
+     *
+     * @see #scan(byte[], int, int, CommentGrammar, byte[])
+     */
+    public static ScanResult scan(byte[] buf, CommentGrammar g, byte[] code) {
+        return scan(buf, 0, buf.length, g, code);
+    }
+
+    /**
+     * Scan <code>len</code> bytes of <code>buf</code>, starting at
+     * <code>off</code>.
+     *
+     * @param buf The file contents
+     * @param off Offset of the first byte to scan
+     * @param len Number of bytes to scan
+     * @param g The comment grammar to apply; if null,
+     *      {@link CommentGrammar#NONE} is used
+     * @param code If not null, the file contents with comments replaced
+     *      by a single space and string literals emptied are written
+     *      there. Line terminators are always preserved, so line numbers
+     *      in the output match the input. Must be at least
+     *      <code>len</code> bytes long. The output is never longer than
+     *      the input, so <code>buf</code> itself may be passed here to
+     *      strip a file in place.
+     * @return The counts for the scanned region
+     */
+    public static ScanResult scan(byte[] buf, int off, int len,
+            CommentGrammar g, byte[] code) {
+        if (g == null)
+            g = CommentGrammar.NONE;
+        if (code != null && code.length < len)
+            throw new IllegalArgumentException("Output buffer too small: "
+                    + code.length + " < " + len);
+
+        final byte[] classes = g.classes;
+        final byte[] lineStart = g.line;
+        final byte[] blockStart = g.blockStart;
+        final byte[] blockEnd = g.blockEnd;
+        final boolean escapes = g.escapes;
+        final boolean emit = (code != null);
+
+        int lines = 0, commentLines = 0, nonBlank = 0, words = 0;
+        int out = 0;
+        int state = CODE;
+        byte quote = 0;
+        boolean inWord = false;
+        boolean lineUsed = false, lineBlank = true, lineComment = false;
+
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            byte b = buf[i];
+            byte c = classes[b & 0xff];
+
+            if (c == CommentGrammar.LF || c == CommentGrammar.CR) {
+                if (emit)
+                    code[out++] = b;
+                if (c == CommentGrammar.CR && i + 1 < end && buf[i + 1] == '\n') {
+                    i++;
+                    if (emit)
+                        code[out++] = '\n';
+                }
+                lines++;
+                if (!lineBlank)
+                    nonBlank++;
+                if (lineComment)
+                    commentLines++;
+                if (state != BLOCK_COMMENT)
+                    state = CODE;
+                inWord = false;
+                lineUsed = false;
+                lineBlank = true;
+                lineComment = (state == BLOCK_COMMENT);
+                continue;
+            }
+
+            lineUsed = true;
+            if (c == CommentGrammar.SPACE) {
+                inWord = false;
+                if (emit && state == CODE)
+                    code[out++] = b;
+                continue;
+            }
+
+            lineBlank = false;
+            if (!inWord) {
+                words++;
+                inWord = true;
+            }
+
+            switch (state) {
+            case CODE:
+                if (c == CommentGrammar.COMMENT) {
+                    if (lineStart != null && matches(buf, i, end, lineStart)) {
+                        state = LINE_COMMENT;
+                        lineComment = true;
+                        i += lineStart.length - 1;
+                        if (emit)
+                            code[out++] = ' ';
+                        break;
+                    }
+                    if (blockStart != null && matches(buf, i, end, blockStart)) {
+                        state = BLOCK_COMMENT;
+                        lineComment = true;
+                        i += blockStart.length - 1;
+                        if (emit)
+                            code[out++] = ' ';
+                        break;
+                    }
+                } else if (c == CommentGrammar.QUOTE) {
+                    state = STRING;
+                    quote = b;
+                }
+                if (emit)
+                    code[out++] = b;
+                break;
+            case LINE_COMMENT:
+                break;
+            case BLOCK_COMMENT:
+                if (b == blockEnd[0] && matches(buf, i, end, blockEnd)) {
+                    state = CODE;
+                    i += blockEnd.length - 1;
+                }
+                break;
+            case STRING:
+                if (escapes && b == '\\') {
+                    /* Skip the escaped byte, unless it ends the line */
+                    if (i + 1 < end && buf[i + 1] != '\n' && buf[i + 1] != '\r')
+                        i++;
+                } else if (b == quote) {
+                    state = CODE;
+                    if (emit)
+                        code[out++] = b;
+                }
+                break;
+            }
+        }
+
+        /* Last line without a terminator */
+        if (lineUsed) {
+            lines++;
+            if (!lineBlank)
+                nonBlank++;
+            if (lineComment)
+                commentLines++;
+        }
+
+        return new ScanResult(lines, commentLines, nonBlank, words, out);
+    }
+
+    private static boolean matches(byte[] buf, int i, int end, byte[] what) {
+        if (i + what.length > end)
+            return false;
+        for (int j = 1; j < what.length; j++) {
+            if (buf[i + j] != what[j])
+                return false;
+        }
+        return buf[i] == what[0];
+    }
+
+    /**
+     * The outcome of a scan.
+     */
+    public static final class ScanResult {
+        private final int lines;
+        private final int commentLines;
+        private final int nonBlankLines;
+        private final int words;
+        private final int codeLength;
+
+        ScanResult(int lines, int commentLines, int nonBlankLines,
+                int words, int codeLength) {
+            this.lines = lines;
+            this.commentLines = commentLines;
+            this.nonBlankLines = nonBlankLines;
+            this.words = words;
+            this.codeLength = codeLength;
+        }
+
+        /** Total number of lines */
+        public int getLines() {
+            return lines;
+        }
+
+        /** Number of lines on which a comment starts, continues or ends */
+        public int getCommentLines() {
+            return commentLines;
+        }
+
+        /** Number of lines with at least one non whitespace byte */
+        public int getNonBlankLines() {
+            return nonBlankLines;
+        }
+
+        /** Number of blank lines */
+        public int getBlankLines() {
+            return lines - nonBlankLines;
+        }
+
+        /** Number of whitespace separated words, comments included */
+        public int getWords() {
+            return words;
+        }
+
+        /**
+         * Number of bytes written to the code buffer, or 0 if no buffer
+         * was passed to the scanner.
+         */
+        public int getCodeLength() {
+            return codeLength;
+        }
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
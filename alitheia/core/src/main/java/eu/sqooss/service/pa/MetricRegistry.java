@@ -0,0 +1,153 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.pa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.MetricType;
+
+/**
+ * An immutable snapshot of the metrics provided by the installed metric
+ * plug-ins, indexed by metric mnemonic and by plug-in hash code. The
+ * {@link PluginAdmin} rebuilds the snapshot whenever a plug-in is installed,
+ * uninstalled or updated and publishes it with a single reference write,
+ * so lookups never touch the database and never need to lock.
+ */
+public final class MetricRegistry {
+
+    /** A registry that knows about no metrics. */
+    public static final MetricRegistry EMPTY = new MetricRegistry(
+            new HashMap<String, Entry>(), new HashMap<String, List<Long>>());
+
+    private final Map<String, Entry> byMnemonic;
+    private final Map<String, List<Long>> byPlugin;
+
+    /**
+     * Registry entry for a single metric.
+     */
+    public static final class Entry {
+        private final long metricId;
+        private final String pluginHash;
+        private final MetricType.Type type;
+
+        Entry(long metricId, String pluginHash, MetricType.Type type) {
+            this.metricId = metricId;
+            this.pluginHash = pluginHash;
+            this.type = type;
+        }
+
+        /** The id of the <code>Metric</code> DAO */
+        public long getMetricId() {
+            return metricId;
+        }
+
+        /** The hash code of the plug-in that implements the metric */
+        public String getPluginHash() {
+            return pluginHash;
+        }
+
+        /** The type of the metric */
+        public MetricType.Type getType() {
+            return type;
+        }
+    }
+
+    private MetricRegistry(Map<String, Entry> byMnemonic,
+            Map<String, List<Long>> byPlugin) {
+        this.byMnemonic = Collections.unmodifiableMap(byMnemonic);
+        this.byPlugin = Collections.unmodifiableMap(byPlugin);
+    }
+
+    /**
+     * Read all installed metrics from the database into a new registry.
+     * Must be called with an active DB session.
+     *
+     * @param db The DB service to read the metrics from
+     * @return The new registry
+     */
+    @SuppressWarnings("unchecked")
+    public static MetricRegistry load(DBService db) {
+        String q = "select m.id, m.mnemonic, p.hashcode, mt.type " +
+            "from Metric m join m.plugin p join m.metricType mt";
+        List<Object[]> rows = (List<Object[]>) db.doHQL(q);
+
+        Map<String, Entry> byMnemonic = new HashMap<String, Entry>();
+        Map<String, List<Long>> byPlugin = new HashMap<String, List<Long>>();
+        for (Object[] row : rows) {
+            Long id = (Long) row[0];
+            String hash = (String) row[2];
+            byMnemonic.put((String) row[1], new Entry(id, hash,
+                    MetricType.Type.fromString((String) row[3])));
+
+            List<Long> ids = byPlugin.get(hash);
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                byPlugin.put(hash, ids);
+            }
+            ids.add(id);
+        }
+
+        for (Map.Entry<String, List<Long>> e : byPlugin.entrySet())
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+
+        return new MetricRegistry(byMnemonic, byPlugin);
+    }
+
+    /**
+     * Get the registry entry for a metric.
+     *
+     * @param mnemonic The metric's mnemonic name
+     * @return The entry or null if no installed metric has this mnemonic
+     */
+    public Entry get(String mnemonic) {
+        return byMnemonic.get(mnemonic);
+    }
+
+    /**
+     * Get the ids of all metrics provided by a plug-in.
+     *
+     * @param pluginHash The plug-in's hash code
+     * @return The metric ids or null if the plug-in is not in the registry
+     */
+    public List<Long> getMetricIds(String pluginHash) {
+        return byPlugin.get(pluginHash);
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
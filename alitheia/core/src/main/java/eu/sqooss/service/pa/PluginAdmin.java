@@ -120,6 +120,16 @@ public interface PluginAdmin extends AlitheiaCoreService {
      */
     public AlitheiaPlugin getImplementingPlugin(String mnemonic);
 
+    /**
+     * Get the current snapshot of the metrics provided by the installed
+     * metric plug-ins. The snapshot is replaced, never modified, when
+     * plug-ins are installed or removed, so callers should not keep it
+     * around for long.
+     *
+     * @return The current metric registry, never null
+     */
+    public MetricRegistry getMetricRegistry();
+
     /**
      * This method calls the <code>install()</code> method of the metric
      * plug-in object, that is provided from the metric plug-in service
@@ -0,0 +1,118 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.tds;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Number of lines added and removed per path by a single commit, similar
+ * to what <tt>git diff --numstat</tt> or <tt>svn diff | diffstat</tt>
+ * report. Binary files are reported with zero added and removed lines.
+ * 
+ * @see SCMAccessor#getCommitStats(Revision)
+ */
+public class CommitStats {
+
+    private final String revisionId;
+    private final Map<String, int[]> stats;
+    private int totalAdded, totalRemoved;
+
+    public CommitStats(String revisionId) {
+        this.revisionId = revisionId;
+        this.stats = new HashMap<String, int[]>();
+    }
+
+    /**
+     * Record lines added and removed for a path. Calling this more than
+     * once for the same path accumulates the counts. 
+     */
+    public void add(String path, int added, int removed) {
+        int[] s = stats.get(path);
+        if (s == null) {
+            s = new int[2];
+            stats.put(path, s);
+        }
+        s[0] += added;
+        s[1] += removed;
+        totalAdded += added;
+        totalRemoved += removed;
+    }
+
+    /** The revision these statistics apply to */
+    public String getRevisionId() {
+        return revisionId;
+    }
+
+    /** All paths changed by the commit, as full repository paths */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(stats.keySet());
+    }
+
+    /** Returns true if the commit changed the provided path */
+    public boolean contains(String path) {
+        return stats.containsKey(path);
+    }
+
+    /** Lines added to path, or 0 if the path was not changed */
+    public int getAdded(String path) {
+        int[] s = stats.get(path);
+        return (s == null) ? 0 : s[0];
+    }
+
+    /** Lines removed from path, or 0 if the path was not changed */
+    public int getRemoved(String path) {
+        int[] s = stats.get(path);
+        return (s == null) ? 0 : s[1];
+    }
+
+    /** Lines added by the commit in total */
+    public int getTotalAdded() {
+        return totalAdded;
+    }
+
+    /** Lines removed by the commit in total */
+    public int getTotalRemoved() {
+        return totalRemoved;
+    }
+
+    public String toString() {
+        return revisionId + ": " + stats.size() + " paths, +" + totalAdded 
+            + " -" + totalRemoved;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,108 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.tds;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, process wide, least recently used cache of {@link CommitStats}.
+ * SCM accessors store the statistics they compute here, so that all metrics
+ * processing the same commit during a synchronisation share a single diff
+ * run. The cache size can be set with the 
+ * <tt>eu.sqooss.tds.commitstats.cachesize</tt> system property.
+ */
+public final class CommitStatsCache {
+
+    public static final String CACHE_SIZE = "eu.sqooss.tds.commitstats.cachesize";
+    private static final int DEFAULT_SIZE = 2048;
+
+    private static CommitStatsCache instance;
+
+    private final Map<String, CommitStats> cache;
+
+    public static synchronized CommitStatsCache getInstance() {
+        if (instance == null) {
+            int size = DEFAULT_SIZE;
+            try {
+                size = Integer.parseInt(
+                        System.getProperty(CACHE_SIZE, String.valueOf(DEFAULT_SIZE)));
+            } catch (NumberFormatException e) {}
+            instance = new CommitStatsCache(size);
+        }
+        return instance;
+    }
+
+    private CommitStatsCache(final int size) {
+        cache = new LinkedHashMap<String, CommitStats>(size / 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, CommitStats> e) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Get the statistics for a revision of a repository, or null if they 
+     * are not cached.
+     * 
+     * @param repository A string uniquely identifying the repository, 
+     * normally its URL
+     * @param revisionId The revision's unique id
+     */
+    public synchronized CommitStats get(String repository, String revisionId) {
+        return cache.get(key(repository, revisionId));
+    }
+
+    /**
+     * Cache the statistics for a revision of a repository.
+     */
+    public synchronized void put(String repository, CommitStats stats) {
+        cache.put(key(repository, stats.getRevisionId()), stats);
+    }
+
+    /**
+     * Drop all cached entries.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    private static String key(String repository, String revisionId) {
+        return repository + '@' + revisionId;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -49,6 +49,10 @@ import java.util.List;
  * of this interface must have a default constructor with no arguments
  * declared. 
  * 
+ * Accessors that hold connections or threads should also implement
+ * {@link java.io.Closeable}; the TDS closes them when they are dropped,
+ * which happens when their plug-in is unregistered or the TDS stops.
+ * 
  * @see DataAccessorFactory, TDSServiceImpl
  */
 public interface DataAccessor {
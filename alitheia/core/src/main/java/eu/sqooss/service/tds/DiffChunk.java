@@ -78,6 +78,16 @@ public interface DiffChunk {
 	 */
 	int getTargetLength();
 	
+	/**
+	 * Get the number of lines this chunk adds to the target file
+	 */
+	int getAddedLines();
+	
+	/**
+	 * Get the number of lines this chunk removes from the source file
+	 */
+	int getRemovedLines();
+	
 	/**
 	 *  Get the repository path this diff chunk applies to 
 	 */
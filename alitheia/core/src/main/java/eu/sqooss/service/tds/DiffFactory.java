@@ -32,7 +32,11 @@
 
 package eu.sqooss.service.tds;
 
+import java.io.IOException;
+import java.io.Reader;
+
 import eu.sqooss.impl.service.tds.diff.UnifiedDiffParser;
+import eu.sqooss.impl.service.tds.diff.UnifiedDiffReader;
 
 /**
  * Class that knows how to parse different diff formats.
@@ -71,4 +75,20 @@ public class DiffFactory {
         
         return null;
     }
+    
+    /**
+     * Stream a unified diff to a visitor, without keeping any diff text in
+     * memory. Use this instead of {@link #doUnifiedDiff} when only line 
+     * ranges or added/removed line counts are of interest.
+     * 
+     * @param diff The diff to parse
+     * @param basePath Path to prepend to the file names found in the diff
+     * @param v The visitor to report hunks and file totals to
+     * @return true if the diff was parsed succesfully, false otherwise
+     * @throws IOException If reading from the diff failed 
+     */
+    public boolean parseUnifiedDiff(Reader diff, String basePath, 
+            DiffVisitor v) throws IOException {
+        return new UnifiedDiffReader(basePath).parse(diff, v);
+    }
 }
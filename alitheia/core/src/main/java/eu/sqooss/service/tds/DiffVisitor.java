@@ -0,0 +1,83 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.tds;
+
+/**
+ * Receives events from a streaming diff parser. Implementations that only
+ * need line ranges and change counts can process arbitrarily large diffs
+ * without the diff text being held in memory.
+ * 
+ * @see DiffFactory#parseUnifiedDiff(java.io.Reader, String, DiffVisitor)
+ */
+public interface DiffVisitor {
+
+    /**
+     * The diff section for a new file begins.
+     * 
+     * @param path The full repository path of the file
+     */
+    void startFile(String path);
+
+    /**
+     * A hunk has been completely read.
+     * 
+     * @param path The file the hunk applies to
+     * @param sourceStart Starting line on the source file
+     * @param sourceLength Number of source file lines covered by the hunk
+     * @param targetStart Starting line on the target file
+     * @param targetLength Number of target file lines covered by the hunk
+     * @param added Number of lines added by the hunk
+     * @param removed Number of lines removed by the hunk
+     */
+    void hunk(String path, int sourceStart, int sourceLength,
+            int targetStart, int targetLength, int added, int removed);
+
+    /**
+     * A property change section (SVN specific) has been read.
+     * 
+     * @param path The file whose properties changed
+     */
+    void propertyChange(String path);
+
+    /**
+     * The diff section for a file has ended.
+     * 
+     * @param path The full repository path of the file
+     * @param added Total number of lines added to the file
+     * @param removed Total number of lines removed from the file
+     */
+    void endFile(String path, int added, int removed);
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -37,6 +37,7 @@ import java.util.Date;
 import java.util.List;
 
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 import javax.mail.internet.MimeMessage;
 
 /**
@@ -78,6 +79,20 @@ public interface MailAccessor extends DataAccessor {
     	throws IllegalArgumentException,
     	       FileNotFoundException;
     
+    /**
+     * Opens a stream to the raw contents of a message, for callers that 
+     * parse it themselves. The caller must close the stream.
+     * 
+     * @param listname the list the message is in
+     * @param msgFileName the message id
+     * 
+     * @throws IllegalArgumentException listId or id are null
+     * @throws FileNotFoundException the listId and id are not found
+     */
+    public InputStream getMessageStream( String listname, String msgFileName )
+        throws IllegalArgumentException,
+               FileNotFoundException;
+    
     /**
      * Retrieve the list of messages that are stored in the mailing list.
      */
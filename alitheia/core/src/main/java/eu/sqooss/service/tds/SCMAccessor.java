@@ -268,6 +268,25 @@ public interface SCMAccessor extends DataAccessor {
                InvalidRepositoryException,
                FileNotFoundException;
 
+    /**
+     * Get the number of lines added and removed for every path changed
+     * by a commit, in a single pass over the commit's diff against its
+     * (first) parent. Implementations are expected to share results through
+     * the {@link CommitStatsCache}, so calling this method repeatedly for 
+     * the same revision is cheap.
+     * 
+     * @param r The revision to get statistics for
+     * @return The statistics for all paths changed by the revision 
+     * 
+     * @throws InvalidProjectRevisionException When the provided revision is
+     *  invalid
+     * @throws InvalidRepositoryException When there is an error accessing
+     *  the underlying repository
+     */
+    public CommitStats getCommitStats(Revision r)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException;
+
     /**
      * Get the type of the node.
      *      
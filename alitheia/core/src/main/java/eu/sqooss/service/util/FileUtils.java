@@ -269,6 +269,36 @@ public class FileUtils {
         FILES, DIRS, ALL
     }
 
+    /**
+     * Read an input stream to its end and return its contents. The stream
+     * is closed afterwards.
+     *
+     * @param in The stream to read
+     * @return The stream contents; an empty array if the stream was empty
+     * @throws IOException On read error
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        try {
+            byte[] buf = new byte[Math.max(in.available(), 8192)];
+            int len = 0, r;
+            while ((r = in.read(buf, len, buf.length - len)) >= 0) {
+                len += r;
+                if (len == buf.length) {
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, len);
+                    buf = bigger;
+                }
+            }
+            if (len == buf.length)
+                return buf;
+            byte[] result = new byte[len];
+            System.arraycopy(buf, 0, result, 0, len);
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
     public static void copyFile(File source, File dest) throws IOException {
         if (!dest.exists()) {
             dest.createNewFile();
@@ -0,0 +1,201 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.sqooss.service.db.DAObject;
+import eu.sqooss.service.db.ProjectFileMeasurement;
+
+public class BatchWriterTest {
+
+    static final String UPDATE = "update T";
+    static final String INSERT = "insert into T";
+
+    /* Records the statements run against it; updates return the given
+     * batch counts and single-row update counts in turn */
+    static class FakeConnection implements InvocationHandler {
+        LinkedList<int[]> batchCounts = new LinkedList<int[]>();
+        LinkedList<Integer> updateCounts = new LinkedList<Integer>();
+        List<DAObject> inserted = new ArrayList<DAObject>();
+        List<DAObject> updatedSingly = new ArrayList<DAObject>();
+        SQLException insertError;
+
+        /* The records bound to the current statement */
+        DAObject bound;
+        List<DAObject> batch = new ArrayList<DAObject>();
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), 
+                    new Class<?>[] {Connection.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method m, Object[] args) {
+            if (m.getName().equals("prepareStatement"))
+                return statement((String) args[0]);
+            throw new UnsupportedOperationException(m.getName());
+        }
+
+        PreparedStatement statement(final String sql) {
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), 
+                    new Class<?>[] {PreparedStatement.class}, 
+                    new InvocationHandler() {
+                public Object invoke(Object proxy, Method m, Object[] args) 
+                        throws SQLException {
+                    String name = m.getName();
+                    if (name.equals("addBatch")) {
+                        batch.add(bound);
+                        return null;
+                    } else if (name.equals("executeBatch")) {
+                        List<DAObject> rows = new ArrayList<DAObject>(batch);
+                        batch.clear();
+                        if (sql.equals(UPDATE))
+                            return batchCounts.removeFirst();
+                        if (insertError != null) {
+                            SQLException e = insertError;
+                            insertError = null;
+                            throw e;
+                        }
+                        inserted.addAll(rows);
+                        int[] counts = new int[rows.size()];
+                        Arrays.fill(counts, 1);
+                        return counts;
+                    } else if (name.equals("executeUpdate")) {
+                        updatedSingly.add(bound);
+                        return updateCounts.removeFirst();
+                    } else if (name.equals("close")) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+
+        BatchWriter.Binder binder() {
+            return new BatchWriter.Binder() {
+                public void bind(PreparedStatement ps, DAObject r) {
+                    bound = r;
+                }
+            };
+        }
+    }
+
+    static List<DAObject> records(int n) {
+        List<DAObject> records = new ArrayList<DAObject>();
+        for (int i = 0; i < n; i++)
+            records.add(new ProjectFileMeasurement());
+        return records;
+    }
+
+    @Test
+    public void testUpdateThenInsert() throws SQLException {
+        FakeConnection fc = new FakeConnection();
+        fc.batchCounts.add(new int[] {1, 0});
+        fc.batchCounts.add(new int[] {1});
+        List<DAObject> records = records(3);
+
+        BatchWriter.upsert(fc.connection(), UPDATE, fc.binder(), 
+                INSERT, fc.binder(), records, 2);
+
+        assertEquals(1, fc.inserted.size());
+        assertSame(records.get(1), fc.inserted.get(0));
+        assertTrue(fc.updatedSingly.isEmpty());
+    }
+
+    @Test
+    public void testSuccessNoInfoRetry() throws SQLException {
+        FakeConnection fc = new FakeConnection();
+        fc.batchCounts.add(new int[] {
+                Statement.SUCCESS_NO_INFO, 1, Statement.SUCCESS_NO_INFO});
+        fc.updateCounts.add(0);
+        fc.updateCounts.add(1);
+        List<DAObject> records = records(3);
+
+        List<DAObject> missing = BatchWriter.update(fc.connection(), UPDATE, 
+                fc.binder(), records);
+
+        // Only the rows without a count are run again, one at a time
+        assertEquals(Arrays.asList(records.get(0), records.get(2)), 
+                fc.updatedSingly);
+        assertEquals(1, missing.size());
+        assertSame(records.get(0), missing.get(0));
+    }
+
+    @Test
+    public void testDuplicateKeyRetry() throws SQLException {
+        FakeConnection fc = new FakeConnection();
+        fc.batchCounts.add(new int[] {0, 0});
+        // Another writer stored the first row between update and insert
+        fc.insertError = new SQLException("duplicate key", "23505");
+        fc.batchCounts.add(new int[] {1});
+        fc.batchCounts.add(new int[] {0});
+        List<DAObject> records = records(2);
+
+        BatchWriter.upsert(fc.connection(), UPDATE, fc.binder(), 
+                INSERT, fc.binder(), records, 2);
+
+        assertEquals(1, fc.inserted.size());
+        assertSame(records.get(1), fc.inserted.get(0));
+    }
+
+    @Test(expected = SQLException.class)
+    public void testOtherInsertError() throws SQLException {
+        FakeConnection fc = new FakeConnection();
+        fc.batchCounts.add(new int[] {0});
+        fc.insertError = new SQLException("connection lost", "08006");
+
+        BatchWriter.upsert(fc.connection(), UPDATE, fc.binder(), 
+                INSERT, fc.binder(), records(1), 2);
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
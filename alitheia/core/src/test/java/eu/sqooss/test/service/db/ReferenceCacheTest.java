@@ -0,0 +1,133 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.test.service.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import eu.sqooss.service.db.Directory;
+
+/**
+ * Runs Directory lookups, as done by Directory.getDirectory(), on an 
+ * in-memory H2 database with and without the second-level and query 
+ * caches configured in hibernate.cfg.xml and ehcache.xml, and checks 
+ * that the cached ones do not reach the database.
+ */
+public class ReferenceCacheTest {
+
+    static final int DIRS = 500;
+    static final int ROUNDS = 20;
+
+    static SessionFactory factory(String db, boolean cache) {
+        Configuration c = new AnnotationConfiguration().configure(
+                ReferenceCacheTest.class.getResource("/hibernate.cfg.xml"));
+        c.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        c.setProperty("hibernate.connection.url", 
+                "jdbc:h2:mem:" + db + ";DB_CLOSE_DELAY=-1");
+        c.setProperty("hibernate.connection.username", "sa");
+        c.setProperty("hibernate.connection.password", "");
+        c.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        c.setProperty("hibernate.hbm2ddl.auto", "create");
+        c.setProperty("hibernate.generate_statistics", "true");
+        c.setProperty("net.sf.ehcache.configurationResourceName", 
+                ReferenceCacheTest.class.getResource("/ehcache.xml").toString());
+        c.setProperty("hibernate.cache.use_second_level_cache", 
+                String.valueOf(cache));
+        c.setProperty("hibernate.cache.use_query_cache", String.valueOf(cache));
+        return c.buildSessionFactory();
+    }
+
+    static void fill(SessionFactory sf) {
+        Session s = sf.getCurrentSession();
+        s.beginTransaction();
+        for (int i = 0; i < DIRS; i++) {
+            Directory d = new Directory();
+            d.setPath("/trunk/src/dir" + i);
+            s.save(d);
+        }
+        s.getTransaction().commit();
+    }
+
+    /* One session per lookup, like the updaters and metric jobs */
+    static void lookups(SessionFactory sf, boolean cacheable) {
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < DIRS; i++) {
+                Session s = sf.getCurrentSession();
+                s.beginTransaction();
+                List<?> l = s.createQuery("from Directory where path = :path")
+                    .setParameter("path", "/trunk/src/dir" + i)
+                    .setCacheable(cacheable).list();
+                assertEquals(1, l.size());
+                s.getTransaction().commit();
+            }
+        }
+    }
+
+    @Test
+    public void testDirectoryLookups() {
+        SessionFactory plain = factory("nocache", false);
+        SessionFactory cached = factory("cache", true);
+        try {
+            fill(plain);
+            fill(cached);
+            // Warm up
+            lookups(plain, false);
+            lookups(cached, true);
+            plain.getStatistics().clear();
+            cached.getStatistics().clear();
+
+            lookups(plain, false);
+            lookups(cached, true);
+
+            Statistics stats = cached.getStatistics();
+            assertEquals(DIRS * ROUNDS, stats.getQueryCacheHitCount());
+            assertEquals(0, stats.getQueryExecutionCount());
+            assertTrue(stats.getSecondLevelCacheHitCount() > 0);
+            assertEquals(DIRS * ROUNDS, 
+                    plain.getStatistics().getQueryExecutionCount());
+        } finally {
+            plain.close();
+            cached.close();
+        }
+    }
+}
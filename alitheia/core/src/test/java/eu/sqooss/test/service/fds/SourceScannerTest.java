@@ -0,0 +1,61 @@
+package eu.sqooss.test.service.fds;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import eu.sqooss.service.fds.CommentGrammar;
+import eu.sqooss.service.fds.FileTypeMatcher;
+import eu.sqooss.service.fds.SourceScanner;
+import eu.sqooss.service.fds.SourceScanner.ScanResult;
+
+public class SourceScannerTest {
+
+    static final String JAVA = "/* head\n * more */\n" +
+        "int a = 1; // c\n\n" +
+        "  String s = \"// not\"; /* x */ b = a/2;\r\n" +
+        "end";
+
+    @Test
+    public void testCounts() {
+        ScanResult r = SourceScanner.scan(JAVA.getBytes(), 
+                CommentGrammar.C_FAMILY, null);
+        assertEquals(6, r.getLines());
+        assertEquals(4, r.getCommentLines());
+        assertEquals(5, r.getNonBlankLines());
+        assertEquals(1, r.getBlankLines());
+        assertEquals(23, r.getWords());
+        assertEquals(0, r.getCodeLength());
+    }
+
+    @Test
+    public void testStripInPlace() {
+        byte[] b = JAVA.getBytes();
+        ScanResult r = SourceScanner.scan(b, CommentGrammar.C_FAMILY, b);
+        String code = new String(b, 0, r.getCodeLength());
+        assertEquals(" \n\nint a = 1;  \n\n  String s = \"\";   b = a/2;\r\nend", 
+                code);
+    }
+
+    @Test
+    public void testTrailingNewline() {
+        ScanResult r = SourceScanner.scan("a\nb\n".getBytes(), 
+                CommentGrammar.NONE, null);
+        assertEquals(2, r.getLines());
+        r = SourceScanner.scan(new byte[0], CommentGrammar.NONE, null);
+        assertEquals(0, r.getLines());
+    }
+
+    @Test
+    public void testGrammarSelection() {
+        FileTypeMatcher ftm = FileTypeMatcher.getInstance();
+        assertEquals(CommentGrammar.C_FAMILY, ftm.getCommentGrammar("/a/B.java"));
+        assertEquals(CommentGrammar.HASH, ftm.getCommentGrammar("/a/b.py"));
+        assertEquals(CommentGrammar.MARKUP, ftm.getCommentGrammar("/a/b.xml"));
+        assertEquals(CommentGrammar.C, ftm.getCommentGrammar("/a/README"));
+        
+        ScanResult r = SourceScanner.scan("# c\nx = '#'\n".getBytes(), 
+                CommentGrammar.HASH, null);
+        assertEquals(1, r.getCommentLines());
+    }
+}
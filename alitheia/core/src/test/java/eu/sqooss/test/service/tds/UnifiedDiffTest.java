@@ -0,0 +1,86 @@
+package eu.sqooss.test.service.tds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.sqooss.service.tds.Diff;
+import eu.sqooss.service.tds.DiffChunk;
+import eu.sqooss.service.tds.DiffFactory;
+import eu.sqooss.service.tds.DiffVisitor;
+
+public class UnifiedDiffTest {
+
+    static final String DIFF = 
+        "Index: A.java\n" +
+        "===================================================================\n" +
+        "--- A.java\t(revision 1)\n" +
+        "+++ A.java\t(revision 2)\n" +
+        "@@ -1,3 +1,4 @@\n" +
+        " a\n" +
+        "-b\n" +
+        "+c\n" +
+        "+--- not a header\n" +
+        " e\n" +
+        "@@ -10 +11 @@\n" +
+        "-x\n" +
+        "+y\n" +
+        "\\ No newline at end of file\n";
+
+    @Test
+    public void testParseDiff() {
+        Diff d = DiffFactory.getInstance().doUnifiedDiff(null, null, 
+                "/trunk", DIFF);
+        List<DiffChunk> chunks = d.getDiffChunks().get("/trunk/A.java");
+        assertEquals(2, chunks.size());
+        
+        DiffChunk c = chunks.get(0);
+        assertEquals(1, c.getSourceStartLine());
+        assertEquals(3, c.getSourceLenght());
+        assertEquals(1, c.getTargetStartLine());
+        assertEquals(4, c.getTargetLength());
+        assertEquals(2, c.getAddedLines());
+        assertEquals(1, c.getRemovedLines());
+        assertEquals(" a\n-b\n+c\n+--- not a header\n e\n", c.getChunk());
+        
+        c = chunks.get(1);
+        assertEquals(11, c.getTargetStartLine());
+        assertEquals(1, c.getTargetLength());
+        assertEquals("-x\n+y\n\\ No newline at end of file\n", c.getChunk());
+    }
+
+    @Test
+    public void testVisitor() throws IOException {
+        final int[] totals = new int[3];
+        DiffVisitor v = new DiffVisitor() {
+            public void startFile(String path) {
+                assertEquals("/trunk/A.java", path);
+            }
+            public void hunk(String path, int sourceStart, int sourceLength,
+                    int targetStart, int targetLength, int added, int removed) {
+                totals[0]++;
+            }
+            public void propertyChange(String path) {}
+            public void endFile(String path, int added, int removed) {
+                totals[1] = added;
+                totals[2] = removed;
+            }
+        };
+        assertTrue(DiffFactory.getInstance().parseUnifiedDiff(
+                new StringReader(DIFF), "/trunk", v));
+        assertEquals(2, totals[0]);
+        assertEquals(3, totals[1]);
+        assertEquals(2, totals[2]);
+    }
+
+    @Test
+    public void testGarbage() throws IOException {
+        assertEquals(null, DiffFactory.getInstance().doUnifiedDiff(null, null, 
+                "/trunk", "this is not a diff\n"));
+    }
+}
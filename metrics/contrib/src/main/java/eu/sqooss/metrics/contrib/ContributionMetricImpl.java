@@ -32,8 +32,6 @@
 
 package eu.sqooss.metrics.contrib;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -80,6 +78,7 @@ import eu.sqooss.service.db.MetricType.Type;
 import eu.sqooss.service.fds.FileTypeMatcher;
 import eu.sqooss.service.metricactivator.MetricActivationException;
 import eu.sqooss.service.pa.PluginInfo;
+import eu.sqooss.service.tds.CommitStats;
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.DiffChunk;
 import eu.sqooss.service.tds.SCMAccessor;
@@ -98,6 +97,14 @@ public class ContributionMetricImpl extends AbstractMetric {
     /** Name of the measurement*/
     public static final String METRIC_CONTRIB = "CONTRIB";
     
+    private static final Pattern bugNumberLabel = Pattern.compile(
+            "\\A.*(pr:|bug:).*\\Z",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
+
+    private static final Pattern pHatLabel = Pattern.compile(
+            "\\A.*(ph:|pointy hat|p?hat:).*\\Z", Pattern.CASE_INSENSITIVE
+                    | Pattern.MULTILINE | Pattern.DOTALL);
+    
     public ContributionMetricImpl(BundleContext bc) {
         super(bc);
     }
@@ -388,12 +395,6 @@ public class ContributionMetricImpl extends AbstractMetric {
             numFilesThreshold = Integer.parseInt(config.getValue());
         }    
         
-        Pattern bugNumberLabel = Pattern.compile("\\A.*(pr:|bug:).*\\Z",
-                Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-
-        Pattern pHatLabel = Pattern.compile(
-                "\\A.*(ph:|pointy hat|p?hat:).*\\Z", Pattern.CASE_INSENSITIVE
-                        | Pattern.MULTILINE | Pattern.DOTALL);
         Matcher m;
 
         //Commit message is empty
@@ -420,6 +421,16 @@ public class ContributionMetricImpl extends AbstractMetric {
         FileTypeMatcher ftm = FileTypeMatcher.getInstance();
         Iterator<ProjectFile> i = projectFiles.iterator();
         
+        /* Lines added and removed for all files in the commit, in one go */
+        CommitStats stats = null;
+        try {
+            SCMAccessor scm = AlitheiaCore.getInstance().getTDSService().getAccessor(
+                    pv.getProject().getId()).getSCMAccessor();
+            stats = scm.getCommitStats(scm.newRevision(pv.getRevisionId()));
+        } catch (Exception e) {
+            warn("Cannot get commit statistics: " + e.getMessage(), pv);
+        }
+        
         while (i.hasNext()) {
             ProjectFile pf = i.next();
             
@@ -442,52 +453,57 @@ public class ContributionMetricImpl extends AbstractMetric {
             if (ftm.isTextType(pf.getFileName())) {
                 //Source file changed, calc number of lines commited
                 try {
+                    boolean hasStats = (stats != null && 
+                            stats.contains(pf.getFileName()));
+                    
                     if (pf.isDeleted()) {
-                    	int locPrev = getLOCResult(pf.getPreviousFileVersion(), plugin, locMetric);
+                    	int locPrev = hasStats ? stats.getRemoved(pf.getFileName()) :
+                    		getLOCResult(pf.getPreviousFileVersion(), plugin, locMetric);
                         updateField(pv, dev, ActionType.CREM, true, locPrev);
                     } else if(pf.isReplaced()) {
-                    	int locPrev = getLOCResult(pf.getPreviousFileVersion(), plugin, locMetric);
+                    	int locPrev = hasStats ? stats.getRemoved(pf.getFileName()) :
+                    		getLOCResult(pf.getPreviousFileVersion(), plugin, locMetric);
                         updateField(pv, dev, ActionType.CREM, true, locPrev);
                         updateField(pv, dev, ActionType.CNS, true, 1);
                         updateField(pv, dev, ActionType.CADD, true, 
+                        		hasStats ? stats.getAdded(pf.getFileName()) :
                         		getLOCResult(pf, plugin, locMetric));
                     }
                     //Source file just added
                     else if (pf.isAdded()) {
                         updateField(pv, dev, ActionType.CNS, true, 1);
                         updateField(pv, dev, ActionType.CADD, true, 
+                        		hasStats ? stats.getAdded(pf.getFileName()) :
                         		getLOCResult(pf, plugin, locMetric));
                     } else {
-                        //Existing file, get lines of previous version
-                        ProjectFile prevFile = pf.getPreviousFileVersion();
-                        
-                        if (prevFile == null) {
-                        	warn("Could not find previous version", pf);
-                        	continue;
-                        }
-                        
-                        SCMAccessor scm = AlitheiaCore.getInstance().getTDSService().getAccessor(pv.getProject().getId()).getSCMAccessor();
-                        Diff d = scm.getDiff(pf.getFileName(), 
-                        		scm.newRevision(prevFile.getProjectVersion().getRevisionId()),
-                        		scm.newRevision(pf.getProjectVersion().getRevisionId()));
-                        Map<String, List<DiffChunk>> diff = d.getDiffChunks();
-                        List<DiffChunk> chunks = diff.get(pf.getFileName());
-                        
-                        if (chunks == null)
-                        	continue; //Diff was empty
-                        
                         int added = 0, removed = 0;
                         
-                        for (DiffChunk chunk : chunks) {
-                        	String theDiff = chunk.getChunk();
-                        	BufferedReader r = new BufferedReader(new StringReader(theDiff));
-                    		String line;
-                    		while ((line = r.readLine()) != null) {
-                    			if (line.startsWith("+")) 
-                    				added ++;
-                    			if (line.startsWith("-"))
-                    				removed++;
-                    		}
+                        if (hasStats) {
+                            added = stats.getAdded(pf.getFileName());
+                            removed = stats.getRemoved(pf.getFileName());
+                        } else {
+                            //Existing file, get lines of previous version
+                            ProjectFile prevFile = pf.getPreviousFileVersion();
+
+                            if (prevFile == null) {
+                                warn("Could not find previous version", pf);
+                                continue;
+                            }
+
+                            SCMAccessor scm = AlitheiaCore.getInstance().getTDSService().getAccessor(pv.getProject().getId()).getSCMAccessor();
+                            Diff d = scm.getDiff(pf.getFileName(), 
+                                    scm.newRevision(prevFile.getProjectVersion().getRevisionId()),
+                                    scm.newRevision(pf.getProjectVersion().getRevisionId()));
+                            Map<String, List<DiffChunk>> diff = d.getDiffChunks();
+                            List<DiffChunk> chunks = diff.get(pf.getFileName());
+
+                            if (chunks == null)
+                                continue; //Diff was empty
+
+                            for (DiffChunk chunk : chunks) {
+                                added += chunk.getAddedLines();
+                                removed += chunk.getRemovedLines();
+                            }
                         }
                         
                         if (added != 0 && removed != 0 ) {
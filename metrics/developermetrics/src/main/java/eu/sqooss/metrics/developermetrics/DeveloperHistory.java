@@ -0,0 +1,239 @@
+/*
+ * Copyright 2009 - 2010 Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package eu.sqooss.metrics.developermetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.ProjectFile;
+import eu.sqooss.service.db.StoredProject;
+
+/**
+ * Commit history of a project, summarized for the developer metrics.
+ * Versions are loaded once and walked in timestamp order, sliding a window
+ * per team size period over a multiset of committers; files keep the first
+ * version (sequence) each developer touched them. New versions are loaded
+ * incrementally when a version that has not been seen is requested, so
+ * computing the measures for the full history of a project is a single 
+ * linear pass instead of a set of aggregate queries per version.
+ */
+public class DeveloperHistory {
+
+    private static final String QRY_VERSIONS = "select pv.id, pv.timestamp, " +
+        "pv.sequence, c.id " +
+        "from ProjectVersion pv left join pv.committer c " +
+        "where pv.project = :paramProject " +
+        "and pv.sequence > :paramSequence " +
+        "order by pv.timestamp, pv.sequence";
+    
+    private static final String QRY_TOUCHES = "select pf.dir.id, pf.name, " +
+        "c.id, min(pv.sequence) " +
+        "from ProjectFile pf join pf.projectVersion pv join pv.committer c " +
+        "where pv.project = :paramProject " +
+        "and pv.sequence > :paramSequence " +
+        "group by pf.dir.id, pf.name, c.id";
+    
+    private final DBService db;
+    private final StoredProject project;
+    private final long[] windows;
+    
+    private long maxSequence = -1;
+    
+    /* Versions in timestamp order: {id, timestamp, committer id or -1} */
+    private List<long[]> versions = new ArrayList<long[]>();
+    private Map<Long, int[]> teamSizes = new HashMap<Long, int[]>();
+    
+    /* Sliding window state */
+    private int next = 0;
+    private int hi = 0;
+    private int[] lo;
+    private List<Map<Long, Integer>> active;
+    
+    /* File (dir id:name) -> developer -> sequence of first touch */
+    private Map<String, Map<Long, Long>> touches = 
+        new HashMap<String, Map<Long, Long>>();
+    
+    public DeveloperHistory(DBService db, StoredProject project, long[] windows) {
+        this.db = db;
+        this.project = project;
+        this.windows = windows;
+        reset();
+    }
+    
+    /**
+     * Number of distinct committers in each window before the version's
+     * timestamp, or null if the version is not known.
+     */
+    public synchronized int[] getTeamSizes(long versionId, long sequence) {
+        load(sequence);
+        return teamSizes.get(versionId);
+    }
+    
+    /**
+     * Developers that have touched the file up to the version of the
+     * provided file entry.
+     */
+    public synchronized void getEyeballs(ProjectFile pf, Set<Long> devs) {
+        long sequence = pf.getProjectVersion().getSequence();
+        load(sequence);
+        
+        Map<Long, Long> t = touches.get(key(pf.getDir().getId(), pf.getName()));
+        if (t == null)
+            return;
+        for (Map.Entry<Long, Long> e : t.entrySet()) {
+            if (e.getValue() <= sequence)
+                devs.add(e.getKey());
+        }
+    }
+    
+    private void reset() {
+        next = 0;
+        hi = 0;
+        lo = new int[windows.length];
+        active = new ArrayList<Map<Long, Integer>>();
+        for (int i = 0; i < windows.length; i++) {
+            active.add(new HashMap<Long, Integer>());
+        }
+        teamSizes.clear();
+    }
+    
+    /*
+     * Bring the summary up to the provided version sequence
+     */
+    private void load(long sequence) {
+        if (sequence <= maxSequence)
+            return;
+        
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("paramProject", project);
+        params.put("paramSequence", maxSequence);
+        
+        List<?> rows = db.doHQL(QRY_VERSIONS, params);
+        long lastTs = versions.isEmpty() ? Long.MIN_VALUE : 
+            versions.get(versions.size() - 1)[1];
+        boolean inOrder = true;
+        for (Object o : rows) {
+            Object[] row = (Object[]) o;
+            long ts = (Long) row[1];
+            long seq = (Long) row[2];
+            long dev = (row[3] == null) ? -1 : (Long) row[3];
+            if (ts < lastTs)
+                inOrder = false;
+            versions.add(new long[] {(Long) row[0], ts, dev});
+            maxSequence = Math.max(maxSequence, seq);
+        }
+        
+        /* Versions imported out of timestamp order, start over */
+        if (!inOrder) {
+            Collections.sort(versions, new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return a[1] < b[1] ? -1 : (a[1] == b[1] ? 0 : 1);
+                }
+            });
+            reset();
+        }
+        slide();
+        
+        rows = db.doHQL(QRY_TOUCHES, params);
+        for (Object o : rows) {
+            Object[] row = (Object[]) o;
+            String key = key((Long) row[0], (String) row[1]);
+            Map<Long, Long> t = touches.get(key);
+            if (t == null) {
+                t = new HashMap<Long, Long>(4);
+                touches.put(key, t);
+            }
+            Long dev = (Long) row[2];
+            Long seq = ((Number) row[3]).longValue();
+            Long old = t.get(dev);
+            if (old == null || seq < old)
+                t.put(dev, seq);
+        }
+    }
+    
+    /*
+     * Compute team sizes for all versions not processed yet. The window
+     * for a version contains the versions whose timestamp is in 
+     * (timestamp - window, timestamp).
+     */
+    private void slide() {
+        int n = versions.size();
+        for (; next < n; next++) {
+            long ts = versions.get(next)[1];
+            
+            while (hi < n && versions.get(hi)[1] < ts) {
+                for (Map<Long, Integer> m : active) {
+                    add(m, versions.get(hi)[2]);
+                }
+                hi++;
+            }
+            
+            int[] sizes = new int[windows.length];
+            for (int k = 0; k < windows.length; k++) {
+                Map<Long, Integer> m = active.get(k);
+                while (lo[k] < hi && versions.get(lo[k])[1] <= ts - windows[k]) {
+                    remove(m, versions.get(lo[k])[2]);
+                    lo[k]++;
+                }
+                sizes[k] = m.size();
+            }
+            teamSizes.put(versions.get(next)[0], sizes);
+        }
+    }
+    
+    private static void add(Map<Long, Integer> m, long dev) {
+        if (dev < 0)
+            return;
+        Integer c = m.get(dev);
+        m.put(dev, c == null ? 1 : c + 1);
+    }
+    
+    private static void remove(Map<Long, Integer> m, long dev) {
+        if (dev < 0)
+            return;
+        Integer c = m.get(dev);
+        if (c == null || c <= 1)
+            m.remove(dev);
+        else
+            m.put(dev, c - 1);
+    }
+    
+    private static String key(long dirId, String name) {
+        return dirId + ":" + name;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -43,7 +43,6 @@ import eu.sqooss.service.abstractmetric.MetricDecl;
 import eu.sqooss.service.abstractmetric.MetricDeclarations;
 import eu.sqooss.service.abstractmetric.Result;
 import eu.sqooss.service.abstractmetric.Result.ResultType;
-import eu.sqooss.service.db.Developer;
 import eu.sqooss.service.db.Directory;
 import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.ProjectDirectory;
@@ -51,12 +50,14 @@ import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileMeasurement;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
+import eu.sqooss.service.db.StoredProject;
 
 /**
  * Basic developer-related statistics, like team size in various
  * time frames and number of developers working with on specific
- * resource.
- * 
+ * resource. Measurements are derived from a per project 
+ * {@link DeveloperHistory}, which is built once and extended as
+ * new versions appear.
  */
 @MetricDeclarations(metrics= {
 		@MetricDecl(mnemonic="TEAMSIZE1", activators={ProjectVersion.class}, descr="Active developers in the last 1 month"),
@@ -74,16 +75,11 @@ public class Developermetrics extends AbstractMetric {
     private static String MNEM_EYEBALL = "EYBALL";
     private static String MNEM_EYEBALL_MOD = "MODEYBALL";
     
-    private static String fileEyeballs = "select distinct pv.committer "
-       + "from ProjectVersion pv, ProjectFile pf "
-       + "where pf.projectVersion = pv.id " 
-       + "and pf.name = :paramName "
-       + "and pf.dir = :paramDir "
-       + "and pv.project = :paramProject "
-       + "and pv.sequence <= (" +
-       		"select pv1.sequence " +
-       		"from ProjectVersion pv1, ProjectFile pf1 " +
-       		"where pf1.projectVersion = pv1 and pf1.id = :paramFileId)";
+    private static final long[] WINDOWS = {
+        30 * 24 * 60 * 60 * 1000L, 
+        90 * 24 * 60 * 60 * 1000L, 
+        180 * 24 * 60 * 60 * 1000L
+    };
     
     private static String activeLast = "select count(distinct pv.committer) " +
         " from ProjectVersion pv " +
@@ -91,32 +87,48 @@ public class Developermetrics extends AbstractMetric {
         " and pv.timestamp < :paramTS " +
         " and pv.project = :paramProject";
     
+    /* Per project commit history summaries */
+    private Map<Long, DeveloperHistory> histories = new HashMap<Long, DeveloperHistory>();
+    
     public Developermetrics(BundleContext bc) {
         super(bc);        
     }
+    
+    private synchronized DeveloperHistory history(StoredProject sp) {
+        DeveloperHistory h = histories.get(sp.getId());
+        if (h == null) {
+            h = new DeveloperHistory(db, sp, WINDOWS);
+            histories.put(sp.getId(), h);
+        }
+        return h;
+    }
 
     public List<Result> getResult(ProjectVersion pv, Metric m) {
         return getResult(pv, ProjectVersionMeasurement.class, m, ResultType.INTEGER);
     }
 
     public void run(ProjectVersion v) throws AlreadyProcessingException {
-        long oneMonth = (long)(30 * 24 * 60 * 60 * 1000L);
-        long threeMonths = (long)(90 * 24 * 60 * 60 * 1000L);
-        long sixMonths = (long)(180 * 24 * 60 * 60 * 1000L);
+        int[] sizes = history(v.getProject()).getTeamSizes(v.getId(), 
+                v.getSequence());
+        
+        long[] result = new long[WINDOWS.length];
+        for (int i = 0; i < WINDOWS.length; i++) {
+            result[i] = (sizes != null) ? sizes[i] : commSize(v, WINDOWS[i]);
+        }
         
         Metric m = Metric.getMetricByMnemonic(MNEM_TEAMSIZE1);
         ProjectVersionMeasurement pvmOne = new ProjectVersionMeasurement(
-                m, v, String.valueOf(commSize(v, oneMonth)));
+                m, v, String.valueOf(result[0]));
         db.addRecord(pvmOne);
         
         m = Metric.getMetricByMnemonic(MNEM_TEAMSIZE3);
         ProjectVersionMeasurement pvmThree = new ProjectVersionMeasurement(
-                m, v, String.valueOf(commSize(v, threeMonths)));
+                m, v, String.valueOf(result[1]));
         db.addRecord(pvmThree);
         
         m = Metric.getMetricByMnemonic(MNEM_TEAMSIZE6);
         ProjectVersionMeasurement pvmSix = new ProjectVersionMeasurement(
-                m, v, String.valueOf(commSize(v, sixMonths)));
+                m, v, String.valueOf(result[2]));
         db.addRecord(pvmSix);
     }
     
@@ -141,16 +153,18 @@ public class Developermetrics extends AbstractMetric {
                     Directory.getDirectory(a.getFileName(), false), 
                     ProjectVersion.MASK_FILES);
             
-            Set<Developer> distinctdevs = new HashSet<Developer>(); 
-            
+            Set<Long> distinctdevs = new HashSet<Long>(); 
+            DeveloperHistory h = history(a.getProjectVersion().getProject());
             for (ProjectFile pf : files) {
-                distinctdevs.addAll(fileEyeballs(pf));
+                h.getEyeballs(pf, distinctdevs);
             }
             eyeballs = distinctdevs.size();
             m = Metric.getMetricByMnemonic(MNEM_EYEBALL_MOD);
         }
         else { 
-            eyeballs = fileEyeballs(a).size();
+            Set<Long> devs = new HashSet<Long>();
+            history(a.getProjectVersion().getProject()).getEyeballs(a, devs);
+            eyeballs = devs.size();
             m = Metric.getMetricByMnemonic(MNEM_EYEBALL);
         }
         
@@ -158,16 +172,6 @@ public class Developermetrics extends AbstractMetric {
                 String.valueOf(eyeballs));
         db.addRecord(pfm);
     }
-
-    private List<Developer> fileEyeballs(ProjectFile a) {
-        Map<String, Object> params = new HashMap<String, Object>();
-        params.put("paramName", a.getName());
-        params.put("paramDir", a.getDir());
-        params.put("paramProject", a.getProjectVersion().getProject());
-        params.put("paramFileId", a.getId());
-        
-        return (List<Developer>) db.doHQL(fileEyeballs, params);
-    }
 }
 
 // vi: ai nosi sw=4 ts=4 expandtab
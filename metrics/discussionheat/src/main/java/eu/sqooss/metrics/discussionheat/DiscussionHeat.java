@@ -31,11 +31,17 @@
  */
 package eu.sqooss.metrics.discussionheat;
 
+
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.osgi.framework.BundleContext;
 
@@ -47,8 +53,10 @@ import eu.sqooss.service.abstractmetric.MetricDecl;
 import eu.sqooss.service.abstractmetric.MetricDeclarations;
 import eu.sqooss.service.abstractmetric.MetricMismatchException;
 import eu.sqooss.service.abstractmetric.Result;
+import eu.sqooss.service.db.DAObject;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.MailMessage;
+import eu.sqooss.service.db.MailingList;
 import eu.sqooss.service.db.MailingListThread;
 import eu.sqooss.service.db.MailingListThreadMeasurement;
 import eu.sqooss.service.db.Metric;
@@ -69,26 +77,41 @@ import eu.sqooss.service.db.StoredProject;
 })
 public class DiscussionHeat extends AbstractMetric {
     
-    private static final String thrDepth = "select distinct m.depth" +
-    		" from MailMessage m, MailingListThread mt " +
-    		" where mt.list = :lst " +
-    		" and m.thread = mt order by m.depth";
+    /* Message count per thread and depth, for all threads in a list */
+    private static final String listDistrib = "select mt.id, m.depth, count(m) " +
+            "from MailMessage m, MailingListThread mt " +
+            "where m.thread = mt " +
+            "and mt.list = :lst " +
+            "group by mt.id, m.depth";
+    
+    private static final String verlocResults = "select pvm.projectVersion.id, pvm.result " +
+            "from ProjectVersionMeasurement pvm " +
+            "where pvm.metric = :m " +
+            "and pvm.projectVersion.id in (:ids)";
+    
+    private static final String locResults = "select pfm.projectFile.id, pfm.result " +
+            "from ProjectFileMeasurement pfm " +
+            "where pfm.metric = :m " +
+            "and pfm.projectFile.id in (:ids)";
     
-    private static final String numMails = "select distinct count(mm) " +
-    		"from MailMessage mm, MailingListThread mt " +
-    		"where mm.thread = mt " +
-    		"and mt.list = :lst " +
-    		"group by mt " +
-    		"order by count (mm)";
+    /** Max number of ids bound to a single <code>in</code> clause */
+    private static final int IN_CHUNK = 
+        Integer.getInteger("eu.sqooss.metrics.discussionheat.inchunk", 500);
     
-    private static final String getPVbyDate = "select pv " +
-    		"from ProjectVersion pv " +
-    		"where pv.timestamp <= :ts " +
-    		"and pv.project = :sp " +
-    		"order by pv.sequence desc";
+    /** How long (msec) the per list distributions are reused */
+    private static final long DISTRIB_TTL = 
+        Long.getLong("eu.sqooss.metrics.discussionheat.distribttl", 5 * 60 * 1000L);
+    
+    private static final long DAY = 24L * 3600 * 1000;
     
     private DBService dbs;
     
+    private ConcurrentMap<Long, ListDistribution> distributions = 
+        new ConcurrentHashMap<Long, ListDistribution>();
+    
+    private ConcurrentMap<Long, VersionTimeline> timelines = 
+        new ConcurrentHashMap<Long, VersionTimeline>();
+    
     public DiscussionHeat(BundleContext bc) {
         super(bc);        
         dbs = AlitheiaCore.getInstance().getDBService();
@@ -104,11 +127,7 @@ public class DiscussionHeat extends AbstractMetric {
     
     public void run(MailingListThread m) throws AlreadyProcessingException {
         
-        Map<String, Object> params = new HashMap<String, Object>();
-        params.put("lst", m.getList());
-        
-        List<Integer> thrDepths = (List<Integer>)db.doHQL(thrDepth, params);
-        List<Long> mailsPerList = (List<Long>)db.doHQL(numMails, params);
+        ListDistribution distrib = getDistribution(m.getList());
         
         //Get one day's worth of messages
         List<MailMessage> msgs = m.getMessagesByArrivalOrder();
@@ -118,7 +137,7 @@ public class DiscussionHeat extends AbstractMetric {
         for (MailMessage msg : msgs) {
             if (first != null) {
                 if (msg.getSendDate().getTime() - 
-                        first.getSendDate().getTime() < (24L * 3600 * 1000)) {
+                        first.getSendDate().getTime() < DAY) {
                     oneDayMsgs.add(msg);
                 } else {
                     break;
@@ -127,44 +146,57 @@ public class DiscussionHeat extends AbstractMetric {
                 first = msg;
                 oneDayMsgs.add(msg);
             }
+            depth = Math.max(depth, msg.getDepth());
         }
         
-        int score = getQuartile(thrDepths, depth) 
-                + getQuartile(mailsPerList, oneDayMsgs.size());
+        int score = getQuartile(distrib.depths, depth) 
+                + getQuartile(distrib.mails, oneDayMsgs.size());
         
+        List<DAObject> results = new ArrayList<DAObject>();
         Metric hotness = Metric.getMetricByMnemonic("HOTNESS");
+        results.add(new MailingListThreadMeasurement(
+                hotness, m, String.valueOf(score)));
         
-        MailingListThreadMeasurement mm = new MailingListThreadMeasurement(
-                hotness, m, String.valueOf(score));
-        
-        dbs.addRecord(mm);
-        
-        if (score < 6)
-            return;
-        
-        //Get the version closest to thread start
-        ProjectVersion pv = getVersionByDate(m.getStartingEmail().getSendDate(), 
-                m.getList().getStoredProject());
-        
-        int locsLastMonth = getLocsForVersions(getPreviousMonthVersions(pv));
-        int locsNextWeek = getLocsForVersions(getNextWeekVersions(pv));
-        
-        int result = (locsLastMonth/30) - (locsNextWeek/7);
-        
-        Metric hoteffect = Metric.getMetricByMnemonic("HOTEFFECT");
-        MailingListThreadMeasurement mltm = new MailingListThreadMeasurement(
-                hoteffect, m, String.valueOf(result));
+        if (score >= 6 && first != null) {
+            //Get the version closest to thread start
+            VersionTimeline timeline = getTimeline(
+                    m.getList().getStoredProject());
+            int pos = timeline.positionAt(first.getSendDate().getTime());
+            
+            if (pos >= 0) {
+                int locsLastMonth = getLocsForVersions(timeline.before(pos, 30 * DAY));
+                int locsNextWeek = getLocsForVersions(timeline.after(pos, 7 * DAY));
+
+                int result = (locsLastMonth/30) - (locsNextWeek/7);
+
+                Metric hoteffect = Metric.getMetricByMnemonic("HOTEFFECT");
+                results.add(new MailingListThreadMeasurement(
+                        hoteffect, m, String.valueOf(result)));
+            }
+        }
         
-        dbs.addRecord(mltm);
+        dbs.addRecords(results);
     }
     
-    private int getLocsForVersions(List<ProjectVersion> versions) throws AlreadyProcessingException {
+    /**
+     * Sum the VERLOC results for the provided versions. Stored results are
+     * read in bulk; the metric is only run for versions that lack one.
+     */
+    private int getLocsForVersions(List<Long> versions) throws AlreadyProcessingException {
         Metric metric = Metric.getMetricByMnemonic("VERLOC");
         List<Metric> metricList = new ArrayList<Metric>();
         metricList.add(metric);
         int result = 0;
         try {
-            for (ProjectVersion version : versions) {
+            Map<Long, Integer> stored = getStoredResults(verlocResults, 
+                    metric, versions);
+            for (Long id : versions) {
+                Integer locs = stored.get(id);
+                if (locs != null) {
+                    result += locs;
+                    continue;
+                }
+                ProjectVersion version = dbs.findObjectById(ProjectVersion.class, id);
                 List<Result> r = getResult(version, metricList);
                 if (r != null && !r.isEmpty()) {
                     result += (Integer)r.get(0).getResult();
@@ -180,54 +212,72 @@ public class DiscussionHeat extends AbstractMetric {
         return result;
     }
     
-    private List<ProjectVersion> getPreviousMonthVersions(ProjectVersion pv) {
-        List<ProjectVersion> versions = new ArrayList<ProjectVersion>();
-        versions.add(pv);
-        ProjectVersion prev = pv.getPreviousVersion();
-        long monthsecs = 3600 * 24 * 30;
-        while (true) {
-            //Diff in seconds
-            long diff = (pv.getTimestamp() - prev.getTimestamp()) / 1000;
-            if (prev != null && diff <  monthsecs ) {
-                versions.add(prev);
-            } else {
-                break;
+    /**
+     * Run one of the id/result queries above for the provided ids, 
+     * a chunk of ids at a time.
+     */
+    private Map<Long, Integer> getStoredResults(String hql, Metric m, 
+            Collection<Long> ids) {
+        Map<Long, Integer> results = new HashMap<Long, Integer>();
+        if (m == null || ids.isEmpty())
+            return results;
+        
+        List<Long> all = new ArrayList<Long>(ids);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("m", m);
+        for (int i = 0; i < all.size(); i += IN_CHUNK) {
+            Map<String, Collection> idParams = new HashMap<String, Collection>();
+            idParams.put("ids", all.subList(i, Math.min(i + IN_CHUNK, all.size())));
+            List<Object[]> rows = (List<Object[]>) dbs.doHQL(hql, params, idParams);
+            for (Object[] row : rows) {
+                try {
+                    results.put((Long) row[0], Integer.parseInt((String) row[1]));
+                } catch (NumberFormatException nfe) {
+                    //Leave it out, it will be recalculated 
+                }
             }
-            prev = prev.getPreviousVersion();
         }
-        return versions;
+        return results;
     }
     
-    private List<ProjectVersion> getNextWeekVersions(ProjectVersion pv) {
-        List<ProjectVersion> versions = new ArrayList<ProjectVersion>();
-        ProjectVersion next = pv.getNextVersion();
-        long weeksecs = 3600 * 24 * 7;
-        while (true) {
-            long diff = (next.getTimestamp() - pv.getTimestamp()) / 1000;
-            if (next != null && diff < weeksecs) {
-                versions.add(next);
-            } else {
-                break;
-            }
-            next = next.getNextVersion();
-        }
+    private ListDistribution getDistribution(MailingList ml) {
+        ListDistribution d = distributions.get(ml.getId());
+        if (d != null && System.currentTimeMillis() - d.loaded < DISTRIB_TTL)
+            return d;
         
-        return versions;
-    }
-    
-    private ProjectVersion getVersionByDate(Date ts, StoredProject sp) {
         Map<String, Object> params = new HashMap<String, Object>();
-        params.put("ts", ts.getTime());
-        params.put("sp", sp);
-        List<ProjectVersion> vers = (List<ProjectVersion>) dbs.doHQL(getPVbyDate, params, 1);
+        params.put("lst", ml);
+        List<Object[]> rows = (List<Object[]>) dbs.doHQL(listDistrib, params);
         
-        if (vers.size() > 0)
-            return vers.get(0);
+        TreeSet<Integer> depths = new TreeSet<Integer>();
+        Map<Long, Long> mailsPerThread = new HashMap<Long, Long>();
+        for (Object[] row : rows) {
+            depths.add((Integer) row[1]);
+            Long thr = (Long) row[0];
+            Long cnt = mailsPerThread.get(thr);
+            mailsPerThread.put(thr, (cnt == null ? 0 : cnt) + (Long) row[2]);
+        }
         
-        return null;
+        d = new ListDistribution(new ArrayList<Integer>(depths), 
+                new ArrayList<Long>(new TreeSet<Long>(mailsPerThread.values())));
+        distributions.put(ml.getId(), d);
+        return d;
+    }
+    
+    private VersionTimeline getTimeline(StoredProject sp) {
+        VersionTimeline timeline = timelines.get(sp.getId());
+        if (timeline == null) {
+            timelines.putIfAbsent(sp.getId(), new VersionTimeline());
+            timeline = timelines.get(sp.getId());
+        }
+        timeline.refresh(dbs, sp);
+        return timeline;
     }
     
     private int getQuartile(List<? extends Number> distrib, int num) {
+        if (distrib.isEmpty())
+            return 1;
+        
         int median = distrib.size() / 2;
         int quart3 = median + ((distrib.size() - median)/2);
         int quart1 = median - (median/2);
@@ -255,20 +305,38 @@ public class DiscussionHeat extends AbstractMetric {
         
         int linesChanged = 0;
         try {
-            // Get difference in number of lines for all file changes
+            //Find out which file versions are needed and get their 
+            //stored line counts in one go
+            List<ProjectFile> files = new ArrayList<ProjectFile>();
+            Map<Long, ProjectFile> previous = new HashMap<Long, ProjectFile>();
+            Set<Long> ids = new HashSet<Long>();
             for (ProjectFile pf : pv.getVersionFiles()) {
                 if (pf.getIsDirectory())
                     continue;
+                files.add(pf);
+                ids.add(pf.getId());
+                if (!pf.isAdded()) {
+                    ProjectFile prev = pf.getPreviousFileVersion();
+                    previous.put(pf.getId(), prev);
+                    if (prev != null)
+                        ids.add(prev.getId());
+                }
+            }
+            Map<Long, Integer> locs = getStoredResults(locResults, 
+                    locMetric.get(0), ids);
+            
+            // Get difference in number of lines for all file changes
+            for (ProjectFile pf : files) {
                 if (pf.isDeleted()) {
-                    linesChanged += getLOCResult(pf.getPreviousFileVersion(),
-                            plugin, locMetric);
+                    linesChanged += getLOCResult(previous.get(pf.getId()),
+                            plugin, locMetric, locs);
                 } else if (pf.isAdded()) {
-                    linesChanged += getLOCResult(pf, plugin, locMetric);
+                    linesChanged += getLOCResult(pf, plugin, locMetric, locs);
                 } else { // MODIFIED or REPLACED
                     linesChanged += Math.abs(
-                            getLOCResult(pf, plugin, locMetric)
-                            - getLOCResult(pf.getPreviousFileVersion(),
-                            plugin, locMetric));
+                            getLOCResult(pf, plugin, locMetric, locs)
+                            - getLOCResult(previous.get(pf.getId()),
+                            plugin, locMetric, locs));
                 }
             }
         } catch (MetricMismatchException e) {
@@ -287,8 +355,15 @@ public class DiscussionHeat extends AbstractMetric {
     }
     
     private int getLOCResult(ProjectFile pf, AlitheiaPlugin plugin, 
-            List<Metric> locMetric) 
+            List<Metric> locMetric, Map<Long, Integer> stored) 
         throws MetricMismatchException, AlreadyProcessingException, Exception {
+        if (pf == null)
+            return 0;
+        
+        Integer locs = stored.get(pf.getId());
+        if (locs != null)
+            return locs;
+        
       //Get lines of current version of the file from the wc metric
         List<Result> r = plugin.getResult(pf, locMetric);
         if (r != null && !r.isEmpty()) {
@@ -298,6 +373,18 @@ public class DiscussionHeat extends AbstractMetric {
             return 0;
         }
     }
+    
+    /** Sorted, distinct thread depths and mails per thread for a list */
+    private static class ListDistribution {
+        final List<Integer> depths;
+        final List<Long> mails;
+        final long loaded = System.currentTimeMillis();
+        
+        ListDistribution(List<Integer> depths, List<Long> mails) {
+            this.depths = depths;
+            this.mails = mails;
+        }
+    }
 }
 
 // vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,162 @@
+/*
+ * This file is part of the Alitheia system.
+ *
+ * Copyright 2009 - 2010 - Organization for Free and Open Source Software,  
+ * *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package eu.sqooss.metrics.discussionheat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.StoredProject;
+
+/**
+ * In-memory index of a project's versions, ordered by sequence, used to
+ * join mailing list threads to versions by date without a query per
+ * thread or per version. The index is loaded with a single query and
+ * extended with the versions added since the last lookup.
+ */
+class VersionTimeline {
+
+    private static final String qryVersions = "select pv.id, pv.timestamp, pv.sequence " +
+            "from ProjectVersion pv " +
+            "where pv.project = :sp " +
+            "and pv.sequence > :seq " +
+            "order by pv.sequence";
+
+    /* Parallel arrays, indexed by position in sequence order */
+    private long[] ids = new long[0];
+    private long[] timestamps = new long[0];
+    private long lastSequence = -1;
+
+    /* Positions sorted by timestamp and, for each prefix of that order,
+     * the latest position (in sequence order) found in it */
+    private int[] byTimestamp = new int[0];
+    private int[] latestUpTo = new int[0];
+
+    /**
+     * Append versions added to the project since the last refresh.
+     */
+    synchronized void refresh(DBService dbs, StoredProject sp) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("sp", sp);
+        params.put("seq", lastSequence);
+        List<Object[]> rows = (List<Object[]>) dbs.doHQL(qryVersions, params);
+
+        if (rows.isEmpty())
+            return;
+
+        int old = ids.length;
+        ids = Arrays.copyOf(ids, old + rows.size());
+        timestamps = Arrays.copyOf(timestamps, old + rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            ids[old + i] = (Long) row[0];
+            timestamps[old + i] = (Long) row[1];
+            lastSequence = (Long) row[2];
+        }
+        index();
+    }
+
+    /**
+     * Position of the latest version (by sequence) whose timestamp is not
+     * after <code>ts</code>, or -1 if there is none.
+     */
+    synchronized int positionAt(long ts) {
+        int lo = 0, hi = byTimestamp.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[byTimestamp[mid]] <= ts) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found < 0 ? -1 : latestUpTo[found];
+    }
+
+    synchronized long idAt(int pos) {
+        return ids[pos];
+    }
+
+    /**
+     * Ids of the version at <code>pos</code> and of the versions preceding
+     * it that were committed less than <code>millis</code> before it.
+     */
+    synchronized List<Long> before(int pos, long millis) {
+        List<Long> result = new ArrayList<Long>();
+        result.add(ids[pos]);
+        for (int i = pos - 1; i >= 0 && timestamps[pos] - timestamps[i] < millis; i--)
+            result.add(ids[i]);
+        return result;
+    }
+
+    /**
+     * Ids of the versions following <code>pos</code> that were committed
+     * less than <code>millis</code> after it.
+     */
+    synchronized List<Long> after(int pos, long millis) {
+        List<Long> result = new ArrayList<Long>();
+        for (int i = pos + 1; i < ids.length && timestamps[i] - timestamps[pos] < millis; i++)
+            result.add(ids[i]);
+        return result;
+    }
+
+    private void index() {
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long ta = timestamps[a], tb = timestamps[b];
+                if (ta != tb)
+                    return ta < tb ? -1 : 1;
+                return a.compareTo(b);
+            }
+        });
+
+        byTimestamp = new int[order.length];
+        latestUpTo = new int[order.length];
+        int latest = -1;
+        for (int i = 0; i < order.length; i++) {
+            byTimestamp[i] = order[i];
+            latest = Math.max(latest, order[i]);
+            latestUpTo[i] = latest;
+        }
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2012 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package gr.aueb.metrics.findbugs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.sqooss.service.util.FileUtils;
+
+/**
+ * Content addressed store for build artifacts and findbugs results.
+ * Entries are keyed by a hash of the sources they were produced from, so
+ * a tree, module or package that did not change between versions maps to
+ * the same entry and is neither rebuilt nor re-analysed. Entries are
+ * written to a temporary directory and renamed in place, so concurrent
+ * jobs never see partial entries. As entries are shared by all projects,
+ * the cache is bounded by size rather than cleaned up per project: the 
+ * least recently used entries are evicted first.
+ */
+public class ArtifactCache {
+
+    private static final String ARTIFACTS = "artifacts";
+    private static final String RESULTS = "results";
+    private static final String TEMP = ".tmp-";
+
+    /** Entries used more recently than this (msec) are never evicted */
+    static final long MIN_AGE = 3600 * 1000;
+
+    private final File root;
+    private final long maxSize;
+
+    public ArtifactCache(File root) {
+        this(root, 0);
+    }
+
+    /**
+     * @param maxSize Max total size of the entries, in bytes; 0 for no 
+     *        limit
+     */
+    public ArtifactCache(File root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+        new File(root, ARTIFACTS).mkdirs();
+        new File(root, RESULTS).mkdirs();
+    }
+
+    /**
+     * Hash the files under <code>dir</code>, both names and contents. 
+     * Build output and hidden directories are always left out, and so are
+     * the files and directories not accepted by <code>filter</code>, if
+     * one is provided.
+     */
+    public static String hashTree(File dir, FileFilter filter) 
+        throws IOException {
+        MessageDigest md = digest();
+        hashTree(md, dir, "", filter, true);
+        return hex(md.digest());
+    }
+
+    /**
+     * Hash the files directly under <code>dir</code>, not descending
+     * into subdirectories.
+     */
+    public static String hashFiles(File dir) throws IOException {
+        MessageDigest md = digest();
+        hashTree(md, dir, "", null, false);
+        return hex(md.digest());
+    }
+
+    /**
+     * Hash the contents of the provided files, and their order.
+     */
+    public static String hashFiles(List<File> files) throws IOException {
+        MessageDigest md = digest();
+        byte[] buf = new byte[8192];
+        for (File f : files)
+            hashFile(md, f, buf);
+        return hex(md.digest());
+    }
+
+    private static void hashTree(MessageDigest md, File dir, String prefix,
+            FileFilter filter, boolean recurse) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        byte[] buf = new byte[8192];
+        for (File f : files) {
+            String name = f.getName();
+            if (filter != null && !filter.accept(f))
+                continue;
+            if (f.isDirectory()) {
+                if (!recurse || name.equals("target") || name.startsWith("."))
+                    continue;
+                hashTree(md, f, prefix + name + "/", filter, recurse);
+                continue;
+            }
+            md.update((prefix + name).getBytes("UTF-8"));
+            md.update((byte) 0);
+            hashFile(md, f, buf);
+        }
+    }
+
+    private static void hashFile(MessageDigest md, File f, byte[] buf) 
+        throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            int read;
+            while ((read = in.read(buf)) != -1)
+                md.update(buf, 0, read);
+        } finally {
+            in.close();
+        }
+        md.update((byte) 0);
+    }
+
+    /**
+     * Get the artifacts stored for a key.
+     * @return The cached files, or null if nothing is stored for the key
+     */
+    public List<File> getArtifacts(String key) {
+        File entry = new File(new File(root, ARTIFACTS), key);
+        File[] files = entry.listFiles();
+        if (files == null)
+            return null;
+        entry.setLastModified(System.currentTimeMillis());
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    /**
+     * Store copies of the provided files for a key. Files with the same
+     * name are stored once.
+     * @return The cached copies
+     */
+    public List<File> putArtifacts(String key, List<File> files) 
+        throws IOException {
+        File tmp = tempEntry(ARTIFACTS, key);
+        for (File f : files)
+            FileUtils.copyFile(f, new File(tmp, f.getName()));
+        publish(tmp, new File(new File(root, ARTIFACTS), key));
+        List<File> stored = getArtifacts(key);
+        trim();
+        return stored;
+    }
+
+    /**
+     * Get the findbugs results stored for a key, as bug type to
+     * source path to number of occurrences.
+     * @return The results, or null if nothing is stored for the key
+     */
+    public Map<String, Map<String, Integer>> getResults(String key) 
+        throws IOException {
+        File entry = new File(new File(root, RESULTS), key);
+        if (!entry.isFile())
+            return null;
+        entry.setLastModified(System.currentTimeMillis());
+        Map<String, Map<String, Integer>> results = 
+            new HashMap<String, Map<String, Integer>>();
+        BufferedReader in = new BufferedReader(new FileReader(entry));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 3)
+                    continue;
+                Map<String, Integer> files = results.get(fields[0]);
+                if (files == null) {
+                    files = new HashMap<String, Integer>();
+                    results.put(fields[0], files);
+                }
+                files.put(fields[1], Integer.valueOf(fields[2]));
+            }
+        } finally {
+            in.close();
+        }
+        return results;
+    }
+
+    public void putResults(String key, Map<String, Map<String, Integer>> results) 
+        throws IOException {
+        File tmp = tempEntry(RESULTS, key);
+        File file = new File(tmp, key);
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        for (Map.Entry<String, Map<String, Integer>> bug : results.entrySet())
+            for (Map.Entry<String, Integer> f : bug.getValue().entrySet())
+                out.println(bug.getKey() + "\t" + f.getKey() + "\t" + f.getValue());
+        out.close();
+        publish(file, new File(new File(root, RESULTS), key));
+        FileUtils.deleteRecursive(tmp);
+        trim();
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits in its
+     * size limit. Entries used in the last {@link #MIN_AGE} msec are kept,
+     * as running jobs may still be reading them.
+     */
+    public synchronized void trim() {
+        if (maxSize <= 0)
+            return;
+        final Map<File, Long> used = new HashMap<File, Long>();
+        Map<File, Long> sizes = new HashMap<File, Long>();
+        long total = 0;
+        for (String kind : new String[] {ARTIFACTS, RESULTS}) {
+            File[] entries = new File(root, kind).listFiles();
+            if (entries == null)
+                continue;
+            for (File f : entries) {
+                if (f.getName().contains(TEMP))
+                    continue;
+                long size = size(f);
+                total += size;
+                sizes.put(f, size);
+                used.put(f, f.lastModified());
+            }
+        }
+        if (total <= maxSize)
+            return;
+
+        List<File> lru = new ArrayList<File>(used.keySet());
+        Collections.sort(lru, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return used.get(a).compareTo(used.get(b));
+            }
+        });
+        long now = System.currentTimeMillis();
+        for (File f : lru) {
+            if (total <= maxSize || now - used.get(f) < MIN_AGE)
+                break;
+            if (f.isDirectory())
+                FileUtils.deleteRecursive(f);
+            else
+                f.delete();
+            total -= sizes.get(f);
+        }
+    }
+
+    private static long size(File f) {
+        if (!f.isDirectory())
+            return f.length();
+        long size = 0;
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files)
+                size += size(child);
+        }
+        return size;
+    }
+
+    private File tempEntry(String kind, String key) throws IOException {
+        File tmp = new File(new File(root, kind), key + TEMP 
+                + Thread.currentThread().getId() + "-" + System.nanoTime());
+        if (!tmp.mkdirs())
+            throw new IOException("Cannot create " + tmp);
+        return tmp;
+    }
+
+    /* Another job may have stored the same entry meanwhile; keep theirs */
+    private void publish(File tmp, File entry) {
+        if (tmp.renameTo(entry))
+            return;
+        if (tmp.isDirectory())
+            FileUtils.deleteRecursive(tmp);
+        else
+            tmp.delete();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (byte x : b)
+            sb.append(String.format("%02x", x));
+        return sb.toString();
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package gr.aueb.metrics.findbugs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs external build and analysis tools on a bounded pool of worker
+ * threads, so that no more than a fixed number of processes run at the
+ * same time regardless of how many metric jobs ask for builds. Each
+ * process is killed if it runs for longer than the configured timeout.
+ * The JVM heap of the tools is capped through the usual *_OPTS
+ * variables and, if configured, the process address space is capped
+ * with <code>ulimit -v</code>.
+ */
+public class BuildExecutor {
+
+    /** Exit value reported for processes killed after a timeout. */
+    public static final int EXIT_TIMEOUT = -2;
+
+    /** Exit value reported for processes that could not be run. */
+    public static final int EXIT_FAILED = -3;
+
+    private static final String[] JAVA_OPTS_VARS = 
+        {"MAVEN_OPTS", "ANT_OPTS", "JAVA_OPTS"};
+
+    private final ExecutorService pool;
+    private final int maxProcesses;
+    private final long timeout;
+    private final int maxHeapMB;
+    private final long maxVirtualKB;
+
+    /**
+     * @param maxProcesses Max number of processes to run concurrently
+     * @param timeout Max running time for a process, in msec; 0 to disable
+     * @param maxHeapMB Max JVM heap for each process, in MB; 0 to disable
+     * @param maxVirtualKB Max address space for each process, in KB, 
+     *        enforced through the shell; 0 to disable
+     */
+    public BuildExecutor(int maxProcesses, long timeout, int maxHeapMB,
+            long maxVirtualKB) {
+        this.maxProcesses = Math.max(1, maxProcesses);
+        this.timeout = timeout;
+        this.maxHeapMB = maxHeapMB;
+        this.maxVirtualKB = maxVirtualKB;
+        this.pool = Executors.newFixedThreadPool(this.maxProcesses,
+                new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "findbugs-build-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    public int getMaxHeapMB() {
+        return maxHeapMB;
+    }
+
+    /**
+     * Queue a process for execution. Its output (stdout and stderr) is
+     * appended to the provided file.
+     *
+     * @return The process exit value, {@link #EXIT_TIMEOUT} or 
+     *  {@link #EXIT_FAILED}
+     */
+    public Future<Integer> submit(final ProcessBuilder pb, final String out) {
+        limit(pb);
+        return pool.submit(new Callable<Integer>() {
+            public Integer call() {
+                return execute(pb, out);
+            }
+        });
+    }
+
+    /**
+     * Run a process and wait for it to finish.
+     * @see #submit(ProcessBuilder, String)
+     */
+    public int run(ProcessBuilder pb, String out) throws IOException {
+        return get(submit(pb, out));
+    }
+
+    /**
+     * Wait for a queued process to finish.
+     */
+    public int get(Future<Integer> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for process");
+        } catch (ExecutionException e) {
+            throw new IOException("Process failed: " + e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private void limit(ProcessBuilder pb) {
+        pb.redirectErrorStream(true);
+        if (maxHeapMB > 0) {
+            Map<String, String> env = pb.environment();
+            for (String var : JAVA_OPTS_VARS) {
+                String opts = env.get(var);
+                env.put(var, (opts == null ? "" : opts + " ") 
+                        + "-Xmx" + maxHeapMB + "m");
+            }
+        }
+        if (maxVirtualKB > 0 && File.separatorChar == '/') {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add("/bin/sh");
+            cmd.add("-c");
+            cmd.add("ulimit -v " + maxVirtualKB + " && exec \"$0\" \"$@\"");
+            cmd.addAll(pb.command());
+            pb.command(cmd);
+        }
+    }
+
+    private int execute(ProcessBuilder pb, String out) {
+        Process pr = null;
+        OutReader reader = null;
+        try {
+            pr = pb.start();
+            reader = new OutReader(pr.getInputStream(), out);
+            reader.start();
+
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                try {
+                    int retVal = pr.exitValue();
+                    reader.join();
+                    return retVal;
+                } catch (IllegalThreadStateException running) {
+                    if (timeout > 0 && System.currentTimeMillis() > deadline) {
+                        pr.destroy();
+                        append(out, "Process " + pb.command() 
+                                + " killed after " + timeout + " msec");
+                        return EXIT_TIMEOUT;
+                    }
+                    Thread.sleep(100);
+                }
+            }
+        } catch (IOException e) {
+            append(out, "Cannot run " + pb.command() + ": " + e);
+            return EXIT_FAILED;
+        } catch (InterruptedException e) {
+            if (pr != null)
+                pr.destroy();
+            return EXIT_FAILED;
+        }
+    }
+
+    private static synchronized void append(String name, String line) {
+        try {
+            FileWriter out = new FileWriter(new File(name), true);
+            out.write(line);
+            out.write('\n');
+            out.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static class OutReader extends Thread {
+        String name;
+        InputStream input;
+
+        public OutReader(InputStream in, String name) {
+            this.name = name;
+            this.input = in;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(input));
+                FileWriter out = new FileWriter(new File(name), true);
+
+                char[] buf = new char[8192];
+                while (true) {
+                    int length = in.read(buf);
+                    if (length < 0)
+                        break;
+                    out.write(buf, 0, length);
+                    out.flush();
+                }
+                in.close();
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
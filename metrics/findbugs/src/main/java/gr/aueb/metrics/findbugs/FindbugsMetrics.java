@@ -31,6 +31,7 @@ package gr.aueb.metrics.findbugs;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -117,6 +118,10 @@ public class FindbugsMetrics extends AbstractMetric {
     static String ANT_PATH = "";
     static String FINDBUGS_PATH = "";
 
+    /** Shared by all metric jobs, to bound the number of build processes */
+    static BuildExecutor executor;
+    static ArtifactCache cache;
+
     static {
         if (System.getProperty("findbugs.path") != null)
             FINDBUGS_PATH = System.getProperty("findbugs.path");
@@ -130,6 +135,21 @@ public class FindbugsMetrics extends AbstractMetric {
             ANT_PATH = System.getProperty("ant.path");
         else
             ANT_PATH = "ant";
+
+        executor = new BuildExecutor(
+                Integer.getInteger("findbugs.maxprocs",
+                        Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Long.getLong("findbugs.timeout", 3600) * 1000,
+                Integer.getInteger("findbugs.maxheap", 1024),
+                Long.getLong("findbugs.vmlimit", 0));
+
+        long cacheSize = Long.getLong("findbugs.cache.maxsize", 4096) * 1024 * 1024;
+        if (System.getProperty("findbugs.cache") != null)
+            cache = new ArtifactCache(new File(System.getProperty("findbugs.cache")),
+                    cacheSize);
+        else
+            cache = new ArtifactCache(new File(System.getProperty("java.io.tmpdir"),
+                    "alitheia-findbugs"), cacheSize);
     }
 
     public FindbugsMetrics(BundleContext bc) {
@@ -195,41 +215,23 @@ public class FindbugsMetrics extends AbstractMetric {
             String out = pv.getProject().getName() + "-" + pv.getRevisionId() +
                     "-" + pv.getId() + "-out.txt";
 
-            List<File> jars = null;
+            // Only files in the repository count towards source hashes,
+            // whatever earlier builds left in the checkout
+            Set<String> tracked = new HashSet<String>();
+            for (ProjectFile pf : files) {
+                Matcher m = trunk.matcher(pf.getFileName());
+                if (m.find())
+                    tracked.add(new File(checkout, 
+                            pf.getFileName().substring(m.end())).getAbsolutePath());
+            }
+
+            List<AnalysisUnit> units = null;
             if (maven_build)
-                jars = compileMaven(pv, pom, checkout, out);
+                units = compileMaven(pv, pom, checkout, tracked, out);
             else
-                jars = compileAnt(pv, buildxml, checkout, out);
-
-            for(File jar: jars) {
-
-                //String pkgs = getPkgs(pv.getFiles(Pattern.compile("src/main/java/"),
-                //        ProjectVersion.MASK_FILES));
-                //pkgs = pkgs.substring(0, pkgs.length() - 1);
-                String findbugsOut = pv.getRevisionId()+"-" + jar.getName() + "-" +pv.getProject().getName() + ".xml";
-
-                List<String> findbugsArgs = new ArrayList<String>();
-                findbugsArgs.add(FINDBUGS_PATH);
-                findbugsArgs.add("-textui");
-                //findbugsArgs.add("-onlyAnalyze");
-                //findbugsArgs.add(pkgs);
-                findbugsArgs.add("-xml");
-                findbugsArgs.add("-output");
-                findbugsArgs.add(findbugsOut);
-                findbugsArgs.add(jar.getAbsolutePath());
-
-                ProcessBuilder findbugs = new ProcessBuilder(findbugsArgs);
-                findbugs.redirectErrorStream(true);
-                int retVal = runReadOutput(findbugs.start(), out);
-
-                if (retVal != 0) {
-                    log.warn("Findbugs failed. See file:" + out);
-                }
-
-                File f = new File(findbugsOut);
-                storeResults(parseFindbugsResults(f), files, pv);
+                units = compileAnt(pv, buildxml, checkout, tracked, out);
 
-            }
+            storeResults(analyse(pv, units, out), files, pv);
         } catch (CheckoutException e) {
             e.printStackTrace();
         } catch (FileNotFoundException e) {
@@ -244,30 +246,111 @@ public class FindbugsMetrics extends AbstractMetric {
         }
     }
 
-    private List<File> compileMaven(ProjectVersion pv, Pattern pom,
-                                    File checkout, String out) throws IOException {
+    /**
+     * Build the maven modules whose sources changed since they were last
+     * built and return the jars of all modules, from the artifact cache.
+     */
+    private List<AnalysisUnit> compileMaven(ProjectVersion pv, Pattern pom,
+            File checkout, Set<String> tracked, String out) throws IOException {
 
+        List<AnalysisUnit> units = new ArrayList<AnalysisUnit>();
         File pomFile = FileUtils.findBreadthFirst(checkout, pom);
 
         if (pomFile == null) {
             log.warn(pv + " No pom.xml found in checkout?!");
-            return new ArrayList<File>();
+            return units;
         }
 
-        ProcessBuilder maven = new ProcessBuilder(MAVEN_PATH, "install", "-DskipTests=true");
-        maven.directory(pomFile.getParentFile());
-        maven.redirectErrorStream(true);
-        int retVal = runReadOutput(maven.start(), out);
+        // Modules are directories with a pom.xml; each one is hashed
+        // without its nested modules and build output
+        File base = pomFile.getParentFile();
+        List<File> poms = new ArrayList<File>();
+        List<File> modules = new ArrayList<File>();
+        for (File f : FileUtils.findGrep(base, pom)) {
+            if (f.getPath().contains("/target/"))
+                continue;
+            poms.add(f);
+            modules.add(f.getParentFile());
+        }
+        Collections.sort(poms);
+
+        Map<File, String> moduleHashes = new HashMap<File, String>();
+        List<File> changed = new ArrayList<File>();
+        for (File module : modules) {
+            String hash = ArtifactCache.hashTree(module, 
+                    sources(tracked, modules, module));
+            moduleHashes.put(module, hash);
+            if (cache.getArtifacts("module-" + hash) == null)
+                changed.add(module);
+        }
 
-        // project dependencies
-        List<File> deps = new ArrayList<File>();
-        if (retVal != 0) {
-            log.warn("Build with maven failed. See file:" + out);
-            return deps;
+        if (!changed.isEmpty()) {
+            List<String> mvnArgs = new ArrayList<String>();
+            mvnArgs.add(MAVEN_PATH);
+            mvnArgs.add("install");
+            mvnArgs.add("-DskipTests=true");
+            if (changed.size() < modules.size()) {
+                // Build changed modules, and whatever they depend on
+                StringBuffer pl = new StringBuffer();
+                for (File module : changed)
+                    pl.append(relativePath(base, module)).append(",");
+                mvnArgs.add("-pl");
+                mvnArgs.add(pl.substring(0, pl.length() - 1));
+                mvnArgs.add("-am");
+            }
+            ProcessBuilder maven = new ProcessBuilder(mvnArgs);
+            maven.directory(base);
+            int retVal = executor.run(maven, out);
+
+            if (retVal != 0) {
+                log.warn("Build with maven failed. See file:" + out);
+                return units;
+            }
+
+            for (File module : changed)
+                cache.putArtifacts("module-" + moduleHashes.get(module), 
+                        getModuleJars(module));
+        } else {
+            log.info(pv + ": All modules found in build cache");
+        }
+
+        for (File module : modules) {
+            String hash = moduleHashes.get(module);
+            Map<String, String> pkgs = getPkgHashes(
+                    new File(module, "src/main/java"));
+            for (File jar : cache.getArtifacts("module-" + hash)) {
+                // Test jars are not built from the main sources
+                if (jar.getName().endsWith("-tests.jar"))
+                    units.add(new AnalysisUnit(jar, "jar-" + hash + "-" + jar.getName(), null));
+                else
+                    units.add(new AnalysisUnit(jar, "jar-" + hash + "-" + jar.getName(), pkgs));
+            }
+        }
+
+        // project dependencies, which only change with the poms
+        String depsKey = "deps-" + ArtifactCache.hashFiles(poms);
+        List<File> deps = cache.getArtifacts(depsKey);
+        if (deps == null) {
+            deps = copyDependencies(base, out);
+            if (deps != null)
+                deps = cache.putArtifacts(depsKey, deps);
         }
+        if (deps != null) {
+            for (File dep : deps) {
+                List<File> jar = new ArrayList<File>();
+                jar.add(dep);
+                units.add(new AnalysisUnit(dep, 
+                        "dep-" + ArtifactCache.hashFiles(jar), null));
+            }
+        }
+
+        return units;
+    }
+
+    private List<File> copyDependencies(File base, String out) throws IOException {
         // Copy the script that gathers the dependency from
         // the resource bundle
-        File copyDepsScript = new File(pomFile.getParentFile(), "copy-dependencies");
+        File copyDepsScript = new File(base, "copy-dependencies");
         FileOutputStream fos = new FileOutputStream(copyDepsScript);
         InputStream in = bc.getBundle().getResource("copy-dependencies").openStream();
 
@@ -282,43 +365,225 @@ public class FindbugsMetrics extends AbstractMetric {
         in.close();
 
         ProcessBuilder copyDeps = new ProcessBuilder("./copy-dependencies");
-        copyDeps.directory(pomFile.getParentFile());
-        copyDeps.redirectErrorStream(true);
-        int retVal2 = runReadOutput(copyDeps.start(), out);
+        copyDeps.directory(base);
+        int retVal2 = executor.run(copyDeps, out);
         if (retVal2 == 0) {
-            File allDeps = new File(checkout.getPath() + "/all-deps");
+            File allDeps = new File(base, "all-deps");
             if (allDeps.exists() && allDeps.isDirectory()) {
-                deps = Arrays.asList(allDeps.listFiles());
+                return Arrays.asList(allDeps.listFiles());
             }
         }
-
-        List<File> jars = getMavenJars(checkout);
-        jars.addAll(deps);
-
-        return jars;
+        return null;
     }
 
-    private List<File> compileAnt(ProjectVersion pv, Pattern buildxml,
-                                    File checkout, String out) throws IOException {
+    private List<AnalysisUnit> compileAnt(ProjectVersion pv, Pattern buildxml,
+            File checkout, Set<String> tracked, String out) throws IOException {
 
+        List<AnalysisUnit> units = new ArrayList<AnalysisUnit>();
         File antFile = FileUtils.findBreadthFirst(checkout, buildxml);
 
         if (antFile == null) {
             log.warn(pv + " No build.xml found in checkout?!");
-            return new ArrayList<File>();
+            return units;
         }
 
-        ProcessBuilder ant = new ProcessBuilder(ANT_PATH);
-        ant.directory(antFile.getParentFile());
-        ant.redirectErrorStream(true);
-        int retVal = runReadOutput(ant.start(), out);
+        String hash = ArtifactCache.hashTree(checkout, 
+                sources(tracked, new ArrayList<File>(), checkout));
+        List<File> jars = cache.getArtifacts("ant-" + hash);
+
+        if (jars == null) {
+            ProcessBuilder ant = new ProcessBuilder(ANT_PATH);
+            ant.directory(antFile.getParentFile());
+            int retVal = executor.run(ant, out);
 
-        if (retVal != 0) {
-            log.warn("Build with ant failed. See file:" + out);
-            return new ArrayList<File>();
+            if (retVal != 0) {
+                log.warn("Build with ant failed. See file:" + out);
+                return units;
+            }
+            jars = cache.putArtifacts("ant-" + hash, getAntJars(checkout));
+        } else {
+            log.info(pv + ": Build found in build cache");
         }
 
-        return getAntJars(checkout);
+        for (File jar : jars)
+            units.add(new AnalysisUnit(jar, "jar-" + hash + "-" + jar.getName(), null));
+        return units;
+    }
+
+    /**
+     * Run findbugs on the provided jars, concurrently, re-using cached
+     * results for jars, or packages in jars, whose sources did not change.
+     */
+    private Map<String, Map<String, Integer>> analyse(ProjectVersion pv,
+            List<AnalysisUnit> units, String out) throws IOException {
+        Map<String, Map<String, Integer>> results = 
+            new HashMap<String, Map<String, Integer>>();
+        List<AnalysisUnit> pending = new ArrayList<AnalysisUnit>();
+
+        int i = 0;
+        for (AnalysisUnit unit : units) {
+            List<String> findbugsArgs = new ArrayList<String>();
+            findbugsArgs.add(FINDBUGS_PATH);
+            findbugsArgs.add("-textui");
+            if (executor.getMaxHeapMB() > 0) {
+                findbugsArgs.add("-maxHeap");
+                findbugsArgs.add(String.valueOf(executor.getMaxHeapMB()));
+            }
+
+            if (unit.pkgs == null) {
+                Map<String, Map<String, Integer>> cached = cache.getResults(unit.key);
+                if (cached != null) {
+                    merge(results, cached);
+                    continue;
+                }
+            } else {
+                // Only analyse packages whose sources changed
+                StringBuffer pkgs = new StringBuffer();
+                for (Map.Entry<String, String> pkg : unit.pkgs.entrySet()) {
+                    Map<String, Map<String, Integer>> cached = 
+                        cache.getResults(pkgKey(pkg.getKey(), pkg.getValue()));
+                    if (cached != null) {
+                        merge(results, cached);
+                    } else {
+                        unit.missing.add(pkg.getKey());
+                        pkgs.append(pkg.getKey()).append(".*,");
+                    }
+                }
+                if (unit.missing.isEmpty())
+                    continue;
+                if (!unit.missing.contains("")) {
+                    findbugsArgs.add("-onlyAnalyze");
+                    findbugsArgs.add(pkgs.substring(0, pkgs.length() - 1));
+                }
+            }
+
+            unit.output = new File(pv.getRevisionId() + "-" + (i++) + "-" + 
+                    unit.jar.getName() + "-" + pv.getProject().getName() + ".xml");
+            findbugsArgs.add("-xml");
+            findbugsArgs.add("-output");
+            findbugsArgs.add(unit.output.getPath());
+            findbugsArgs.add(unit.jar.getAbsolutePath());
+
+            unit.result = executor.submit(new ProcessBuilder(findbugsArgs), out);
+            pending.add(unit);
+        }
+
+        for (AnalysisUnit unit : pending) {
+            int retVal = executor.get(unit.result);
+            if (retVal != 0 || !unit.output.exists()) {
+                log.warn("Findbugs failed on " + unit.jar.getName() + 
+                        ". See file:" + out);
+                continue;
+            }
+
+            Map<String, Map<String, Integer>> found = 
+                parseFindbugsResults(unit.output);
+            unit.output.delete();
+
+            if (unit.pkgs == null) {
+                cache.putResults(unit.key, found);
+                merge(results, found);
+                continue;
+            }
+
+            // Split per package; results for sources outside the analysed
+            // packages would depend on whether the jar was analysed in full
+            // and are left out
+            Map<String, Map<String, Map<String, Integer>>> perPkg =
+                new HashMap<String, Map<String, Map<String, Integer>>>();
+            for (String pkg : unit.missing)
+                perPkg.put(pkg, new HashMap<String, Map<String, Integer>>());
+            for (Map.Entry<String, Map<String, Integer>> bug : found.entrySet()) {
+                for (Map.Entry<String, Integer> file : bug.getValue().entrySet()) {
+                    String pkg = pkgOf(file.getKey());
+                    if (!perPkg.containsKey(pkg))
+                        continue;
+                    Map<String, Map<String, Integer>> single = 
+                        new HashMap<String, Map<String, Integer>>();
+                    single.put(bug.getKey(), new HashMap<String, Integer>());
+                    single.get(bug.getKey()).put(file.getKey(), file.getValue());
+                    merge(perPkg.get(pkg), single);
+                }
+            }
+            for (String pkg : unit.missing) {
+                cache.putResults(pkgKey(pkg, unit.pkgs.get(pkg)), perPkg.get(pkg));
+                merge(results, perPkg.get(pkg));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Accept the tracked files under <code>root</code>, leaving out
+     * the provided (module) directories.
+     */
+    private FileFilter sources(final Set<String> tracked, 
+            final Collection<File> skip, final File root) {
+        return new FileFilter() {
+            public boolean accept(File f) {
+                if (f.isDirectory())
+                    return f.equals(root) || !skip.contains(f);
+                return tracked.isEmpty() || tracked.contains(f.getAbsolutePath());
+            }
+        };
+    }
+
+    /** Add the bug counts in <code>from</code> to <code>to</code> */
+    private void merge(Map<String, Map<String, Integer>> to,
+            Map<String, Map<String, Integer>> from) {
+        for (Map.Entry<String, Map<String, Integer>> bug : from.entrySet()) {
+            Map<String, Integer> files = to.get(bug.getKey());
+            if (files == null) {
+                files = new HashMap<String, Integer>();
+                to.put(bug.getKey(), files);
+            }
+            for (Map.Entry<String, Integer> file : bug.getValue().entrySet()) {
+                Integer count = files.get(file.getKey());
+                files.put(file.getKey(), 
+                        (count == null ? 0 : count) + file.getValue());
+            }
+        }
+    }
+
+    /**
+     * Hash the sources of each package found under a source directory.
+     * @return Package name to source hash
+     */
+    private Map<String, String> getPkgHashes(File srcDir) throws IOException {
+        Map<String, String> pkgs = new HashMap<String, String>();
+        if (!srcDir.isDirectory())
+            return pkgs;
+        List<File> dirs = new ArrayList<File>();
+        dirs.add(srcDir);
+        dirs.addAll(FileUtils.findDirs(srcDir));
+        for (File dir : dirs) {
+            File[] srcs = dir.listFiles();
+            boolean hasSources = false;
+            for (int i = 0; srcs != null && i < srcs.length && !hasSources; i++)
+                hasSources = srcs[i].getName().endsWith(".java");
+            if (hasSources)
+                pkgs.put(relativePath(srcDir, dir).replace('/', '.').replaceAll("^\\.$", ""),
+                        ArtifactCache.hashFiles(dir));
+        }
+        return pkgs;
+    }
+
+    private String pkgKey(String pkg, String hash) {
+        return "pkg-" + hash + "-" + pkg;
+    }
+
+    private String pkgOf(String sourcePath) {
+        int idx = sourcePath.lastIndexOf('/');
+        return idx < 0 ? "" : sourcePath.substring(0, idx).replace('/', '.');
+    }
+
+    private String relativePath(File base, File f) {
+        String path = f.getAbsolutePath().substring(
+                base.getAbsolutePath().length());
+        if (path.startsWith("/"))
+            path = path.substring(1);
+        return path.length() == 0 ? "." : path;
     }
 
     public String getPkgs(List<ProjectFile> files) {
@@ -340,7 +605,10 @@ public class FindbugsMetrics extends AbstractMetric {
     }
     
     public List<File> getMavenJars(File checkout) {
-        List<File> jars = FileUtils.findGrep(checkout, Pattern.compile("target/.*\\.jar$"));
+        return getMavenJars(FileUtils.findGrep(checkout, Pattern.compile("target/.*\\.jar$")));
+    }
+
+    private List<File> getMavenJars(List<File> jars) {
         List<File> result = new ArrayList<File>();
         //Exclude common maven artifacts which don't contain bytecode
         for(File f: jars) {
@@ -355,6 +623,20 @@ public class FindbugsMetrics extends AbstractMetric {
         return result;
     }
 
+    /** Jars built by a single maven module */
+    private List<File> getModuleJars(File module) {
+        List<File> result = new ArrayList<File>();
+        File[] files = new File(module, "target").listFiles();
+        if (files == null)
+            return result;
+        for (File f : files) {
+            if (f.isFile() && f.getName().endsWith(".jar"))
+                result.add(f);
+        }
+        //Exclude common maven artifacts which don't contain bytecode
+        return getMavenJars(result);
+    }
+
     public List<File> getAntJars(File checkout) {
         List<File> jars = FileUtils.findGrep(checkout, Pattern.compile("target/.*\\.jar$"));
         List<File> result = new ArrayList<File>();
@@ -368,18 +650,6 @@ public class FindbugsMetrics extends AbstractMetric {
         return result;
     }
 
-    public int runReadOutput(Process pr, String name) throws IOException {
-        OutReader outReader = new OutReader(pr.getInputStream(), name);
-        outReader.start();
-        int retVal = -1;
-        while (retVal == -1) {
-            try {
-                retVal = pr.waitFor();
-            } catch (Exception ignored) {}
-        }
-        return retVal;
-    }
-
     /**
      * parses the XML document that contains the FindBugs report
      * and finds bugs of security-related categories. Then creates a
@@ -502,8 +772,8 @@ public class FindbugsMetrics extends AbstractMetric {
                 versionMeasurements.add(new ProjectVersionMeasurement(m, pv, bugTotal.toString()));
             }
         }
-        db.addRecords(fileMeasurements);
-        db.addRecords(versionMeasurements);
+        db.upsertMeasurements(fileMeasurements);
+        db.upsertMeasurements(versionMeasurements);
     }
 
     private boolean pvMeasurementExists(ProjectVersion pv, Metric m) {
@@ -546,33 +816,22 @@ public class FindbugsMetrics extends AbstractMetric {
         return result.toString();
     }
 
-    private class OutReader extends Thread {
-        String name;
-        InputStream input;
-
-        public OutReader(InputStream in, String name) {
-            this.name = name;
-            this.input = in;
-        }
-
-        public void run() {
-            try {
-                BufferedReader in = new BufferedReader(new InputStreamReader(input));
-                FileWriter out = new FileWriter(new File(name), true);
-
-                char[] buf = new char[8192];
-                while (true) {
-                    int length = in.read(buf);
-                    if (length < 0)
-                        break;
-                    out.write(buf, 0, length);
-                    out.flush();
-                }
-                in.close();
-                out.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /** A jar to analyse, and the keys of its cached results */
+    private static class AnalysisUnit {
+        File jar;
+        /** Key of the results for the whole jar */
+        String key;
+        /** Package name to source hash, if results are cached per package */
+        Map<String, String> pkgs;
+        /** Packages without cached results */
+        List<String> missing = new ArrayList<String>();
+        File output;
+        Future<Integer> result;
+
+        AnalysisUnit(File jar, String key, Map<String, String> pkgs) {
+            this.jar = jar;
+            this.key = key;
+            this.pkgs = pkgs;
         }
     }
 }
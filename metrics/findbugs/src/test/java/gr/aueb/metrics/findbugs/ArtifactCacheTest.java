@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package gr.aueb.metrics.findbugs;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.sqooss.service.util.FileUtils;
+
+public class ArtifactCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("artifactcache", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteRecursive(dir);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        ArtifactCache cache = new ArtifactCache(new File(dir, "cache"), 2500);
+        long old = System.currentTimeMillis() - 2 * ArtifactCache.MIN_AGE;
+
+        cache.putArtifacts("a", jar("a.jar", 1000));
+        entry("a").setLastModified(old - 1000);
+        cache.putArtifacts("b", jar("b.jar", 1000));
+        entry("b").setLastModified(old);
+
+        cache.putArtifacts("c", jar("c.jar", 1000));
+        assertNull(cache.getArtifacts("a"));
+        assertNotNull(cache.getArtifacts("b"));
+        assertNotNull(cache.getArtifacts("c"));
+    }
+
+    @Test
+    public void testKeepsRecentlyUsed() throws IOException {
+        ArtifactCache cache = new ArtifactCache(new File(dir, "cache"), 1500);
+        cache.putArtifacts("a", jar("a.jar", 1000));
+        cache.putArtifacts("b", jar("b.jar", 1000));
+        assertNotNull(cache.getArtifacts("a"));
+        assertNotNull(cache.getArtifacts("b"));
+    }
+
+    @Test
+    public void testUnbounded() throws IOException {
+        ArtifactCache cache = new ArtifactCache(new File(dir, "cache"));
+        cache.putArtifacts("a", jar("a.jar", 1000));
+        entry("a").setLastModified(0);
+        cache.putArtifacts("b", jar("b.jar", 1000));
+        assertNotNull(cache.getArtifacts("a"));
+        assertTrue(entry("b").isDirectory());
+    }
+
+    private File entry(String key) {
+        return new File(new File(new File(dir, "cache"), "artifacts"), key);
+    }
+
+    private List<File> jar(String name, int size) throws IOException {
+        File f = new File(dir, name);
+        FileWriter w = new FileWriter(f);
+        for (int i = 0; i < size; i++)
+            w.write('x');
+        w.close();
+        List<File> files = new ArrayList<File>();
+        files.add(f);
+        return files;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package gr.aueb.metrics.findbugs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.sqooss.service.util.FileUtils;
+
+public class BuildExecutorTest {
+
+    private File dir;
+    private File out;
+    private BuildExecutor executor;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+        dir = File.createTempFile("buildexec", "");
+        dir.delete();
+        dir.mkdirs();
+        out = new File(dir, "out.txt");
+        executor = new BuildExecutor(2, 1000, 64, 0);
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null)
+            executor.shutdown();
+        if (dir != null)
+            FileUtils.deleteRecursive(dir);
+    }
+
+    @Test
+    public void testExitValueAndOutput() throws IOException {
+        assertEquals(0, executor.run(script("echo hello; echo $MAVEN_OPTS"),
+                out.getAbsolutePath()));
+        String output = read(out);
+        assertTrue(output, output.contains("hello"));
+        assertTrue(output, output.contains("-Xmx64m"));
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        assertEquals(3, executor.run(script("echo broken >&2; exit 3"),
+                out.getAbsolutePath()));
+        String output = read(out);
+        assertTrue(output, output.contains("broken"));
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        long start = System.currentTimeMillis();
+        assertEquals(BuildExecutor.EXIT_TIMEOUT, 
+                executor.run(script("sleep 30"), out.getAbsolutePath()));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        String output = read(out);
+        assertTrue(output, output.contains("killed after 1000 msec"));
+    }
+
+    @Test
+    public void testCannotRun() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(
+                new File(dir, "nonexistent").getAbsolutePath());
+        assertEquals(BuildExecutor.EXIT_FAILED, 
+                executor.run(pb, out.getAbsolutePath()));
+        String output = read(out);
+        assertTrue(output, output.contains("Cannot run"));
+    }
+
+    @Test
+    public void testVirtualMemoryLimit() throws IOException {
+        executor.shutdown();
+        executor = new BuildExecutor(1, 1000, 0, 1024 * 1024);
+        assertEquals(0, executor.run(script("ulimit -v"), 
+                out.getAbsolutePath()));
+        String output = read(out);
+        assertTrue(output, output.contains("1048576"));
+    }
+
+    private ProcessBuilder script(String body) throws IOException {
+        File f = new File(dir, "stub.sh");
+        FileWriter w = new FileWriter(f);
+        w.write("#!/bin/sh\n" + body + "\n");
+        w.close();
+        f.setExecutable(true);
+        return new ProcessBuilder(Arrays.asList(f.getAbsolutePath()));
+    }
+
+    private static String read(File f) throws IOException {
+        StringBuilder b = new StringBuilder();
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        String line;
+        while ((line = in.readLine()) != null)
+            b.append(line).append('\n');
+        in.close();
+        return b.toString();
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
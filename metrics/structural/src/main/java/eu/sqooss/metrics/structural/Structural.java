@@ -33,13 +33,13 @@
 
 package eu.sqooss.metrics.structural;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -61,8 +61,11 @@ import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectFileMeasurement;
+import eu.sqooss.service.fds.CommentGrammar;
 import eu.sqooss.service.fds.FDSService;
 import eu.sqooss.service.fds.FileTypeMatcher;
+import eu.sqooss.service.fds.SourceScanner;
+import eu.sqooss.service.fds.SourceScanner.ScanResult;
 import eu.sqooss.service.util.FileUtils;
 
 /**
@@ -181,145 +184,32 @@ public class Structural extends AbstractMetric {
         this.fileDAO.set(pf);
         
         FDSService fds = AlitheiaCore.getInstance().getFDSService();
-        BufferedInputStream in = new BufferedInputStream(fds.getFileContents(pf));
+        InputStream in = fds.getFileContents(pf);
         
         if (in == null) {
             return;
         }
         
-        /* Read the input file and remove all comments */
-        byte[] fileContents = stripComments(in);
+        /* Read the input file, remove all comments and string contents */
+        byte[] fileContents = null;
+        try {
+            fileContents = FileUtils.readFully(in);
+        } catch (IOException ioe) {
+            log.warn("StructureMetrics: Failed to read file <" + 
+                    pf.getFileName() +">", ioe);
+            return;
+        }
         
-        /* Remove string contents */
-        fileContents = stripStrings(fileContents);
+        CommentGrammar grammar = 
+            FileTypeMatcher.getInstance().getCommentGrammar(pf.getName());
+        ScanResult r = SourceScanner.scan(fileContents, grammar, fileContents);
+        fileContents = Arrays.copyOf(fileContents, r.getCodeLength());
         
         /* Call the metric calculation methods*/
         halstead(fileContents);
         mccabe(fileContents);
     }
     
-
-   protected enum StringState {
-       DEFAULT, INSTRING, INCHAR, STRINGQ, CHARQ
-   }
-   
-    /**
-     * A method that shortens strings (identified by "") and chars (identified
-     * by '') by removing their content, but leaving the string delimiters.
-     */
-    protected byte[] stripStrings(byte[] file) {
-        StringState state = StringState.DEFAULT;
-        byte[] buff = new byte[file.length];
-        int index = 0;
-        
-        for (byte b : file) {
-            switch (b) {
-            case '"':
-                if (state == StringState.DEFAULT) {
-                    state = StringState.INSTRING;
-                    buff[index++] = b;
-                }
-                else if (state == StringState.INSTRING) {
-                    state = StringState.DEFAULT;
-                }
-                break;
-            case '\\':
-                if (state == StringState.INSTRING)
-                    state = StringState.STRINGQ;
-                else if (state == StringState.INCHAR)
-                    state = StringState.CHARQ;
-                break;
-            case '\'':
-                if (state == StringState.DEFAULT) { 
-                    state = StringState.INCHAR;
-                    buff[index++] = b;
-                }
-                else if (state == StringState.INCHAR) {
-                    state = StringState.DEFAULT;
-                }
-
-                break;
-            default:
-                if (state == StringState.CHARQ)
-                    state = StringState.INCHAR;
-                else if (state == StringState.STRINGQ)
-                    state = StringState.INSTRING;
-                break;
-            }
-            
-            if (state == StringState.DEFAULT) {
-                buff[index++] = b;
-            }
-        }
-        byte[] fileNoStrings = new byte[buff.length];
-        System.arraycopy(buff, 0, fileNoStrings, 0, buff.length);
-        return fileNoStrings;
-    }
-
-    protected enum CommentState {
-        DEFAULT, MAYBECOMMENT, MULTICOMMENT, LINECOMMENT, MAYBECLOSEMULTI;
-    }
-    
-    /**
-     * A method that strips C/C++/Java comments from the input stream
-     * and returns the input as an array of bytes. Works as a five
-     * state state machine with predefined transitions.  
-     */
-    protected byte[] stripComments(InputStream in) {
-
-        try {
-            byte[] buffer = new byte[in.available()];
-            byte b;
-            int counter = 0;
-            CommentState state = CommentState.DEFAULT;
-            while ((b = (byte) in.read()) != -1) {
-                switch (b) {
-                case '/':
-                    if (state == CommentState.MAYBECOMMENT) {
-                        state = CommentState.LINECOMMENT;
-                    }
-                    else if (state == CommentState.MAYBECLOSEMULTI) {
-                        state = CommentState.DEFAULT;
-                        b = '\n';
-                    }
-                    else if (state == CommentState.DEFAULT)
-                        state = CommentState.MAYBECOMMENT;
-                    break;
-                case '*':
-                    if (state == CommentState.MAYBECOMMENT)
-                        state = CommentState.MULTICOMMENT;
-                    else if (state == CommentState.MULTICOMMENT)
-                        state = CommentState.MAYBECLOSEMULTI;
-                    break;
-                case '\n':
-                    if (state == CommentState.LINECOMMENT) {
-                        state = CommentState.DEFAULT;
-                        b = '\n';
-                    }
-                    break;
-                default:
-                    if (state == CommentState.MAYBECOMMENT)
-                        state = CommentState.DEFAULT;
-                    else if (state == CommentState.MAYBECLOSEMULTI)
-                        state = CommentState.MULTICOMMENT;
-                }
-
-                if (state == CommentState.DEFAULT) {
-                    buffer[counter] = b;
-                    counter++;
-                }
-
-            }
-            byte[] fileNoComments = new byte[counter];
-            System.arraycopy(buffer, 0, fileNoComments, 0, counter);
-            return fileNoComments;
-        } catch (IOException ioe) {
-            log.warn("StructureMetrics: Failed to read file <" + 
-                    fileDAO.get().getFileName() +">", ioe);
-            return null;
-        }
-    }
-    
     /**
      * Calculate the McCabe complexity and McCabe extended complexity metrics.
      * @param fileNoComments The file to run the metrics on, stripped of comments
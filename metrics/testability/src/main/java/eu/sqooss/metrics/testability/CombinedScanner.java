@@ -0,0 +1,84 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.metrics.testability;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Runs a set of testability scanners over a file in a single pass. Each
+ * line is read once and run through a keyword automaton; a scanner only
+ * sees the lines containing one of its keywords. Instances keep per file
+ * state and must not be shared between threads.
+ */
+class CombinedScanner {
+
+    private final TestabilityScanner[] scanners;
+    private final KeywordAutomaton automaton;
+    private final int all;
+
+    CombinedScanner(TestabilityScanner... scanners) {
+        this.scanners = scanners;
+        String[][] keywords = new String[scanners.length][];
+        for (int i = 0; i < scanners.length; i++)
+            keywords[i] = scanners[i].getKeywords();
+        automaton = new KeywordAutomaton(keywords);
+        all = scanners.length == KeywordAutomaton.MAX_SCANNERS ?
+                -1 : (1 << scanners.length) - 1;
+    }
+
+    /**
+     * Scan the specified file.
+     * @return The number of test cases found by all scanners
+     */
+    public int scan(BufferedReader r) throws IOException {
+        for (TestabilityScanner s : scanners)
+            s.reset();
+
+        String line = null;
+        while ((line = r.readLine()) != null) {
+            int found = automaton.match(line, all);
+            for (int i = 0; found != 0; i++, found >>>= 1)
+                if ((found & 1) != 0)
+                    scanners[i].scanLine(line);
+        }
+
+        int numTestCases = 0;
+        for (TestabilityScanner s : scanners)
+            numTestCases += s.getTestCases();
+        return numTestCases;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -34,10 +34,8 @@
 
 package eu.sqooss.metrics.testability;
 
-import java.io.LineNumberReader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.io.IOException;
 
 /** Measure and obtain CppUnit testability metrics. */
 class CppUnitMetrics implements TestabilityScanner {
@@ -61,15 +59,22 @@ class CppUnitMetrics implements TestabilityScanner {
                 "ASSERT_ASSERTION_FAIL_MESSAGE|ASSERT_ASSERTION_PASS|" +
                 "ASSERT_ASSERTION_PASS_MESSAGE)\\W");
 
-    /** Scan the specified file. */
-    public void scan(LineNumberReader r) throws IOException {
+    /** Common prefix of the test case methods. */
+    private final static String[] keywords = {"CPPUNIT_"};
+
+    public String[] getKeywords() {
+        return keywords;
+    }
+
+    public void reset() {
         numTestCases = 0;
-        String line = null;
-        while ((line = r.readLine()) != null) {
-            Matcher m = testCaseMethods.matcher(line);
-            if (m.find())
-                numTestCases++;
-        }
+    }
+
+    /** Scan the specified line. */
+    public void scanLine(String line) {
+        Matcher m = testCaseMethods.matcher(line);
+        if (m.find())
+            numTestCases++;
     }
 }
 
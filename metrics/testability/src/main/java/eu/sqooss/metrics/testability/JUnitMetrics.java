@@ -34,10 +34,8 @@
 
 package eu.sqooss.metrics.testability;
 
-import java.io.LineNumberReader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.io.IOException;
 
 /** Measure and obtain JUnit testability metrics. */
 class JUnitMetrics implements TestabilityScanner {
@@ -70,26 +68,36 @@ class JUnitMetrics implements TestabilityScanner {
     private final static Pattern testCaseClassMethod =
             Pattern.compile("TestCase\\." + testCaseMethods);
 
-    /** Scan the specified file. */
-    public void scan(LineNumberReader r) throws IOException {
+    /** Prefixes of all the patterns above. */
+    private final static String[] keywords = {"TestCase", "assert", "fail"};
+
+    /** Set when testClassPattern has been seen. */
+    private boolean isTestCase;
+
+    public String[] getKeywords() {
+        return keywords;
+    }
+
+    public void reset() {
         numTestCases = 0;
-        String line = null;
-        boolean isTestCase = false;
-        while ((line = r.readLine()) != null) {
-            // Case 1: testCassPattern, followed by testCaseMethod.
-            Matcher m = testClassPattern.matcher(line);
-            if (m.find())
-                isTestCase = true;
-            if (isTestCase) {
-                m = testCaseMethod.matcher(line);
-                if (m.find())
-                    numTestCases++;
-            }
-            // Case 2 testCaseClassMethod
-            m = testCaseClassMethod.matcher(line);
+        isTestCase = false;
+    }
+
+    /** Scan the specified line. */
+    public void scanLine(String line) {
+        // Case 1: testCassPattern, followed by testCaseMethod.
+        Matcher m = testClassPattern.matcher(line);
+        if (m.find())
+            isTestCase = true;
+        if (isTestCase) {
+            m = testCaseMethod.matcher(line);
             if (m.find())
                 numTestCases++;
         }
+        // Case 2 testCaseClassMethod
+        m = testCaseClassMethod.matcher(line);
+        if (m.find())
+            numTestCases++;
     }
 }
 
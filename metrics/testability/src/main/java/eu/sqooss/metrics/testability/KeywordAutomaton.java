@@ -0,0 +1,149 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.metrics.testability;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over the keywords of a set of testability
+ * scanners. A single pass over a line yields the set of scanners, as a
+ * bit mask, that have at least one keyword on it; only those scanners
+ * need to look at the line with their (far more expensive) regular
+ * expressions.
+ */
+class KeywordAutomaton {
+
+    /** Maximum number of scanners an automaton can tell apart. */
+    static final int MAX_SCANNERS = 32;
+
+    /** Alphabet class of each ASCII character; 0 stands for any other. */
+    private final int[] charClass = new int[128];
+
+    /** Fully resolved transition table: state x character class. */
+    private final int[][] delta;
+
+    /** Scanners with a keyword ending at each state. */
+    private final int[] output;
+
+    /**
+     * Build the automaton.
+     * @param keywords The keywords of each scanner, indexed by scanner.
+     */
+    KeywordAutomaton(String[][] keywords) {
+        if (keywords.length > MAX_SCANNERS)
+            throw new IllegalArgumentException("Too many scanners: "
+                    + keywords.length);
+
+        int classes = 1;
+        for (String[] kws : keywords) {
+            for (String kw : kws) {
+                for (int i = 0; i < kw.length(); i++) {
+                    char c = kw.charAt(i);
+                    if (c >= 128)
+                        throw new IllegalArgumentException(
+                                "Non-ASCII keyword: " + kw);
+                    if (charClass[c] == 0)
+                        charClass[c] = classes++;
+                }
+            }
+        }
+
+        // Keyword trie; 0 marks a missing edge, as no edge leads to the root
+        List<int[]> trie = new ArrayList<int[]>();
+        List<Integer> out = new ArrayList<Integer>();
+        trie.add(new int[classes]);
+        out.add(0);
+        for (int s = 0; s < keywords.length; s++) {
+            for (String kw : keywords[s]) {
+                int state = 0;
+                for (int i = 0; i < kw.length(); i++) {
+                    int c = charClass[kw.charAt(i)];
+                    if (trie.get(state)[c] == 0) {
+                        trie.get(state)[c] = trie.size();
+                        trie.add(new int[classes]);
+                        out.add(0);
+                    }
+                    state = trie.get(state)[c];
+                }
+                out.set(state, out.get(state) | (1 << s));
+            }
+        }
+
+        // Breadth first, turn the trie into a DFA following failure links
+        delta = trie.toArray(new int[trie.size()][]);
+        output = new int[delta.length];
+        int[] fail = new int[delta.length];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int c = 0; c < classes; c++)
+            if (delta[0][c] != 0)
+                queue.add(delta[0][c]);
+        for (int i = 0; i < output.length; i++)
+            output[i] = out.get(i);
+
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            output[state] |= output[fail[state]];
+            for (int c = 0; c < classes; c++) {
+                int next = delta[state][c];
+                if (next != 0) {
+                    fail[next] = delta[fail[state]][c];
+                    queue.add(next);
+                } else {
+                    delta[state][c] = delta[fail[state]][c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the scanners having a keyword in the provided line.
+     * @param line The line to scan
+     * @param all Stop as soon as all scanners in this mask have matched
+     */
+    int match(CharSequence line, int all) {
+        int state = 0, found = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            state = delta[state][c < 128 ? charClass[c] : 0];
+            found |= output[state];
+            if (found == all)
+                break;
+        }
+        return found;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -34,10 +34,8 @@
 
 package eu.sqooss.metrics.testability;
 
-import java.io.LineNumberReader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.io.IOException;
 
 /** Measure and obtain NUnit testability metrics. */
 class NUnitMetrics implements TestabilityScanner {
@@ -69,22 +67,32 @@ class NUnitMetrics implements TestabilityScanner {
                 "ExpectedException|" +      // Attribute
                 "(Assert\\.That))\\W");     // NUnit 2.4
 
-    /** Scan the specified file. */
-    public void scan(LineNumberReader r) throws IOException {
+    /** Substrings of all the patterns above and of the fixture tests. */
+    private final static String[] keywords = {"Assert", "Expect"};
+
+    /** Set when a fixture derived from AssertionHelper has been seen. */
+    private boolean isAssertionHelper;
+
+    public String[] getKeywords() {
+        return keywords;
+    }
+
+    public void reset() {
         numTestCases = 0;
-        String line = null;
-        boolean isAssertionHelper = false;
-        while ((line = r.readLine()) != null) {
-            // Case 1: One of the methods
-            Matcher m = testCaseMethods.matcher(line);
-            if (m.find())
-                numTestCases++;
-            // Case 2: Test fixture derived from AssertionHelper + Expect
-            if (line.contains("AssertionHelper"))
-                isAssertionHelper = true;
-            if (isAssertionHelper && line.contains("Expect"))
-                numTestCases++;
-        }
+        isAssertionHelper = false;
+    }
+
+    /** Scan the specified line. */
+    public void scanLine(String line) {
+        // Case 1: One of the methods
+        Matcher m = testCaseMethods.matcher(line);
+        if (m.find())
+            numTestCases++;
+        // Case 2: Test fixture derived from AssertionHelper + Expect
+        if (line.contains("AssertionHelper"))
+            isAssertionHelper = true;
+        if (isAssertionHelper && line.contains("Expect"))
+            numTestCases++;
     }
 }
 
@@ -34,14 +34,13 @@
 
 package eu.sqooss.metrics.testability;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -80,32 +79,36 @@ public class TestabilityImplementation extends AbstractMetric {
         return getResult(a, ProjectFileMeasurement.class, m, Result.ResultType.INTEGER);
     }
 
-    /** Concrete testability scanners that we support. */
-    private static HashMap <String, LinkedList<TestabilityScanner> > allScanners =
-            new HashMap<String, LinkedList<TestabilityScanner> >();
-    static {
-        LinkedList<TestabilityScanner> langScanners =
-                new LinkedList<TestabilityScanner>();
-        // Add more Java scanners here
-        langScanners.add(new JUnitMetrics());
-        allScanners.put(".java", langScanners);
-        allScanners.put(".JAVA", langScanners);
-
-        langScanners.clear();
-        // Add more C++ scanners here
-        langScanners.add(new CppUnitMetrics());
-        langScanners.add(new NUnitMetrics());
-        allScanners.put(".cpp", langScanners);
-        allScanners.put(".CPP", langScanners);
-        allScanners.put(".cc", langScanners);
-        allScanners.put(".CC", langScanners);
-
-        langScanners.clear();
-        // Add more C# scanners here
-        langScanners.add(new NUnitMetrics());
-        allScanners.put(".cs", langScanners);
-        allScanners.put(".CS", langScanners);
-    }
+    /**
+     * Concrete testability scanners that we support, per file extension.
+     * Scanners keep per file state, so each thread gets its own set.
+     */
+    private static ThreadLocal<Map<String, CombinedScanner>> allScanners =
+            new ThreadLocal<Map<String, CombinedScanner>>() {
+        protected Map<String, CombinedScanner> initialValue() {
+            Map<String, CombinedScanner> scanners =
+                    new HashMap<String, CombinedScanner>();
+            // Add more Java scanners here
+            CombinedScanner langScanners = new CombinedScanner(
+                    new JUnitMetrics());
+            scanners.put(".java", langScanners);
+            scanners.put(".JAVA", langScanners);
+
+            // Add more C++ scanners here
+            langScanners = new CombinedScanner(
+                    new CppUnitMetrics(), new NUnitMetrics());
+            scanners.put(".cpp", langScanners);
+            scanners.put(".CPP", langScanners);
+            scanners.put(".cc", langScanners);
+            scanners.put(".CC", langScanners);
+
+            // Add more C# scanners here
+            langScanners = new CombinedScanner(new NUnitMetrics());
+            scanners.put(".cs", langScanners);
+            scanners.put(".CS", langScanners);
+            return scanners;
+        }
+    };
 
     public void run(ProjectFile pf) {
         //1. Get stuff related to the provided project file
@@ -120,7 +123,7 @@ public class TestabilityImplementation extends AbstractMetric {
             return;
 
         String extension = FileTypeMatcher.getFileExtension(pf.getName());
-        LinkedList<TestabilityScanner> scanners = allScanners.get(extension);
+        CombinedScanner scanners = allScanners.get().get(extension);
         
         // Metric doesn't support this type of file
         if (scanners == null)
@@ -130,22 +133,16 @@ public class TestabilityImplementation extends AbstractMetric {
         InputStream in = fds.getFileContents(pf);
         if (in == null)
             return;
-        int numTestCases = 0;
         log.info(this.getClass().getName() + " Measuring: "
                 + pf.getFileName());
         try {
-            LineNumberReader lnr =
-                new LineNumberReader(new InputStreamReader(in));
-
-            // Measure test cases, using each scanner
-            for (TestabilityScanner s : scanners) {
-                lnr.mark(1024 * 1024);
-                s.scan(lnr);
-                numTestCases += s.getTestCases();
-                lnr.reset();
-            }
-
-            lnr.close();
+            BufferedReader br =
+                new BufferedReader(new InputStreamReader(in));
+
+            // Measure test cases, using all scanners in a single pass
+            int numTestCases = scanners.scan(br);
+
+            br.close();
 
             // Store the results
             Metric metric = Metric.getMetricByMnemonic(MNEMONIC_NCASES);
@@ -34,13 +34,21 @@
 
 package eu.sqooss.metrics.testability;
 
-import java.io.LineNumberReader;
-import java.io.IOException;
-
-/** Measure and obtain testability metrics. */
+/**
+ * Measure and obtain testability metrics. Scanners are driven line by
+ * line by a {@link CombinedScanner}, which only hands them the lines
+ * containing one of their keywords.
+ */
 interface TestabilityScanner {
-    /** Scan the specified file. */
-    public void scan(LineNumberReader r) throws IOException;
+    /**
+     * Literal strings, one of which appears on every line that can
+     * affect the scanner's result.
+     */
+    public String[] getKeywords();
+    /** Prepare for scanning a new file. */
+    public void reset();
+    /** Scan a line containing at least one of the scanner's keywords. */
+    public void scanLine(String line);
     /** Number of test cases of the previous scan. */
     public int getTestCases();
 }
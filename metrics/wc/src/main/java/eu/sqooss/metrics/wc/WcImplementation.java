@@ -34,15 +34,10 @@ package eu.sqooss.metrics.wc;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -59,8 +54,12 @@ import eu.sqooss.service.db.ProjectFileMeasurement;
 import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
+import eu.sqooss.service.fds.CommentGrammar;
 import eu.sqooss.service.fds.FDSService;
 import eu.sqooss.service.fds.FileTypeMatcher;
+import eu.sqooss.service.fds.SourceScanner;
+import eu.sqooss.service.fds.SourceScanner.ScanResult;
+import eu.sqooss.service.util.FileUtils;
 
 @MetricDeclarations(metrics= {
 	@MetricDecl(mnemonic="Wc.loc", activators={ProjectFile.class}, descr="Total lines"),
@@ -93,8 +92,6 @@ public class WcImplementation extends AbstractMetric {
     private static final String MNEMONIC_WC_PV_TLOCOM = "TLOCOM";
     private static final String MNEMONIC_WC_PV_TLDOC = "TLDOC";
     
-    private static HashMap<String,String[]> commentDelimiters;
-    
     /*Implements Ohloh in 500 lines*/
     public WcImplementation(BundleContext bc) {
         super(bc);
@@ -103,13 +100,6 @@ public class WcImplementation extends AbstractMetric {
         serviceRef = bc.getServiceReference(AlitheiaCore.class.getName());
        
         fds = ((AlitheiaCore)bc.getService(serviceRef)).getFDSService();
-        commentDelimiters = new HashMap<String,String[]>(10);
-        // Fill up the comment delimiters hash with a collection
-        // of delimiters for various languages.
-        addCommentDelimiters("cpp|C|cc|java|hpp|h",new String[]{"//","/\\*","\\*/"});
-        addCommentDelimiters("c",new String[]{null,"/\\*","\\*/"});
-        addCommentDelimiters("py|sh|pl|rb",new String[]{"#",null,null});
-        addCommentDelimiters("html|xml|xsl",new String[]{null,"<!--","-->"});
     }
 
     public List<Result> getResult(ProjectFile a, Metric m) {
@@ -130,88 +120,24 @@ public class WcImplementation extends AbstractMetric {
 
     /**
      * Process an input stream, which is associated with a file
-     * (or data source) with the given extension, and return a
-     * array with 4 elements, one for each count of a metric
-     * on the stream. The four elements are, in order,
+     * (or data source) written in a language with the given comment
+     * syntax, and return a array with 4 elements, one for each count 
+     * of a metric on the stream. The four elements are, in order,
      * loc, locom, lonb and words. 
      * 
-     * @param extension Filename extension for this stream; may be null
+     * @param grammar Comment syntax for this stream; may be null
      * @param in Input stream to read; may not ne null
      * @return Array of four metric results
      * @throws java.io.IOException On input error, means no useful 
      *      results are available.
      */
-    public static int[] processStream(String extension, InputStream in) 
+    public static int[] processStream(CommentGrammar grammar, InputStream in) 
         throws IOException {
-        int results[] = {0,0,0,0}; // loc, locom, lonb, words
-        String delimiters[] = commentDelimiters.get(extension);
-        if (null == delimiters) {
-            delimiters = commentDelimiters.get("c");
-        }
-        
-        /* Match start of multiline comment */
-        String startMultiLine = delimiters[1];
-
-        /* End multiline comment */
-        String endMultiLine = delimiters[2];
-
-        /* Match single line comments, C/Java/C++ style*/
-        String singleLine = delimiters[0];
-
-        Pattern singleLinePattern = null;
-        if (null != singleLine) {
-            singleLinePattern = Pattern.compile(singleLine);
-        }
-
-        // Measure the number of lines in the project file
-        LineNumberReader lnr = 
-            new LineNumberReader(new InputStreamReader(in));
-        int comments = 0;
-        int non_blank = 0;
-        int words = 0;
-        // The count of the number of lines is stored in the
-        // line number reader itself.
-
-        MultiLineMatcher mlm = null;
-        if (null != startMultiLine) {
-            mlm = new MultiLineMatcher(startMultiLine,endMultiLine);
-        }
-        String line = null;
-        while ((line = lnr.readLine()) != null) {
-            // Count non-blank lines
-            if (line.trim().length()>0) {
-                non_blank++;
-            }
-
-            // Count words -- the tokenizer is not the best approach
-            words += new StringTokenizer(line).countTokens();
-
-            // First we check for multi-line comments, then
-            // for single liners if we have not already counted
-            // the line as a comment.
-            if ((null != mlm) && mlm.checkLineForComment(line)) {
-                comments++;
-            } else {
-                if (null != singleLinePattern) {
-
-                    // Find single-line comments
-                    Matcher m = singleLinePattern.matcher(line);
-                    /* Single line comments */
-                    if (m.find()) {
-                        comments++;
-                    }
-                }
-            }
-        }
-
-        lnr.close();
-
-        results[0]=lnr.getLineNumber();
-        results[1]=comments;
-        results[2]=non_blank;
-        results[3]=words;
+        byte[] contents = FileUtils.readFully(in);
+        ScanResult r = SourceScanner.scan(contents, grammar, null);
         
-        return results;
+        return new int[] {r.getLines(), r.getCommentLines(), 
+                r.getNonBlankLines(), r.getWords()};
     }
     
     public void run(ProjectFile pf) {
@@ -236,14 +162,15 @@ public class WcImplementation extends AbstractMetric {
             return;
         }
 
-        String extension = FileTypeMatcher.getFileExtension(pf.getName());
+        CommentGrammar grammar = ftm.getCommentGrammar(pf.getName());
         
         int results[] = null;
         try {
             log.info("Reading file <" + pf.getName() +">");
-            results = processStream(extension, in);
+            results = processStream(grammar, in);
         } catch (IOException e) {
             log.warn("Failed to read file <" + pf.getFileName() +">",e);
+            return;
         }
         
 
@@ -274,115 +201,6 @@ public class WcImplementation extends AbstractMetric {
         toUpdate.add(metric);
     }
 
-    /**
-     * For a list of file extensions, register the three delimiters
-     * as the single-line and multi-line comment delimiters. For the
-     * comment matching, this will be used to power the multi-line
-     * matcher and the single-line comment matchers.
-     * 
-     * (Not static because we want to be able to log errors)
-     * 
-     * @param extensions String listing file extensions separated by |
-     * @param delimiters Three-element array of delimiter regexps; any
-     *          one or more of these may be null.
-     */
-    private void addCommentDelimiters(String extensions, String[] delimiters) {
-        if (delimiters.length != 3) {
-            log.error("The number of delimiters for languages <" + extensions + "> is wrong (must be 3)");
-            return;
-        }
-        
-        String[] l = extensions.split("|");
-        for (String e : l) {
-            commentDelimiters.put(e,delimiters);
-        }
-    }
-
-    /**
-     * This is a very simple finite state machine that tracks
-     * multi-line comments; the machine is either inside or
-     * outside a multi-line comment, and it processes input line-by-line
-     * to maintain its state. For each line, call checkLineForComment()
-     * which returns true if the line may be considered a comment.
-     * 
-     * The FSM is parameterized by two regular expressions which should 
-     * match the beginning and end of a multi-line comment.
-     * 
-     * No effort is made to handle quoting, strings, or the effects
-     * of single-line comments, so the FSM may be confused by
-     * commented comment symbols.
-     */
-    public static class MultiLineMatcher {
-        private Pattern startRE;
-        private Pattern endRE;
-        private boolean inside;
-        
-        /**
-         * Create a FSM with the given start and end regexps
-         * for detecting the multi-line comment.
-         * @param start Start-of-comment regexp; may not be null
-         * @param end End-of-comment regexp; may not be null
-         */
-        MultiLineMatcher(String start, String end) {
-            // It doesn't make sense to have null patterns
-            // either for start or end, so don't check for null.
-            this.startRE = Pattern.compile(start);
-            this.endRE = Pattern.compile(end);
-            this.inside = false;
-        }
-        
-        /**
-         * Given a line of input, move over it and maintain the
-         * state of the machine (inside or out). Returns true if
-         * the line is commented -- that means that a comment begins,
-         * is in progress, or ends on the line.
-         * 
-         * @param line Line of text
-         * @return true if the line may be considered a comment
-         */
-        public boolean checkLineForComment(String line) {
-            // If we are inside at the start of the line, then
-            // this is a comment line, regardless. Otherwise,
-            // this will be counted as a comment only if a comment
-            // starts on this line.
-            boolean r = inside;
-            
-            Matcher m_start = startRE.matcher(line);
-            Matcher m_end = endRE.matcher(line);
-            
-            // Set up a two-element array where toggle[0]
-            // is the next relevant token to be looking for.
-            // This is start if we're outside, and end if
-            // we're inside a comment right now.
-            Matcher toggle[] = { m_start, m_end } ;
-            if (inside) {
-                toggle[0] = m_end;
-                toggle[1] = m_start;
-            }
-            
-            // Looking from point forward in the line,
-            // we keep looking for the next (toggle[0])
-            // relevant token.
-            int point = 0;
-            while (toggle[0].find(point)) {
-                // If we found it, advance point,
-                // note that this line was a comment 
-                // (if we were inside, then it already was;
-                // and if we were outside, then we've just moved
-                // inside. Change states from in to out or vice-versa.
-                point=toggle[0].start()+1;
-                r = true;
-                inside = !inside;
-                // Swap around the two relevant matchers
-                Matcher temp = toggle[0];
-                toggle[0]=toggle[1];
-                toggle[1]=temp;
-            }
-            
-            return r;
-        }
-    }
-
     public List<Result> getResult(ProjectVersion p, Metric m) {
         ArrayList<Result> results = new ArrayList<Result>();
         // Search for a matching project version measurement
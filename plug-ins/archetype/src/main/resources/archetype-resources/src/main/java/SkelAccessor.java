@@ -15,6 +15,7 @@ import java.util.List;
 import eu.sqooss.service.tds.AccessorException;
 import eu.sqooss.service.tds.AnnotatedLine;
 import eu.sqooss.service.tds.CommitLog;
+import eu.sqooss.service.tds.CommitStats;
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.InvalidProjectRevisionException;
 import eu.sqooss.service.tds.InvalidRepositoryException;
@@ -104,6 +105,10 @@ public class SkelAccessor implements SCMAccessor {
                InvalidRepositoryException,
                FileNotFoundException {return null;}
 
+    public CommitStats getCommitStats(Revision r)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {return null;}
+
     public Diff getChange(String repoPath, Revision r)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
@@ -0,0 +1,165 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.bugzilla;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import eu.sqooss.service.db.Bug;
+import eu.sqooss.service.db.BugPriority;
+import eu.sqooss.service.db.BugReportMessage;
+import eu.sqooss.service.db.BugResolution;
+import eu.sqooss.service.db.BugSeverity;
+import eu.sqooss.service.db.BugStatus;
+import eu.sqooss.service.db.Developer;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.db.BugPriority.Priority;
+import eu.sqooss.service.db.BugResolution.Resolution;
+import eu.sqooss.service.db.BugSeverity.Severity;
+import eu.sqooss.service.db.BugStatus.Status;
+import eu.sqooss.service.tds.BTSEntry;
+import eu.sqooss.service.tds.BTSEntry.BTSEntryComment;
+
+/**
+ * Converts BTS entries to Bug DAOs. Developers are looked up once per 
+ * converter, so a converter should live no longer than the DB session
+ * the resulting bugs are stored in.
+ */
+class BugConverter {
+    
+    private StoredProject project;
+    private Map<String, Developer> developers = new HashMap<String, Developer>();
+    
+    BugConverter(StoredProject project) {
+        this.project = project;
+    }
+    
+    /**
+     * Convert a BTS entry to a Bug DAO
+     */
+    Bug toBug(BTSEntry b) {
+        if (b == null)
+            return null;
+        
+        Bug bug = new Bug();
+        bug.setBugID(b.bugID);
+        bug.setCreationTS(b.creationTimestamp);
+        bug.setDeltaTS(b.latestUpdateTimestamp);
+        
+        if (b.priority != null) {
+            bug.setPriority(BugPriority.getBugPriority(Priority.fromString(b.priority.toString())));
+        } else {
+            bug.setPriority(BugPriority.getBugPriority(Priority.UNKNOWN));
+        }   
+        bug.setProject(project);
+        
+        if (b.resolution != null) {
+            bug.setResolution(BugResolution.getBugResolution(Resolution.fromString(b.resolution.toString())));
+        } else {
+            bug.setResolution(BugResolution.getBugResolution(Resolution.UNKNOWN));
+        }
+        
+        if (b.severity != null) {
+            bug.setSeverity(BugSeverity.getBugseverity(Severity.fromString(b.severity.toString())));
+        } else {
+            bug.setSeverity(BugSeverity.getBugseverity(Severity.UNKNOWN));
+        }
+        
+        if (b.state != null) {
+            bug.setStatus(BugStatus.getBugStatus(Status.fromString(b.state.toString())));
+        } else {
+            bug.setStatus(BugStatus.getBugStatus(Status.UNKNOWN));
+        }
+        
+        bug.setShortDesc(b.shortDescr);
+        bug.setUpdateRun(new Date(System.currentTimeMillis()));
+        
+        bug.setReporter(getDeveloper(b.reporter));
+     
+        Set<BugReportMessage> commentList = new LinkedHashSet<BugReportMessage>();
+        
+        for (BTSEntryComment c : b.commentslist) {
+            BugReportMessage bugmessage = new BugReportMessage(bug);
+            bugmessage.setReporter(getDeveloper(c.commentAuthor));
+            bugmessage.setTimestamp(c.commentTS);
+            if (c.comment.length() > 255)
+                bugmessage.setText(c.comment.substring(0, 254));
+            else 
+                bugmessage.setText(c.comment);
+            commentList.add(bugmessage);
+        }
+        bug.setReportMessages(commentList);
+        
+        return bug;
+    }
+    
+    /**
+     * Drop the report messages of a bug whose timestamps are in the 
+     * provided set, i.e. those already stored for an earlier version 
+     * of the bug.
+     */
+    static void removeKnownMessages(Bug bug, Set<Long> known) {
+        for (Iterator<BugReportMessage> i = bug.getReportMessages().iterator(); 
+                i.hasNext();) {
+            BugReportMessage m = i.next();
+            if (m.getTimestamp() == null)
+                continue;
+            if (known.contains(m.getTimestamp().getTime()))
+                i.remove();
+        }
+    }
+    
+    /**
+     * Get or create a developer entry for a username
+     */
+    private Developer getDeveloper(String name) {
+        Developer d = developers.get(name);
+        if (d != null)
+            return d;
+        
+        if (name.contains("@")) {
+            d = Developer.getDeveloperByEmail(name, project);
+        } else {
+            d = Developer.getDeveloperByUsername(name, project);
+        }
+        developers.put(name, d);
+        return d;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
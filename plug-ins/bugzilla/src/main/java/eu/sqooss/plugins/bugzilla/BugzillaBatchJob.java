@@ -0,0 +1,243 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.bugzilla;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.db.Bug;
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.tds.BTSEntry;
+
+/**
+ * Imports the bugs in a set of Bugzilla XML files, single bug reports or
+ * multi-bug exports alike. Bugs are streamed from the files and stored in
+ * batches, a transaction per batch. For each batch, the latest stored
+ * version and the known report message timestamps of its bugs are loaded 
+ * with two queries; unchanged bugs are skipped and only new messages of 
+ * changed ones are stored.
+ * <p>
+ * The same bug may appear in several files, and a job does not see the 
+ * uncommitted versions of another, so bugs are split between the jobs of
+ * an import by id: each job reads all files and stores only the bugs of 
+ * its own partition. A batch that cannot be stored fails the job.
+ */
+public class BugzillaBatchJob extends Job {
+
+    /** Number of bugs to store per transaction */
+    public static final String BATCH_SIZE_PROP = "eu.sqooss.bugzilla.batchsize";
+    
+    private static final int BATCH_SIZE = Integer.getInteger(BATCH_SIZE_PROP, 1000);
+    
+    private DBService dbs;
+    private Logger logger;
+    private StoredProject project;
+    private List<File> files;
+    private BugzillaXMLParser parser;
+    private int partition, partitions;
+    private int imported, skipped;
+    
+    /**
+     * @param files The files to read bugs from
+     * @param partition The partition of bug ids handled by this job
+     * @param partitions The number of partitions, one per job
+     */
+    public BugzillaBatchJob(StoredProject sp, BugzillaXMLParser parser,
+            List<File> files, int partition, int partitions, Logger l) {
+        this.dbs = AlitheiaCore.getInstance().getDBService();
+        this.logger = l;
+        this.project = sp;
+        this.parser = parser;
+        this.files = files;
+        this.partition = partition;
+        this.partitions = partitions;
+    }
+    
+    /** The partition of a bug id, out of the given number of partitions */
+    static int partition(String bugID, int partitions) {
+        return (bugID.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+    
+    @Override
+    public long priority() {
+        return 3;
+    }
+
+    @Override
+    protected void run() throws Exception {
+        final List<BTSEntry> batch = new ArrayList<BTSEntry>(BATCH_SIZE);
+        final boolean[] failed = new boolean[1];
+        
+        for (File f : files) {
+            boolean ok = parser.parseBugs(f, new BugzillaXMLParser.BugHandler() {
+                public boolean bug(BTSEntry bug) {
+                    if (partition(bug.bugID, partitions) != partition)
+                        return true;
+                    batch.add(bug);
+                    if (batch.size() < BATCH_SIZE)
+                        return true;
+                    failed[0] = !store(batch);
+                    batch.clear();
+                    return !failed[0];
+                }
+            });
+            
+            if (failed[0])
+                throw new Exception(project.getName() 
+                        + ": Failed to store bugs read from " + f);
+            if (!ok) {
+                logger.warn(project.getName() + ": Error reading " + f);
+            }
+        }
+        
+        if (!batch.isEmpty() && !store(batch))
+            throw new Exception(project.getName() + ": Failed to store bugs");
+        
+        logger.debug(project.getName() + ": Imported " + imported 
+                + " bugs, skipped " + skipped + " unchanged");
+    }
+    
+    private boolean store(List<BTSEntry> entries) {
+        if (!dbs.isDBSessionActive())
+            dbs.startDBSession();
+        project = dbs.attachObjectToDBSession(project);
+        
+        Set<String> ids = new HashSet<String>();
+        for (BTSEntry e : entries)
+            ids.add(e.bugID);
+        
+        Map<String, Date> latest = getLatestVersions(ids);
+        Map<String, Set<Long>> messages = getMessageTimestamps(ids);
+        
+        BugConverter conv = new BugConverter(project);
+        List<Bug> bugs = new ArrayList<Bug>(entries.size());
+        
+        for (BTSEntry e : entries) {
+            Date last = latest.get(e.bugID);
+            if (last != null && (e.latestUpdateTimestamp == null 
+                    || !e.latestUpdateTimestamp.after(last))) {
+                skipped++;
+                continue;
+            }
+            
+            Bug bug = conv.toBug(e);
+            Set<Long> known = messages.get(e.bugID);
+            if (known != null)
+                BugConverter.removeKnownMessages(bug, known);
+            bugs.add(bug);
+            
+            /* The same bug may appear again further down the stream */
+            latest.put(e.bugID, e.latestUpdateTimestamp);
+            if (known == null) {
+                known = new HashSet<Long>();
+                messages.put(e.bugID, known);
+            }
+            for (BTSEntry.BTSEntryComment c : e.commentslist)
+                if (c.commentTS != null)
+                    known.add(c.commentTS.getTime());
+        }
+        
+        if (!dbs.addRecords(bugs) || !dbs.commitDBSession()) {
+            logger.error(project.getName() + ": Failed to store " 
+                    + bugs.size() + " bugs");
+            return false;
+        }
+        imported += bugs.size();
+        return true;
+    }
+    
+    /* Delta timestamp of the latest stored version of each bug */
+    private Map<String, Date> getLatestVersions(Collection<String> ids) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("project", project);
+        Map<String, Collection> lparams = new HashMap<String, Collection>();
+        lparams.put("ids", ids);
+        
+        List<Object[]> rows = (List<Object[]>) dbs.doHQL(
+                "select b.bugID, max(b.deltaTS) from Bug b " +
+                "where b.project = :project and b.bugID in (:ids) " +
+                "group by b.bugID", params, lparams);
+        
+        Map<String, Date> result = new HashMap<String, Date>();
+        for (Object[] row : rows)
+            result.put((String) row[0], (Date) row[1]);
+        return result;
+    }
+    
+    /* Timestamps of the stored report messages of each bug */
+    private Map<String, Set<Long>> getMessageTimestamps(Collection<String> ids) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("project", project);
+        Map<String, Collection> lparams = new HashMap<String, Collection>();
+        lparams.put("ids", ids);
+        
+        List<Object[]> rows = (List<Object[]>) dbs.doHQL(
+                "select b.bugID, brm.timestamp " +
+                "from Bug b, BugReportMessage brm " +
+                "where brm.bug = b and b.project = :project " +
+                "and b.bugID in (:ids)", params, lparams);
+        
+        Map<String, Set<Long>> result = new HashMap<String, Set<Long>>();
+        for (Object[] row : rows) {
+            if (row[1] == null)
+                continue;
+            Set<Long> s = result.get(row[0]);
+            if (s == null) {
+                s = new HashSet<Long>();
+                result.put((String) row[0], s);
+            }
+            s.add(((Date) row[1]).getTime());
+        }
+        return result;
+    }
+    
+    @Override
+    public String toString() {
+        return "BugzillaBatchJob - Project:{" + project +"}, " + files.size() 
+            + " files";
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
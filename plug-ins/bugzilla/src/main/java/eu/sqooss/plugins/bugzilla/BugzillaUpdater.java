@@ -33,6 +33,8 @@
 
 package eu.sqooss.plugins.bugzilla;
 
+import java.io.File;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -68,7 +70,10 @@ public class BugzillaUpdater implements MetadataUpdater, JobStateListener  {
     private DBService dbs;
     private float progress;
     private AtomicInteger jobCounter;
-    int numbugs;
+    int numjobs;
+    
+    /* Min number of bug files per import job */
+    private static final int FILES_PER_JOB = 500;
     
     public BugzillaUpdater() {}
 
@@ -93,26 +98,32 @@ public class BugzillaUpdater implements MetadataUpdater, JobStateListener  {
         Scheduler s = AlitheiaCore.getInstance().getScheduler();
         
         //Get latest updated date
-        List<String> bugIds = null;
+        Date since = new Date(0);
+        Bug last = Bug.getLastUpdate(project);
+        if (last != null)
+            since = last.getUpdateRun();
 
         this.bts = AlitheiaCore.getInstance().getTDSService().getAccessor(
                 project.getId()).getBTSAccessor();
-        if (Bug.getLastUpdate(project) != null) {
-            bugIds = bts.getBugsNewerThan(Bug.getLastUpdate(project).getUpdateRun());
-        } else {
-            bugIds = bts.getAllBugs();
-        }
-        logger.info(project.getName() + ": Got " + bugIds.size() + " new bugs");
+        BugzillaXMLParser parser = (BugzillaXMLParser) bts;
+        
+        List<File> files = parser.getFilesNewerThan(since);
+        logger.info(project.getName() + ": Got " + files.size() 
+                + " new or updated bug files");
         logger.info(project.getName() + ": Spawing jobs");
 
         Set<Job> jobs = new HashSet<Job>();
         
-        // Update
-        for (String bugID : bugIds) {
-            BugzillaXMLJob job = new BugzillaXMLJob(project, bugID, logger);
+        /* Update, a partition of the bug ids per job. As every job reads
+         * all files, the jobs are bounded by the number of processors. */
+        int partitions = Math.min(Runtime.getRuntime().availableProcessors(),
+                (files.size() + FILES_PER_JOB - 1) / FILES_PER_JOB);
+        for (int i = 0; i < partitions; i++) {
+            BugzillaBatchJob job = new BugzillaBatchJob(project, parser, 
+                    files, i, partitions, logger);
             job.addJobStateListener(this);
             jobs.add(job);
-            numbugs++;
+            numjobs++;
         }
         jobCounter.set(jobs.size());
         s.enqueueNoDependencies(jobs);
@@ -136,6 +147,6 @@ public class BugzillaUpdater implements MetadataUpdater, JobStateListener  {
     @Override
     public void jobStateChanged(Job j, State newState) {
         if (newState == State.Error || newState == State.Finished)
-            progress = 100 - (float) (((double)jobCounter.decrementAndGet() / (double)numbugs) * 100); 
+            progress = 100 - (float) (((double)jobCounter.decrementAndGet() / (double)numjobs) * 100); 
     }
 }
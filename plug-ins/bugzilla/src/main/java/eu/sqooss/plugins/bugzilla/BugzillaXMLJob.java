@@ -30,32 +30,20 @@
 
 package eu.sqooss.plugins.bugzilla;
 
-import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.db.Bug;
-import eu.sqooss.service.db.BugPriority;
 import eu.sqooss.service.db.BugReportMessage;
-import eu.sqooss.service.db.BugResolution;
-import eu.sqooss.service.db.BugSeverity;
-import eu.sqooss.service.db.BugStatus;
 import eu.sqooss.service.db.DBService;
-import eu.sqooss.service.db.Developer;
 import eu.sqooss.service.db.StoredProject;
-import eu.sqooss.service.db.BugPriority.Priority;
-import eu.sqooss.service.db.BugResolution.Resolution;
-import eu.sqooss.service.db.BugSeverity.Severity;
-import eu.sqooss.service.db.BugStatus.Status;
 import eu.sqooss.service.logging.Logger;
 import eu.sqooss.service.scheduler.Job;
 import eu.sqooss.service.tds.BTSAccessor;
-import eu.sqooss.service.tds.BTSEntry;
-import eu.sqooss.service.tds.BTSEntry.BTSEntryComment;
 
 public class BugzillaXMLJob extends Job {
 
@@ -85,7 +73,7 @@ public class BugzillaXMLJob extends Job {
                 project.getId()).getBTSAccessor();
         project = dbs.attachObjectToDBSession(project);
 
-        Bug bug = BTSEntryToBug(bts.getBug(bugID));
+        Bug bug = new BugConverter(project).toBug(bts.getBug(bugID));
 
         if (bug == null) {
             logger.warn(project.getName() + ": Bug " + bugID
@@ -97,24 +85,10 @@ public class BugzillaXMLJob extends Job {
         if (bugExists(project, bugID)) {
             logger.debug(project.getName() + ": Updating existing bug "
                     + bugID);
-            List<BugReportMessage> msgs = bug.getAllReportComments();
-            Set<BugReportMessage> newmsgs = bug.getReportMessages();
-            Set<BugReportMessage> toadd = new LinkedHashSet<BugReportMessage>();
-
-            for (BugReportMessage newmsg : newmsgs) {
-                boolean found = false;
-                for (BugReportMessage msg : msgs) {
-                    if (msg.equals(newmsg)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    toadd.add(newmsg);
-                }
-            }
-
-            bug.setReportMessages(toadd);
+            Set<Long> known = new HashSet<Long>();
+            for (BugReportMessage msg : bug.getAllReportComments())
+                known.add(msg.getTimestamp().getTime());
+            BugConverter.removeKnownMessages(bug, known);
         }
 
         dbs.addRecord(bug);
@@ -123,78 +97,6 @@ public class BugzillaXMLJob extends Job {
         
     }
     
-    /**
-     * Convert a BTS entry to a Bug DAO
-     */
-    private Bug BTSEntryToBug (BTSEntry b) {
-        if (b == null)
-            return null;
-        
-        Bug bug = new Bug();
-        bug.setBugID(b.bugID);
-        bug.setCreationTS(b.creationTimestamp);
-        bug.setDeltaTS(b.latestUpdateTimestamp);
-        
-        if (b.priority != null) {
-            bug.setPriority(BugPriority.getBugPriority(Priority.fromString(b.priority.toString())));
-        } else {
-            bug.setPriority(BugPriority.getBugPriority(Priority.UNKNOWN));
-        }   
-        bug.setProject(project);
-        
-        if (b.resolution != null) {
-            bug.setResolution(BugResolution.getBugResolution(Resolution.fromString(b.resolution.toString())));
-        } else {
-            bug.setResolution(BugResolution.getBugResolution(Resolution.UNKNOWN));
-        }
-        
-        if (b.severity != null) {
-            bug.setSeverity(BugSeverity.getBugseverity(Severity.fromString(b.severity.toString())));
-        } else {
-            bug.setSeverity(BugSeverity.getBugseverity(Severity.UNKNOWN));
-        }
-        
-        if (b.state != null) {
-            bug.setStatus(BugStatus.getBugStatus(Status.fromString(b.state.toString())));
-        } else {
-            bug.setStatus(BugStatus.getBugStatus(Status.UNKNOWN));
-        }
-        
-        bug.setShortDesc(b.shortDescr);
-        bug.setUpdateRun(new Date(System.currentTimeMillis()));
-        
-        bug.setReporter(getDeveloper(b.reporter));
-     
-        Set<BugReportMessage> commentList = new LinkedHashSet<BugReportMessage>();
-        
-        for (BTSEntryComment c : b.commentslist) {
-            BugReportMessage bugmessage = new BugReportMessage(bug);
-            bugmessage.setReporter(getDeveloper(c.commentAuthor));
-            bugmessage.setTimestamp(c.commentTS);
-            if (c.comment.length() > 255)
-                bugmessage.setText(c.comment.substring(0, 254));
-            else 
-                bugmessage.setText(c.comment);
-            commentList.add(bugmessage);
-        }
-        bug.setReportMessages(commentList);
-        
-        return bug;
-    }
-    
-    /**
-     * Get or create a developer entry for a username
-     */
-    private Developer getDeveloper(String name) {
-        Developer d = null;
-        if (name.contains("@")) {
-            d = Developer.getDeveloperByEmail(name, project);
-        } else {
-            d = Developer.getDeveloperByUsername(name, project);
-        }
-        return d;
-    }
-    
     /**
      * Check if there is an entry in the database with this bug id
      */
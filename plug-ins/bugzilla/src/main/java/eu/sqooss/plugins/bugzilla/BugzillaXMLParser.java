@@ -33,28 +33,28 @@
 
 package eu.sqooss.plugins.bugzilla;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Pattern;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
-import org.xml.sax.EntityResolver;
-import org.xml.sax.InputSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.logging.Logger;
@@ -71,8 +71,24 @@ import eu.sqooss.service.tds.BTSEntry.BTSEntryComment;
  * accessor uses the filesystem to retrieve file modification time information,
  * therefore if a bug report has been updated, the accessor will report the
  * change.
+ * <p>
+ * Files are read with a streaming parser, so the directory may also contain 
+ * multi-bug exports (e.g. the output of Bugzilla's show_bug.cgi for a list
+ * of bugs), under any name ending in .xml. Bugs in such exports can only be
+ * read through {@link #parseBugs(File, BugHandler)}.
  */
 public class BugzillaXMLParser implements BTSAccessor {
+    
+    /**
+     * Receives the bugs read from a file, in document order.
+     */
+    public interface BugHandler {
+        /**
+         * @return false to stop reading the file
+         */
+        boolean bug(BTSEntry bug);
+    }
+    
     private Logger logger;
     
     private File location;
@@ -80,9 +96,41 @@ public class BugzillaXMLParser implements BTSAccessor {
 
     private static final List<URI> supportedSchemes;
     
+    private static final Pattern bugFile = Pattern.compile("^[0-9]+\\.xml$");
+    private static final Pattern xmlFile = Pattern.compile("^.*\\.xml$");
+    
+    private static final XMLInputFactory xmlFactory;
+    
+    //Bugzilla stores dates as: 2003-11-07 14:35 UTC
+    //or as: 2003-11-07 14:35:22 UTC
+    private static final ThreadLocal<DateFormat[]> dateParsers = 
+        new ThreadLocal<DateFormat[]>() {
+        @Override
+        protected DateFormat[] initialValue() {
+            return new DateFormat[] {
+                new SimpleDateFormat("y-M-d k:m z"),
+                new SimpleDateFormat("y-M-d k:m:s z")
+            };
+        }
+    };
+    
     static {
         supportedSchemes = new ArrayList<URI>();
         supportedSchemes.add(URI.create("bugzilla-xml://www.sqo-oss.org"));
+        
+        xmlFactory = XMLInputFactory.newInstance();
+        xmlFactory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+        xmlFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        xmlFactory.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        //Dummy resolver to avoid downloading the bugzilla DTD from 
+        //the web on parsing a bug
+        xmlFactory.setXMLResolver(new XMLResolver() {
+            public Object resolveEntity(String publicID, String systemID, 
+                    String baseURI, String namespace) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        });
     }
 
     /** {@inheritDoc} */
@@ -147,14 +195,14 @@ public class BugzillaXMLParser implements BTSAccessor {
 
     /** {@inheritDoc} */
     public List<String> getBugsNewerThan(Date d) {
-        BugzillaXMLFileFilter filter = new BugzillaXMLFileFilter(d.getTime());
-        File[] files = location.listFiles(filter);
+        File[] files = location.listFiles(
+                new BugzillaXMLFileFilter(bugFile, d.getTime()));
         List<String> bugIds = new ArrayList<String>();
         
         for (File f : files) {
             //At this point we know that all files are named like 123.xml
             //so no validation is necessary.
-            bugIds.add(f.getName().split("\\.")[0]);
+            bugIds.add(bugId(f));
         }
         
         return bugIds;
@@ -162,18 +210,22 @@ public class BugzillaXMLParser implements BTSAccessor {
 
     /** {@inheritDoc} */
     public List<String> getAllBugs() {
-        File[] files = location.listFiles();
-        List<String> bugIds = new ArrayList<String>();
-        
-        for (File f : files) {
-            //At this point we know that all files are named like 123.xml
-            //so no validation is necessary.
-            bugIds.add(f.getName().split("\\.")[0]);
-        }
-        
-        return bugIds;
+        return getBugsNewerThan(new Date(0));
     } 
     
+    /**
+     * Get the XML files, single bug reports or multi-bug exports, that 
+     * were modified at or after the provided date.
+     */
+    public List<File> getFilesNewerThan(Date d) {
+        File[] files = location.listFiles(
+                new BugzillaXMLFileFilter(xmlFile, d.getTime()));
+        List<File> result = new ArrayList<File>(files.length);
+        for (File f : files)
+            result.add(f);
+        return result;
+    }
+    
     /** {@inheritDoc} */
     public List<URI> getSupportedURLSchemes() {
         return supportedSchemes;
@@ -184,166 +236,197 @@ public class BugzillaXMLParser implements BTSAccessor {
      * returns a bug entry. 
      */
     protected BTSEntry processBug(File f) {
-        SAXReader reader = new SAXReader(false);
-        Document document = null;
+        final BTSEntry[] result = new BTSEntry[1];
         
-        //Dummy entity resolver to avoid downloading the bugzilla DTD from 
-        //the web on parsing a bug
-        EntityResolver resolver = new EntityResolver() {
-            public InputSource resolveEntity(String publicId, String systemId) {
-                InputStream in = new ByteArrayInputStream("".getBytes());
-                return new InputSource(in);
+        //Each bug file has just 1 bug element
+        parseBugs(f, new BugHandler() {
+            public boolean bug(BTSEntry bug) {
+                result[0] = bug;
+                return false;
             }
-        };
-        
-        reader.setValidation(false);
-        reader.setEntityResolver(resolver);
-        reader.setIncludeExternalDTDDeclarations(false);
-        reader.setIncludeInternalDTDDeclarations(false);
-        reader.setStripWhitespaceText(true);
+        });
         
-        //Parse the file
+        return result[0];
+    }
+    
+    /**
+     * Stream the bugs in a Bugzilla XML file to a handler. Bugs without a 
+     * bug_id element get the id encoded in the file name.
+     * 
+     * @return false if the file could not be read or parsed
+     */
+    public boolean parseBugs(File f, BugHandler handler) {
+        InputStream in = null;
+        XMLStreamReader r = null;
         try {
-            document = reader.read(new FileReader(f));
-        } catch (FileNotFoundException fex) {
-            logger.error("Cannot read file " + f.getAbsolutePath() + 
-                    fex.toString());
-            return null;
-        } catch (DocumentException e) {
+            in = new BufferedInputStream(new FileInputStream(f));
+            r = xmlFactory.createXMLStreamReader(in);
+            
+            while (r.hasNext()) {
+                if (r.next() != XMLStreamConstants.START_ELEMENT 
+                        || !r.getLocalName().equals("bug"))
+                    continue;
+                
+                BTSEntry bug = readBug(r);
+                if (bug.bugID == null || bug.bugID.length() == 0)
+                    bug.bugID = bugId(f);
+                if (!handler.bug(bug))
+                    break;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Cannot read file " + f.getAbsolutePath() + " " 
+                    + e.toString());
+        } catch (XMLStreamException e) {
             logger.warn("Cannot parse bug report " + f.getAbsolutePath() 
                     + " " + e.getMessage());
-            return null;
+        } finally {
+            try {
+                if (r != null)
+                    r.close();
+                if (in != null)
+                    in.close();
+            } catch (Exception ignored) {}
         }
-        
-        Element root = document.getRootElement();
+        return false;
+    }
+    
+    /*
+     * Read the children of a <bug> element, leaving the reader on its
+     * end tag.
+     */
+    private BTSEntry readBug(XMLStreamReader r) throws XMLStreamException {
         BTSEntry bug = new BTSEntry();
-        bug.bugID = f.getName().split("\\.")[0];
-        
-        //Each bug file has just 1 bug element
-        Element element = (Element) root.elementIterator("bug").next();
-
-        //Must be reading some other XML
-        if (element == null)
-            return null;
+        bug.reporter = "";
+        bug.assignee = "";
         
-        String elementValue;
+        while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String el = r.getLocalName();
             
-        /* Read all the values we can and call the related setter */
-        elementValue = getElementValueAsString(element.element("bug_severity"));
-        bug.severity = BTSEntry.BugSeverity.fromString(elementValue);
-
-        elementValue = getElementValueAsString(element.element("bug_status"));
-        bug.state = BTSEntry.BugStatus.fromString(elementValue);
-
-        elementValue = getElementValueAsString(element.element("creation_ts"));
-        bug.creationTimestamp = parseDate(elementValue);
-        
-        
-        elementValue = getElementValueAsString(element.element("delta_ts"));
-        bug.latestUpdateTimestamp = parseDate(elementValue);
-
-        elementValue = getElementValueAsString(element.element("priority"));
-        bug.priority = BTSEntry.BugPriority.fromString(elementValue);
-
-        elementValue = getElementValueAsString(element.element("resolution"));
-        bug.resolution = BTSEntry.BugResolution.fromString(elementValue);
-        
-        elementValue = getElementValueAsString(element.element("product"));
-        bug.product = elementValue;
-
-        elementValue = getElementValueAsString(element.element("component"));
-        bug.component = elementValue;
-
-        elementValue = getElementValueAsString(element.element("reporter"));
-        bug.reporter = elementValue;
-
-        elementValue = getElementValueAsString(element.element("assignee"));
-        bug.assignee = elementValue;
-        
-        Iterator<Element> i = element.elementIterator("long_desc");
-        
-        while (i.hasNext()) {
-            Element comment = i.next();
-            BTSEntryComment c =  bug.new BTSEntryComment();
-            
-            elementValue = getElementValueAsString(comment.element("who"));
-            c.commentAuthor = elementValue;
-            
-            elementValue = getElementValueAsString(comment.element("bug_when"));
-            c.commentTS = parseDate(elementValue);
-            
-            elementValue = getElementValueAsString(comment.element("thetext"));
-            c.comment = elementValue;
-            
-            bug.commentslist.add(c);
+            /* Read all the values we can and set the related field */
+            if (el.equals("bug_id")) {
+                bug.bugID = r.getElementText().trim();
+            } else if (el.equals("bug_severity")) {
+                bug.severity = BTSEntry.BugSeverity.fromString(r.getElementText());
+            } else if (el.equals("bug_status")) {
+                bug.state = BTSEntry.BugStatus.fromString(r.getElementText());
+            } else if (el.equals("creation_ts")) {
+                bug.creationTimestamp = parseDate(r.getElementText());
+            } else if (el.equals("delta_ts")) {
+                bug.latestUpdateTimestamp = parseDate(r.getElementText());
+            } else if (el.equals("priority")) {
+                bug.priority = BTSEntry.BugPriority.fromString(r.getElementText());
+            } else if (el.equals("resolution")) {
+                bug.resolution = BTSEntry.BugResolution.fromString(r.getElementText());
+            } else if (el.equals("short_desc")) {
+                bug.shortDescr = r.getElementText();
+            } else if (el.equals("product")) {
+                bug.product = r.getElementText();
+            } else if (el.equals("component")) {
+                bug.component = r.getElementText();
+            } else if (el.equals("reporter")) {
+                bug.reporter = r.getElementText();
+            } else if (el.equals("assignee") || el.equals("assigned_to")) {
+                bug.assignee = r.getElementText();
+            } else if (el.equals("long_desc")) {
+                bug.commentslist.add(readComment(r, bug));
+            } else if (el.equals("attachment") || el.equals("attachement")) {
+                bug.attachementlist.add(readAttachment(r, bug));
+            } else {
+                skip(r);
+            }
         }
+        return bug;
+    }
+    
+    private BTSEntryComment readComment(XMLStreamReader r, BTSEntry bug) 
+        throws XMLStreamException {
+        BTSEntryComment c =  bug.new BTSEntryComment();
+        c.commentAuthor = "";
+        c.comment = "";
         
-        i = element.elementIterator("attachement");
-        
-        while (i.hasNext()) {
-            Element comment = i.next();
-            BTSEntryAttachement a =  bug.new BTSEntryAttachement();
-            
-            elementValue = getElementValueAsString(comment.element("date"));
-            a.date = parseDate(elementValue);
-            
-            elementValue = getElementValueAsString(comment.element("desc"));
-            a.description = elementValue;
-            
-            elementValue = getElementValueAsString(comment.element("type"));
-            a.type = elementValue;
+        while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String el = r.getLocalName();
+            if (el.equals("who")) {
+                c.commentAuthor = r.getElementText();
+            } else if (el.equals("bug_when")) {
+                c.commentTS = parseDate(r.getElementText());
+            } else if (el.equals("thetext")) {
+                c.comment = r.getElementText();
+            } else {
+                skip(r);
+            }
         }
+        return c;
+    }
+    
+    private BTSEntryAttachement readAttachment(XMLStreamReader r, BTSEntry bug) 
+        throws XMLStreamException {
+        BTSEntryAttachement a =  bug.new BTSEntryAttachement();
         
-        return bug;
+        while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String el = r.getLocalName();
+            if (el.equals("date")) {
+                a.date = parseDate(r.getElementText());
+            } else if (el.equals("desc")) {
+                a.description = r.getElementText();
+            } else if (el.equals("type")) {
+                a.type = r.getElementText();
+            } else {
+                skip(r);
+            }
+        }
+        return a;
+    }
+    
+    /* Skip the element the reader is on, including its children */
+    private static void skip(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+    
+    private static String bugId(File f) {
+        return f.getName().split("\\.")[0];
     }
 
     private Date parseDate(String date) {
-        //Bugzilla stores dates as: 2003-11-07 14:35 UTC
-        SimpleDateFormat dateParser1 = new SimpleDateFormat("y-M-d k:m z");
-        //or as: 2003-11-07 14:35:22 UTC
-        SimpleDateFormat dateParser2 = new SimpleDateFormat("y-M-d k:m:s z");
-        Date d = null;
-        try {
-            d = dateParser1.parse(date);
-        } catch (ParseException pex) {
+        date = date.trim();
+        for (DateFormat df : dateParsers.get()) {
             try {
-                d = dateParser2.parse(date);
-            } catch (ParseException e) {
-                logger.warn("BugzillaXMLParser: Could not parse date string " 
-                        + date);
+                return df.parse(date);
+            } catch (ParseException pex) {
+                continue;
             }
         }
-        
-        return d;
-    }
-    
-    private String getElementValueAsString(Element element) {
-        if (element != null) {
-            return element.getStringValue();
-        } else {
-            return "";
-        }
+        logger.warn("BugzillaXMLParser: Could not parse date string " + date);
+        return null;
     }
     
     /**
      * Implements a file filter for directory listing operations.
      */
-    private class BugzillaXMLFileFilter implements FileFilter  {
+    private static class BugzillaXMLFileFilter implements FileFilter  {
 
-        private Long timestamp;
+        private long timestamp;
         private Pattern format;
         
-        BugzillaXMLFileFilter(long timestamp) {
+        BugzillaXMLFileFilter(Pattern format, long timestamp) {
             this.timestamp = timestamp;
-            format = Pattern.compile("^[0-9]+\\.xml$");
+            this.format = format;
         }
         
         /** {@inheritDoc} */
         public boolean accept(File f) {
-            if (f.lastModified() < timestamp)
+            if (!format.matcher(f.getName()).matches())
                 return false;
             
-            if (!format.matcher(f.getName()).matches())
+            if (f.lastModified() < timestamp)
                 return false;
             
             return true;
@@ -30,9 +30,15 @@
 package eu.sqooss.plugins.devmatcher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.apache.commons.codec.language.DoubleMetaphone;
@@ -51,7 +57,11 @@ import eu.sqooss.service.util.Pair;
 /**
  * Heuristic based matcher for developer identities. Uses a combination of 
  * pattern and approximate string matching techniques and weights that are
- * evaluated at the end of the process. Will lock all developer
+ * evaluated at the end of the process. Approximate matches are only 
+ * attempted within blocks (same name tokens, shared {@link MinHashIndex}
+ * buckets), so the process does not compare all pairs of identities.
+ * Accepted matches are grouped with a {@link DisjointSet} and applied with
+ * one bulk statement per referencing table. Will lock all developer
  * records per project to avoid concurrent access when running. 
  * 
  * @author Georgios Gousios <gousiosg@gmail.com>
@@ -61,6 +71,34 @@ import eu.sqooss.service.util.Pair;
         mnem = "DEVMATCH") 
 public class DeveloperMatcher implements MetadataUpdater {
 
+    /** Minimum accumulated score for a pair of identities to be merged */
+    static final int MIN_SCORE = Integer.getInteger("eu.sqooss.devmatch.minscore", 5);
+    
+    /** 
+     * Score of a pair with the same real name. Below {@link #MIN_SCORE}, 
+     * as different people share names: it needs user name or email 
+     * evidence too for the pair to be merged.
+     */
+    static final int NAME_SCORE = MIN_SCORE - 2;
+    
+    /** Blocks (name tokens, LSH buckets) larger than this are ignored */
+    private static final int MAX_BLOCK = Integer.getInteger("eu.sqooss.devmatch.maxblock", 50);
+    
+    private static final int LSH_BANDS = 16;
+    private static final int LSH_ROWS = 4;
+    private static final int MIN_FUZZY_LENGTH = 6;
+    
+    /** Shared and role account names, used by more than one person */
+    private static final Set<String> ROLE_ACCOUNTS = new HashSet<String>(
+        Arrays.asList("admin", "administrator", "announce", "bugs", "build",
+            "commits", "contact", "dev", "devel", "developers", "help", 
+            "info", "list", "mail", "mailer-daemon", "maintainer", "news",
+            "nobody", "noreply", "no-reply", "office", "postmaster", 
+            "root", "security", "support", "team", "users", "webmaster"));
+    
+    /** Number of merged identities per bulk remap statement */
+    private static final int REMAP_CHUNK = 500;
+
     private StoredProject project;
     private DBService dbs;
     private Logger logger;
@@ -99,26 +137,43 @@ public class DeveloperMatcher implements MetadataUpdater {
         params.put("storedProject", project);
         List<Developer> devs = dbs.findObjectsByPropertiesForUpdate(Developer.class, params);
         long ts = System.currentTimeMillis();
+        
+        Map<Long, Developer> idToDev = new HashMap<Long, Developer>();
+        Map<String, List<Long>> nameBlocks = new HashMap<String, List<Long>>();
+        MinHashIndex lsh = new MinHashIndex(LSH_BANDS, LSH_ROWS, MAX_BLOCK);
+        
         //Fill in indices
         for (Developer d : devs) {
+            idToDev.put(d.getId(), d);
             for (DeveloperAlias da : d.getAliases()) {
                 emailToDev.put(da.getEmail(), d);
                 String uname = da.getEmail().substring(0, da.getEmail().indexOf('@')).toLowerCase();
                 emailprefToDev.put(uname, d);
-                addMetaphone(dm.doubleMetaphone(uname), uname);            
+                addMetaphone(dm.doubleMetaphone(uname), uname);
+                lsh.add(uname, d.getId());
             }
             
             if (d.getUsername() != null && !d.getUsername().equals("")) {
                 String uname = d.getUsername().toLowerCase();
                 unameToDev.put(uname, d);
                 addMetaphone(dm.doubleMetaphone(uname), uname);
+                lsh.add(uname, d.getId());
             }
             
             if (d.getName() != null && !d.getName().equals("")) {
                 nameToDev.put(d.getName().toLowerCase(), d);
+                String key = nameTokens(d.getName());
+                if (key != null) {
+                    List<Long> block = nameBlocks.get(key);
+                    if (block == null) {
+                        block = new ArrayList<Long>(2);
+                        nameBlocks.put(key, block);
+                    }
+                    block.add(d.getId());
+                }
             }
         }
-        progress = 30;
+        progress = 20;
         for (String name : nameToDev.keySet()) {
             
             List<String> usernames = getPossibleUnames(name);
@@ -128,109 +183,232 @@ public class DeveloperMatcher implements MetadataUpdater {
                     addMatch(nameToDev.get(name).getId(), 
                             unameToDev.get(uname).getId(), 10);
                 }
-                
-                /*String mph = dm.doubleMetaphone(uname);
-
-                // Try metaphone matching
-                if (mtphoneToUname.containsKey(mph)) {
-                    List<String> mfMatches = mtphoneToUname.get(mph);
-                    for (String mfMatch : mfMatches) {
-                        //Match against user names list first
-                        Developer d = unameToDev.get(mfMatch);
-                        if (d != null) {
-                            addMatch(nameToDev.get(name).getId(),
-                                    d.getId(), 
-                                    10 - levenshtein(mfMatch, uname));    
-                        } else {
-                            //Match against email prefixes
-                            d = emailprefToDev.get(mfMatch);
-                            addMatch(nameToDev.get(name).getId(),
-                                    d.getId(),  
-                                    10 - levenshtein(mfMatch, uname)); 
-                        }
-                        
-                    }
-                }
-             
-                // Try levenshtein distance matching
-                for (String develuname : unameToDev.keySet()) {
-                    int dist = Math.abs(levenshtein(uname, develuname));
-                    int mlen = Math.abs(uname.length() - develuname.length()); 
-                    //We arbitrarily consider a diff > 2 too big
-                    if (mlen <= 2 && dist <= 2) {
-                        addMatch(nameToDev.get(name).getId(),
-                                unameToDev.get(develuname).getId(), 
-                                2 - dist);
-                    }
-                }*/
             }
         }
         
         for (String username: unameToDev.keySet()) {
-            if (emailprefToDev.containsKey(username)) {
+            if (emailprefToDev.containsKey(username) 
+                    && !ROLE_ACCOUNTS.contains(username)) {
                 addMatch(emailprefToDev.get(username).getId(),
                         unameToDev.get(username).getId(), 10);
             }
         }
         
+        matchNameBlocks(nameBlocks.values(), matches);
+        progress = 40;
+        
+        /*
+         * Approximate matching of user names and email prefixes. Only pairs
+         * that share an LSH bucket are compared, instead of all pairs.
+         */
+        Set<Long> candidates = lsh.candidates();
+        debug(candidates.size() + " approximate match candidates out of " 
+                + lsh.size() + " identities");
+        for (Long c : candidates) {
+            int x = (int) (c >>> 32), y = (int) (c & 0xffffffffL);
+            int score = approximateScore(lsh.key(x), lsh.key(y));
+            if (score > 0)
+                addMatch(lsh.owner(x), lsh.owner(y), score);
+        }
         progress = 60;
-        List<String> updates = new ArrayList<String>(); 
-        updates.add("update ProjectVersion set committer = :new where committer = :old");
-        updates.add("update MailMessage set sender = :new where sender = :old");
-        updates.add("update Bug set reporter = :new where reporter = :old");
-        updates.add("update BugReportMessage set reporter = :new where reporter = :old");
-
-        List<String> deletes = new ArrayList<String>(); 
-        deletes.add("delete from DeveloperAlias d where d.developer.id = :oldid");
-        deletes.add("delete from Developer d where d.id = :oldid");
         
-        for (Pair<Long, Long> match : matches.keySet()) {
-            
-            //if (matches.get(match) < 30)
-               // continue;
-            
-            Developer byEmail = Developer.loadDAObyId(match.first, Developer.class);
-            Developer byUsrName = Developer.loadDAObyId(match.second, Developer.class);
-            
-            Map<String, Object> updParam = new HashMap<String, Object>();
-            updParam.put("old", byEmail);
-            updParam.put("new", byUsrName);
-            
-            Map<String, Object> delParam = new HashMap<String, Object>();
-            delParam.put("oldid", byEmail.getId());
-            
-            //Copy emails
-            for (DeveloperAlias da : byEmail.getAliases()) {
-                debug("Adding alias " + da.getEmail() + " to dev " + byUsrName);
-                byUsrName.addAlias(da.getEmail());
+        Map<Long, Developer> remap = new LinkedHashMap<Long, Developer>();
+        List<Long> dupAliases = new ArrayList<Long>();
+        for (List<Long> group : group(matches)) {
+            Developer canonical = canonical(group, idToDev);
+            Set<String> emails = new HashSet<String>();
+            for (DeveloperAlias da : canonical.getAliases()) {
+                emails.add(da.getEmail());
             }
             
-            if (byUsrName.getName() == null || byUsrName.getName().trim().equals("")) {
-                byUsrName.setName(byEmail.getName());
-                debug("Setting " +  byUsrName.getUsername() + "'s name to " + byEmail.getName());
+            for (Long id : group) {
+                Developer d = idToDev.get(id);
+                if (d == canonical)
+                    continue;
+                remap.put(id, canonical);
+                
+                //Aliases are moved in bulk, unless the email is already there
+                for (DeveloperAlias da : d.getAliases()) {
+                    if (!emails.add(da.getEmail()))
+                        dupAliases.add(da.getId());
+                }
+                
+                if ((canonical.getName() == null || canonical.getName().trim().equals(""))
+                        && d.getName() != null) {
+                    canonical.setName(d.getName());
+                    debug("Setting " +  canonical.getUsername() + "'s name to " + d.getName());
+                }
+                debug("Replacing dev " + id + "->" + canonical.getId());
             }
-            
-            for (String upd : updates) {
-                long lines = dbs.executeUpdate(upd, updParam);
-                debug(upd + " old:" + byEmail + " new:" + 
-                        byUsrName + " " + lines + " changed");
+        }
+        dbs.flushDBSession();
+        progress = 70;
+        
+        if (!dupAliases.isEmpty()) {
+            for (List<Long> ids : chunks(dupAliases)) {
+                dbs.executeUpdate("delete from DeveloperAlias d where d.id in (" 
+                        + idList(ids) + ")", null);
             }
-            
-            for (String del : deletes) {
-                long lines = dbs.executeUpdate(del, delParam);
-                debug(del + " old:" + byEmail.getId() + lines + " changed");
+        }
+        
+        String[][] refs = {
+            {"ProjectVersion", "committer"},
+            {"MailMessage", "sender"},
+            {"Bug", "reporter"},
+            {"BugReportMessage", "reporter"},
+            {"DeveloperAlias", "developer"}
+        };
+        
+        List<Long> old = new ArrayList<Long>(remap.keySet());
+        for (List<Long> ids : chunks(old)) {
+            for (String[] ref : refs) {
+                long lines = dbs.executeUpdate(remapStmt(ref[0], ref[1], ids, remap), null);
+                debug("Remapped " + lines + " " + ref[0] + "." + ref[1] + " references");
             }
-
-            debug("Replaced dev " + match.first + "->" 
-                    + match.second + ", score: " + matches.get(match));
+            dbs.executeUpdate("delete from Developer d where d.id in (" 
+                    + idList(ids) + ")", null);
         }
         
-        info("Matched " + matches.size() + " developers in " 
+        info("Merged " + remap.size() + " developers (" + matches.size() 
+                + " candidate matches) in " 
                 + (System.currentTimeMillis() - ts) + "ms");
         dbs.commitDBSession();
         progress = 100;
     }
     
+    /*
+     * Build a single update that points all references in a chunk of
+     * merged developers to their canonical identity. Ids are database 
+     * generated numbers, so they are inlined rather than bound, which 
+     * also keeps the CASE branches typed on all databases. 
+     */
+    private String remapStmt(String entity, String field, List<Long> ids,
+            Map<Long, Developer> remap) {
+        StringBuilder hql = new StringBuilder();
+        hql.append("update ").append(entity).append(" set ").append(field);
+        hql.append(" = case ").append(field).append(".id");
+        for (Long id : ids) {
+            hql.append(" when ").append(id).append(" then ")
+                .append(remap.get(id).getId());
+        }
+        hql.append(" end where ").append(field).append(".id in (")
+            .append(idList(ids)).append(")");
+        return hql.toString();
+    }
+    
+    private String idList(List<Long> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+    
+    private List<List<Long>> chunks(List<Long> ids) {
+        List<List<Long>> result = new ArrayList<List<Long>>();
+        for (int i = 0; i < ids.size(); i += REMAP_CHUNK) {
+            result.add(ids.subList(i, Math.min(ids.size(), i + REMAP_CHUNK)));
+        }
+        return result;
+    }
+    
+    /*
+     * The identity all others in a group are merged to: one with a 
+     * user name if possible (the merged identities are mostly email-only),
+     * the oldest otherwise.
+     */
+    private Developer canonical(List<Long> group, Map<Long, Developer> idToDev) {
+        Developer result = null;
+        for (Long id : group) {
+            Developer d = idToDev.get(id);
+            boolean hasUname = d.getUsername() != null && !d.getUsername().equals("");
+            if (result == null) {
+                result = d;
+                continue;
+            }
+            boolean resHasUname = result.getUsername() != null 
+                && !result.getUsername().equals("");
+            if ((hasUname && !resHasUname) 
+                    || (hasUname == resHasUname && d.getId() < result.getId())) {
+                result = d;
+            }
+        }
+        return result;
+    }
+    
+    /*
+     * Match score of two user names or email prefixes, 0 if they are too 
+     * different or too common to say they belong to the same person.
+     * Equal short names (john@a.org, john@b.org) and role accounts are 
+     * not matched either, as they are shared by different people.
+     */
+    static int approximateScore(String s, String t) {
+        //We arbitrarily consider a diff > 2 too big
+        if (Math.abs(s.length() - t.length()) > 2)
+            return 0;
+        if (Math.min(s.length(), t.length()) < MIN_FUZZY_LENGTH
+                || ROLE_ACCOUNTS.contains(s) || ROLE_ACCOUNTS.contains(t))
+            return 0;
+        int dist = levenshtein(s, t);
+        if (dist > 2)
+            return 0;
+        return 8 - 3 * dist;
+    }
+    
+    /*
+     * Same name tokens, in any order ("John Smith", "smith, john").
+     * Single token names are too ambiguous to block on. 
+     */
+    static void matchNameBlocks(Collection<List<Long>> blocks, 
+            Map<Pair<Long, Long>, Integer> matches) {
+        for (List<Long> block : blocks) {
+            if (block.size() < 2 || block.size() > MAX_BLOCK)
+                continue;
+            for (int i = 0; i < block.size(); i++) {
+                for (int j = i + 1; j < block.size(); j++) {
+                    addMatch(matches, block.get(i), block.get(j), NAME_SCORE);
+                }
+            }
+        }
+    }
+    
+    /*
+     * Collapse the pairwise matches that reach MIN_SCORE to groups of 
+     * identities of the same person.
+     */
+    static List<List<Long>> group(Map<Pair<Long, Long>, Integer> matches) {
+        DisjointSet groups = new DisjointSet();
+        for (Pair<Long, Long> match : matches.keySet()) {
+            if (matches.get(match) < MIN_SCORE)
+                continue;
+            groups.union(match.first, match.second);
+        }
+        return groups.groups();
+    }
+    
+    /*
+     * Order independent key for a real name, or null if the name
+     * does not have at least two tokens.
+     */
+    static String nameTokens(String name) {
+        String[] tokens = cleanup(name).toLowerCase().split("[^\\p{L}]+");
+        List<String> parts = new ArrayList<String>();
+        for (String token : tokens) {
+            if (token.length() > 0)
+                parts.add(token);
+        }
+        if (parts.size() < 2)
+            return null;
+        Collections.sort(parts);
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append(part).append(' ');
+        }
+        return sb.toString().trim();
+    }
+    
     /*
      * Get a list of possible usernames that may originate from 
      * a given real name
@@ -288,7 +466,7 @@ public class DeveloperMatcher implements MetadataUpdater {
      * Names coming from email headers might contain various characters
      * which are not part of a real name. Try to filter those out. 
      */
-    private String cleanup(String name) {
+    private static String cleanup(String name) {
         String badCharsRE = "\\/|\\|\'|\"|!";
 
         name.replaceAll(badCharsRE, name);
@@ -300,29 +478,35 @@ public class DeveloperMatcher implements MetadataUpdater {
      * just increase the match score.
      */
     private void addMatch(Long id1, Long id2, Integer score) {
+        Pair<Long, Long> match = addMatch(matches, id1, id2, score);
+        if (match != null)
+            debug("Potential developer match " + match + ": " + matches.get(match));
+    }
+    
+    /*
+     * Add a match to a matches table, in either order of the ids.
+     * Returns the key the score was accumulated on, null for self matches.
+     */
+    static Pair<Long, Long> addMatch(Map<Pair<Long, Long>, Integer> matches,
+            Long id1, Long id2, Integer score) {
         
         if (id1.longValue() == id2.longValue())
-            return;
+            return null;
         
         Pair<Long, Long> match = new Pair<Long, Long>(id1, id2);
         Pair<Long, Long> revMatch = new Pair<Long, Long>(id2, id1);
-        boolean foundRevMatch = false;
         
         if (matches.containsKey(match)) {
             matches.put(match, matches.get(match) + score);
         }
         else if (matches.containsKey(revMatch)) {
             matches.put(revMatch, matches.get(revMatch) + score);
-            foundRevMatch = true;
+            match = revMatch;
         }
         else { 
             matches.put(match, score);
         }
-    
-        if (foundRevMatch)
-            debug("Potential developer revmatch " + revMatch + ": " + matches.get(revMatch));
-        else 
-            debug("Potential developer match " + match + ": " + matches.get(match));
+        return match;
     }
 
     /*
@@ -346,7 +530,7 @@ public class DeveloperMatcher implements MetadataUpdater {
      * Levenshtein distance algorithm, copied verbatim from
      * http://www.merriampark.com/ld.htm
      */
-    public int levenshtein(String s, String t) {
+    public static int levenshtein(String s, String t) {
         int d[][]; // matrix
         int n; // length of s
         int m; // length of t
@@ -404,7 +588,7 @@ public class DeveloperMatcher implements MetadataUpdater {
         return d[n][m];
     }
 
-    private int min(int a, int b, int c) {
+    private static int min(int a, int b, int c) {
         int mi;
 
         mi = a;
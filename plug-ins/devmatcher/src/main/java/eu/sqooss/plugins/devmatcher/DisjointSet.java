@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009 - 2010 - Organization for Free and Open Source Software,  
+ *                 Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package eu.sqooss.plugins.devmatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Union-find structure over developer ids, with path compression and
+ * union by size. Used to collapse pairwise matches into groups of 
+ * identities that belong to the same person.
+ */
+class DisjointSet {
+
+    private Map<Long, Long> parent = new HashMap<Long, Long>();
+    private Map<Long, Integer> size = new HashMap<Long, Integer>();
+    
+    public Long find(Long x) {
+        Long p = parent.get(x);
+        if (p == null) {
+            parent.put(x, x);
+            size.put(x, 1);
+            return x;
+        }
+        Long root = x;
+        while (!p.equals(root)) {
+            root = p;
+            p = parent.get(root);
+        }
+        //Compress the path
+        while (!x.equals(root)) {
+            Long next = parent.get(x);
+            parent.put(x, root);
+            x = next;
+        }
+        return root;
+    }
+    
+    public void union(Long x, Long y) {
+        Long rx = find(x), ry = find(y);
+        if (rx.equals(ry))
+            return;
+        if (size.get(rx) < size.get(ry)) {
+            Long tmp = rx; rx = ry; ry = tmp;
+        }
+        parent.put(ry, rx);
+        size.put(rx, size.get(rx) + size.get(ry));
+    }
+    
+    /**
+     * All sets with more than one member.
+     */
+    public List<List<Long>> groups() {
+        Map<Long, List<Long>> byRoot = new HashMap<Long, List<Long>>();
+        for (Long x : parent.keySet()) {
+            Long root = find(x);
+            List<Long> members = byRoot.get(root);
+            if (members == null) {
+                members = new ArrayList<Long>();
+                byRoot.put(root, members);
+            }
+            members.add(x);
+        }
+        List<List<Long>> result = new ArrayList<List<Long>>();
+        for (List<Long> members : byRoot.values()) {
+            if (members.size() > 1)
+                result.add(members);
+        }
+        return result;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
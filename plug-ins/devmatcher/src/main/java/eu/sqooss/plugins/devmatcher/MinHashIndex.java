@@ -0,0 +1,181 @@
+/*
+ * Copyright 2009 - 2010 - Organization for Free and Open Source Software,  
+ *                 Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package eu.sqooss.plugins.devmatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Locality sensitive hash index over character bigrams of short strings
+ * (user names, email prefixes). Each string is reduced to a MinHash 
+ * signature of <code>bands * rows</code> values; strings that agree on all
+ * rows of at least one band end up in the same bucket. Only strings sharing
+ * a bucket are reported as candidate pairs, so the number of comparisons
+ * grows with the number of near duplicates rather than with the square
+ * of the number of strings. With the default 16x4 layout, pairs with a
+ * bigram Jaccard similarity above ~0.5 are very likely to be reported.
+ * 
+ * Buckets larger than a configurable limit are ignored, as they are 
+ * formed by very common fragments and carry no information.
+ */
+class MinHashIndex {
+
+    private static final long PRIME = 2147483647L; /* 2^31 - 1 */
+    
+    private final int bands;
+    private final int rows;
+    private final int maxBucket;
+    private final long[] a;
+    private final long[] b;
+    
+    private List<String> keys = new ArrayList<String>();
+    private List<Long> owners = new ArrayList<Long>();
+    private Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+    
+    public MinHashIndex(int bands, int rows, int maxBucket) {
+        this.bands = bands;
+        this.rows = rows;
+        this.maxBucket = maxBucket;
+        
+        //Fixed seed, so that runs are reproducible
+        Random r = new Random(0x5eed);
+        a = new long[bands * rows];
+        b = new long[bands * rows];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = 1 + (r.nextLong() & Long.MAX_VALUE) % (PRIME - 1);
+            b[i] = (r.nextLong() & Long.MAX_VALUE) % PRIME;
+        }
+    }
+    
+    /**
+     * Index a string on behalf of an owner (developer) id.
+     */
+    public void add(String key, Long owner) {
+        int[] shingles = shingles(key);
+        if (shingles.length == 0)
+            return;
+        
+        int idx = keys.size();
+        keys.add(key);
+        owners.add(owner);
+        
+        long[] sig = signature(shingles);
+        for (int band = 0; band < bands; band++) {
+            long h = band;
+            for (int row = 0; row < rows; row++) {
+                h = h * 31 + sig[band * rows + row];
+            }
+            Long bucket = Long.valueOf((h << 8) ^ band);
+            List<Integer> l = buckets.get(bucket);
+            if (l == null) {
+                l = new ArrayList<Integer>(2);
+                buckets.put(bucket, l);
+            }
+            l.add(idx);
+        }
+    }
+    
+    /**
+     * Candidate pairs of entries that share at least one bucket and belong
+     * to different owners. Each pair is encoded as 
+     * <code>(first &lt;&lt; 32) | second</code>, with first &lt; second.
+     */
+    public Set<Long> candidates() {
+        Set<Long> result = new HashSet<Long>();
+        for (List<Integer> bucket : buckets.values()) {
+            if (bucket.size() < 2 || bucket.size() > maxBucket)
+                continue;
+            for (int i = 0; i < bucket.size(); i++) {
+                int x = bucket.get(i);
+                for (int j = i + 1; j < bucket.size(); j++) {
+                    int y = bucket.get(j);
+                    if (owners.get(x).equals(owners.get(y)))
+                        continue;
+                    long lo = Math.min(x, y), hi = Math.max(x, y);
+                    result.add((lo << 32) | hi);
+                }
+            }
+        }
+        return result;
+    }
+    
+    public String key(int entry) {
+        return keys.get(entry);
+    }
+    
+    public Long owner(int entry) {
+        return owners.get(entry);
+    }
+    
+    public int size() {
+        return keys.size();
+    }
+    
+    private long[] signature(int[] shingles) {
+        long[] sig = new long[a.length];
+        for (int i = 0; i < a.length; i++) {
+            long min = Long.MAX_VALUE;
+            for (int s : shingles) {
+                long h = (a[i] * (s & 0x7fffffffL) + b[i]) % PRIME;
+                if (h < min)
+                    min = h;
+            }
+            sig[i] = min;
+        }
+        return sig;
+    }
+    
+    /*
+     * Character bigrams of the string, padded at both ends so that 
+     * short strings still produce a few shingles.
+     */
+    private static int[] shingles(String s) {
+        if (s == null || s.length() < 2)
+            return new int[0];
+        String padded = "^" + s + "$";
+        Set<Integer> result = new HashSet<Integer>();
+        for (int i = 0; i + 2 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 2).hashCode());
+        }
+        int[] arr = new int[result.size()];
+        int i = 0;
+        for (Integer sh : result) {
+            arr[i++] = sh;
+        }
+        return arr;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
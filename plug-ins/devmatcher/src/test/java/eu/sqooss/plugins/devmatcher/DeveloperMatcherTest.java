@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009 - 2010 - Organization for Free and Open Source Software,  
+ *                 Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.devmatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import eu.sqooss.service.util.Pair;
+
+public class DeveloperMatcherTest {
+
+    @Test
+    public void testShortExactMatch() {
+        // john@a.org and john@b.org are not necessarily the same person
+        assertEquals(0, DeveloperMatcher.approximateScore("john", "john"));
+        assertEquals(0, DeveloperMatcher.approximateScore("dev", "dev"));
+    }
+
+    @Test
+    public void testRoleAccounts() {
+        assertEquals(0, DeveloperMatcher.approximateScore("admin", "admin"));
+        assertEquals(0, DeveloperMatcher.approximateScore("info", "info"));
+        assertEquals(0, DeveloperMatcher.approximateScore("webmaster", "webmaster"));
+        assertEquals(0, DeveloperMatcher.approximateScore("support", "support"));
+    }
+
+    @Test
+    public void testLongMatch() {
+        assertEquals(8, DeveloperMatcher.approximateScore("gousiosg", "gousiosg"));
+        assertTrue(DeveloperMatcher.approximateScore("gousiosg", "ggousios") > 0);
+        assertEquals(0, DeveloperMatcher.approximateScore("gousiosg", "smithjohn"));
+    }
+
+    @Test
+    public void testNameTokens() {
+        assertEquals("john smith", DeveloperMatcher.nameTokens("John Smith"));
+        assertEquals("john smith", DeveloperMatcher.nameTokens("smith, john"));
+        assertNull(DeveloperMatcher.nameTokens("john"));
+    }
+
+    @Test
+    public void testSameNameIsNotEnough() {
+        Map<Pair<Long, Long>, Integer> matches = 
+            new HashMap<Pair<Long, Long>, Integer>();
+        DeveloperMatcher.matchNameBlocks(blocks(Arrays.asList(1L, 2L, 3L)), 
+                matches);
+        assertEquals(3, matches.size());
+        assertTrue(DeveloperMatcher.group(matches).isEmpty());
+    }
+
+    @Test
+    public void testSameNameAndSimilarEmail() {
+        Map<Pair<Long, Long>, Integer> matches = 
+            new HashMap<Pair<Long, Long>, Integer>();
+        DeveloperMatcher.matchNameBlocks(blocks(Arrays.asList(1L, 2L, 3L)), 
+                matches);
+        
+        // Weak evidence on its own
+        int score = DeveloperMatcher.approximateScore("jsmith99", "jsmith12");
+        assertTrue(score > 0 && score < DeveloperMatcher.MIN_SCORE);
+        DeveloperMatcher.addMatch(matches, 2L, 1L, score);
+        
+        List<List<Long>> groups = DeveloperMatcher.group(matches);
+        assertEquals(1, groups.size());
+        assertEquals(Arrays.asList(1L, 2L), sorted(groups.get(0)));
+    }
+
+    @Test
+    public void testGroupsAreTransitive() {
+        Map<Pair<Long, Long>, Integer> matches = 
+            new HashMap<Pair<Long, Long>, Integer>();
+        DeveloperMatcher.addMatch(matches, 1L, 2L, 10);
+        DeveloperMatcher.addMatch(matches, 3L, 2L, 10);
+        DeveloperMatcher.addMatch(matches, 4L, 5L, DeveloperMatcher.MIN_SCORE - 1);
+        DeveloperMatcher.addMatch(matches, 6L, 6L, 10);
+        
+        List<List<Long>> groups = DeveloperMatcher.group(matches);
+        assertEquals(1, groups.size());
+        assertEquals(Arrays.asList(1L, 2L, 3L), sorted(groups.get(0)));
+    }
+
+    private static List<List<Long>> blocks(List<Long> block) {
+        List<List<Long>> blocks = new ArrayList<List<Long>>();
+        blocks.add(block);
+        return blocks;
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        List<Long> result = new ArrayList<Long>(ids);
+        Collections.sort(result);
+        return result;
+    }
+}
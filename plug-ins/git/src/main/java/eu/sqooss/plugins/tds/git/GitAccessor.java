@@ -30,7 +30,6 @@
 
 package eu.sqooss.plugins.tds.git;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -41,16 +40,25 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryBuilder;
@@ -60,10 +68,16 @@ import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.WindowCache;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.logging.Logger;
@@ -71,6 +85,8 @@ import eu.sqooss.service.tds.AccessorException;
 import eu.sqooss.service.tds.AnnotatedLine;
 import eu.sqooss.service.tds.CommitCopyEntry;
 import eu.sqooss.service.tds.CommitLog;
+import eu.sqooss.service.tds.CommitStats;
+import eu.sqooss.service.tds.CommitStatsCache;
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.InvalidProjectRevisionException;
 import eu.sqooss.service.tds.InvalidRepositoryException;
@@ -104,9 +120,50 @@ public class GitAccessor implements SCMAccessor {
     
     private Map<String, List<String>> childrenOf;
     
+    /* Object readers, one per worker thread, reused by all walks */
+    private final ThreadLocal<ObjectReader> readers = new ThreadLocal<ObjectReader>();
+    
+    /* Cached revision -> tag map and the state of the refs it was built from */
+    private Map<String, String> tags;
+    private long tagsStamp;
+    
+    /** Maximum memory used for mapped pack file windows, in MB */
+    public static final String PACK_LIMIT = "eu.sqooss.git.packlimit";
+    /** Size of a single pack file window, in KB */
+    public static final String PACK_WINDOW = "eu.sqooss.git.packwindow";
+    /** Maximum memory used for cached delta bases, in MB */
+    public static final String DELTA_LIMIT = "eu.sqooss.git.deltalimit";
+    
+    /** Max number of added or deleted paths to run similarity renames on */
+    public static final String RENAME_LIMIT_PROP = "eu.sqooss.git.renames.limit";
+    /** Time budget for similarity rename detection per commit, in msec */
+    public static final String RENAME_TIMEOUT_PROP = "eu.sqooss.git.renames.timeout";
+    /** Defer similarity rename detection to a background job */
+    public static final String RENAME_DEFER_PROP = "eu.sqooss.git.renames.defer";
+    
+    private static final int RENAME_LIMIT = Integer.getInteger(RENAME_LIMIT_PROP, 1000);
+    private static final long RENAME_TIMEOUT = Long.getLong(RENAME_TIMEOUT_PROP, 5000);
+    private static final boolean DEFER_RENAMES = Boolean.getBoolean(RENAME_DEFER_PROP);
+    
+    /* Revisions whose similarity rename detection has been deferred */
+    private final Set<String> deferredRenames = 
+        Collections.synchronizedSet(new LinkedHashSet<String>());
+    
     static {
         supportedSchemes = new ArrayList<URI>();
         supportedSchemes.add(URI.create("git-file://www.sqo-oss.org"));
+        
+        /*
+         * The JGit defaults (10MB of pack windows, 8k each) are meant for
+         * interactive tools; an updater walking the full history of a large
+         * repository keeps evicting and remapping the same windows.
+         */
+        WindowCacheConfig cfg = new WindowCacheConfig();
+        cfg.setPackedGitLimit(Long.getLong(PACK_LIMIT, 256) * WindowCacheConfig.MB);
+        cfg.setPackedGitWindowSize(Integer.getInteger(PACK_WINDOW, 64) * WindowCacheConfig.KB);
+        cfg.setDeltaBaseCacheLimit(Integer.getInteger(DELTA_LIMIT, 64) * WindowCacheConfig.MB);
+        cfg.setPackedGitOpenFiles(256);
+        WindowCache.reconfigure(cfg);
     }
     
 	@Override
@@ -141,7 +198,7 @@ public class GitAccessor implements SCMAccessor {
          * objects with millisecond accuracy, the following filter should just
          * return the revision we are looking for. 
          */
-        RevWalk rw = new RevWalk(git);
+        RevWalk rw = newRevWalk();
         RevFilter exact = CommitTimeRevFilter.between(new Date(d.getTime() - 1), 
                 new Date(d.getTime() + 1));
         rw.setRevFilter(exact);
@@ -191,7 +248,7 @@ public class GitAccessor implements SCMAccessor {
 
     /** {@inheritDoc} */
     public Revision getFirstRevision() throws InvalidRepositoryException {
-        RevWalk rw = new RevWalk(git);
+        RevWalk rw = newRevWalk();
         RevCommit c = null;
         AnyObjectId headId;
         try {
@@ -213,7 +270,7 @@ public class GitAccessor implements SCMAccessor {
     public Revision getPreviousRevision(Revision r)
         throws InvalidProjectRevisionException {
         AnyObjectId revId;  
-        RevWalk rw = new RevWalk(git);
+        RevWalk rw = newRevWalk();
 
         try {
             revId = git.resolve(r.getUniqueId());
@@ -241,7 +298,7 @@ public class GitAccessor implements SCMAccessor {
     public Revision getNextRevision(Revision r)
         throws InvalidProjectRevisionException {
         AnyObjectId revId;
-        RevWalk rw = new RevWalk(git);
+        RevWalk rw = newRevWalk();
         
         try {
             /*
@@ -320,7 +377,7 @@ public class GitAccessor implements SCMAccessor {
     throws InvalidProjectRevisionException, InvalidRepositoryException  {
     	long time = System.currentTimeMillis();
         repoPath = toGitPath(repoPath);
-        RevWalk rw = new RevWalk(git);
+        RevWalk rw = newRevWalk();
         try {
             
             if (r1 == null) {
@@ -380,6 +437,73 @@ public class GitAccessor implements SCMAccessor {
                InvalidRepositoryException,
                FileNotFoundException {return null;}
 
+    /** {@inheritDoc} */
+    public CommitStats getCommitStats(Revision r)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {
+        
+        if (!(r instanceof GitRevision))
+            throw new InvalidProjectRevisionException(
+                    "Not a Git revision: " + r, getClass());
+        
+        CommitStatsCache cache = CommitStatsCache.getInstance(); 
+        CommitStats stats = cache.get(uri.toString(), r.getUniqueId());
+        if (stats != null)
+            return stats;
+        
+        long ts = System.currentTimeMillis();
+        RevCommit commit = resolveGitRev(r.getUniqueId());
+        if (commit == null)
+            throw new InvalidProjectRevisionException(
+                    "Cannot resolve revision " + r.getUniqueId(), getClass());
+        
+        stats = new CommitStats(commit.getName());
+        
+        /*
+         * Diff against the first parent (or the empty tree for root commits)
+         * without rename detection and without producing any output; 
+         * only the edit lists are needed.
+         */
+        DiffFormatter diffFmt = new DiffFormatter(DisabledOutputStream.INSTANCE);
+        diffFmt.setRepository(git);
+        diffFmt.setDetectRenames(false);
+        ObjectReader reader = reader();
+        try {
+            AbstractTreeIterator a;
+            if (commit.getParentCount() == 0) {
+                a = new EmptyTreeIterator();
+            } else {
+                RevCommit parent = resolveGitRev(commit.getParent(0).name());
+                a = new CanonicalTreeParser(null, reader, parent.getTree());
+            }
+            AbstractTreeIterator b = 
+                new CanonicalTreeParser(null, reader, commit.getTree());
+            
+            for (DiffEntry ent : diffFmt.scan(a, b)) {
+                String path = (ent.getChangeType() == DiffEntry.ChangeType.DELETE) ? 
+                        ent.getOldPath() : ent.getNewPath();
+                int added = 0, removed = 0;
+                for (Edit e : diffFmt.toFileHeader(ent).toEditList()) {
+                    added += e.getEndB() - e.getBeginB();
+                    removed += e.getEndA() - e.getBeginA();
+                }
+                //Paths in Alitheia Core are not relative to root
+                stats.add("/" + path, added, removed);
+            }
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(uri.toString(), 
+                    "Cannot get commit statistics for " + commit.getName() 
+                    + ": " + e.getMessage());
+        } finally {
+            reader.release();
+            diffFmt.release();
+        }
+        
+        cache.put(uri.toString(), stats);
+        debug("getCommitStats(): " + (System.currentTimeMillis() - ts) + "ms");
+        return stats;
+    }
+
     public SCMNodeType getNodeType(String repoPath, Revision r)
         throws InvalidRepositoryException {
         
@@ -395,7 +519,7 @@ public class GitAccessor implements SCMAccessor {
         	if (path.isEmpty()) //Only the root dir can have an empty path
         		return SCMNodeType.DIR;
         	
-            tw = TreeWalk.forPath(git, path, a);
+            tw = TreeWalk.forPath(reader(), path, a);
             
             if (tw == null) 
                 return SCMNodeType.UNKNOWN;
@@ -442,9 +566,14 @@ public class GitAccessor implements SCMAccessor {
     
     /**
      * Get a Map <code>{revisionId -> tagname}</code> for all revisions that 
-     * are marked with a tag 
+     * are marked with a tag. The map is built once and then reused until 
+     * the repository's tag references change on disk.
      */
-    public Map<String, String> allTags() {
+    public synchronized Map<String, String> allTags() {
+        long stamp = refsStamp();
+        if (tags != null && stamp == tagsStamp)
+            return tags;
+        
     	Map<String, Ref> all = git.getAllRefs();
 		Map<String, String> result = new HashMap<String, String>();
 		
@@ -455,7 +584,24 @@ public class GitAccessor implements SCMAccessor {
 			result.put(all.get(ref).getObjectId().getName(), tagname);
 		}
 		
-		return result;
+		tags = Collections.unmodifiableMap(result);
+		tagsStamp = stamp;
+		return tags;
+    }
+    
+    /**
+     * Get the tag name for a revision, or null if the revision is not tagged.
+     */
+    public String getTag(String revisionId) {
+        return allTags().get(revisionId);
+    }
+    
+    /**
+     * Drop the cached tag map, forcing the refs to be read again on the
+     * next call to {@link #allTags()}.
+     */
+    public synchronized void invalidateTags() {
+        tags = null;
     }
     
     /**
@@ -497,7 +643,7 @@ public class GitAccessor implements SCMAccessor {
     
     private void resolveChildren() throws AccessorException {
     	Long start = System.currentTimeMillis();
-    	RevWalk rw = new RevWalk(git);
+    	RevWalk rw = newRevWalk();
     	try {
     		ObjectId revId = git.resolve(Constants.HEAD);
             rw.sort(RevSort.COMMIT_TIME_DESC); //Doesn't really do anything
@@ -570,7 +716,7 @@ public class GitAccessor implements SCMAccessor {
             RevTree a = commit.getTree();
             TreeWalk tw = null;
             try {
-                tw = new TreeWalk(git);
+                tw = new TreeWalk(reader());
                 tw.addTree(a);
                 tw.setRecursive(true);
                 while (tw.next()) {
@@ -588,32 +734,184 @@ public class GitAccessor implements SCMAccessor {
         
         //General case, get the revision files by constructing a diff between 
         //the revision we are asking for and its first parent. 
+        List<DiffEntry> entries = scanParent(commit);
+        if (entries == null)
+            return null;
+        
+        GitRevision gitrev = new GitRevision(commit, events, copies);
+        List<DiffEntry> rest = exactRenames(entries, commit, gitrev, copies);
+        
+        if (hasRenameCandidates(rest)) {
+            if (DEFER_RENAMES) {
+                deferredRenames.add(commit.getName());
+            } else {
+                rest = similarRenames(rest, commit, RENAME_TIMEOUT);
+            }
+        }
+        
+        toEvents(rest, commit, gitrev, events, copies);
+        return gitrev;
+    }
+    
+    /**
+     * Run content similarity rename detection on a commit, without the
+     * time budget applied during import, and return the renames it found.
+     * Renames with identical contents are included too, so the result can be
+     * compared against the copy operations the revision already reports.
+     * 
+     * @return The detected moves, or null if the commit cannot be read
+     */
+    public List<CommitCopyEntry> detectRenames(String revisionId) {
+        RevCommit commit = resolveGitRev(revisionId);
+        if (commit == null || commit.getParentCount() == 0)
+            return null;
+        
+        List<DiffEntry> entries = scanParent(commit);
+        if (entries == null)
+            return null;
+        
+        Map<String, PathChangeType> events = new HashMap<String, PathChangeType>();
+        List<CommitCopyEntry> copies = new ArrayList<CommitCopyEntry>();
+        GitRevision gitrev = new GitRevision(commit, events, copies);
+        
+        List<DiffEntry> rest = exactRenames(entries, commit, gitrev, copies);
+        if (hasRenameCandidates(rest))
+            rest = similarRenames(rest, commit, 0);
+        toEvents(rest, commit, gitrev, events, copies);
+        
+        return copies;
+    }
+    
+    /**
+     * Get and clear the list of revisions whose similarity based rename
+     * detection was deferred by {@link #getRevision(RevCommit, boolean)}.
+     */
+    public List<String> takeDeferredRenames() {
+        synchronized (deferredRenames) {
+            List<String> result = new ArrayList<String>(deferredRenames);
+            deferredRenames.clear();
+            return result;
+        }
+    }
+    
+    /*
+     * Diff a commit against its first parent, without rename detection.
+     */
+    private List<DiffEntry> scanParent(RevCommit commit) {
         RevCommit c = resolveGitRev(commit.getParent(0).name());
         
         final RevTree a = c.getTree(); //We hope that the parent is resolvable.
         final RevTree b = commit.getTree();
         
-        DiffFormatter diffFmt = new DiffFormatter( 
-                new BufferedOutputStream(System.out));
+        DiffFormatter diffFmt = new DiffFormatter(DisabledOutputStream.INSTANCE);
         diffFmt.setRepository(git);
-        diffFmt.setDetectRenames(true);
-        diffFmt.getRenameDetector().setRenameLimit(1000);
+        diffFmt.setDetectRenames(false);
         
-        List<DiffEntry> entries;
         try {
-            entries = diffFmt.scan(a, b);
+            return diffFmt.scan(a, b);
         } catch (IOException e) {
             err("Cannot parse commit " + commit.getId());
             return null;
+        } finally {
+            diffFmt.release();
         }
-
-        String path = null; PathChangeType pct = null;
-        CommitCopyEntry cce = null;
-        boolean isCopy = false;
+    }
+    
+    /*
+     * Pair deleted and added paths whose blobs are identical. This is a
+     * hash lookup, so it runs on every commit regardless of its size. 
+     * Returns the entries that were not matched.
+     */
+    private List<DiffEntry> exactRenames(List<DiffEntry> entries, 
+            RevCommit commit, GitRevision gitrev, List<CommitCopyEntry> copies) {
+        Map<AbbreviatedObjectId, List<DiffEntry>> deleted = 
+            new HashMap<AbbreviatedObjectId, List<DiffEntry>>();
         
-        GitRevision gitrev = new GitRevision(commit, events, copies);
+        for (DiffEntry ent : entries) {
+            if (ent.getChangeType() != ChangeType.DELETE)
+                continue;
+            List<DiffEntry> l = deleted.get(ent.getOldId());
+            if (l == null) {
+                l = new ArrayList<DiffEntry>(1);
+                deleted.put(ent.getOldId(), l);
+            }
+            l.add(ent);
+        }
+        
+        if (deleted.isEmpty())
+            return entries;
+        
+        List<DiffEntry> rest = new ArrayList<DiffEntry>(entries.size());
+        Set<DiffEntry> matched = new HashSet<DiffEntry>();
         
         for (DiffEntry ent : entries) {
+            if (ent.getChangeType() != ChangeType.ADD 
+                    || ent.getNewMode() == FileMode.GITLINK) {
+                continue;
+            }
+            List<DiffEntry> l = deleted.get(ent.getNewId());
+            if (l == null || l.isEmpty()) {
+                continue;
+            }
+            DiffEntry del = l.remove(l.size() - 1);
+            copies.add(copyEntry(del.getOldPath(), ent.getNewPath(), 
+                    commit, gitrev, true));
+            matched.add(del);
+            matched.add(ent);
+        }
+        
+        for (DiffEntry ent : entries) {
+            if (!matched.contains(ent))
+                rest.add(ent);
+        }
+        return rest;
+    }
+    
+    private static boolean hasRenameCandidates(List<DiffEntry> entries) {
+        boolean add = false, del = false;
+        for (DiffEntry ent : entries) {
+            if (ent.getChangeType() == ChangeType.ADD)
+                add = true;
+            else if (ent.getChangeType() == ChangeType.DELETE)
+                del = true;
+            if (add && del)
+                return true;
+        }
+        return false;
+    }
+    
+    /*
+     * Content similarity rename detection on entries left over from the
+     * exact pass. Commits with more candidate paths than the rename limit
+     * are skipped by JGit itself; the timeout (in msec, 0 for none) bounds 
+     * the time spent on the rest. On either, the entries are returned as 
+     * plain additions and deletions.
+     */
+    private List<DiffEntry> similarRenames(List<DiffEntry> entries, 
+            RevCommit commit, long timeout) {
+        RenameDetector rd = new RenameDetector(git);
+        rd.setRenameLimit(RENAME_LIMIT);
+        rd.addAll(entries);
+        
+        try {
+            return rd.compute(new RenameBudget(timeout));
+        } catch (RenameBudget.Exceeded e) {
+            warn("Rename detection for commit " + commit.getName() 
+                    + " exceeded " + timeout + "ms, skipping");
+        } catch (IOException e) {
+            warn("Rename detection for commit " + commit.getName() 
+                    + " failed: " + e.getMessage());
+        }
+        return entries;
+    }
+    
+    private void toEvents(List<DiffEntry> entries, RevCommit commit, 
+            GitRevision gitrev, Map<String, PathChangeType> events, 
+            List<CommitCopyEntry> copies) {
+        for (DiffEntry ent : entries) {
+            String path = null; 
+            PathChangeType pct = null;
+            
             switch (ent.getChangeType()) {
             case ADD:
                 path =  ent.getNewPath();
@@ -628,36 +926,92 @@ public class GitAccessor implements SCMAccessor {
                 pct = PathChangeType.MODIFIED;
                 break;
             case COPY:
-              //Paths in Alitheia Core are not relative to root
-                cce = new CommitCopyEntry(
-                        "/" + ent.getOldPath(), 
-                        newRevision(commit.getParent(0).getId().name()), 
-                        "/" + ent.getNewPath(), 
-                        gitrev);
-                isCopy = true;
-                break;
+                copies.add(copyEntry(ent.getOldPath(), ent.getNewPath(), 
+                        commit, gitrev, false));
+                continue;
             case RENAME:
-                cce = new CommitCopyEntry(
-                        "/" + ent.getOldPath(), 
-                        newRevision(commit.getParent(0).getId().name()), 
-                        "/" + ent.getNewPath(), 
-                        gitrev);
-                cce.setMove();
-                isCopy = true;
-                break;
+                copies.add(copyEntry(ent.getOldPath(), ent.getNewPath(), 
+                        commit, gitrev, true));
+                continue;
             }
-            if (!isCopy)
-              //Paths in Alitheia Core are not relative to root 
-                events.put("/" + path, pct); 
-            else 
-                copies.add(cce);
+            //Paths in Alitheia Core are not relative to root 
+            events.put("/" + path, pct); 
         }
-
-        return gitrev;
+    }
+    
+    private CommitCopyEntry copyEntry(String from, String to, 
+            RevCommit commit, GitRevision gitrev, boolean move) {
+        //Paths in Alitheia Core are not relative to root
+        CommitCopyEntry cce = new CommitCopyEntry("/" + from, 
+                newRevision(commit.getParent(0).getId().name()), 
+                "/" + to, gitrev);
+        if (move)
+            cce.setMove();
+        return cce;
+    }
+    
+    /*
+     * Progress monitor that aborts rename detection once its time budget
+     * is spent. JGit reports progress for each compared pair of files.
+     */
+    private static class RenameBudget implements ProgressMonitor {
+        
+        static class Exceeded extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+        }
+        
+        private final long deadline;
+        
+        RenameBudget(long timeout) {
+            deadline = (timeout <= 0) ? Long.MAX_VALUE : 
+                System.currentTimeMillis() + timeout;
+        }
+        
+        public void start(int totalTasks) {}
+        public void beginTask(String title, int totalWork) {}
+        public void endTask() {}
+        
+        public void update(int completed) {
+            if (System.currentTimeMillis() > deadline)
+                throw new Exceeded();
+        }
+        
+        public boolean isCancelled() {
+            return System.currentTimeMillis() > deadline;
+        }
+    }
+    
+    /*
+     * The current thread's object reader for this repository. Readers
+     * survive release(), which only drops the pinned pack window, so the
+     * walks below can release them as usual.
+     */
+    private ObjectReader reader() {
+        ObjectReader r = readers.get();
+        if (r == null) {
+            r = git.newObjectReader();
+            readers.set(r);
+        }
+        return r;
+    }
+    
+    private RevWalk newRevWalk() {
+        return new RevWalk(reader());
+    }
+    
+    /*
+     * A cheap fingerprint of the on disk tag references: loose tags live
+     * in refs/tags, packed ones in packed-refs.
+     */
+    private long refsStamp() {
+        File packed = new File(git.getDirectory(), "packed-refs");
+        File loose = new File(git.getDirectory(), Constants.R_TAGS);
+        return (packed.lastModified() ^ (packed.length() << 32)) 
+            + 31 * loose.lastModified();
     }
     
     private RevCommit resolveGitRev(String rev) {
-        RevWalk rw = new RevWalk(git);
+        RevWalk rw = newRevWalk();
 
         try {
             ObjectId obj = git.resolve(rev);
@@ -0,0 +1,122 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.updater.git;
+
+import java.util.List;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.plugins.tds.git.GitAccessor;
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.ProjectFile;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.tds.CommitCopyEntry;
+import eu.sqooss.service.util.FileUtils;
+
+/**
+ * Runs the content similarity rename detection that the Git accessor 
+ * deferred during import and links the files it finds to their origin,
+ * by setting {@link ProjectFile#setCopyFrom(ProjectFile)} on the file 
+ * versions that were imported as plain additions.
+ */
+public class GitRenameJob extends Job {
+
+    private StoredProject project;
+    private GitAccessor git;
+    private List<String> revisions;
+    private Logger log;
+    private DBService dbs;
+    
+    public GitRenameJob(StoredProject sp, GitAccessor git, 
+            List<String> revisions, Logger log) {
+        this.project = sp;
+        this.git = git;
+        this.revisions = revisions;
+        this.log = log;
+        this.dbs = AlitheiaCore.getInstance().getDBService();
+    }
+    
+    @Override
+    public long priority() {
+        return 0;
+    }
+
+    @Override
+    protected void run() throws Exception {
+        int linked = 0;
+        
+        for (String rev : revisions) {
+            List<CommitCopyEntry> moves = git.detectRenames(rev);
+            if (moves == null || moves.isEmpty())
+                continue;
+            
+            dbs.startDBSession();
+            for (CommitCopyEntry cce : moves) {
+                ProjectFile to = ProjectFile.findFile(project.getId(), 
+                        FileUtils.basename(cce.toPath()), 
+                        FileUtils.dirname(cce.toPath()), rev);
+                if (to == null || to.getCopyFrom() != null)
+                    continue;
+                
+                ProjectFile from = ProjectFile.findFile(project.getId(), 
+                        FileUtils.basename(cce.fromPath()), 
+                        FileUtils.dirname(cce.fromPath()), 
+                        cce.fromRev().getUniqueId());
+                if (from == null)
+                    continue;
+                
+                to.setCopyFrom(from);
+                linked++;
+            }
+            
+            if (!dbs.commitDBSession()) {
+                log.warn("GitRenameJob:" + project.getName() 
+                        + ": Cannot store renames for revision " + rev);
+                return;
+            }
+        }
+        
+        log.info("GitRenameJob:" + project.getName() + ": Linked " + linked 
+                + " renamed files in " + revisions.size() + " revisions");
+    }
+    
+    @Override
+    public String toString() {
+        return "GitRenameJob - Project:{" + project + "}, " 
+            + revisions.size() + " revisions";
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -53,6 +53,7 @@ import eu.sqooss.service.db.ProjectVersionParent;
 import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.db.Tag;
 import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.scheduler.SchedulerException;
 import eu.sqooss.service.tds.AccessorException;
 import eu.sqooss.service.tds.CommitCopyEntry;
 import eu.sqooss.service.tds.CommitLog;
@@ -216,6 +217,18 @@ public class GitUpdater implements MetadataUpdater {
             
             numRevisions++;
         }
+        
+        List<String> deferred = git.takeDeferredRenames();
+        if (!deferred.isEmpty()) {
+            info("Scheduling rename detection for " + deferred.size() 
+                    + " revisions");
+            try {
+                AlitheiaCore.getInstance().getScheduler().enqueue(
+                        new GitRenameJob(project, git, deferred, log));
+            } catch (SchedulerException e) {
+                warn("Cannot schedule rename detection: " + e.getMessage());
+            }
+        }
     }
 
     private ProjectVersion processOneRevision(Revision entry) 
@@ -239,7 +252,7 @@ public class GitUpdater implements MetadataUpdater {
         dbs.addRecord(pv);
         
         //Tags
-        String tag = git.allTags().get(entry.getUniqueId());
+        String tag = git.getTag(entry.getUniqueId());
         if (tag != null) {
             Tag t = new Tag(pv);
             t.setName(tag);
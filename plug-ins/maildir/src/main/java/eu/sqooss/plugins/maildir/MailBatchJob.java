@@ -0,0 +1,271 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.maildir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.mail.internet.InternetAddress;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.Developer;
+import eu.sqooss.service.db.MailMessage;
+import eu.sqooss.service.db.MailingList;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.tds.MailAccessor;
+
+/**
+ * Imports a batch of new messages of a mailing list in a single 
+ * transaction. Only the message headers are read, using 
+ * {@link MailHeaders}. Messages whose message-id is in the set of known
+ * ids are skipped; the set is shared by all batches of a list, so that 
+ * batches can run in parallel.
+ */
+public class MailBatchJob extends Job {
+
+    private Logger logger;
+    private MailingList ml;
+    private StoredProject project;
+    private List<String> fileNames;
+    private Set<String> known;
+    private float progress = 0;
+    
+    /**
+     * @param ml The mailing list the messages belong to
+     * @param fileNames The files of the new messages to import
+     * @param known Message-ids already in the database for this list. Must
+     *  be safe for concurrent use; imported ids are added to it.
+     * @param l Logger
+     */
+    public MailBatchJob(MailingList ml, List<String> fileNames, 
+            Set<String> known, Logger l) {
+        this.ml = ml;
+        this.fileNames = fileNames;
+        this.known = known;
+        this.logger = l;
+    }
+    
+    @Override
+    public long priority() {
+        return 3;
+    }
+
+    @Override
+    protected void run() throws Exception {
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        dbs.startDBSession();
+
+        ml = dbs.attachObjectToDBSession(ml);
+        project = ml.getStoredProject();
+        String listId = ml.getListId();
+        
+        MailAccessor mailAccessor = AlitheiaCore.getInstance().getTDSService()
+            .getAccessor(project.getId()).getMailAccessor();
+        
+        List<MailMessage> messages = new ArrayList<MailMessage>(fileNames.size());
+        List<String> done = new ArrayList<String>(fileNames.size());
+        Map<String, Developer> senders = new HashMap<String, Developer>();
+        int processed = 0;
+        
+        for (String fileName : fileNames) {
+            progress = (float) ((double)processed++ / (double)fileNames.size()) * 100;
+            String msg = String.format("Message <%s> in list <%s> ", fileName,
+                    listId);
+            
+            MailHeaders h = null;
+            InputStream in = null;
+            try {
+                in = mailAccessor.getMessageStream(listId, fileName);
+                h = MailHeaders.parse(in);
+            } catch (IOException e) {
+                warn(msg + ": cannot read: " + e.getMessage());
+                continue;
+            } finally {
+                if (in != null)
+                    try { in.close(); } catch (IOException ignored) {}
+            }
+            
+            String msgId = h.getMessageId();
+            if (msgId != null && known.contains(msgId)) {
+                debug(msg + " is already imported as " + msgId);
+                done.add(fileName);
+                continue;
+            }
+            
+            InternetAddress from = h.getFrom();
+            if (from == null) {
+                warn(msg + "  has no sender. Ignoring");
+                continue;
+            }
+            
+            Date sentDate = h.getDate();
+            if (sentDate == null) {
+                warn(msg + " does not contain a parsable date, ignoring");
+                done.add(fileName);
+                continue;
+            }
+            
+            Developer sender = getSender(from, senders, msg);
+            if (sender == null) {
+                done.add(fileName);
+                continue;
+            }
+            
+            MailMessage mmsg = new MailMessage();
+            mmsg.setList(ml);
+            mmsg.setMessageId(msgId);
+            mmsg.setSender(sender);
+            mmsg.setSendDate(sentDate);
+            
+            /* 512 characters should be enough subject for everybody */
+            String subject = h.getSubject();
+            if (subject != null && subject.length() > 512)
+                subject = subject.substring(0, 511);
+            
+            mmsg.setSubject(subject);
+            mmsg.setFilename(fileName);
+            
+            /* Claim the id only for messages that are stored, another 
+             * batch of the same list may have got there first */
+            if (msgId != null && !known.add(msgId)) {
+                debug(msg + " is already imported as " + msgId);
+                done.add(fileName);
+                continue;
+            }
+            messages.add(mmsg);
+            done.add(fileName);
+        }
+        
+        if (!dbs.addRecords(messages) || !dbs.commitDBSession()) {
+            err("Failed to import " + messages.size() + " messages in list " 
+                    + listId);
+            for (MailMessage mm : messages)
+                known.remove(mm.getMessageId());
+            return;
+        }
+        
+        for (String fileName : done) {
+            try {
+                if (!mailAccessor.markMessageAsSeen(listId, fileName))
+                    warn("Failed to mark message <" + fileName + "> as seen");
+            } catch (FileNotFoundException e) {
+                warn("Failed to mark message <" + fileName + "> as seen: " 
+                        + e.getMessage());
+            }
+        }
+        debug("Imported " + messages.size() + " of " + fileNames.size() 
+                + " messages in list " + listId);
+    }
+    
+    /*
+     * Find or create the sender of a message, first by name and then by 
+     * email. Lookups are cached for the batch, as a few people send most 
+     * of the mail on a list.
+     */
+    private Developer getSender(InternetAddress from, 
+            Map<String, Developer> senders, String msg) {
+        String email = from.getAddress();
+        String devName = from.getPersonal();
+        
+        // Purify the developer's name
+        if (devName != null && devName.contains("\"")) {
+            devName = devName.replace("\"", "");
+        }
+        
+        String key = email + "\n" + devName;
+        if (senders.containsKey(key))
+            return senders.get(key);
+        
+        Developer sender = null;
+        
+        // Try to find developer from name first
+        if (devName != null) {
+            sender = Developer.getDeveloperByName(devName, project, false);
+        }
+        
+        if (sender == null) {
+            // Dev not found by name, try email
+            if (email == null || !email.contains("@")) {
+                // Email cannot be used, drop this mail
+                warn(msg + ": Not an email address: " + email);
+            } else {
+                sender = Developer.getDeveloperByEmail(email, project, true);
+                
+                // Found dev by email, but not by name
+                // Add a name to the developer, if we have one
+                if (sender != null && devName != null)
+                    sender.setName(devName);
+            }
+        } else {
+            // Add a new email alias, if not exists
+            sender.addAlias(email);
+        }
+        
+        senders.put(key, sender);
+        return sender;
+    }
+    
+    /** Convenience method to write warning messages per project */
+    protected void warn(String message) {
+        logger.warn(project.getName() + ":" + message);
+    }
+    
+    /** Convenience method to write error messages per project */
+    protected void err(String message) {
+        logger.error(project.getName() + ":" + message);
+    }
+    
+    /** Convenience method to write debug messages per project */
+    protected void debug(String message) {
+        logger.debug(project.getName() + ":" + message);
+    }
+    
+    @Override
+    public String toString() {
+        return "MailBatchJob - List:{" + ml.getListId() + "}, " 
+            + fileNames.size() + " messages, " + progress + "%";
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
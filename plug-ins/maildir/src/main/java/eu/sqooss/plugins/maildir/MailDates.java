@@ -0,0 +1,98 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.maildir;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import javax.mail.internet.MailDateFormat;
+
+/**
+ * Parser for the dates found in mail headers. Parsers are created once per
+ * thread and reused, as date formats are expensive to build and are not 
+ * thread safe.
+ */
+public final class MailDates {
+
+    /*
+     * Formats tried after the RFC 822 one, as various Microsoft MUAs, Emacs,
+     * Evolution and others don't feel like respecting the standards (namely
+     * rfc822 and its extension draft-ietf-drums-msg-fmt-08)
+     */
+    private static final String[] dateFmts = {
+        "EEE MMM d HH:mm:ss yyyy",  //Fri Dec  5 12:50:00 2003
+        "d MMM yyyy HH:mm:ss Z",    //28 Nov 2000 18:26:25 -0500
+        "MM/dd/yy KK:mm a",         //9/15/00 12:40 PM
+        "d MMM yyyy HH:mm"          //16 March 1998 20:10
+    };
+    
+    private static final ThreadLocal<DateFormat[]> parsers = 
+        new ThreadLocal<DateFormat[]>() {
+        @Override
+        protected DateFormat[] initialValue() {
+            DateFormat[] df = new DateFormat[dateFmts.length + 1];
+            df[0] = new MailDateFormat();
+            for (int i = 0; i < dateFmts.length; i++)
+                df[i + 1] = new SimpleDateFormat(dateFmts[i], Locale.US);
+            return df;
+        }
+    };
+    
+    private MailDates() {}
+    
+    /**
+     * Parse the value of a Date: header.
+     * 
+     * @return The parsed date or null if none of the known formats match 
+     */
+    public static Date parse(String date) {
+        if (date == null)
+            return null;
+        
+        date = date.trim();
+        for (DateFormat df : parsers.get()) {
+            try {
+                return df.parse(date);
+            } catch (ParseException e) {
+                continue;
+            }
+        }
+        return null;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -33,18 +33,21 @@
 
 package eu.sqooss.plugins.maildir;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.mail.MessagingException;
@@ -93,15 +96,10 @@ public class MailDirAccessor implements MailAccessor {
     private Logger logger = null;
 
     /**
-     * Ten. The number of header lines to scan while looking
-     * for a Date: line in mail messages.
+     * Date indexes of the mailing lists, loaded on first use.
      */
-    private static final int TEN_LINES = 10;
-
-    /**
-     * Five. The length of the string 'Date: '.
-     */
-    private static final int FIVE_CHARS = 5;
+    private Map<String, MailDirIndex> indexes = 
+        new HashMap<String, MailDirIndex>();
     
     private static List<URI> supportedSchemes;
     
@@ -200,39 +198,6 @@ public class MailDirAccessor implements MailAccessor {
             "Message <" + listDir + ":" + messageId + "> does not exist.");
     }
 
-    /**
-     * Read the first @p limit lines of maildir file @p msgFile looking
-     * for a line that starts with @p hdr (ie. look for the header
-     * near the beginning of the message). Blank lines, which signal
-     * the end of headers, cause the scan to end regardless of the
-     * value of @p limit.
-     *
-     * @param msgFile   the file to read
-     * @param hdr       the header (string) to scan for
-     * @param limit     maximum number of lines scanned
-     *
-     * @return  entire header line with the requested header or
-     *          null if header is not found
-     *
-     * @throws IOException on error reading file
-     */
-    private String scanForHeader(final File msgFile, final String hdr,
-        final int limit)
-        throws IOException {
-        BufferedReader in = new BufferedReader(new FileReader(msgFile));
-        for (int i = 0; i < limit; ++i) {
-            String line = in.readLine();
-            if (line.startsWith(hdr)) {
-                return line;
-            }
-            // Blank line signals end of headers
-            if (line.length() < 1) {
-                break;
-            }
-        }
-        return null;
-    }
-
     // Interface methods
     /** {@inheritDoc} */
     public final String getRawMessage(final String listId,
@@ -281,6 +246,22 @@ public class MailDirAccessor implements MailAccessor {
 
     	return mm;
     }
+    
+    /** {@inheritDoc} */
+    public InputStream getMessageStream(String listId, String id)
+        throws IllegalArgumentException,
+               FileNotFoundException {
+        if (listId == null) {
+            throw new IllegalArgumentException("Bad listId");
+        }
+        if (id == null ) {
+            throw new IllegalArgumentException("Bad message Id");
+        }
+        
+        File messageFile = getMessageFile(getFolder(listId), id);
+        return new BufferedInputStream(new FileInputStream(messageFile));
+    }
+    
     /** {@inheritDoc} */
     public final List < String > getMessages(final String listId)
         throws FileNotFoundException {
@@ -322,39 +303,36 @@ public class MailDirAccessor implements MailAccessor {
     /** {@inheritDoc} */
     public final List<String> getMessages(final String listId,
         final Date d1, final Date d2)
+        throws FileNotFoundException {
+        if (d1 == null || d2 == null) {
+            throw new IllegalArgumentException("Null date");
+        }
+        
+        MailDirIndex idx = getIndex(listId);
+        try {
+            idx.sync();
+        } catch (IOException e) {
+            // The in-memory index is current, it just was not saved
+            logger.warn("Cannot save index for list <" + listId + ">: " 
+                    + e.getMessage());
+        }
+        return idx.getMessages(d1, d2);
+    }
+    
+    /**
+     * Get the date index for a mailing list, loading it on first use.
+     */
+    private MailDirIndex getIndex(String listId) 
         throws FileNotFoundException {
         File listDir = getFolder(listId);
-        List < String > allMessages = getMessages(listId);
-        List < String > goodMessages = new LinkedList < String >();
-        DateFormat dateParser = DateFormat.getInstance();
-        for (String m : allMessages) {
-            String dateHdr = null;
-            try {
-                File msgFile = getMessageFile(listDir, m);
-                dateHdr = scanForHeader(msgFile, "Date:", TEN_LINES);
-                if (dateHdr != null) {
-                    Date d = dateParser.parse(dateHdr.substring(FIVE_CHARS));
-                    // Check if it's in the interval [d1,d2)
-                    if (!(d.before(d1) || !d.before(d2))) {
-                        goodMessages.add(m);
-                    }
-                }
-            } catch (FileNotFoundException e) {
-                // Message disappeared out from under us, ignore
-                // and assume message is bad
-                logger.info("Message <" + m + "> vanished.");
-            } catch (IOException e) {
-                // scanForHeader failed; ignore and assume message is bad
-                logger.info("Could not read message <" + m + ">");
-            } catch (java.text.ParseException e) {
-                // Bad date in maildir message, assume message is bad
-                if (logger != null) {
-                    logger.info("Failed to parse <"
-                        + dateHdr.substring(FIVE_CHARS) + ">");
-                }
+        synchronized (indexes) {
+            MailDirIndex idx = indexes.get(listId);
+            if (idx == null) {
+                idx = new MailDirIndex(listDir);
+                indexes.put(listId, idx);
             }
+            return idx;
         }
-        return goodMessages;
     }
     
     /** {@inheritDoc} */
@@ -388,7 +366,17 @@ public class MailDirAccessor implements MailAccessor {
             throw new FileNotFoundException("Target filename " + targetMsgFile + " already exists.");
         }
         
-        return msgFile.renameTo(targetMsgFile);
+        if (!msgFile.renameTo(targetMsgFile))
+            return false;
+        
+        /* Keep a loaded index current; unloaded ones catch up on sync */
+        MailDirIndex idx;
+        synchronized (indexes) {
+            idx = indexes.get(listId);
+        }
+        if (idx != null)
+            idx.add(targetMsgFile);
+        return true;
     }
     
     /** {@inheritDoc}
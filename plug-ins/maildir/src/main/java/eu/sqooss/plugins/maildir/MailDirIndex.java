@@ -0,0 +1,302 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.maildir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On disk index of the messages in a maildir folder, sorted by the date 
+ * in their headers. The index lives in the folder itself and is brought up
+ * to date from the <code>cur</code> and <code>new</code> directory 
+ * listings; only messages that are not in the index yet are opened. 
+ * Listings are skipped altogether while the directories are unmodified.
+ */
+class MailDirIndex {
+    
+    static final String INDEX_FILE = ".sqooss-index";
+    
+    private static final int MAGIC = 0x4d444958; // MDIX
+    private static final int VERSION = 1;
+    
+    /* Timestamp for messages without a parsable date; sorts before all */
+    private static final long NO_DATE = Long.MIN_VALUE;
+    
+    /** An indexed message */
+    static class Entry implements Comparable<Entry> {
+        final long timestamp;
+        final String fileName;
+        final String messageId;
+        final long size;
+        
+        Entry(long timestamp, String fileName, String messageId, long size) {
+            this.timestamp = timestamp;
+            this.fileName = fileName;
+            this.messageId = messageId;
+            this.size = size;
+        }
+
+        public int compareTo(Entry o) {
+            if (timestamp != o.timestamp)
+                return timestamp < o.timestamp ? -1 : 1;
+            return fileName.compareTo(o.fileName);
+        }
+    }
+    
+    private final File listDir;
+    private final File file;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Map<String, Entry> byName = new HashMap<String, Entry>();
+    
+    /* Modification times of cur/ and new/ when last listed */
+    private long curStamp, newStamp, synced;
+    private boolean dirty;
+    
+    MailDirIndex(File listDir) {
+        this.listDir = listDir;
+        this.file = new File(listDir, INDEX_FILE);
+        try {
+            load();
+        } catch (IOException e) {
+            clear(); // Rebuilt on the next sync
+        }
+    }
+    
+    /**
+     * Bring the index up to date with the folder and save it if it changed.
+     */
+    synchronized void sync() throws IOException {
+        File cur = new File(listDir, "cur");
+        File nw = new File(listDir, "new");
+        long c = cur.lastModified(), n = nw.lastModified();
+        
+        /* 
+         * File systems with coarse timestamps can miss a change made in 
+         * the same second as the last listing, so recent stamps are not
+         * trusted.
+         */
+        if (c == curStamp && n == newStamp 
+                && Math.max(c, n) < synced - 1000)
+            return;
+        
+        long now = System.currentTimeMillis();
+        Set<String> present = new HashSet<String>();
+        list(cur, present);
+        list(nw, present);
+        
+        for (Iterator<Entry> i = entries.iterator(); i.hasNext(); ) {
+            Entry e = i.next();
+            if (!present.contains(e.fileName)) {
+                i.remove();
+                byName.remove(e.fileName);
+                dirty = true;
+            }
+        }
+        
+        List<Entry> added = new ArrayList<Entry>();
+        for (String name : present) {
+            if (byName.containsKey(name))
+                continue;
+            File f = new File(cur, name);
+            if (!f.exists())
+                f = new File(nw, name);
+            Entry e = read(f);
+            if (e != null) {
+                added.add(e);
+                byName.put(name, e);
+            }
+        }
+        
+        if (!added.isEmpty()) {
+            entries.addAll(added);
+            Collections.sort(entries);
+            dirty = true;
+        }
+        
+        curStamp = c;
+        newStamp = n;
+        synced = now;
+        if (dirty)
+            save();
+    }
+    
+    /**
+     * Add a single message to the index, if it is not indexed already. 
+     * The change is saved by the next {@link #sync()}.
+     */
+    synchronized void add(File msgFile) {
+        if (byName.containsKey(msgFile.getName()))
+            return;
+        
+        Entry e = read(msgFile);
+        if (e == null)
+            return;
+        
+        int pos = Collections.binarySearch(entries, e);
+        entries.add(pos < 0 ? -pos - 1 : pos, e);
+        byName.put(e.fileName, e);
+        dirty = true;
+    }
+    
+    /**
+     * File names of the messages whose date is in [d1,d2).
+     */
+    synchronized List<String> getMessages(Date d1, Date d2) {
+        int from = lowerBound(d1.getTime());
+        long end = d2.getTime();
+        
+        List<String> result = new ArrayList<String>();
+        for (int i = from; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if (e.timestamp >= end)
+                break;
+            result.add(e.fileName);
+        }
+        return result;
+    }
+    
+    /* First position whose timestamp is >= ts */
+    private int lowerBound(long ts) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).timestamp < ts)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+    
+    private static void list(File dir, Set<String> names) {
+        String[] l = dir.list();
+        if (l == null)
+            return;
+        for (String s : l)
+            names.add(s);
+    }
+    
+    private static Entry read(File f) {
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(f));
+            MailHeaders h = MailHeaders.parse(in);
+            Date d = h.getDate();
+            String id = h.getMessageId();
+            return new Entry(d == null ? NO_DATE : d.getTime(), f.getName(), 
+                    id == null ? "" : id, f.length());
+        } catch (IOException e) {
+            return null; // Vanished or unreadable, retried on next sync
+        } finally {
+            if (in != null)
+                try { in.close(); } catch (IOException ignored) {}
+        }
+    }
+    
+    private void clear() {
+        entries.clear();
+        byName.clear();
+        curStamp = newStamp = synced = 0;
+    }
+    
+    private void load() throws IOException {
+        if (!file.exists())
+            return;
+        
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a maildir index: " + file);
+            curStamp = in.readLong();
+            newStamp = in.readLong();
+            synced = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Entry e = new Entry(in.readLong(), in.readUTF(), in.readUTF(), 
+                        in.readLong());
+                entries.add(e);
+                byName.put(e.fileName, e);
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    private void save() throws IOException {
+        File tmp = new File(listDir, INDEX_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(curStamp);
+            out.writeLong(newStamp);
+            out.writeLong(synced);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeLong(e.timestamp);
+                out.writeUTF(e.fileName);
+                out.writeUTF(e.messageId);
+                out.writeLong(e.size);
+            }
+        } finally {
+            out.close();
+        }
+        
+        if (file.exists() && !file.delete())
+            throw new IOException("Cannot replace " + file);
+        if (!tmp.renameTo(file))
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        dirty = false;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -41,6 +41,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.mail.MessagingException;
 
@@ -75,6 +76,14 @@ public class MailDirUpdater implements MetadataUpdater {
 	private long processed = 0L;
 	private MailingList ml;
 	
+	/** Number of messages imported per transaction by the bulk path */
+	public static final String BATCH_SIZE_PROP = "eu.sqooss.maildir.batchsize";
+	
+	private static final int BATCH_SIZE = Integer.getInteger(BATCH_SIZE_PROP, 2000);
+	
+	/* Lists with fewer new messages are imported one job per message */
+	private static final int BULK_MIN = 100;
+	
     public MailDirUpdater() {}
     
     @Override
@@ -187,6 +196,21 @@ public class MailDirUpdater implements MetadataUpdater {
 
         Set<Job> jobs = new HashSet<Job>();
         debug("Processing list:" + ml.getListId() + " " + fileNames.size() + " new emails");
+        
+        if (fileNames.size() >= BULK_MIN) {
+            /* Bulk path: header only imports, a transaction per batch */
+            Set<String> known = getMessageIds(ml);
+            List<String> all = new ArrayList<String>(fileNames);
+            for (int i = 0; i < all.size(); i += BATCH_SIZE) {
+                List<String> batch = new ArrayList<String>(
+                        all.subList(i, Math.min(i + BATCH_SIZE, all.size())));
+                jobs.add(new MailBatchJob(ml, batch, known, logger));
+            }
+            processed += fileNames.size();
+            progress = (float) ((double)processed / (double)total) * 100;
+            fileNames = Collections.emptyList();
+        }
+        
         for (String fileName : fileNames) {
             
             MailMessageJob job = new MailMessageJob(ml, fileName, logger);
@@ -204,6 +228,24 @@ public class MailDirUpdater implements MetadataUpdater {
         }
     }
     
+    /*
+     * Message-ids of the messages already stored for a list, in a set 
+     * that the batch jobs can share.
+     */
+    private Set<String> getMessageIds(MailingList l) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("ml", l);
+        List<String> ids = (List<String>) dbs.doHQL("select mm.messageId " +
+        		"from MailMessage mm where mm.list = :ml", params);
+        
+        Set<String> known = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>(ids.size() * 2));
+        for (String id : ids)
+            if (id != null)
+                known.add(id);
+        return known;
+    }
+    
     /** Convenience method to write warning messages per project */
     protected void warn(String message) {
         logger.warn(project.getName() + ":" + message);
@@ -0,0 +1,174 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.maildir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeUtility;
+
+/**
+ * Minimal RFC 5322 header reader. It reads a message up to the blank line
+ * that ends the header block, unfolds continuation lines and keeps the 
+ * first occurrence of each field. The body is never read or parsed, which
+ * makes this much cheaper than a full MIME parse when only the envelope 
+ * fields of a message are needed.
+ */
+public class MailHeaders {
+
+    /* Stop reading headers after this many bytes */
+    private static final int MAX_HEADER_BYTES = 256 * 1024;
+    
+    private final Map<String, String> fields = new HashMap<String, String>();
+    
+    private MailHeaders() {}
+    
+    /**
+     * Read the header block of a message. The stream is not closed.
+     */
+    public static MailHeaders parse(InputStream in) throws IOException {
+        MailHeaders h = new MailHeaders();
+        StringBuilder field = new StringBuilder(256);
+        StringBuilder line = new StringBuilder(256);
+        int read = 0;
+        
+        while (read < MAX_HEADER_BYTES) {
+            line.setLength(0);
+            int c;
+            while ((c = in.read()) != -1 && c != '\n' 
+                    && read < MAX_HEADER_BYTES) {
+                if (c != '\r')
+                    line.append((char) c); //Headers are 7-bit, bytes as latin-1
+                read++;
+            }
+            
+            if (line.length() == 0) // End of headers or of the stream
+                break;
+            
+            char first = line.charAt(0);
+            if (first == ' ' || first == '\t') {
+                // Continuation of the previous field
+                if (field.length() > 0)
+                    field.append(line);
+            } else {
+                h.add(field);
+                field.setLength(0);
+                field.append(line);
+            }
+            
+            if (c == -1)
+                break;
+        }
+        h.add(field);
+        return h;
+    }
+    
+    private void add(StringBuilder field) {
+        int colon = field.indexOf(":");
+        if (colon <= 0) // mbox "From " lines and garbage
+            return;
+        
+        String name = field.substring(0, colon).trim().toLowerCase();
+        if (!fields.containsKey(name))
+            fields.put(name, field.substring(colon + 1).trim());
+    }
+    
+    /**
+     * Get the raw, unfolded value of a header field.
+     * 
+     * @param name The field name, case insensitive
+     * @return The value of the first field with this name or null 
+     */
+    public String get(String name) {
+        return fields.get(name.toLowerCase());
+    }
+    
+    public String getMessageId() {
+        return get("Message-ID");
+    }
+    
+    /**
+     * The subject, with RFC 2047 encoded words decoded.
+     */
+    public String getSubject() {
+        return decode(get("Subject"));
+    }
+    
+    /**
+     * The parsed Date: field, or null if missing or unparsable.
+     */
+    public Date getDate() {
+        return MailDates.parse(get("Date"));
+    }
+    
+    /**
+     * The first address in From:, or Sender: if From: is missing.
+     * 
+     * @return The address or null if none can be parsed
+     */
+    public InternetAddress getFrom() {
+        String from = get("From");
+        if (from == null)
+            from = get("Sender");
+        if (from == null)
+            return null;
+        
+        try {
+            InternetAddress[] addr = InternetAddress.parseHeader(from, false);
+            if (addr.length == 0)
+                return null;
+            return addr[0];
+        } catch (AddressException e) {
+            return null;
+        }
+    }
+    
+    private static String decode(String s) {
+        if (s == null || s.indexOf("=?") == -1)
+            return s;
+        try {
+            return MimeUtility.decodeText(s);
+        } catch (UnsupportedEncodingException e) {
+            return s;
+        }
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -30,9 +30,6 @@
 
 package eu.sqooss.plugins.maildir;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import javax.mail.Address;
@@ -53,13 +50,6 @@ import eu.sqooss.service.tds.ProjectAccessor;
 
 public class MailMessageJob extends Job{
 
-    private static String[] dateFmts = {
-        "EEE MMM d HH:mm:ss yyyy",  //Fri Dec  5 12:50:00 2003
-        "d MMM yyyy HH:mm:ss Z",    //28 Nov 2000 18:26:25 -0500
-        "MM/dd/yy KK:mm a",         //9/15/00 12:40 PM
-        "d MMM yyyy HH:mm"          //16 March 1998 20:10
-    };
-    
     Logger logger;
     String fileName;
     MailingList ml;
@@ -161,7 +151,7 @@ public class MailMessageJob extends Job{
             return;
         }
 
-        MailMessage mmsg = MailMessage.getMessageById(fileName);
+        MailMessage mmsg = MailMessage.getMessageById(mm.getMessageID());
         if (mmsg == null) {
             // if the message does not exist in the database, then
             // write a new one
@@ -217,31 +207,9 @@ public class MailMessageJob extends Job{
         if (d != null) // Date is standards compliant
             return d;
         else
-            return getDate(date);
+            return MailDates.parse(date);
     }
 
-    /*
-     * Try hard to parse dates by hand as various Microsoft MUAs, Emacs,
-     * Evolution and others don't feel like respecting the standards (namely
-     * rfc822 and its extension draft-ietf-drums-msg-fmt-08)
-     */
-    private Date getDate(String date) {
-        if (date == null)
-            return null;
-
-        Date d = null;
-        for (String fmt : dateFmts) {
-            try {
-                DateFormat df = new SimpleDateFormat(fmt);
-                d = df.parse(date.trim());
-            } catch (ParseException e) {
-                continue;
-            }
-            break;
-        }
-        return d;
-    }
-    
     /** Convenience method to write warning messages per project */
     protected void warn(String message) {
         logger.warn(project.getName() + ":" + message);
@@ -30,12 +30,19 @@
 
 package eu.sqooss.plugins.mailthreadresolver;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.mail.internet.MimeMessage;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.db.DBService;
@@ -69,6 +76,11 @@ public class MailThreadResolver implements MetadataUpdater {
     private DBService dbs;
     private MailAccessor mailAccessor;
     private float progress;
+    
+    /* Number of threaded messages to commit at once */
+    private static final int COMMIT_INTERVAL = 500;
+    
+    private static final Pattern messageId = Pattern.compile("<[^<>\\s]+>");
        
     public MailThreadResolver() {}
 
@@ -109,7 +121,6 @@ public class MailThreadResolver implements MetadataUpdater {
         int newThreads = 0, updatedThreads = 0, processedEmails = 0;
         MailMessage lastEmail = null;
         lastEmail = ml.getLatestEmail();
-        HashMap<String, MimeMessage> processed = new HashMap<String, MimeMessage>();
         
         if (lastEmail == null) {
             info("No mail messages for list " + ml);
@@ -118,7 +129,7 @@ public class MailThreadResolver implements MetadataUpdater {
         }
         
         String paramMl = "paramMl";
-        String query = " select mm.id " +
+        String query = " select mm.id, mm.messageId, mm.fileName " +
             " from  MailingList ml, MailMessage mm" +
             " where mm.list = ml " +
             " and ml = :" + paramMl +
@@ -128,7 +139,7 @@ public class MailThreadResolver implements MetadataUpdater {
         Map<String,Object> params = new HashMap<String, Object>(1);
         params.put(paramMl, ml);
         
-        List<Long> mmList = (List<Long>) dbs.doHQL(query, params);
+        List<Object[]> mmList = (List<Object[]>) dbs.doHQL(query, params);
         
         if (mmList.isEmpty()) {
             info("No unprocessed mail messages found for list " + ml);
@@ -136,157 +147,269 @@ public class MailThreadResolver implements MetadataUpdater {
             return;
         }
         
-        for (Long mailId : mmList) {
+        ThreadIndex idx = loadIndex();
+        
+        for (Object[] row : mmList) {
             if (!dbs.isDBSessionActive())
                 dbs.startDBSession();
+            
+            Long mailId = (Long) row[0];
+            String msgId = (String) row[1];
             MailMessage mail = MailMessage.loadDAObyId(mailId, MailMessage.class);
             
             // Message has been already added to thread
             if (mail.getThread() != null)
                 continue;
 
-            MimeMessage mm = mailAccessor.getMimeMessage(ml.getListId(), 
-                    mail.getFilename());
-            
-            processed.put(mail.getFilename(), mm);
-
-            /* Thread identification code. Naive, but works */
-            String[] inReplyTo = mm.getHeader("In-Reply-To");
-            String[] references = mm.getHeader("References");
-            boolean newThread = false, reference = false;
-            String parentId = null;
-
-            if (inReplyTo == null) {
-                if (references == null) {
-                    newThread = true;
-                } else {
-                    // Arbitrarily set first message reference as parent.
-                    // The mime message protocol does not specify any such
-                    // ordering, in fact it does not specify any ordering
-                    // scheme at all.
-                    parentId = references[0];
-                    reference = true;
-                }
-            } else {
-                /*
-                 * In most cases, the first in-reply-to entry corresponds to the
-                 * answered email. If not, the thread is still valid.
-                 */
-                parentId = inReplyTo[0];
-            }
-
-            MailingListThread mlt = null;
-            /* Get the parent mail object */
-            MailMessage parentMail = MailMessage.getMessageById(parentId);
+            List<String> refs = references(headers((String) row[2]));
 
-            if (parentId != null) { 
-                /* Parent-less child, parent might have arrived later */
-                if (parentMail == null || parentMail.getThread() == null) {
-                    newThread = true;
-                } else {
+            /* 
+             * Thread identification, after JWZ: the parent is the nearest 
+             * message named in In-Reply-To or References that we have 
+             * already threaded. 
+             */
+            ThreadIndex.Entry parent = null;
+            for (String ref : refs) {
+                if (ref.equals(msgId)) {
                     /*
-                     * Mails identified as children to a thread only by the
-                     * References header, are placed at the same depth level as
-                     * their parent (Usenet news style).
+                     * Messages whose in-reply-to or references field is
+                     * equal to the messageid field are erroneous according
+                     * to the RFC-822 but nevertheless do appear in mailing
+                     * lists. 
                      */
-                    int depth = parentMail.getDepth();
-                    if (!reference) {
-                        depth = depth + 1;
-                    }
-                    /* Add the processed message as child to the parent's thread */
-                    mail.setDepth(depth);
-                    mail.setParent(parentMail);
-                    mail.setThread(parentMail.getThread());
-                    parentMail.getThread().setLastUpdated(mail.getSendDate());
-                    debug("Updating thread " + parentMail.getThread().getId());
-                    updatedThreads++;
+                    warn("Message " + mail + " references itself");
+                    continue;
                 }
+                parent = idx.get(ref);
+                if (parent != null)
+                    break;
             }
+            
+            /* A copy of a message that has already been threaded */
+            ThreadIndex.Entry copy = (msgId == null) ? null : idx.get(msgId);
 
-            if (newThread) {
-                boolean childExists = false;
-
-                /*
-                 * Check if a child mail has arrived before the processed mail.
-                 */
-                for (String key : processed.keySet()) {
-                    MimeMessage child = processed.get(key);
-                    if ((child.getHeader("In-Reply-To") != null && 
-                            child.getHeader("In-Reply-To")[0].equals(mail.getMessageId()))
-                       || (child.getHeader("References") != null && 
-                            child.getHeader("References")[0].equals(mail.getMessageId()))) {
-                        
-                        /*
-                         * Messages whose in-reply-to or references field is
-                         * equal to the messageid field are erroneous according
-                         * to the RFC-822 but nevertheless do appear in mailing
-                         * lists. Stop processing if we find such a message and
-                         * just create a new thread instead. 
-                         */
-                        if (parentId != null 
-                                && parentId.equals(mail.getMessageId())) {
-                            warn("Message" + mail + " with the same parent and child message ids");
-                            break;
-                        }
-                        
-                        childExists = true;
-
-                        /* Get message whose parent is the discovered child */
-                        MailMessage childMM = MailMessage.getMessageById(child.getMessageID());
-                        
-                        if (childMM == null) {
-                            warn("Supposedly processed child of message "
-                                    + mail + " not found in DB.");
-                            childExists = false;
-                            break;
-                        }
-                        
-                        MailingListThread thr = childMM.getThread();
-
-                        /*
-                         * Set the old thread parent as child of the current
-                         * mail and current email as top level parent of the
-                         * thread 
-                         */
-                        childMM.setParent(mail);
-                        mail.setParent(null);
-                        mail.setDepth(0);
-                        childMM.getThread().setLastUpdated(mail.getSendDate());
-                        debug("Reconstructing thread " + thr.getId());
-
-                        /* New top level email added, increase depth level in children messages */
-                        for (MailMessage msg : thr.getMessages()) {
-                            msg.setDepth(msg.getDepth() + 1);
-                        }
-                        updatedThreads++;
-                    }
-                }
-
-                if (childExists)
-                    continue;
-
+            MailingListThread mlt = null;
+            if (copy != null) {
+                mlt = dbs.findObjectById(MailingListThread.class, 
+                        copy.getThreadId());
+                if (copy.getParentId() != -1)
+                    mail.setParent(dbs.findObjectById(MailMessage.class, 
+                            copy.getParentId()));
+                mail.setDepth(copy.getDepth());
+            } else if (parent != null) {
+                /* Add the processed message as child to the parent's thread */
+                mlt = dbs.findObjectById(MailingListThread.class, 
+                        parent.getThreadId());
+                mail.setParent(dbs.findObjectById(MailMessage.class, 
+                        parent.getMailId()));
+                mail.setDepth(parent.getDepth() + 1);
+                if (mlt.getLastUpdated() == null 
+                        || mlt.getLastUpdated().before(mail.getSendDate()))
+                    mlt.setLastUpdated(mail.getSendDate());
+                debug("Updating thread " + mlt.getId());
+                updatedThreads++;
+            } else {
                 /* Create a new thread */
                 mlt = new MailingListThread(ml, mail.getSendDate());
                 dbs.addRecord(mlt);
-                mail.setThread(mlt);
                 mail.setDepth(0);
                 debug("Adding new thread " + mlt.getId());
                 newThreads++;
+                
+                /* 
+                 * Parent-less child, parent might arrive later. Wait for
+                 * the nearest one only, the rest of the chain is threaded
+                 * through it.
+                 */
+                for (String ref : refs) {
+                    if (!ref.equals(msgId)) {
+                        idx.addWaiting(ref, msgId);
+                        break;
+                    }
+                }
             }
-            if (mail.getThread() == null) 
-                warn("Mail message " + mail + " was not assigned any thread");
+            mail.setThread(mlt);
             
-            dbs.commitDBSession();
-            processedEmails ++;
+            if (msgId != null && copy == null) {
+                ThreadIndex.Entry self = idx.add(msgId, mailId, mlt.getId(), 
+                        parent == null ? -1 : parent.getMailId(), mail.getDepth());
+                
+                /* 
+                 * Replies to this message that arrived before it started 
+                 * threads of their own; hang them under it.
+                 */
+                for (String childId : idx.takeWaiting(msgId)) {
+                    ThreadIndex.Entry child = idx.get(childId);
+                    if (child == null || child.getDepth() != 0 
+                            || child.getThreadId() == self.getThreadId())
+                        continue;
+                    reroot(idx, self, child, mail, mlt);
+                    updatedThreads++;
+                }
+            }
+            
+            processedEmails++;
+            if (processedEmails % COMMIT_INTERVAL == 0) {
+                if (!dbs.commitDBSession()) {
+                    warn("Commit failed, stopping thread update for list " 
+                            + ml.getListId());
+                    return;
+                }
+            }
             progress = (float)((double)processedEmails / (double)mmList.size()) * 100;
         }
-        dbs.startDBSession();
+        
+        if (dbs.isDBSessionActive() && !dbs.commitDBSession()) {
+            warn("Commit failed, stopping thread update for list " 
+                    + ml.getListId());
+            return;
+        }
+        saveIndex(idx);
+        
         info("Mail thread updater - " + ml.getListId() + " " + processedEmails
                 + " new emails, " + newThreads + " new threads, " + updatedThreads 
                 + " thread updates" );
-
-        if (dbs.isDBSessionActive()) dbs.commitDBSession();
-    }   
+    }
+    
+    /*
+     * Parse the headers of a stored message, leaving its body unread.
+     */
+    private InternetHeaders headers(String fileName) 
+        throws IOException, MessagingException {
+        InputStream in = mailAccessor.getMessageStream(ml.getListId(), fileName);
+        try {
+            return new InternetHeaders(in);
+        } finally {
+            in.close();
+        }
+    }
+    
+    /*
+     * Candidate parent message-ids, nearest first: In-Reply-To, then the
+     * References chain from its end, which by RFC 2822 names the parent.
+     */
+    private List<String> references(InternetHeaders headers) {
+        List<String> result = new ArrayList<String>();
+        String inReplyTo = headers.getHeader("In-Reply-To", " ");
+        String references = headers.getHeader("References", " ");
+        
+        if (inReplyTo != null) {
+            Matcher m = messageId.matcher(inReplyTo);
+            if (m.find())
+                result.add(m.group());
+        }
+        
+        if (references != null) {
+            List<String> refs = new ArrayList<String>();
+            Matcher m = messageId.matcher(references);
+            while (m.find())
+                refs.add(m.group());
+            for (int i = refs.size() - 1; i >= 0; i--)
+                if (!result.contains(refs.get(i)))
+                    result.add(refs.get(i));
+        }
+        return result;
+    }
+    
+    /*
+     * Make the thread started by child part of the root's thread and 
+     * delete the emptied thread. Depths are shifted with a single 
+     * statement instead of walking the thread.
+     */
+    private void reroot(ThreadIndex idx, ThreadIndex.Entry root, 
+            ThreadIndex.Entry child, MailMessage rootMail, 
+            MailingListThread rootThread) {
+        int shift = root.getDepth() + 1;
+        MailingListThread old = dbs.findObjectById(MailingListThread.class, 
+                child.getThreadId());
+        
+        debug("Reconstructing thread " + old.getId() + " under " 
+                + rootThread.getId());
+        
+        /* Changes in the session must not overwrite the bulk updates */
+        dbs.flushDBSession();
+        
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("newThread", rootThread);
+        params.put("oldThread", old);
+        params.put("shift", shift);
+        dbs.executeUpdate("update MailMessage set thread = :newThread, " +
+        		"depth = depth + :shift where thread = :oldThread", params);
+        
+        params.clear();
+        params.put("parent", rootMail);
+        params.put("child", child.getMailId());
+        dbs.executeUpdate("update MailMessage set parent = :parent " +
+        		"where id = :child", params);
+        
+        if (old.getLastUpdated() != null && (rootThread.getLastUpdated() == null
+                || rootThread.getLastUpdated().before(old.getLastUpdated())))
+            rootThread.setLastUpdated(old.getLastUpdated());
+        
+        /* 
+         * Bulk deletes too: deleting through the session would cascade to
+         * the thread's messages as it last saw them.
+         */
+        params.clear();
+        params.put("oldThread", old);
+        dbs.executeUpdate("delete from MailingListThreadMeasurement " +
+                "where thread = :oldThread", params);
+        params.clear();
+        params.put("oldId", old.getId());
+        dbs.executeUpdate("delete from MailingListThread " +
+                "where id = :oldId", params);
+        
+        idx.moveThread(old.getId(), rootThread.getId(), shift);
+        child.parentId = root.getMailId();
+    }
+    
+    /*
+     * Load the list's thread index, or rebuild it from the database if it
+     * is missing or out of sync with it.
+     */
+    private ThreadIndex loadIndex() {
+        File f = ThreadIndex.indexFile(ml.getId());
+        ThreadIndex idx = null;
+        try {
+            idx = ThreadIndex.load(f);
+        } catch (IOException e) {
+            warn("Cannot read thread index " + f + ": " + e.getMessage());
+        }
+        
+        Map<String,Object> params = new HashMap<String, Object>(1);
+        params.put("ml", ml);
+        List<?> count = dbs.doHQL("select count(distinct mm.messageId) " +
+        		"from MailMessage mm " +
+        		"where mm.list = :ml and mm.thread is not null", params);
+        long threaded = ((Long) count.get(0)).longValue();
+        
+        if (idx != null && idx.size() == threaded)
+            return idx;
+        
+        info("Rebuilding thread index for list " + ml.getListId());
+        idx = new ThreadIndex();
+        List<Object[]> rows = (List<Object[]>) dbs.doHQL(
+                "select mm.messageId, mm.id, mm.thread.id, mm.depth, p.id " +
+                "from MailMessage mm left join mm.parent p " +
+                "where mm.list = :ml and mm.thread is not null " +
+                "order by mm.sendDate asc", params);
+        for (Object[] row : rows) {
+            if (row[0] == null || idx.get((String) row[0]) != null)
+                continue;
+            idx.add((String) row[0], (Long) row[1], (Long) row[2], 
+                    row[4] == null ? -1 : (Long) row[4], (Integer) row[3]);
+        }
+        return idx;
+    }
+    
+    private void saveIndex(ThreadIndex idx) {
+        File f = ThreadIndex.indexFile(ml.getId());
+        try {
+            idx.save(f);
+        } catch (IOException e) {
+            warn("Cannot save thread index " + f + ": " + e.getMessage());
+        }
+    }
     
     @Override
     public String toString() {
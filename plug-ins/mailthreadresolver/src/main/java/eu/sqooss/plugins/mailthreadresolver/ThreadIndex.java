@@ -0,0 +1,256 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2010 - Organization for Free and Open Source Software,
+ *                  Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.mailthreadresolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message-id based threading index for a single mailing list. For every 
+ * threaded message it keeps the thread it belongs to, its depth in the 
+ * thread and its parent, so that placing a new message in a thread is a 
+ * hash lookup per referenced message-id. It also remembers message-ids 
+ * that were referenced before the message they name arrived, so that 
+ * threads can be re-rooted when it does.
+ * <p>
+ * The index is saved to a file per mailing list, in the directory named
+ * by the <code>eu.sqooss.mlthread.dir</code> property (defaults to the
+ * system temporary directory).
+ */
+public class ThreadIndex {
+    
+    public static final String INDEX_DIR = "eu.sqooss.mlthread.dir";
+    
+    private static final int MAGIC = 0x4d4c5449; // MLTI
+    private static final int VERSION = 1;
+    
+    /** Index record for a threaded message */
+    public static class Entry {
+        final String messageId;
+        final long mailId;
+        long threadId;
+        long parentId;
+        int depth;
+        
+        Entry(String messageId, long mailId, long threadId, long parentId, 
+                int depth) {
+            this.messageId = messageId;
+            this.mailId = mailId;
+            this.threadId = threadId;
+            this.parentId = parentId;
+            this.depth = depth;
+        }
+        
+        public long getMailId() { return mailId; }
+        public long getThreadId() { return threadId; }
+        public long getParentId() { return parentId; }
+        public int getDepth() { return depth; }
+    }
+    
+    private final Map<String, Entry> messages = new HashMap<String, Entry>();
+    private final Map<Long, List<Entry>> threads = new HashMap<Long, List<Entry>>();
+    private final Map<String, List<String>> waiting = new HashMap<String, List<String>>();
+    
+    /**
+     * Get the index entry for a message-id, or null if the message has not
+     * been threaded yet.
+     */
+    public Entry get(String messageId) {
+        return messages.get(messageId);
+    }
+    
+    /** Number of threaded messages in the index */
+    public int size() {
+        return messages.size();
+    }
+    
+    /**
+     * Record a message as placed in a thread. The parent id is the 
+     * database id of the parent message, or -1 for thread roots.
+     */
+    public Entry add(String messageId, long mailId, long threadId, 
+            long parentId, int depth) {
+        Entry e = new Entry(messageId, mailId, threadId, parentId, depth);
+        Entry old = messages.put(messageId, e);
+        if (old != null)
+            members(old.threadId).remove(old);
+        members(threadId).add(e);
+        return e;
+    }
+    
+    /**
+     * Remember that a message referred to a message-id that is not in 
+     * the index yet.
+     */
+    public void addWaiting(String referenced, String messageId) {
+        List<String> l = waiting.get(referenced);
+        if (l == null) {
+            l = new ArrayList<String>(1);
+            waiting.put(referenced, l);
+        }
+        l.add(messageId);
+    }
+    
+    /**
+     * Get and forget the messages that referred to a message-id before 
+     * it was indexed.
+     */
+    public List<String> takeWaiting(String messageId) {
+        List<String> l = waiting.remove(messageId);
+        if (l == null)
+            return Collections.emptyList();
+        return l;
+    }
+    
+    /**
+     * Move all messages of a thread to another one, shifting their depth.
+     * This mirrors a bulk update of the same messages in the database.
+     */
+    public void moveThread(long from, long to, int shift) {
+        List<Entry> moved = threads.remove(from);
+        if (moved == null)
+            return;
+        for (Entry e : moved) {
+            e.threadId = to;
+            e.depth += shift;
+        }
+        members(to).addAll(moved);
+    }
+    
+    private List<Entry> members(long threadId) {
+        List<Entry> l = threads.get(threadId);
+        if (l == null) {
+            l = new ArrayList<Entry>();
+            threads.put(threadId, l);
+        }
+        return l;
+    }
+    
+    /**
+     * The file the index for a mailing list is stored to.
+     */
+    public static File indexFile(long mailingListId) {
+        String dir = System.getProperty(INDEX_DIR);
+        if (dir == null)
+            dir = System.getProperty("java.io.tmpdir");
+        return new File(dir, "mlthread-" + mailingListId + ".idx");
+    }
+    
+    /**
+     * Load an index from a file.
+     * 
+     * @return The index or null if the file does not exist
+     * @throws IOException If the file cannot be read or is not an index 
+     */
+    public static ThreadIndex load(File f) throws IOException {
+        if (!f.exists())
+            return null;
+        
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a thread index: " + f);
+            
+            ThreadIndex idx = new ThreadIndex();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                idx.add(in.readUTF(), in.readLong(), in.readLong(), 
+                        in.readLong(), in.readInt());
+            }
+            
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String ref = in.readUTF();
+                int k = in.readInt();
+                for (int j = 0; j < k; j++)
+                    idx.addWaiting(ref, in.readUTF());
+            }
+            return idx;
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Save the index to a file. The index is written to a temporary file
+     * first, so an interrupted save leaves the previous index in place.
+     */
+    public void save(File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            
+            out.writeInt(messages.size());
+            for (Entry e : messages.values()) {
+                out.writeUTF(e.messageId);
+                out.writeLong(e.mailId);
+                out.writeLong(e.threadId);
+                out.writeLong(e.parentId);
+                out.writeInt(e.depth);
+            }
+            
+            out.writeInt(waiting.size());
+            for (Map.Entry<String, List<String>> w : waiting.entrySet()) {
+                out.writeUTF(w.getKey());
+                out.writeInt(w.getValue().size());
+                for (String id : w.getValue())
+                    out.writeUTF(id);
+            }
+        } finally {
+            out.close();
+        }
+        
+        if (f.exists() && !f.delete())
+            throw new IOException("Cannot replace " + f);
+        if (!tmp.renameTo(f))
+            throw new IOException("Cannot rename " + tmp + " to " + f);
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -1,13 +1,17 @@
 package eu.sqooss.plugins.moduleresolver;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.Directory;
 import eu.sqooss.service.db.ProjectFile;
+import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.fds.FileTypeMatcher;
@@ -24,7 +28,25 @@ public class ModuleResolver implements MetadataUpdater {
     private static final String notProcessed = "select distinct(pv) " +
     		"from ProjectFile pf, ProjectVersion pv " +
     		"where pf.projectVersion = pv and pf.module is null " +
-    		"and pv.project = :sp";
+    		"and pv.project = :sp " +
+    		"order by pv.sequence";
+
+    /* Entries changed in a version, without loading the entities */
+    private static final String versionEntries = "select pf.id, pf.name, " +
+            "pf.isDirectory, d.path, pf.state.status " +
+            "from ProjectFile pf join pf.dir d " +
+            "where pf.projectVersion = :pv";
+
+    /* Module flags of the directory entries replaced by a version */
+    private static final String replacedDirs = "select d.path, pf.name, pf.module " +
+            "from ProjectFile pf join pf.dir d " +
+            "where pf.validUntil = :prev " +
+            "and pf.isDirectory = true " +
+            "and pf.state.status <> :deleted";
+
+    /** Max number of ids in a single update statement */
+    private static final int UPDATE_CHUNK = 
+        Integer.getInteger("eu.sqooss.moduleresolver.chunk", 500);
 
     private StoredProject sp;
     private Logger log;
@@ -62,27 +84,123 @@ public class ModuleResolver implements MetadataUpdater {
             if (!db.isDBSessionActive()) db.startDBSession();
             pv = db.attachObjectToDBSession(pv);
             log.info("ModuleResolver: Processing version: " + pv);
-            for (ProjectFile pf : pv.allDirs()) {
+            processVersion(pv);
+            progress = ((float)i / (float)toProcess.size());
+            db.commitDBSession();
+        }
+    }
 
-                List<ProjectFile> pfs = pf.getProjectVersion().getFiles(
-                        Directory.getDirectory(pf.getFileName(), false),
-                        ProjectVersion.MASK_FILES);
+    /*
+     * Only directories whose contents changed in a version get a new
+     * entry in it, so only those need to be looked at. A changed directory
+     * is a module if a source file was added or changed in it. Otherwise,
+     * it keeps the flag of the entry it replaces, unless a source file was
+     * deleted from it; only then are its contents listed.
+     */
+    private void processVersion(ProjectVersion pv) {
+        FileTypeMatcher ftm = FileTypeMatcher.getInstance();
 
-                FileTypeMatcher ftm = FileTypeMatcher.getInstance();
-                for (ProjectFile f : pfs) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("pv", pv);
+        List<Object[]> entries = (List<Object[]>) db.doHQL(versionEntries, params);
+
+        // Directory entries by path, file changes by parent directory path
+        Map<String, Long> dirs = new HashMap<String, Long>();
+        Set<String> deletedDirs = new HashSet<String>();
+        Set<String> addedDirs = new HashSet<String>();
+        Set<String> srcChanged = new HashSet<String>();
+        Set<String> srcDeleted = new HashSet<String>();
+        List<Long> notModules = new ArrayList<Long>();
 
-                    if ((pf.isModule() == null || pf.isModule() == false) &&
-                            ftm.getFileType(f.getName()) == FileTypeMatcher.FileType.SRC) {
-                        log.debug("ModuleResolver: Source code module: " + pf);
-                        pf.setModule(true);
-                    }
-                    f.setModule(false);
+        for (Object[] entry : entries) {
+            String name = (String) entry[1];
+            String parent = (String) entry[3];
+            int status = (Integer) entry[4];
+            if ((Boolean) entry[2]) {
+                String path = parent.endsWith("/") ? parent + name : parent + "/" + name;
+                if (status == ProjectFileState.STATE_DELETED) {
+                    deletedDirs.add(path);
+                    notModules.add((Long) entry[0]);
+                } else {
+                    dirs.put(path, (Long) entry[0]);
+                    if (status == ProjectFileState.STATE_ADDED)
+                        addedDirs.add(path);
                 }
-                if (pf.isModule() == null)
-                    pf.setModule(false);
+                continue;
             }
-            progress = ((float)i / (float)toProcess.size());
-            db.commitDBSession();
+            notModules.add((Long) entry[0]);
+            if (ftm.getFileType(name) != FileTypeMatcher.FileType.SRC)
+                continue;
+            if (status == ProjectFileState.STATE_DELETED)
+                srcDeleted.add(parent);
+            else
+                srcChanged.add(parent);
+        }
+
+        Map<String, Boolean> replaced = new HashMap<String, Boolean>();
+        ProjectVersion prev = pv.getPreviousVersion();
+        if (prev != null && !dirs.isEmpty()) {
+            params.clear();
+            params.put("prev", prev);
+            params.put("deleted", ProjectFileState.STATE_DELETED);
+            for (Object[] row : (List<Object[]>) db.doHQL(replacedDirs, params)) {
+                String parent = (String) row[0];
+                replaced.put(parent.endsWith("/") ? parent + row[1] : parent + "/" + row[1],
+                        (Boolean) row[2]);
+            }
+        }
+
+        List<Long> modules = new ArrayList<Long>();
+        for (Map.Entry<String, Long> dir : dirs.entrySet()) {
+            String path = dir.getKey();
+            Boolean module = null;
+            if (srcChanged.contains(path)) {
+                module = true;
+            } else if (addedDirs.contains(path)) {
+                module = false;
+            } else if (!srcDeleted.contains(path)) {
+                module = replaced.get(path);
+            }
+
+            if (module == null)
+                module = hasSources(pv, path, ftm);
+
+            if (module) {
+                log.debug("ModuleResolver: Source code module: " + path);
+                modules.add(dir.getValue());
+            } else {
+                notModules.add(dir.getValue());
+            }
+        }
+
+        setModule(modules, true);
+        setModule(notModules, false);
+    }
+
+    /* List the contents of a directory, the slow way */
+    private boolean hasSources(ProjectVersion pv, String path, 
+            FileTypeMatcher ftm) {
+        Directory d = Directory.getDirectory(path, false);
+        if (d == null)
+            return false;
+        for (ProjectFile f : pv.getFiles(d, ProjectVersion.MASK_FILES))
+            if (ftm.getFileType(f.getName()) == FileTypeMatcher.FileType.SRC)
+                return true;
+        return false;
+    }
+
+    private void setModule(List<Long> ids, boolean module) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("module", module);
+        for (int i = 0; i < ids.size(); i += UPDATE_CHUNK) {
+            StringBuilder in = new StringBuilder();
+            for (Long id : ids.subList(i, Math.min(ids.size(), i + UPDATE_CHUNK))) {
+                if (in.length() > 0)
+                    in.append(',');
+                in.append(id);
+            }
+            db.executeUpdate("update ProjectFile set module = :module " +
+                    "where id in (" + in + ")", params);
         }
     }
 
@@ -34,11 +34,13 @@
 package eu.sqooss.plugins.tds.svn;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.net.URI;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -48,11 +50,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
 import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNProperty;
 import org.tmatesoft.svn.core.SVNRevisionProperty;
@@ -63,7 +67,6 @@ import org.tmatesoft.svn.core.internal.io.svn.SVNRepositoryFactoryImpl;
 import org.tmatesoft.svn.core.io.ISVNEditor;
 import org.tmatesoft.svn.core.io.ISVNReporterBaton;
 import org.tmatesoft.svn.core.io.SVNRepository;
-import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.wc.ISVNAnnotateHandler;
 import org.tmatesoft.svn.core.wc.SVNDiffClient;
 import org.tmatesoft.svn.core.wc.SVNLogClient;
@@ -75,8 +78,11 @@ import eu.sqooss.service.logging.Logger;
 import eu.sqooss.service.tds.AccessorException;
 import eu.sqooss.service.tds.AnnotatedLine;
 import eu.sqooss.service.tds.CommitLog;
+import eu.sqooss.service.tds.CommitStats;
+import eu.sqooss.service.tds.CommitStatsCache;
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.DiffFactory;
+import eu.sqooss.service.tds.DiffVisitor;
 import eu.sqooss.service.tds.InvalidProjectRevisionException;
 import eu.sqooss.service.tds.InvalidRepositoryException;
 import eu.sqooss.service.tds.PathChangeType;
@@ -86,10 +92,31 @@ import eu.sqooss.service.tds.SCMNode;
 import eu.sqooss.service.tds.SCMNodeType;
 import eu.sqooss.service.util.FileUtils;
 
-public class SVNAccessorImpl implements SCMAccessor {
+public class SVNAccessorImpl implements SCMAccessor, Closeable {
+    
+    /** Maximum number of concurrent connections per project repository */
+    private static final int MAX_CONNECTIONS = 
+        Integer.getInteger("eu.sqooss.svn.connections", 4);
+    
+    /** Number of revisions requested per log call when resolving revisions */
+    private static final int LOG_WINDOW = 
+        Integer.getInteger("eu.sqooss.svn.logwindow", 500);
+    
+    /** Number of unclaimed files kept by the prefetcher */
+    private static final int PREFETCH_FILES = 
+        Integer.getInteger("eu.sqooss.svn.prefetch.files", 128);
+    
+    /** Files larger than this are not prefetched */
+    private static final long PREFETCH_MAX_SIZE = 
+        Long.getLong("eu.sqooss.svn.prefetch.maxsize", 512 * 1024);
+    
     private String url;
     private String projectname;
-    private SVNRepository svnRepository = null;
+    private volatile SVNConnectionPool pool = null;
+    private SVNFilePrefetcher prefetcher = null;
+    private SVNLogRing logRing = new SVNLogRing(4 * LOG_WINDOW);
+    private String locationPath = null;
+    private long lastPrefetched = -1;
     private Logger logger = null;
 
     private static List<URI> supportedSchemes;
@@ -139,21 +166,67 @@ public class SVNAccessorImpl implements SCMAccessor {
     
     /**
      * Connect to the repository named in the constructor (the URL
-     * is stored in this.url); may set the repo to null on error.
+     * is stored in this.url); may set the pool to null on error.
      */
-    private void connectToRepository()
+    private synchronized void connectToRepository()
         throws InvalidRepositoryException {
+        if (pool != null) {
+            return;
+        }
         try {
-            svnRepository = SVNRepositoryFactory.create(SVNURL.parseURIEncoded(url));
-            // All access is assumed to be anonynmous, so no
-            // authentication manager is used.
+            SVNConnectionPool p = new SVNConnectionPool(url, MAX_CONNECTIONS);
+            prefetcher = new SVNFilePrefetcher(p, projectname, 
+                    PREFETCH_FILES, PREFETCH_MAX_SIZE);
+            pool = p;
         } catch (SVNException e) {
             logger.error("Could not create SVN repository connection for " + url +
                 e.getMessage());
-            svnRepository = null;
+            pool = null;
             throw new InvalidRepositoryException(url,e.getMessage());
         }
     }
+    
+    /**
+     * Get a connection from the pool; it must be returned with 
+     * {@link #release(SVNRepository)} when done.
+     */
+    private SVNRepository acquire() throws InvalidRepositoryException {
+        if (pool == null) {
+            connectToRepository();
+        }
+        try {
+            return pool.acquire();
+        } catch (SVNException e) {
+            throw new InvalidRepositoryException(url, e.getMessage());
+        }
+    }
+    
+    private void release(SVNRepository repo) {
+        pool.release(repo);
+    }
+    
+    /**
+     * Drop a connection an SVNException was thrown on, as its session
+     * may be in any state. Returns null, which {@link #release(SVNRepository)}
+     * ignores.
+     */
+    private SVNRepository discard(SVNRepository repo) {
+        pool.discard(repo);
+        return null;
+    }
+    
+    /**
+     * Stop prefetching and close the pooled connections. Called by the
+     * TDS when the accessor is dropped, e.g. when this plug-in is 
+     * unregistered.
+     */
+    public synchronized void close() {
+        if (pool == null)
+            return;
+        prefetcher.shutdown();
+        pool.close();
+        logger.info("Closed SCMAccessor for " + url);
+    }
 
     /**
      * For a ProjectRevision which has only got a date associated
@@ -172,10 +245,14 @@ public class SVNAccessorImpl implements SCMAccessor {
         }
 
         long revno = -1;
+        SVNRepository repo = acquire();
         try {
-            revno = svnRepository.getDatedRevision(r.getDate());
+            revno = repo.getDatedRevision(r.getDate());
         } catch (SVNException e) {
+            repo = discard(repo);
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            release(repo);
         }
        
         return revno;
@@ -191,19 +268,28 @@ public class SVNAccessorImpl implements SCMAccessor {
                     "Can only resolve revisions with a SVN version.", getClass());
         }
 
+        SVNLogEntry cached = logRing.get(r.getSVNRevision());
+        if (cached != null && cached.getDate() != null) {
+            return cached.getDate();
+        }
+        
         Date d = null;
         String date = "";
+        SVNRepository repo = acquire();
         try {
-            date = svnRepository.getRevisionPropertyValue(r.getSVNRevision(),
+            date = repo.getRevisionPropertyValue(r.getSVNRevision(),
                     SVNRevisionProperty.DATE).getString();
             SimpleDateFormat dateParser = new SimpleDateFormat("y-M-d'T'H:m:s.S'Z'");
             d = dateParser.parse(date);
         } catch (SVNException e) {
+            repo = discard(repo);
             throw new InvalidRepositoryException(url, e.getMessage());
         } catch (ParseException pe) {
             throw new InvalidProjectRevisionException("Cannot parse date "
                     + date + " for revision " + r.getSVNRevision() + " "
                     + pe.getMessage(), getClass());
+        } finally {
+            release(repo);
         }
         if (d == null) {
             logger.warn("Resolved date is null");
@@ -217,15 +303,16 @@ public class SVNAccessorImpl implements SCMAccessor {
      */
     private long getHeadSVNRevision() throws InvalidRepositoryException {
         long endRevision = -1;
-        if (svnRepository == null) {
-            connectToRepository();
-        }
+        SVNRepository repo = acquire();
         try {
-            endRevision = svnRepository.getLatestRevision();
+            endRevision = repo.getLatestRevision();
         } catch (SVNException e) {
+            repo = discard(repo);
             logger.warn("Could not get latest revision of " + url
                     + e.getMessage());
             throw new InvalidRepositoryException(url, e.getMessage());
+        } finally {
+            release(repo);
         }
 
         return endRevision;
@@ -235,15 +322,16 @@ public class SVNAccessorImpl implements SCMAccessor {
      * Dummy check to see if revision 1 is indeed the first revision. 
      */
     private long getFirstSVNRevision() throws InvalidRepositoryException {
-        if (svnRepository == null) {
-            connectToRepository();
-        }
+        SVNRepository repo = acquire();
         try {
-            svnRepository.getRevisionPropertyValue(0, SVNProperty.REVISION);
+            repo.getRevisionPropertyValue(0, SVNProperty.REVISION);
         } catch (SVNException e) {
+            repo = discard(repo);
             logger.warn("Could not get revision 0 from repository " + url + 
                     e.getMessage());
             throw new InvalidRepositoryException(url, e.getMessage());
+        } finally {
+            release(repo);
         }
 
         return 0;
@@ -312,12 +400,7 @@ public class SVNAccessorImpl implements SCMAccessor {
                 return spr;
             }
             
-            List<SVNLogEntry> log = Collections.EMPTY_LIST;
-            if (svnrev.getSVNRevision() + 1 < getHeadSVNRevision())
-                log = getSVNLog("", svnrev.getSVNRevision(), svnrev.getSVNRevision() + 1);
-            else 
-                log = getSVNLog("", svnrev.getSVNRevision(), -1);
-            SVNLogEntry full = log.iterator().next();
+            SVNLogEntry full = getLogEntry(svnrev.getSVNRevision());
             return new SVNProjectRevision(full, "");
         } catch (InvalidRepositoryException e) {
             logger.error("Revision " + r + " of project " + projectname
@@ -332,15 +415,95 @@ public class SVNAccessorImpl implements SCMAccessor {
     private List<SVNLogEntry> getSVNLog(String repoPath, long revstart,
             long revend) throws InvalidRepositoryException {
         ArrayList<SVNLogEntry> l = new ArrayList<SVNLogEntry>();
+        SVNRepository repo = acquire();
         try {
-            svnRepository.log(new String[] { repoPath }, l, revstart, revend,
+            repo.log(new String[] { repoPath }, l, revstart, revend,
                     true, true);
         } catch (SVNException e) {
+            repo = discard(repo);
             throw new InvalidRepositoryException(url, e.getMessage());
+        } finally {
+            release(repo);
         }
         return l;
     }
     
+    /**
+     * Get the full log entry for a revision. Revisions are almost always
+     * resolved in sequence, so instead of a log request per revision, 
+     * a window of entries starting at the requested one is retrieved and
+     * kept in the log ring. 
+     */
+    private SVNLogEntry getLogEntry(long revision) 
+        throws InvalidRepositoryException {
+        SVNLogEntry entry = logRing.get(revision);
+        if (entry != null) {
+            return entry;
+        }
+        
+        long head = getHeadSVNRevision();
+        long end = Math.min(head, revision + LOG_WINDOW - 1);
+        List<SVNLogEntry> log = getSVNLog("", revision, end);
+        for (SVNLogEntry e : log) {
+            logRing.put(e);
+            if (e.getRevision() == revision) {
+                entry = e;
+            }
+        }
+        
+        if (entry == null) {
+            /* Empty or unreadable revisions might be missing from the log */
+            log = getSVNLog("", revision, revision);
+            if (log.isEmpty()) {
+                throw new InvalidRepositoryException(url, 
+                        "No log entry for revision " + revision);
+            }
+            entry = log.get(0);
+        }
+        return entry;
+    }
+    
+    /**
+     * Start fetching the files changed in a revision over the pooled 
+     * connections, once per revision.
+     */
+    private void prefetchChanged(long revno) {
+        synchronized (this) {
+            if (revno == lastPrefetched) {
+                return;
+            }
+            lastPrefetched = revno;
+        }
+        
+        SVNLogEntry entry = logRing.get(revno);
+        if (entry == null || entry.getChangedPaths() == null) {
+            return;
+        }
+        
+        if (locationPath == null) {
+            try {
+                locationPath = getSubProjectPath();
+            } catch (InvalidRepositoryException e) {
+                return;
+            }
+        }
+        String prefix = locationPath.equals("/") ? "" : locationPath;
+        List<String> paths = new ArrayList<String>();
+        for (Object o : entry.getChangedPaths().entrySet()) {
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            SVNLogEntryPath lep = (SVNLogEntryPath) e.getValue();
+            if (lep.getType() == SVNLogEntryPath.TYPE_DELETED) {
+                continue;
+            }
+            String path = (String) e.getKey();
+            if (!path.equals(prefix) && !path.startsWith(prefix + "/")) {
+                continue;
+            }
+            paths.add(path.substring(prefix.length()));
+        }
+        prefetcher.prefetch(revno, paths);
+    }
+    
     // Interface methods
     /** {@inheritDoc}} */
     public boolean isValidRevision(Revision r) {
@@ -439,9 +602,6 @@ public class SVNAccessorImpl implements SCMAccessor {
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
                FileNotFoundException {
-        if (svnRepository == null) {
-            connectToRepository();
-        }
         SVNCheckoutEditor.logger = logger;
         SVNCheckoutBaton.logger = logger;
 
@@ -456,12 +616,7 @@ public class SVNAccessorImpl implements SCMAccessor {
                     getClass());
         }
          
-        SVNNodeKind nodeKind;
-        try {
-            nodeKind = svnRepository.checkPath(repoPath, svnrev.getSVNRevision());
-        } catch (SVNException e) {
-            throw new FileNotFoundException(repoPath);
-        }
+        SVNNodeKind nodeKind = checkPath(repoPath, svnrev.getSVNRevision());
 
         // Handle the various kinds of nodes that repoPath may refer to
         if ((SVNNodeKind.NONE == nodeKind) || (SVNNodeKind.UNKNOWN == nodeKind)) {
@@ -481,10 +636,14 @@ public class SVNAccessorImpl implements SCMAccessor {
         ISVNReporterBaton baton = new SVNCheckoutBaton(svnrev.getSVNRevision());
         ISVNEditor editor = new SVNCheckoutEditor(svnrev.getSVNRevision(),localPath);
 
+        SVNRepository repo = acquire();
         try {
-            svnRepository.update(svnrev.getSVNRevision(),repoPath,true,baton,editor);
+            repo.update(svnrev.getSVNRevision(),repoPath,true,baton,editor);
         } catch (SVNException e) {
+            repo = discard(repo);
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            release(repo);
         }
     }
 
@@ -493,9 +652,6 @@ public class SVNAccessorImpl implements SCMAccessor {
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
                FileNotFoundException {
-        if (svnRepository == null) {
-            connectToRepository();
-        }
         SVNCheckoutEditor.logger = logger;
         SVNCheckoutBaton.logger = logger;
 
@@ -515,12 +671,7 @@ public class SVNAccessorImpl implements SCMAccessor {
                     getClass());
         }
         
-        SVNNodeKind nodeKind;
-        try {
-            nodeKind = svnRepository.checkPath(repoPath, svndst.getSVNRevision());
-        } catch (SVNException e) {
-            throw new FileNotFoundException(repoPath);
-        }
+        SVNNodeKind nodeKind = checkPath(repoPath, svndst.getSVNRevision());
 
         // Handle the various kinds of nodes that repoPath may refer to
         if ( (SVNNodeKind.NONE == nodeKind) ||
@@ -542,11 +693,32 @@ public class SVNAccessorImpl implements SCMAccessor {
             svndst.getSVNRevision());
         ISVNEditor editor = new SVNCheckoutEditor(svndst.getSVNRevision(),localPath);
 
+        SVNRepository repo = acquire();
         try {
-            svnRepository.update(svndst.getSVNRevision(),repoPath,true,baton,editor);
+            repo.update(svndst.getSVNRevision(),repoPath,true,baton,editor);
         } catch (SVNException e) {
+            repo = discard(repo);
             e.printStackTrace();
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            release(repo);
+        }
+    }
+    
+    /**
+     * Node kind of a path, on a pooled connection.
+     */
+    private SVNNodeKind checkPath(String repoPath, long revno)
+        throws InvalidRepositoryException,
+               FileNotFoundException {
+        SVNRepository repo = acquire();
+        try {
+            return repo.checkPath(repoPath, revno);
+        } catch (SVNException e) {
+            repo = discard(repo);
+            throw new FileNotFoundException(repoPath);
+        } finally {
+            release(repo);
         }
     }
 
@@ -556,7 +728,7 @@ public class SVNAccessorImpl implements SCMAccessor {
                InvalidRepositoryException,
                FileNotFoundException {
         // Connect to the repository if a connection has not yet been created
-        if (svnRepository == null) {
+        if (pool == null) {
             connectToRepository();
         }
         
@@ -568,8 +740,29 @@ public class SVNAccessorImpl implements SCMAccessor {
         }        
         long revno = svnrev.getSVNRevision();
         
+        /* 
+         * Files are usually requested for all paths changed in a 
+         * revision, so fetch the rest of them while this one is processed
+         */
+        byte[] prefetched = prefetcher.take(revno, repoPath);
+        if (prefetched == null) {
+            prefetchChanged(revno);
+            prefetched = prefetcher.take(revno, repoPath);
+        }
+        if (prefetched != null) {
+            try {
+                stream.write(prefetched);
+                stream.close();
+            } catch (IOException e) {
+                logger.warn("Failed to write output stream on SVN request." + e 
+                        + " Revision:" + revision);
+            }
+            return;
+        }
+        
+        SVNRepository repo = acquire();
         try {
-            SVNNodeKind nodeKind = svnRepository.checkPath(repoPath, revno);
+            SVNNodeKind nodeKind = repo.checkPath(repoPath, revno);
             logger.debug(projectname + ": Requesting path " + repoPath
                     + ", revision " + revno + ", nodeKind="
                     + nodeKind.toString());
@@ -598,14 +791,17 @@ public class SVNAccessorImpl implements SCMAccessor {
                 throw new FileNotFoundException(repoPath + " (unknown)");
             }
 
-            svnRepository.getFile(repoPath, revno, null, stream);
+            repo.getFile(repoPath, revno, null, stream);
             stream.close();
         } catch (SVNException e) {
+            repo = discard(repo);
             throw new FileNotFoundException(e.getMessage());
         } catch (IOException e) {
             logger.warn("Failed to close output stream on SVN request." + e 
                     + " Revision:" + revision);
             // Swallow this exception.
+        } finally {
+            release(repo);
         }
     }
 
@@ -631,7 +827,7 @@ public class SVNAccessorImpl implements SCMAccessor {
     public CommitLog getCommitLog(String repoPath, Revision r1, Revision r2)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException {
-        if (svnRepository == null) {
+        if (pool == null) {
             connectToRepository();
         }
         
@@ -663,6 +859,9 @@ public class SVNAccessorImpl implements SCMAccessor {
         SVNCommitLogImpl result = new SVNCommitLogImpl();
         while (i.hasNext()) {
             SVNLogEntry entry = i.next();
+            if ("".equals(repoPath) || "/".equals(repoPath)) {
+                logRing.put(entry);
+            }
             result.getEntries().add(new SVNProjectRevision(entry, ""));
         }
         
@@ -674,7 +873,7 @@ public class SVNAccessorImpl implements SCMAccessor {
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
                FileNotFoundException {
-        if (svnRepository == null) {
+        if (pool == null) {
             connectToRepository();
         }
 
@@ -703,12 +902,7 @@ public class SVNAccessorImpl implements SCMAccessor {
         		+ r2.getUniqueId() + " of path " + projectname + ":" 
         		+ repoPath);
         
-        SVNNodeKind nodeKind;
-        try {
-            nodeKind = svnRepository.checkPath(repoPath, revstart);
-        } catch (SVNException e) {
-            throw new FileNotFoundException(repoPath);
-        }
+        SVNNodeKind nodeKind = checkPath(repoPath, revstart);
 
         // Handle the various kinds of nodes that repoPath may refer to
         if ( (SVNNodeKind.NONE == nodeKind) ||
@@ -717,10 +911,11 @@ public class SVNAccessorImpl implements SCMAccessor {
             throw new FileNotFoundException(repoPath);
         }
 
+        SVNRepository repo = acquire();
         try {
-            SVNDiffClient d = new SVNDiffClient(svnRepository.getAuthenticationManager(),null);
+            SVNDiffClient d = new SVNDiffClient(repo.getAuthenticationManager(),null);
             ByteArrayOutputStream diff = new ByteArrayOutputStream();
-            SVNURL u = svnRepository.getLocation().appendPath(repoPath,true);
+            SVNURL u = repo.getLocation().appendPath(repoPath,true);
             d.doDiff(u,
                 SVNRevision.create(revstart),
                 SVNRevision.create(revstart),
@@ -734,16 +929,94 @@ public class SVNAccessorImpl implements SCMAccessor {
            
             return theDiff;
         } catch (SVNException e) {
+            repo = discard(repo);
+            logger.warn(e.getMessage());
+            throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            release(repo);
+        }
+    }
+
+    /**{@inheritDoc}*/
+    public CommitStats getCommitStats(Revision r)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {
+        if (pool == null) {
+            connectToRepository();
+        }
+        
+        SVNProjectRevision rev = resolveRevision(r); 
+        if (rev == null) {
+            throw new InvalidProjectRevisionException("Invalid revision " + r, 
+                    getClass());
+        }
+        
+        CommitStatsCache cache = CommitStatsCache.getInstance();
+        CommitStats stats = cache.get(url, rev.getUniqueId());
+        if (stats != null) {
+            return stats;
+        }
+        
+        final CommitStats result = new CommitStats(rev.getUniqueId());
+        long revno = rev.getSVNRevision();
+        if (revno <= 0) {
+            cache.put(url, result);
+            return result;
+        }
+        
+        /*
+         * A single diff of the whole repository between the revision and
+         * its predecessor, streamed through the diff parser keeping only 
+         * the per file counts. 
+         */
+        SVNRepository repo = acquire();
+        try {
+            SVNDiffClient d = new SVNDiffClient(repo.getAuthenticationManager(),null);
+            ByteArrayOutputStream diff = new ByteArrayOutputStream();
+            SVNURL root = repo.getRepositoryRoot(true);
+            d.doDiff(root,
+                SVNRevision.create(revno),
+                SVNRevision.create(revno - 1),
+                SVNRevision.create(revno),
+                true,
+                false,
+                diff);
+            
+            DiffVisitor v = new DiffVisitor() {
+                public void startFile(String path) {}
+                public void hunk(String path, int sourceStart, int sourceLength,
+                        int targetStart, int targetLength, int added, int removed) {}
+                public void propertyChange(String path) {}
+                public void endFile(String path, int added, int removed) {
+                    result.add(path, added, removed);
+                }
+            };
+            
+            if (!DiffFactory.getInstance().parseUnifiedDiff(
+                    new StringReader(diff.toString()), "/", v)) {
+                throw new InvalidRepositoryException(url, 
+                        "Cannot parse diff for revision " + revno);
+            }
+        } catch (SVNException e) {
+            repo = discard(repo);
             logger.warn(e.getMessage());
             throw new InvalidRepositoryException(url,e.getMessage());
-        } 
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            release(repo);
+        }
+        
+        cache.put(url, result);
+        return result;
     }
 
     /**{@inheritDoc}*/
     public SCMNodeType getNodeType(String repoPath, Revision r)
             throws InvalidRepositoryException {
+        SVNRepository repo = acquire();
         try {
-            SVNNodeKind k = svnRepository.checkPath(repoPath, ((SVNProjectRevision)r).getSVNRevision());
+            SVNNodeKind k = repo.checkPath(repoPath, ((SVNProjectRevision)r).getSVNRevision());
             if (k == SVNNodeKind.DIR)
                 return SCMNodeType.DIR;
             
@@ -753,22 +1026,29 @@ public class SVNAccessorImpl implements SCMAccessor {
             return SCMNodeType.UNKNOWN;
             
         } catch (SVNException e) {
+            repo = discard(repo);
             logger.warn(e.getMessage());
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            release(repo);
         }
     }
 
     /**{@inheritDoc}*/
     public String getSubProjectPath() throws InvalidRepositoryException {
-        if (svnRepository == null) {
+        if (pool == null) {
             connectToRepository();
         }
 
+        SVNRepository repo = acquire();
         try {
-            return svnRepository.getRepositoryPath("");
+            return repo.getRepositoryPath("");
         } catch (SVNException e) {
+            repo = discard(repo);
             logger.warn(e.getMessage());
             throw new InvalidRepositoryException( url, e.getMessage());
+        } finally {
+            release(repo);
         }
     }
 
@@ -786,7 +1066,7 @@ public class SVNAccessorImpl implements SCMAccessor {
 		
 		ArrayList<SCMNode> contents = new ArrayList<SCMNode>();
 		
-		 if (svnRepository == null) {
+		 if (pool == null) {
 			 connectToRepository();
 		 }
 		 
@@ -797,8 +1077,9 @@ public class SVNAccessorImpl implements SCMAccessor {
 		 
 		 Collection<SVNDirEntry> svnContents = new Vector<SVNDirEntry>();
 		 
+		 SVNRepository repo = acquire();
 		 try {
-			svnRepository.getDir(dir.getPath(), 
+			repo.getDir(dir.getPath(), 
 					Long.parseLong(dir.getRevision().getUniqueId()), 
 					false, svnContents);
 			
@@ -818,8 +1099,11 @@ public class SVNAccessorImpl implements SCMAccessor {
 		} catch (NumberFormatException e) {
 			logger.warn("Not an SVN revision: " + dir.getRevision().getUniqueId());
 		} catch (SVNException e) {
+			repo = discard(repo);
 			logger.warn("Error getting dir contents for path " + dir.getPath());
-		} 
+		} finally {
+			release(repo);
+		}
 		 
 		return contents;
 	}
@@ -828,7 +1112,7 @@ public class SVNAccessorImpl implements SCMAccessor {
 	public SCMNode getNode(String path, Revision r)
 			throws InvalidRepositoryException {
 		
-		 if (svnRepository == null) {
+		 if (pool == null) {
 			 connectToRepository();
 		 }
 		 
@@ -0,0 +1,174 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.svn;
+
+import java.util.LinkedList;
+
+import org.tmatesoft.svn.core.SVNCancelException;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+/**
+ * A bounded pool of connections to a single repository. 
+ * {@link SVNRepository} instances are not thread safe and each one keeps
+ * a single session open, so concurrent requests for the same project
+ * either need a connection each or have to be serialized. The pool 
+ * creates connections lazily, up to a limit; callers block when all
+ * of them are in use.
+ * 
+ * Typical use is:
+ * <pre>
+ * SVNRepository repo = pool.acquire();
+ * try {
+ *     ...
+ * } catch (SVNException e) {
+ *     pool.discard(repo);
+ *     repo = null;
+ *     ...
+ * } finally {
+ *     pool.release(repo);
+ * }
+ * </pre>
+ */
+public class SVNConnectionPool {
+
+    private final SVNURL url;
+    private final int max;
+    private int created = 0;
+    private boolean closed = false;
+    private LinkedList<SVNRepository> idle = new LinkedList<SVNRepository>();
+    
+    public SVNConnectionPool(String url, int max) throws SVNException {
+        this.url = SVNURL.parseURIEncoded(url);
+        this.max = Math.max(1, max);
+    }
+    
+    /**
+     * Get a connection, creating one if none is idle and the limit has
+     * not been reached, otherwise wait until one is returned.
+     * 
+     * @throws SVNCancelException if interrupted while waiting
+     * @throws SVNException if the pool is closed or the connection 
+     * cannot be created
+     */
+    public SVNRepository acquire() throws SVNException {
+        synchronized (this) {
+            while (!closed && idle.isEmpty() && created >= max) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SVNCancelException(SVNErrorMessage.create(
+                            SVNErrorCode.CANCELLED, 
+                            "Interrupted while waiting for a connection to " + url));
+                }
+            }
+            if (closed)
+                throw new SVNException(SVNErrorMessage.create(
+                        SVNErrorCode.RA_SVN_CONNECTION_CLOSED, 
+                        "Connection pool for " + url + " is closed"));
+            if (!idle.isEmpty())
+                return idle.removeFirst();
+            created++;
+        }
+        
+        try {
+            // All access is assumed to be anonynmous, so no
+            // authentication manager is used.
+            return SVNRepositoryFactory.create(url);
+        } catch (SVNException e) {
+            synchronized (this) {
+                created--;
+                notify();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Return a connection to the pool. Connections returned after the 
+     * pool is closed are closed too.
+     */
+    public synchronized void release(SVNRepository repo) {
+        if (repo == null)
+            return;
+        if (closed) {
+            discard(repo);
+            return;
+        }
+        idle.addFirst(repo);
+        notify();
+    }
+    
+    /**
+     * Drop a connection that is in an unknown state after an error, 
+     * instead of releasing it.
+     */
+    public synchronized void discard(SVNRepository repo) {
+        if (repo == null)
+            return;
+        repo.closeSession();
+        created--;
+        notify();
+    }
+    
+    public int getMaxConnections() {
+        return max;
+    }
+    
+    /** Number of open connections, idle or in use */
+    synchronized int size() {
+        return created;
+    }
+    
+    /**
+     * Close all idle connections, and the ones in use once they are 
+     * released. Further requests for connections fail.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (SVNRepository repo : idle) {
+            repo.closeSession();
+        }
+        created -= idle.size();
+        idle.clear();
+        notifyAll();
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
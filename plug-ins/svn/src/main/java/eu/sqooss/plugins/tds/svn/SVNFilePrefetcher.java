@@ -0,0 +1,184 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.svn;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Fetches the contents of files changed in a revision ahead of time,
+ * spreading the requests over the connections of a 
+ * {@link SVNConnectionPool}. Clients that process the files of a revision
+ * one after the other (e.g. metrics running on the files of a new version)
+ * then find most of them already transferred instead of waiting for a 
+ * request/response round trip per file.
+ * 
+ * Only files up to a size limit are prefetched, and the number of pending
+ * or unclaimed results is bounded; the oldest ones are dropped first.
+ */
+public class SVNFilePrefetcher {
+
+    private final SVNConnectionPool pool;
+    private final ExecutorService executor;
+    private final int maxEntries;
+    private final long maxSize;
+    
+    private Map<String, Future<byte[]>> pending;
+    
+    public SVNFilePrefetcher(SVNConnectionPool pool, final String name, 
+            int maxEntries, long maxSize) {
+        this.pool = pool;
+        this.maxEntries = maxEntries;
+        this.maxSize = maxSize;
+        this.pending = new LinkedHashMap<String, Future<byte[]>>();
+        
+        //Leave one connection for the callers
+        int threads = Math.max(1, pool.getMaxConnections() - 1);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            int num = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SVN prefetch " + name + " " + (num++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    /**
+     * Queue the given paths for retrieval at the given revision. Paths
+     * already queued are ignored.
+     */
+    public synchronized void prefetch(final long revision, Collection<String> paths) {
+        if (executor.isShutdown())
+            return;
+        for (final String path : paths) {
+            String key = key(revision, path);
+            if (pending.containsKey(key))
+                continue;
+            
+            Future<byte[]> f = executor.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return fetch(path, revision);
+                }
+            });
+            pending.put(key, f);
+        }
+        
+        //Drop the oldest entries
+        Iterator<Future<byte[]>> i = pending.values().iterator();
+        while (pending.size() > maxEntries && i.hasNext()) {
+            i.next().cancel(false);
+            i.remove();
+        }
+    }
+    
+    /**
+     * Claim the contents of a prefetched file. Waits if the file is 
+     * still being transferred. 
+     * 
+     * @return The file contents or null if the file was not prefetched
+     * or could not be retrieved; the caller should fetch it directly.
+     */
+    public byte[] take(long revision, String path) {
+        Future<byte[]> f;
+        synchronized (this) {
+            f = pending.remove(key(revision, path));
+        }
+        if (f == null)
+            return null;
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Drop all pending results and stop the prefetch threads. Later
+     * prefetch requests are ignored.
+     */
+    public synchronized void shutdown() {
+        for (Future<byte[]> f : pending.values()) {
+            f.cancel(false);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+    
+    private byte[] fetch(String path, long revision) throws SVNException {
+        SVNRepository repo = pool.acquire();
+        try {
+            SVNDirEntry e = repo.info(path, revision);
+            if (e == null || e.getKind() != SVNNodeKind.FILE 
+                    || e.getSize() > maxSize) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) e.getSize());
+            repo.getFile(path, revision, null, out);
+            return out.toByteArray();
+        } catch (SVNException e) {
+            pool.discard(repo);
+            repo = null;
+            throw e;
+        } finally {
+            pool.release(repo);
+        }
+    }
+    
+    private static String key(long revision, String path) {
+        return revision + ":" + path;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,73 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.svn;
+
+import org.tmatesoft.svn.core.SVNLogEntry;
+
+/**
+ * Fixed size cache of log entries indexed by revision number. Entries
+ * are stored in slot <code>revision % size</code>, so a window of 
+ * consecutive revisions fetched ahead of time fits without collisions
+ * as long as it is smaller than the ring, and old windows are 
+ * overwritten as the updater moves forward.
+ */
+public class SVNLogRing {
+
+    private final SVNLogEntry[] ring;
+    
+    public SVNLogRing(int size) {
+        ring = new SVNLogEntry[Math.max(1, size)];
+    }
+    
+    public synchronized SVNLogEntry get(long revision) {
+        SVNLogEntry e = ring[slot(revision)];
+        if (e != null && e.getRevision() == revision)
+            return e;
+        return null;
+    }
+    
+    public synchronized void put(SVNLogEntry entry) {
+        ring[slot(entry.getRevision())] = entry;
+    }
+    
+    public int size() {
+        return ring.length;
+    }
+    
+    private int slot(long revision) {
+        return (int) (revision % ring.length);
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,224 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.updater.svn;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.sqooss.service.db.ProjectFile;
+
+/**
+ * In-memory trie of the live files of a project, as of the last processed
+ * revision. Each node holds the latest {@link ProjectFile} record for its
+ * path, so that the updater can find previous file versions, directory
+ * contents and copy sources without querying the database. Changes of a
+ * revision are applied in one go after the revision has been processed; 
+ * until then, lookups return the state of the previous revision. 
+ * 
+ * Each node also records the last revision that changed anything below
+ * it. A subtree that has not changed since an older revision is the 
+ * same as it was at that revision, so copies from older revisions can 
+ * be served from the tree as well.
+ */
+public class SVNFileTree {
+
+    private static class Node {
+        ProjectFile file;
+        long changed;
+        Map<String, Node> children;
+        
+        Node child(String name, boolean create) {
+            if (children == null) {
+                if (!create)
+                    return null;
+                children = new HashMap<String, Node>(4);
+            }
+            Node n = children.get(name);
+            if (n == null && create) {
+                n = new Node();
+                children.put(name, n);
+            }
+            return n;
+        }
+    }
+    
+    private Node root = new Node();
+    private String revision;
+    private int size = 0;
+    
+    public SVNFileTree(ProjectFile rootDir, String revision) {
+        this.root.file = rootDir;
+        this.root.changed = Long.parseLong(revision);
+        this.revision = revision;
+    }
+    
+    /**
+     * The revision the tree state corresponds to.
+     */
+    public String getRevision() {
+        return revision;
+    }
+    
+    /** Number of live entries in the tree */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Get the live record for the provided path.
+     */
+    public ProjectFile get(String path) {
+        Node n = find(path, false);
+        return n == null ? null : n.file;
+    }
+    
+    /**
+     * Check whether the path and everything below it are in the same state
+     * as they were at the provided revision. Returns false if the path does
+     * not exist, as there is no way to know whether it existed then.
+     */
+    public boolean isUnchangedSince(String path, String revision) {
+        Node n = find(path, false);
+        if (n == null || n.file == null)
+            return false;
+        try {
+            return n.changed <= Long.parseLong(revision);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Get the live records contained in a directory.
+     * 
+     * @param dirs Return directories if true, files otherwise
+     */
+    public List<ProjectFile> list(String path, boolean dirs) {
+        Node n = find(path, false);
+        if (n == null || n.children == null) {
+            return Collections.emptyList();
+        }
+        List<ProjectFile> result = new ArrayList<ProjectFile>();
+        for (Node child : n.children.values()) {
+            if (child.file != null && child.file.getIsDirectory() == dirs) {
+                result.add(child.file);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Apply the records of a processed revision to the tree. Deleted 
+     * entries remove their whole subtree; all other entries become the
+     * live record for their path.
+     */
+    public void apply(List<ProjectFile> files, String revision) {
+        long rev = Long.parseLong(revision);
+        for (ProjectFile pf : files) {
+            if (pf.isDeleted()) {
+                remove(pf.getFileName(), rev);
+            }
+        }
+        for (ProjectFile pf : files) {
+            if (!pf.isDeleted()) {
+                Node n = root;
+                n.changed = rev;
+                for (String part : split(pf.getFileName())) {
+                    n = n.child(part, true);
+                    n.changed = rev;
+                }
+                if (n.file == null) 
+                    size++;
+                n.file = pf;
+            }
+        }
+        this.revision = revision;
+    }
+    
+    private void remove(String path, long rev) {
+        String[] parts = split(path);
+        if (parts.length == 0)
+            return;
+        Node parent = root;
+        root.changed = rev;
+        for (int i = 0; i < parts.length - 1 && parent != null; i++) {
+            parent = parent.child(parts[i], false);
+            if (parent != null)
+                parent.changed = rev;
+        }
+        if (parent == null || parent.children == null)
+            return;
+        Node n = parent.children.remove(parts[parts.length - 1]);
+        if (n != null) 
+            size -= count(n);
+    }
+    
+    private int count(Node n) {
+        int c = (n.file != null) ? 1 : 0;
+        if (n.children != null) {
+            for (Node child : n.children.values()) {
+                c += count(child);
+            }
+        }
+        return c;
+    }
+    
+    private Node find(String path, boolean create) {
+        Node n = root;
+        for (String part : split(path)) {
+            n = n.child(part, create);
+            if (n == null)
+                return null;
+        }
+        return n;
+    }
+    
+    private static String[] split(String path) {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                if (i > start)
+                    parts.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return parts.toArray(new String[parts.size()]);
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
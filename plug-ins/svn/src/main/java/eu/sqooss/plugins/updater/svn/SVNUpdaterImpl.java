@@ -72,7 +72,9 @@ import eu.sqooss.service.util.FileUtils;
 /**
  * Update SVN metadata by synchronizing the latest version available to
  * the metadata database with the latest version available to the 
- * repository.
+ * repository. Initial imports run in bulk mode: the live file tree is
+ * tracked in a {@link SVNFileTree} and the database session is committed
+ * every <code>eu.sqooss.updater.svn.bulk.commit</code> revisions. 
  */
 @Updater(descr = "Subversion repository importer", 
         protocols = {"svn", "svn-http", "svn-file"},
@@ -87,6 +89,11 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     private static final String PROJECT_SCM_PATHS_TRUNK = "eu.sqooss.project.scm.svn.trunk";
     private static final String PROJECT_SCM_PATHS_BRANCH = "eu.sqooss.project.scm.svn.branch";
     private static final String PROJECT_SCM_PATHS_TAG = "eu.sqooss.project.scm.svn.tag";
+    private static final String BULK_IMPORT = "eu.sqooss.updater.svn.bulk";
+    private static final String BULK_COMMIT = "eu.sqooss.updater.svn.bulk.commit";
+    
+    /* Max number of ids inlined in a single bulk update */
+    private static final int ID_CHUNK = 500;
     
     private enum HandleCopies {
         TRUNK, BRANCHES, TAGS
@@ -116,7 +123,17 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     private boolean ommitFileless = false;
     
     /* Avoid Hibernate thrashing by caching frequently accessed directories */
-    private LRUMap dirCache = new LRUMap(200);
+    private Map dirCache = new LRUMap(200);
+    
+    /* 
+     * Bulk import mode: the live file tree is kept in memory instead of
+     * being queried and the session is committed every few revisions.
+     */
+    private SVNFileTree tree = null;
+    private int bulkCommit = 1;
+    
+    /* Parent link of the currently processed version */
+    private ProjectVersionParent curParent;
     
     /* Container for all project file records for each processed version*/
     private List<ProjectFile> versionFiles = new ArrayList<ProjectFile>();
@@ -183,6 +200,7 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                 + " ID " + project.getId());
         
         CommitLog commitLog = null;
+        ProjectFile root = null;
         
         try {
             // This is the last version we actually know about
@@ -207,7 +225,7 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                 zero.setRevisionId("0");
                 zero.setSequence(0);
                 dbs.addRecord(zero);
-                ProjectFile root = new ProjectFile(zero);
+                root = new ProjectFile(zero);
                 root.setIsDirectory(true);
                 root.setDir(getDirectory("/", true));
                 root.setName("");
@@ -224,6 +242,19 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                     scm.getHeadRevision());
             info("New revisions: " + commitLog.size());
             
+            /*
+             * When importing from scratch, the whole state of the project
+             * is known as it is being built, so there is no need to query
+             * it back from the database.
+             */
+            if (root != null && !"false".equals(System.getProperty(BULK_IMPORT))) {
+                tree = new SVNFileTree(root, "0");
+                dirCache = new HashMap<String, Directory>();
+                bulkCommit = Math.max(1, Integer.getInteger(BULK_COMMIT, 100));
+                info("Importing in bulk mode, committing every " + bulkCommit 
+                        + " revisions");
+            }
+            
             for (Revision entry : commitLog) {
                 versionFiles.clear();
                 commitLogEntry = entry;
@@ -273,6 +304,12 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                 				"Not removing");
                 	} else {
                 		debug(msg + ". Removing");
+                		if (tree != null) {
+                		    /* Other revisions are pending in the session */
+                		    dbs.deleteRecord(curParent);
+                		    dbs.deleteRecord(curVersion);
+                		    continue;
+                		}
                 		//dbs.deleteRecord(curVersion);
                 		dbs.rollbackDBSession();
                         dbs.startDBSession();
@@ -288,7 +325,18 @@ public class SVNUpdaterImpl implements MetadataUpdater {
               	updateValidUntil(curVersion);
 
                 numRevisions++;
-                dirCache.clear();
+                progress = (float) (((double)numRevisions / (double)commitLog.size()) * 100);
+                
+                if (tree != null) {
+                    tree.apply(versionFiles, curVersion.getRevisionId());
+                    if (numRevisions % bulkCommit != 0) {
+                        continue;
+                    }
+                    debug("Committing at revision " + curVersion.getRevisionId() 
+                            + ", " + tree.size() + " live files");
+                } else {
+                    dirCache.clear();
+                }
 
                 if (!dbs.commitDBSession()) {
                     warn("Intermediate commit failed, failing update");
@@ -296,7 +344,6 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                     return;
                 }
                 dbs.startDBSession();
-                progress = (float) (((double)numRevisions / (double)commitLog.size()) * 100);
             }
             info("Processed " + numRevisions + " revisions");
         } catch (InvalidRepositoryException e) {
@@ -393,6 +440,7 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         curVersion.setSequence(prev.getSequence() + 1);
         ProjectVersionParent pvp = new ProjectVersionParent(curVersion, prev);
         dbs.addRecord(pvp);
+        curParent = pvp;
         
         debug("Got version " + curVersion.getRevisionId() + 
                 " ID " + curVersion.getId());
@@ -460,10 +508,16 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         	}
         	
             ProjectFile copyFrom = null;
-            copyFrom = ProjectFile.findFile(project.getId(), 
+            boolean fromTree = (tree != null) && 
+                tree.isUnchangedSince(cce.fromPath(), cce.fromRev().getUniqueId());
+            if (fromTree) {
+                copyFrom = tree.get(cce.fromPath());
+            } else {
+                copyFrom = ProjectFile.findFile(project.getId(), 
                         FileUtils.basename(cce.fromPath()), 
                         FileUtils.dirname(cce.fromPath()), 
                         cce.fromRev().getUniqueId());
+            }
                 
             /* Source location is an entry we do not have info for, 
              * due to updater settings. Use the SCM to retrieve
@@ -508,7 +562,7 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                 debug("Copying directory " + from.getPath()
                         + " (from r" + cce.fromRev().getUniqueId()
                         + ") to " + to.getPath());
-                handleDirCopy(curVersion, 
+                handleDirCopy(curVersion, fromTree ? null :
                         ProjectVersion.getVersionByRevision(curVersion.getProject(),
                         cce.fromRev().getUniqueId()), from, to, copyFrom);
             } else {
@@ -563,7 +617,8 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                  * but something else. So we need to check on deletes
                  * whether this name was most recently a directory.
                  */
-                ProjectFile lastIncarnation = toAdd.getPreviousFileVersion();
+                ProjectFile lastIncarnation = (tree != null) ? 
+                        tree.get(chPath) : toAdd.getPreviousFileVersion();
                 
                 /*
                  * If a directory is deleted and its previous incarnation cannot
@@ -685,7 +740,8 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         List<ProjectFile> chFiles = new ArrayList<ProjectFile>(this.versionFiles);
         
         for (ProjectFile pf : chFiles) {
-            ProjectFile parent = pf.getEnclosingDirectory();
+            ProjectFile parent = (tree != null) ? 
+                    tree.get(pf.getDir().getPath()) : pf.getEnclosingDirectory();
             
             //Parent dir not in the DB, it should be added in this revision
             if (parent == null) {
@@ -783,9 +839,14 @@ public class SVNUpdaterImpl implements MetadataUpdater {
             return;
         }
 
-        ProjectVersion prev = pv.getPreviousVersion();
-        
-        List<ProjectFile> files = prev.getFiles(d);
+        List<ProjectFile> files;
+        if (tree != null) {
+            files = new ArrayList<ProjectFile>(tree.list(d.getPath(), true));
+            files.addAll(tree.list(d.getPath(), false));
+        } else {
+            ProjectVersion prev = pv.getPreviousVersion();
+            files = prev.getFiles(d);
+        }
         
         for (ProjectFile f : files) {
             if (f.getIsDirectory()) {
@@ -836,7 +897,8 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     }
     
     /**
-     * Handle directory copies
+     * Handle directory copies. If <code>fromVersion</code> is null, the
+     * copied contents are read from the in-memory file tree.
      */
     private void handleDirCopy(ProjectVersion pv, ProjectVersion fromVersion,
             Directory from, Directory to, ProjectFile copyFrom) {
@@ -847,14 +909,18 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         addFile(pv, to.getPath(), ProjectFileState.added(), SCMNodeType.DIR, copyFrom);
         
         /*Recursively copy directories*/
-        List<ProjectFile> fromPF = fromVersion.getFiles(from, ProjectVersion.MASK_DIRECTORIES);
+        List<ProjectFile> fromPF = (fromVersion == null) ? 
+                tree.list(from.getPath(), true) :
+                fromVersion.getFiles(from, ProjectVersion.MASK_DIRECTORIES);
         
         for (ProjectFile f : fromPF) {
             handleDirCopy(pv, fromVersion, getDirectory(f.getFileName(), false), 
                     getDirectory(to.getPath() + "/" + f.getName(), true), f);
         }
         
-        fromPF = fromVersion.getFiles(from, ProjectVersion.MASK_FILES);
+        fromPF = (fromVersion == null) ? 
+                tree.list(from.getPath(), false) :
+                fromVersion.getFiles(from, ProjectVersion.MASK_FILES);
         
         for (ProjectFile f : fromPF) {
             addFile(pv, to.getPath() + "/" + f.getName(),
@@ -870,10 +936,15 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     private void handleDirCopyFromRepository(ProjectVersion pv,
 			SCMNode fromFile, String to) {
 
-    	ProjectFile dest = ProjectFile.findFile(project.getId(), 
+    	ProjectFile dest = null;
+    	if (tree != null) {
+    	    dest = tree.get(to);
+    	} else {
+    	    dest = ProjectFile.findFile(project.getId(), 
                 FileUtils.basename(to), 
                 FileUtils.dirname(to), 
                 fromFile.getRevision().getUniqueId());
+    	}
     	
     	ProjectFileState pfs = ProjectFileState.added();
     	
@@ -912,17 +983,49 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     private void updateValidUntil(ProjectVersion pv) {
 
         ProjectVersion previous = pv.getPreviousVersion();
+        List<Long> closed = new ArrayList<Long>();
 
         for (ProjectFile pf : versionFiles) {
             if (!pf.isAdded()) {
-                ProjectFile old = pf.getPreviousFileVersion();
-                old.setValidUntil(previous);
+                ProjectFile old = null;
+                if (tree != null) {
+                    old = tree.get(pf.getFileName());
+                    if (old == null)
+                        old = pf.getCopyFrom();
+                } else {
+                    old = pf.getPreviousFileVersion();
+                }
+                
+                if (old != null) {
+                    old.setValidUntil(previous);
+                    closed.add(old.getId());
+                }
             }
 
             if (pf.isDeleted()) {
                 pf.setValidUntil(pv);
             }
         }
+        
+        /* 
+         * In bulk mode, records from earlier transactions are no longer
+         * attached to the session, so they are updated in place. 
+         */
+        if (tree == null || closed.isEmpty()) {
+            return;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("until", previous);
+        for (int i = 0; i < closed.size(); i += ID_CHUNK) {
+            StringBuilder ids = new StringBuilder();
+            for (Long id : closed.subList(i, Math.min(closed.size(), i + ID_CHUNK))) {
+                if (ids.length() > 0)
+                    ids.append(',');
+                ids.append(id);
+            }
+            dbs.executeUpdate("update ProjectFile set validUntil = :until " +
+                    "where id in (" + ids + ")", params);
+        }
     }
 
 	/*
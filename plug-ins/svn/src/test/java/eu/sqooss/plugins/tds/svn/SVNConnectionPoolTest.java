@@ -0,0 +1,172 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.svn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNCancelException;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Connection accounting of {@link SVNConnectionPool}. Connections to a
+ * local repository URL are only opened on first use, so no repository
+ * is needed.
+ */
+public class SVNConnectionPoolTest {
+
+    private static final String URL = "file:///tmp/no-such-repository";
+
+    @BeforeClass
+    public static void setUp() {
+        FSRepositoryFactory.setup();
+    }
+
+    @Test
+    public void testReleaseReuses() throws SVNException {
+        SVNConnectionPool pool = new SVNConnectionPool(URL, 2);
+        SVNRepository a = pool.acquire();
+        assertEquals(1, pool.size());
+        pool.release(a);
+        assertSame(a, pool.acquire());
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testDiscardFreesSlot() throws SVNException {
+        SVNConnectionPool pool = new SVNConnectionPool(URL, 2);
+        SVNRepository a = pool.acquire();
+        SVNRepository b = pool.acquire();
+        assertNotSame(a, b);
+        assertEquals(2, pool.size());
+        pool.discard(a);
+        assertEquals(1, pool.size());
+        SVNRepository c = pool.acquire();
+        assertNotSame(a, c);
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        final SVNConnectionPool pool = new SVNConnectionPool(URL, 1);
+        SVNRepository a = pool.acquire();
+        final SVNRepository[] got = new SVNRepository[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    got[0] = pool.acquire();
+                } catch (SVNException ignored) {}
+            }
+        };
+        t.start();
+        t.join(200);
+        assertTrue(t.isAlive());
+        pool.release(a);
+        t.join(5000);
+        assertSame(a, got[0]);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testInterruptedAcquire() throws Exception {
+        final SVNConnectionPool pool = new SVNConnectionPool(URL, 1);
+        pool.acquire();
+        final Exception[] failure = new Exception[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    pool.acquire();
+                } catch (SVNException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        t.start();
+        t.join(200);
+        t.interrupt();
+        t.join(5000);
+        assertTrue(failure[0] instanceof SVNCancelException);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final SVNConnectionPool pool = new SVNConnectionPool(URL, 2);
+        SVNRepository a = pool.acquire();
+        pool.release(pool.acquire());
+        assertEquals(2, pool.size());
+
+        pool.close();
+        assertEquals(1, pool.size());
+        try {
+            pool.acquire();
+            fail("Acquired a connection from a closed pool");
+        } catch (SVNException expected) {}
+
+        // Connections in use are closed once released
+        pool.release(a);
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testCloseWakesWaiters() throws Exception {
+        final SVNConnectionPool pool = new SVNConnectionPool(URL, 1);
+        pool.acquire();
+        final Exception[] failure = new Exception[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    pool.acquire();
+                } catch (SVNException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        t.start();
+        t.join(200);
+        pool.close();
+        t.join(5000);
+        assertTrue(failure[0] != null);
+        assertTrue(!(failure[0] instanceof SVNCancelException));
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab